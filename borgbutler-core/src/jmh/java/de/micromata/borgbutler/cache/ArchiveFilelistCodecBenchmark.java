@@ -0,0 +1,80 @@
+package de.micromata.borgbutler.cache;
+
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compression codecs of file lists (compact encoding): writing, reading block by block and reading with
+ * parallel decompression ({@link ArchiveFilelistReader#readBlocks(int, int)}). The file sizes are printed during setup.
+ * <br>
+ * Run with <tt>gradle :borgbutler-core:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = {"-Xmx1500m"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArchiveFilelistCodecBenchmark {
+    @Param({"DEFLATE", "LZ4", "NONE"})
+    private String codecName;
+
+    private ArchiveFilelistCodec codec;
+
+    @Param({"1000000"})
+    private int numberOfItems;
+
+    private List<BorgFilesystemItem> items;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        codec = ArchiveFilelistCodec.valueOf(codecName);
+        items = ArchiveFilelistEncodingBenchmark.createItems(numberOfItems);
+        file = File.createTempFile("borgbutler-benchmark-", ".filelist");
+        write();
+        System.out.println();
+        System.out.println("Size of file list (" + codec + ", " + numberOfItems + " items): "
+                + String.format("%,d", file.length()) + " bytes.");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (ArchiveFilelistWriter writer = new ArchiveFilelistWriter(file, "repo", null,
+                ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE, ArchiveFilelistFormat.ENCODING_COMPACT, codec)) {
+            for (BorgFilesystemItem item : items) {
+                writer.add(item);
+            }
+        }
+    }
+
+    @Benchmark
+    public void readSequential(Blackhole blackhole) throws IOException {
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+                blackhole.consume(reader.readBlock(block));
+            }
+        }
+    }
+
+    @Benchmark
+    public void readParallel(Blackhole blackhole) throws IOException {
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file);
+             ArchiveFilelistReader.BlockIterator it = reader.readBlocks(0, reader.getBlockCount())) {
+            while (it.hasNext()) {
+                blackhole.consume(it.next());
+            }
+        }
+    }
+}
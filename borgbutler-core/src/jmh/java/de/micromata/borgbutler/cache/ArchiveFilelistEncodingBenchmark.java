@@ -0,0 +1,109 @@
+package de.micromata.borgbutler.cache;
+
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and speed of the Kryo encoding compared to the compact encoding of file lists. The file sizes are printed
+ * during setup.
+ * <br>
+ * Run with <tt>gradle :borgbutler-core:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = {"-Xmx1500m"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArchiveFilelistEncodingBenchmark {
+    @Param({"KRYO", "COMPACT"})
+    private String encoding;
+
+    @Param({"1000000"})
+    private int numberOfItems;
+
+    private List<BorgFilesystemItem> items;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        items = createItems(numberOfItems);
+        file = File.createTempFile("borgbutler-benchmark-", ".filelist");
+        write(file);
+        System.out.println();
+        System.out.println("Size of file list (" + encoding + ", " + numberOfItems + " items): "
+                + String.format("%,d", file.length()) + " bytes.");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        write(file);
+    }
+
+    @Benchmark
+    public void readAll(Blackhole blackhole) throws IOException {
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            for (int block = 0; block < reader.getBlockCount(); block++) {
+                blackhole.consume(reader.readBlock(block));
+            }
+        }
+    }
+
+    @Benchmark
+    public BorgFilesystemItem readItem() throws IOException {
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            return reader.readItem(numberOfItems / 2 + 13);
+        }
+    }
+
+    private void write(File file) throws IOException {
+        byte enc = "KRYO".equals(encoding) ? ArchiveFilelistFormat.ENCODING_KRYO : ArchiveFilelistFormat.ENCODING_COMPACT;
+        try (ArchiveFilelistWriter writer = new ArchiveFilelistWriter(file, "repo", null,
+                ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE, enc, ArchiveFilelistFormat.DEFAULT_CODEC)) {
+            for (BorgFilesystemItem item : items) {
+                writer.add(item);
+            }
+        }
+    }
+
+    /**
+     * Directories with 50 files each, a few users/modes and random file names, mtimes and sizes.
+     */
+    static List<BorgFilesystemItem> createItems(int numberOfItems) {
+        Random random = new Random(42);
+        String[] extensions = {".java", ".txt", ".jpg", ".class", ".xml", ".md"};
+        String[] users = {"kai", "root", "www"};
+        List<BorgFilesystemItem> list = new ArrayList<>(numberOfItems);
+        for (int dir = 0; list.size() < numberOfItems; dir++) {
+            String user = users[dir % users.length];
+            String path = "home/" + user + "/projects/project" + dir / 20 + "/src/main/java/de/micromata/module" + dir % 20;
+            list.add(new BorgFilesystemItem().setPath(path).setType("d").setMode("drwxr-xr-x").setUser(user)
+                    .setGroup("staff").setUid(501).setGid(20).setHealthy(true).setMtime("2018-11-22 10:15:00"));
+            for (int i = 0; i < 50 && list.size() < numberOfItems; i++) {
+                list.add(new BorgFilesystemItem()
+                        .setPath(path + "/File" + Integer.toHexString(random.nextInt()) + extensions[random.nextInt(extensions.length)])
+                        .setType("-").setMode(i % 10 == 0 ? "-rwxr-xr-x" : "-rw-r--r--").setUser(user).setGroup("staff")
+                        .setUid(501).setGid(20).setHealthy(true).setSource("")
+                        .setMtime(String.format("2018-%02d-%02d %02d:%02d:%02d", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                                random.nextInt(24), random.nextInt(60), random.nextInt(60)))
+                        .setSize(random.nextInt(1000000)));
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+}
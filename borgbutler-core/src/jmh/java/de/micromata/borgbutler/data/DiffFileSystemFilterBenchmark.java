@@ -0,0 +1,79 @@
+package de.micromata.borgbutler.data;
+
+import de.micromata.borgbutler.json.JsonUtils;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speed of the diff of two file lists of items parsed from Borg's output (every 100th item modified). The heap used
+ * per item is printed during setup.
+ * <br>
+ * Run with <tt>gradle :borgbutler-core:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = {"-Xmx1500m"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DiffFileSystemFilterBenchmark {
+    @Param({"1000000"})
+    private int numberOfItems;
+
+    private List<BorgFilesystemItem> items;
+    private List<BorgFilesystemItem> otherItems;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long usedMemory = getUsedMemory();
+        items = parseItems(numberOfItems, 0);
+        System.out.println();
+        System.out.println("Heap per item (including path): " + (getUsedMemory() - usedMemory) / numberOfItems + " bytes.");
+        otherItems = parseItems(numberOfItems, 100);
+    }
+
+    @Benchmark
+    public List<BorgFilesystemItem> extractDifferences() {
+        return new DiffFileSystemFilter().extractDifferences(items, otherItems);
+    }
+
+    /**
+     * Items as parsed by {@link de.micromata.borgbutler.BorgCommands#listArchiveContent}.
+     *
+     * @param modifiedInterval If greater than 0, the size of every n-th item differs.
+     */
+    private static List<BorgFilesystemItem> parseItems(int numberOfItems, int modifiedInterval) {
+        Random random = new Random(42);
+        String[] users = {"kai", "root", "www"};
+        List<BorgFilesystemItem> list = new ArrayList<>(numberOfItems);
+        for (int i = 0; i < numberOfItems; i++) {
+            String user = users[i % users.length];
+            int size = random.nextInt(1000000);
+            if (modifiedInterval > 0 && i % modifiedInterval == 0) {
+                ++size;
+            }
+            String line = "{\"type\": \"-\", \"mode\": \"" + (i % 10 == 0 ? "-rwxr-xr-x" : "-rw-r--r--") + "\", \"user\": \""
+                    + user + "\", \"group\": \"staff\", \"uid\": 501, \"gid\": 20, \"path\": \"home/" + user + "/dir" + i / 50
+                    + "/file" + i + ".txt\", \"healthy\": true, \"source\": \"\", \"linktarget\": \"\", \"flags\": null, \"mtime\": \""
+                    + String.format("2018-%02d-%02dT%02d:%02d:%02d.000000", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60)) + "\", \"size\": " + size + "}";
+            list.add(JsonUtils.fromJson(BorgFilesystemItem.class, line).intern());
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
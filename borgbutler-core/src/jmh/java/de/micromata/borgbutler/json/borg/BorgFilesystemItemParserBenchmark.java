@@ -0,0 +1,79 @@
+package de.micromata.borgbutler.json.borg;
+
+import de.micromata.borgbutler.json.JsonUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the output of <tt>borg list --json-lines</tt>: object mapper per line ({@link JsonUtils#fromJson(Class, String)},
+ * used before) compared to the streaming {@link BorgFilesystemItemParser}.
+ * <br>
+ * Run with <tt>gradle :borgbutler-core:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = {"-Xmx1500m"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BorgFilesystemItemParserBenchmark {
+    @Param({"100000"})
+    private int numberOfLines;
+
+    private List<String> lines;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        lines = createLines(numberOfLines);
+    }
+
+    @Benchmark
+    public void objectMapper(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(JsonUtils.fromJson(BorgFilesystemItem.class, line).intern());
+        }
+    }
+
+    @Benchmark
+    public void streamingParser(Blackhole blackhole) {
+        BorgFilesystemItemParser parser = new BorgFilesystemItemParser();
+        for (String line : lines) {
+            blackhole.consume(parser.parse(line));
+        }
+    }
+
+    /**
+     * Lines as written by Borg: directories with 50 files each, a few users/modes and random file names, mtimes and
+     * sizes.
+     */
+    private static List<String> createLines(int numberOfLines) {
+        Random random = new Random(42);
+        String[] extensions = {".java", ".txt", ".jpg", ".class", ".xml", ".md"};
+        String[] users = {"kai", "root", "www"};
+        List<String> list = new ArrayList<>(numberOfLines);
+        for (int dir = 0; list.size() < numberOfLines; dir++) {
+            String user = users[dir % users.length];
+            String path = "home/" + user + "/projects/project" + dir / 20 + "/src/main/java/de/micromata/module" + dir % 20;
+            list.add(createLine("d", "drwxr-xr-x", user, path, "2018-11-22T10:15:00.000000", 0));
+            for (int i = 0; i < 50 && list.size() < numberOfLines; i++) {
+                list.add(createLine("-", i % 10 == 0 ? "-rwxr-xr-x" : "-rw-r--r--", user,
+                        path + "/File" + Integer.toHexString(random.nextInt()) + extensions[random.nextInt(extensions.length)],
+                        String.format("2018-%02d-%02dT%02d:%02d:%02d.%06d", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                                random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000000)),
+                        random.nextInt(1000000)));
+            }
+        }
+        return list;
+    }
+
+    private static String createLine(String type, String mode, String user, String path, String mtime, long size) {
+        return "{\"type\": \"" + type + "\", \"mode\": \"" + mode + "\", \"user\": \"" + user + "\", \"group\": \"staff\", "
+                + "\"uid\": 501, \"gid\": 20, \"path\": \"" + path + "\", \"healthy\": true, \"source\": \"\", "
+                + "\"linktarget\": \"\", \"flags\": null, \"mtime\": \"" + mtime + "\", \"size\": " + size + "}";
+    }
+}
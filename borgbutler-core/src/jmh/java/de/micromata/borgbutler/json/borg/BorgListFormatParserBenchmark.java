@@ -0,0 +1,100 @@
+package de.micromata.borgbutler.json.borg;
+
+import org.apache.commons.exec.LogOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of listing archives: Borg's output of <tt>--json-lines</tt> (split into lines as done for the Borg process
+ * and parsed by {@link BorgFilesystemItemParser}) compared to the output of <tt>--format</tt> parsed by
+ * {@link BorgListFormatParser}. The output sizes are printed during setup.
+ * <br>
+ * Run with <tt>gradle :borgbutler-core:jmh</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = {"-Xmx1500m"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BorgListFormatParserBenchmark {
+    // Buffer size of the stream pumper of commons-exec:
+    private static final int CHUNK_SIZE = 1024;
+
+    @Param({"100000"})
+    private int numberOfItems;
+
+    private byte[] jsonLines;
+    private byte[] format;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ByteArrayOutputStream jsonOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream formatOut = new ByteArrayOutputStream();
+        Random random = new Random(42);
+        String[] extensions = {".java", ".txt", ".jpg", ".class", ".xml", ".md"};
+        String[] users = {"kai", "root", "www"};
+        int count = 0;
+        for (int dir = 0; count < numberOfItems; dir++) {
+            String user = users[dir % users.length];
+            String path = "home/" + user + "/projects/project" + dir / 20 + "/src/main/java/de/micromata/module" + dir % 20;
+            write(jsonOut, formatOut, "d", "drwxr-xr-x", user, path, "2018-11-22T10:15:00.000000", 0);
+            ++count;
+            for (int i = 0; i < 50 && count < numberOfItems; i++, count++) {
+                write(jsonOut, formatOut, "-", i % 10 == 0 ? "-rwxr-xr-x" : "-rw-r--r--", user,
+                        path + "/File" + Integer.toHexString(random.nextInt()) + extensions[random.nextInt(extensions.length)],
+                        String.format("2018-%02d-%02dT%02d:%02d:%02d.%06d", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                                random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000000)),
+                        random.nextInt(1000000));
+            }
+        }
+        jsonLines = jsonOut.toByteArray();
+        format = formatOut.toByteArray();
+        System.out.println();
+        System.out.println("Output of Borg (" + numberOfItems + " items): " + String.format("%,d", jsonLines.length)
+                + " bytes (--json-lines), " + String.format("%,d", format.length) + " bytes (--format).");
+    }
+
+    @Benchmark
+    public void jsonLines(Blackhole blackhole) throws IOException {
+        BorgFilesystemItemParser parser = new BorgFilesystemItemParser();
+        pump(jsonLines, new LogOutputStream() {
+            @Override
+            protected void processLine(String line, int level) {
+                blackhole.consume(parser.parse(line));
+            }
+        });
+    }
+
+    @Benchmark
+    public void format(Blackhole blackhole) throws IOException {
+        pump(format, new BorgListFormatParser(blackhole::consume));
+    }
+
+    private static void pump(byte[] bytes, OutputStream out) throws IOException {
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+            out.write(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset));
+        }
+        out.flush();
+    }
+
+    private static void write(ByteArrayOutputStream jsonOut, ByteArrayOutputStream formatOut, String type, String mode,
+                              String user, String path, String mtime, long size) throws IOException {
+        String json = "{\"type\": \"" + type + "\", \"mode\": \"" + mode + "\", \"user\": \"" + user + "\", \"group\": \"staff\", "
+                + "\"uid\": 501, \"gid\": 20, \"path\": \"" + path + "\", \"healthy\": true, \"source\": \"\", "
+                + "\"linktarget\": \"\", \"flags\": null, \"mtime\": \"" + mtime + "\", \"size\": " + size + "}\n";
+        jsonOut.write(json.getBytes(StandardCharsets.UTF_8));
+        for (String field : new String[]{type, mode, user, "staff", "501", "20", String.valueOf(size), mtime, "healthy",
+                "None", path, ""}) {
+            formatOut.write(field.getBytes(StandardCharsets.UTF_8));
+            formatOut.write(0);
+        }
+    }
+}
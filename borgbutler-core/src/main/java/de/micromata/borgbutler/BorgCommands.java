@@ -17,15 +17,41 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Creates and executes  borg commands by calling system's borg application (Borg must be installed).
  */
 public class BorgCommands {
     private static Logger log = LoggerFactory.getLogger(BorgCommands.class);
+    // Repos whose Borg failed listing archives with --format (list mode AUTO):
+    private static Set<String> listFormatUnsupportedRepos = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Result of {@link #listArchiveContent(BorgRepoConfig, Archive, Consumer)}.
+     */
+    public enum ListResult {
+        /**
+         * Borg has listed the archive, all items were passed to the consumer.
+         */
+        OK,
+        /**
+         * Borg failed (some items may have been passed to the consumer).
+         */
+        FAILED,
+        /**
+         * The same list command was already queued or running: Borg has listed the archive successfully, but the items
+         * were passed to the consumer of the other job, not to the given one.
+         */
+        LISTED_BY_OTHER_JOB
+    }
 
     /**
      * Executes borg --version
@@ -209,38 +235,144 @@ public class BorgCommands {
     }
 
     public static List<BorgFilesystemItem> listArchiveContent(BorgRepoConfig repoConfig, Archive archive) {
+        List<BorgFilesystemItem> items = new ArrayList<>();
+        return listArchiveContent(repoConfig, archive, items::add) == ListResult.OK ? items : null;
+    }
+
+    /**
+     * The items are passed to the given consumer while Borg is listing the archive (they aren't collected, so the
+     * consumer may stream them to disk). The output format is given by {@link BorgRepoConfig#getListMode()}.
+     *
+     * @param consumer Called by the thread processing Borg's output.
+     * @return {@link ListResult#LISTED_BY_OTHER_JOB}, if the consumer got no items, because the archive was listed by
+     * an already queued or running job.
+     */
+    public static ListResult listArchiveContent(BorgRepoConfig repoConfig, Archive archive, Consumer<BorgFilesystemItem> consumer) {
+        BorgRepoConfig.ListMode listMode = repoConfig.getListMode() != null ? repoConfig.getListMode() : BorgRepoConfig.ListMode.AUTO;
+        if (DemoRepos.isDemo(repoConfig.getRepo())) {
+            // The demo data is stored as JSON lines:
+            listMode = BorgRepoConfig.ListMode.JSON_LINES;
+        }
+        if (listMode == BorgRepoConfig.ListMode.FORMAT
+                || (listMode == BorgRepoConfig.ListMode.AUTO && !listFormatUnsupportedRepos.contains(repoConfig.getRepo()))) {
+            ListResult result = listArchiveContentWithFormat(repoConfig, archive, consumer);
+            if (result != null) {
+                return result;
+            }
+            if (listMode == BorgRepoConfig.ListMode.FORMAT) {
+                return ListResult.FAILED;
+            }
+            // Borg failed without any output, may-be the format isn't supported by the installed Borg version:
+            result = listArchiveContentWithJsonLines(repoConfig, archive, consumer);
+            if (result != ListResult.OK) {
+                return result;
+            }
+            log.warn("Listing the content of archive '" + archive.getName() + "' with --format failed, but with --json-lines not: using --json-lines for repo '"
+                    + repoConfig.getDisplayName() + "' from now on.");
+            listFormatUnsupportedRepos.add(repoConfig.getRepo());
+            return ListResult.OK;
+        }
+        return listArchiveContentWithJsonLines(repoConfig, archive, consumer);
+    }
+
+    private static ListResult listArchiveContentWithJsonLines(BorgRepoConfig repoConfig, Archive archive, Consumer<BorgFilesystemItem> consumer) {
         BorgCommand command = new BorgCommand()
                 .setRepoConfig(repoConfig)
                 .setCommand("list")
                 .setArchive(archive.getName())
                 .setParams("--json-lines")
                 .setDescription("Loading list of files of archive '" + archive.getName() + "' of repo '" + repoConfig.getDisplayName() + "'.");
-        // The returned job might be an already queued or running one!
-        final ProgressInfo progressInfo = new ProgressInfo()
-                .setMessage("Getting file list...")
-                .setCurrent(0);
-        if (archive.getStats() != null) // Occurs only for demo repos.
-            progressInfo.setTotal(archive.getStats().getNfiles());
-        BorgJob<List<BorgFilesystemItem>> job = BorgQueueExecutor.getInstance().execute(new BorgJob<List<BorgFilesystemItem>>(command) {
+        final ProgressInfo progressInfo = createListProgressInfo(archive);
+        BorgJob<Void> submittedJob = new BorgJob<Void>(command) {
+            // Millions of lines, so no object mapper is used:
+            private BorgFilesystemItemParser parser = new BorgFilesystemItemParser();
+
             @Override
             public void processStdOutLine(String line, int level) {
-                BorgFilesystemItem item = JsonUtils.fromJson(BorgFilesystemItem.class, line);
-                item.setMtime(DateUtils.format(item.getMtime()));
-                payload.add(item);
+                BorgFilesystemItem item = parser.parse(line);
+                if (item == null) {
+                    return;
+                }
+                consumer.accept(item);
                 if ("-".equals(item.getType())) {
                     // Only increment for files, because number of files is the total.
                     setProgressInfo(progressInfo.incrementCurrent());
                 }
             }
-        });
-        job.payload = new ArrayList<>();
+        };
+        BorgJob<Void> job = BorgQueueExecutor.getInstance().execute(submittedJob);
+        if (job != submittedJob) {
+            return getResultOfOtherJob(job);
+        }
         JobResult<String> jobResult = job.getResult();
         if (jobResult == null || jobResult.getStatus() != JobResult.Status.OK) {
-            return null;
+            return ListResult.FAILED;
         }
-        List<BorgFilesystemItem> items = job.payload;
-        job.cleanUp(); // payload will be released.
-        return items;
+        job.cleanUp();
+        return ListResult.OK;
+    }
+
+    /**
+     * Lists the archive content with <tt>--format</tt> (see {@link BorgListFormatParser}).
+     *
+     * @return The result or null, if Borg failed without any item (e. g. the format isn't supported by the Borg
+     * version).
+     */
+    private static ListResult listArchiveContentWithFormat(BorgRepoConfig repoConfig, Archive archive, Consumer<BorgFilesystemItem> consumer) {
+        BorgCommand command = new BorgCommand()
+                .setRepoConfig(repoConfig)
+                .setCommand("list")
+                .setArchive(archive.getName())
+                .setParams("--format", BorgListFormatParser.FORMAT)
+                .setDescription("Loading list of files of archive '" + archive.getName() + "' of repo '" + repoConfig.getDisplayName() + "'.");
+        final ProgressInfo progressInfo = createListProgressInfo(archive);
+        // Written by the thread processing Borg's output:
+        AtomicInteger itemCount = new AtomicInteger();
+        BorgJob<Void> submittedJob = new BorgJob<Void>(command) {
+            @Override
+            protected OutputStream createStdOutStream() {
+                return new BorgListFormatParser(item -> {
+                    itemCount.incrementAndGet();
+                    consumer.accept(item);
+                    if ("-".equals(item.getType())) {
+                        // Only increment for files, because number of files is the total.
+                        setProgressInfo(progressInfo.incrementCurrent());
+                    }
+                });
+            }
+        };
+        BorgJob<Void> job = BorgQueueExecutor.getInstance().execute(submittedJob);
+        if (job != submittedJob) {
+            return getResultOfOtherJob(job);
+        }
+        JobResult<String> jobResult = job.getResult();
+        if (jobResult == null || jobResult.getStatus() != JobResult.Status.OK) {
+            return itemCount.get() > 0 ? ListResult.FAILED : null;
+        }
+        job.cleanUp();
+        return ListResult.OK;
+    }
+
+    /**
+     * The queue returned an already queued or running job with the same command instead of the submitted one, so the
+     * items are passed to the consumer of the other job. Waits for it, it's cleaned up by its own caller.
+     */
+    private static ListResult getResultOfOtherJob(BorgJob<Void> job) {
+        log.info("Archive content is already being listed by another job: " + job.getId());
+        JobResult<String> jobResult = job.getResult();
+        if (jobResult == null || jobResult.getStatus() != JobResult.Status.OK) {
+            return ListResult.FAILED;
+        }
+        return ListResult.LISTED_BY_OTHER_JOB;
+    }
+
+    private static ProgressInfo createListProgressInfo(Archive archive) {
+        ProgressInfo progressInfo = new ProgressInfo()
+                .setMessage("Getting file list...")
+                .setCurrent(0);
+        if (archive.getStats() != null) // Occurs only for demo repos.
+            progressInfo.setTotal(archive.getStats().getNfiles());
+        return progressInfo;
     }
 
     /**
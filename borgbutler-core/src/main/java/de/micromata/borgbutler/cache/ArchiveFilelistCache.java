@@ -2,52 +2,177 @@ package de.micromata.borgbutler.cache;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
 import de.micromata.borgbutler.config.BorgRepoConfig;
 import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.ArchiveStatistics;
+import de.micromata.borgbutler.data.DirectoryIndex;
 import de.micromata.borgbutler.data.FileSystemFilter;
+import de.micromata.borgbutler.data.FileSystemItemColumns;
+import de.micromata.borgbutler.data.PathTrigramIndex;
 import de.micromata.borgbutler.data.Repository;
 import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
 import de.micromata.borgbutler.utils.ReplaceUtils;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.nio.file.Files;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Cache for storing complete file lists of archives as gzipped files (using Java standard serialization for
- * fastest access).
+ * Cache for storing complete file lists of archives as files with independently compressed blocks (see
+ * {@link ArchiveFilelistFormat}). The files are memory mapped, so only the blocks needed are read.
  * <br>
  * A file list (archive content) with over million file system items is over 100MB large (uncompressed).
  * The compression is also useful for faster reading from the filesystem.
+ * <br>
+ * The paths are stored in one {@link RepoPathDictionary} per repository, shared by the file lists of all archives of
+ * the repository.
+ * <br>
+ * An archive is stored as delta (added, modified and removed items) of another cached archive of the same repository,
+ * if the archives differ only slightly (as daily archives usually do). The length of delta chains is limited by
+ * {@link #MAX_DELTA_CHAIN_LENGTH}, so every few archives a complete file list is stored. Deleting a file list deletes
+ * all deltas based on it.
+ * <br>
+ * Size, usage and checksum of the cache files are held by the {@link ArchiveFilelistCacheManifest}, so the file system
+ * is only needed for reading and writing the file lists. Files are written to temporary files followed by an atomic
+ * rename, so a crash doesn't leave truncated cache files.
+ * <br>
+ * Files of the legacy format (gzipped Kryo stream) and of older format versions or encodings are still readable and
+ * are rewritten in the current format in the background (see {@link #migrateOutdatedFiles()}), so cached archives
+ * survive upgrades of BorgButler without listing the archives by Borg again.
  */
 class ArchiveFilelistCache {
-    private static final String SERIALIZATION_ID_STRING = "kryo 5.0.0-RC1";
     private static Logger log = LoggerFactory.getLogger(ArchiveFilelistCache.class);
     private static final String CACHE_ARCHIVE_LISTS_BASENAME = "archive-content-";
+    private static final String CACHE_FILE_EXTENSION = ".filelist";
     private static final String CACHE_FILE_GZIP_EXTENSION = ".gz";
+    private static final String TMP_FILE_EXTENSION = ".tmp";
+    /**
+     * Temporary files not modified for this time are left by interrupted writes (of any process sharing the cache
+     * directory).
+     */
+    private static final long TMP_FILE_EXPIRE_TIME = 3600 * 1000;
     private static final BigDecimal THOUSAND = new BigDecimal(1000);
+    /**
+     * One thread of low priority for rewriting outdated cache files in the current format.
+     */
+    private static final ExecutorService migrationExecutorService = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "borgbutler-filelist-migration");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    /**
+     * Maximum number of deltas between an archive and its complete base file list.
+     */
+    static final int MAX_DELTA_CHAIN_LENGTH = 7;
+    /**
+     * Order of the items in the file lists: by path (case insensitive, see
+     * {@link BorgFilesystemItem#compareTo(BorgFilesystemItem)}), paths differing only in case are ordered case
+     * sensitive. This total order is needed for merging deltas with their base file lists.
+     */
+    static final Comparator<BorgFilesystemItem> ITEM_ORDER = (item1, item2) -> {
+        int result = item1.compareTo(item2);
+        if (result != 0 || item1.getPath() == null || item2.getPath() == null) {
+            return result;
+        }
+        return item1.getPath().compareTo(item2.getPath());
+    };
     private File cacheDir;
     private int cacheArchiveContentMaxDiscSizeMB;
     private long FILES_EXPIRE_TIME = 7 * 24 * 3660 * 1000; // Expires after 7 days.
-    // For avoiding concurrent writing of same files (e. g. after the user has pressed a button twice).
-    private Set<File> savingFiles = new HashSet<>();
+    // For avoiding concurrent writing of same files (e. g. after the user has pressed a button twice). Only the file
+    // itself is claimed, so archives of other repos or archives are saved concurrently.
+    private Set<File> savingFiles = ConcurrentHashMap.newKeySet();
+    private ArchiveFilelistCacheManifest manifest;
 
     ArchiveFilelistCache(File cacheDir, int cacheArchiveContentMaxDiscSizeMB) {
         this.cacheDir = cacheDir;
         this.cacheArchiveContentMaxDiscSizeMB = cacheArchiveContentMaxDiscSizeMB;
+        this.manifest = new ArchiveFilelistCacheManifest(cacheDir);
+        initManifest();
+    }
+
+    /**
+     * Reads the manifest and reconciles it with the cache directory (once on start): entries of missing files are
+     * removed and files not registered (e. g. after a crash or if the manifest is missing) are added. Temporary files
+     * of interrupted writes are deleted.
+     */
+    private void initManifest() {
+        boolean modified = !manifest.read();
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> fileNames = new HashSet<>();
+        List<ArchiveFilelistCacheManifest.Entry> newEntries = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_FILE_EXTENSION)) {
+                if (System.currentTimeMillis() - file.lastModified() > TMP_FILE_EXPIRE_TIME) {
+                    log.info("Deleting temporary file of an interrupted write: " + file.getAbsolutePath());
+                    file.delete();
+                }
+                continue;
+            }
+            if (!isCacheFile(file)) continue;
+            fileNames.add(file.getName());
+            ArchiveFilelistCacheManifest.Entry entry = manifest.get(file.getName());
+            if (entry != null && entry.getSize() == file.length()) continue;
+            log.info("Registering cache file in manifest: " + file.getAbsolutePath());
+            // Checksum unknown:
+            newEntries.add(createEntry(file, 0).setLastAccess(file.lastModified()));
+        }
+        List<String> removedFileNames = new ArrayList<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : manifest.getEntries()) {
+            if (!fileNames.contains(entry.getFileName())) {
+                removedFileNames.add(entry.getFileName());
+            }
+        }
+        if (!removedFileNames.isEmpty()) {
+            manifest.remove(removedFileNames.toArray(new String[0]));
+        }
+        if (!newEntries.isEmpty()) {
+            manifest.put(newEntries.toArray(new ArchiveFilelistCacheManifest.Entry[0]));
+        } else if (modified && removedFileNames.isEmpty()) {
+            manifest.flush();
+        }
+    }
+
+    private ArchiveFilelistCacheManifest.Entry createEntry(File file, long checksum) {
+        String baseFileName = null;
+        String repo = null;
+        if (file.getName().endsWith(CACHE_FILE_EXTENSION) && ArchiveFilelistFormat.isFilelistFormat(file)) {
+            try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+                if (reader.getDeltaInfo() != null) {
+                    baseFileName = reader.getDeltaInfo().getBaseFileName();
+                }
+                repo = StringUtils.trimToNull(reader.getRepo());
+            } catch (Exception ex) {
+                log.warn("Can't read file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
+            }
+        }
+        return new ArchiveFilelistCacheManifest.Entry(file.getName())
+                .setSize(file.length())
+                .setLastAccess(System.currentTimeMillis())
+                .setChecksum(checksum)
+                .setBaseFileName(baseFileName)
+                .setRepo(repo);
     }
 
     public void save(BorgRepoConfig repoConfig, Archive archive, List<BorgFilesystemItem> filesystemItems) {
@@ -55,120 +180,1299 @@ class ArchiveFilelistCache {
             return;
         }
         File file = getFile(repoConfig, archive);
+        if (!savingFiles.add(file)) {
+            // File will already be written. This occurs if the user pressed a button twice.
+            log.info("Don't write the archive content twice.");
+            return;
+        }
         try {
-            synchronized (savingFiles) {
-                if (savingFiles.contains(file)) {
-                    // File will already be written. This occurs if the user pressed a button twice.
-                    log.info("Don't write the archive content twice.");
-                    return;
-                }
-                savingFiles.add(file);
-                Collections.sort(filesystemItems); // Sort by path.
-            }
-            log.info("Saving archive content as file list: " + file.getAbsolutePath());
-
-            int fileNumber = -1;
-            Kryo kryo = createKryo();
-            try (Output outputStream = new Output(new GzipCompressorOutputStream(new FileOutputStream(file)))) {
-                kryo.writeObject(outputStream, SERIALIZATION_ID_STRING);
-                kryo.writeObject(outputStream, filesystemItems.size());
-                Iterator<BorgFilesystemItem> it = filesystemItems.iterator();
+            sort(filesystemItems); // Sort by path.
+            deleteDependents(file);
+            Delta delta = createDelta(repoConfig.getRepo(), archive, file, filesystemItems);
+            if (delta != null) {
+                log.info("Saving archive content as delta (" + delta.changedItems.size() + " added or modified, "
+                        + delta.removedPaths.size() + " removed) of '" + delta.baseFile.getName() + "': " + file.getAbsolutePath());
+            } else {
+                log.info("Saving archive content as file list: " + file.getAbsolutePath());
+            }
+            List<BorgFilesystemItem> items = delta != null ? delta.changedItems : filesystemItems;
+            PathBloomFilter bloomFilter = new PathBloomFilter(items.size());
+            for (BorgFilesystemItem item : items) {
+                bloomFilter.add(item.getPath());
+            }
+            // The statistics and the directory index of deltas are computed from the whole archive as well:
+            ArchiveStatisticsCollector statistics = new ArchiveStatisticsCollector();
+            DirectoryIndex.Builder directoryIndex = new DirectoryIndex.Builder();
+            for (int i = 0; i < filesystemItems.size(); i++) {
+                BorgFilesystemItem item = filesystemItems.get(i);
+                statistics.add(item);
+                directoryIndex.add(i, item.getPath(), item.getType(), item.getSize());
+            }
+            File tmpFile = createTmpFile(file.getName());
+            try (ArchiveFilelistWriter writer = new ArchiveFilelistWriter(tmpFile, repoConfig.getRepo(), archive)) {
+                writer.setBloomFilter(bloomFilter);
+                writer.setStatistics(statistics.getStatistics());
+                writer.setDirectoryIndex(directoryIndex);
+                Iterator<BorgFilesystemItem> it = items.iterator();
                 while (it.hasNext()) {
-                    BorgFilesystemItem item = it.next();
-                    item.setFileNumber(++fileNumber);
-                    kryo.writeObject(outputStream, item);
+                    writer.add(it.next());
+                }
+                if (delta != null) {
+                    writer.setDeltaBase(delta.baseFile.getName(), delta.baseFileId, delta.chainLength, delta.removedPaths);
+                }
+            } catch (IOException ex) {
+                log.error("Error while writing file list '" + tmpFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
+                tmpFile.delete();
+                return;
+            } finally {
+                // The file numbers are the positions in the complete list (the writer numbers only the items written).
+                for (int i = 0; i < filesystemItems.size(); i++) {
+                    filesystemItems.get(i).setFileNumber(i);
+                }
+            }
+            if (!install(repoConfig, archive, file, tmpFile, delta != null ? delta.baseFile.getName() : null)) {
+                return;
+            }
+            updatePathHistory(repoConfig.getRepo(), archive, filesystemItems.iterator(), null);
+        } finally {
+            savingFiles.remove(file);
+        }
+        log.info("Saving done.");
+    }
+
+    /**
+     * @return The ingest for streaming the items of the given archive into the cache (e. g. while Borg is listing
+     * the archive). The ingest must be closed.
+     */
+    ArchiveFilelistIngest createIngest(BorgRepoConfig repoConfig, Archive archive) {
+        return new ArchiveFilelistIngest(this, repoConfig, archive, ArchiveFilelistIngest.DEFAULT_RUN_SIZE);
+    }
+
+    /**
+     * Saves a complete file list given as stream of items (e. g. merged by {@link ArchiveFilelistIngest}), so the
+     * items don't have to be held in memory. No delta is created (this would need all items) and the paths are written
+     * with {@link ArchiveFilelistFormat#ENCODING_COMPACT}.
+     *
+     * @param itemCount   The number of items (for sizing the Bloom filter of the paths).
+     * @param sortedItems The items sorted by {@link #ITEM_ORDER}.
+     * @return true, if the file list was written.
+     */
+    boolean saveSorted(BorgRepoConfig repoConfig, Archive archive, int itemCount, Iterator<BorgFilesystemItem> sortedItems) {
+        File file = getFile(repoConfig, archive);
+        if (!savingFiles.add(file)) {
+            log.info("Don't write the archive content twice.");
+            return false;
+        }
+        try {
+            deleteDependents(file);
+            log.info("Saving archive content (" + String.format("%,d", itemCount) + " items) as file list: " + file.getAbsolutePath());
+            PathBloomFilter bloomFilter = new PathBloomFilter(itemCount);
+            ArchiveStatisticsCollector statistics = new ArchiveStatisticsCollector();
+            File tmpFile = createTmpFile(file.getName());
+            // Without the path dictionary of the repo, because it would hold all new paths in memory until closed:
+            try (DirectoryIndex.Builder directoryIndex = new DirectoryIndex.Builder(createTmpFile(file.getName() + ".directories"));
+                 ArchiveFilelistWriter writer = new ArchiveFilelistWriter(tmpFile, repoConfig.getRepo(), archive,
+                         ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE, ArchiveFilelistFormat.ENCODING_COMPACT, ArchiveFilelistFormat.DEFAULT_CODEC)) {
+                writer.setBloomFilter(bloomFilter);
+                writer.setDirectoryIndex(directoryIndex);
+                while (sortedItems.hasNext()) {
+                    BorgFilesystemItem item = sortedItems.next();
+                    bloomFilter.add(item.getPath());
+                    statistics.add(item);
+                    writer.add(item);
+                    directoryIndex.add(item.getFileNumber(), item.getPath(), item.getType(), item.getSize());
+                }
+                writer.setStatistics(statistics.getStatistics());
+            } catch (IOException | UncheckedIOException ex) {
+                log.error("Error while writing file list '" + tmpFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
+                tmpFile.delete();
+                return false;
+            }
+            if (!install(repoConfig, archive, file, tmpFile, null)) {
+                return false;
+            }
+        } finally {
+            savingFiles.remove(file);
+        }
+        // The items are streamed again from the written file:
+        try (Stream<BorgFilesystemItem> stream = stream(repoConfig, archive, null)) {
+            if (stream != null) {
+                updatePathHistory(repoConfig.getRepo(), archive, stream.iterator(), null);
+            }
+        } catch (UncheckedIOException ex) {
+            log.error("Error while reading file list of archive '" + archive.getName() + "' for the path history: "
+                    + ex.getMessage(), ex);
+        }
+        return true;
+    }
+
+    /**
+     * Merges the file list into the path history of the repository (see {@link RepoPathHistory}).
+     *
+     * @param sortedItems All items of the archive sorted by {@link #ITEM_ORDER}.
+     * @param archiveIds  If given, all other archives are removed from the history.
+     */
+    private void updatePathHistory(String repo, Archive archive, Iterator<BorgFilesystemItem> sortedItems, Set<String> archiveIds) {
+        if (StringUtils.isBlank(archive.getId())) {
+            // Archives without id should only occur in tests.
+            return;
+        }
+        File historyFile = RepoPathHistory.getFile(cacheDir, repo);
+        try {
+            RepoPathHistory.getInstance(historyFile).update(archive, sortedItems, archiveIds);
+        } catch (IOException | UncheckedIOException ex) {
+            log.error("Error while updating path history '" + historyFile.getAbsolutePath() + "' (deleting it): "
+                    + ex.getMessage(), ex);
+            RepoPathHistory.delete(historyFile);
+        }
+    }
+
+    /**
+     * Gets the versions of the given path in all given archives from the path history of the repository. Cached file
+     * lists of archives not yet part of the history (e. g. cached by an older version of BorgButler) are merged into
+     * the history first.
+     *
+     * @param archives All archives of the repository (archives of the history not contained are removed).
+     * @param path     The exact path.
+     * @return The versions by archive id (the items contain path, size and mtime) in the order of the archive times.
+     * Archives whose file lists were never cached aren't contained. Null on errors.
+     */
+    public Map<String, BorgFilesystemItem> getPathHistory(BorgRepoConfig repoConfig, List<Archive> archives, String path) {
+        File historyFile = RepoPathHistory.getFile(cacheDir, repoConfig.getRepo());
+        RepoPathHistory history = RepoPathHistory.getInstance(historyFile);
+        try {
+            Set<String> archiveIds = new HashSet<>();
+            for (Archive archive : archives) {
+                archiveIds.add(archive.getId());
+            }
+            Set<String> historyArchiveIds = history.getArchiveIds();
+            for (Archive archive : archives) {
+                if (StringUtils.isBlank(archive.getId()) || historyArchiveIds.contains(archive.getId())
+                        || !contains(repoConfig, archive)) {
+                    continue;
+                }
+                log.info("Adding file list of archive '" + archive.getName() + "' to the path history.");
+                try (Stream<BorgFilesystemItem> stream = stream(repoConfig, archive, null)) {
+                    if (stream != null) {
+                        updatePathHistory(repoConfig.getRepo(), archive, stream.iterator(), archiveIds);
+                    }
+                }
+            }
+            return history.getVersions(path);
+        } catch (IOException | UncheckedIOException ex) {
+            log.error("Error while reading path history '" + historyFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Deltas of the old file wouldn't match the new file anymore.
+     */
+    private void deleteDependents(File file) {
+        List<String> dependents = getDependents().get(file.getName());
+        if (dependents != null) {
+            for (String dependent : dependents) {
+                deleteFile(dependent, getDependents());
+            }
+        }
+    }
+
+    /**
+     * Unique name: other processes sharing the cache directory may write the same archive. Temporary files of
+     * interrupted writes are deleted on start.
+     */
+    File createTmpFile(String name) {
+        return new File(cacheDir, name + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TMP_FILE_EXTENSION);
+    }
+
+    /**
+     * Replaces the cache file by the written temporary file, registers it in the manifest and deletes the files of
+     * the archive of older formats.
+     *
+     * @param baseFileName The base file list, if the file is a delta.
+     * @return true, if the file was installed.
+     */
+    private boolean install(BorgRepoConfig repoConfig, Archive archive, File file, File tmpFile, String baseFileName) {
+        try {
+            long checksum = ArchiveFilelistCacheManifest.computeChecksum(tmpFile);
+            ArchiveFilelistCacheManifest.move(tmpFile, file);
+            // Pinned archives stay pinned, if they're written again:
+            boolean pinned = false;
+            for (File oldFile : getFiles(repoConfig.getRepo(), archive)) {
+                pinned |= isPinned(oldFile);
+            }
+            manifest.put(createEntry(file, checksum).setBaseFileName(baseFileName).setPinned(pinned));
+        } catch (IOException ex) {
+            log.error("Error while renaming file list '" + tmpFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
+            tmpFile.delete();
+            return false;
+        }
+        Map<String, List<String>> allDependents = getDependents();
+        for (File oldFile : getFiles(repoConfig.getRepo(), archive)) {
+            if (oldFile.equals(file) || !oldFile.exists()) continue;
+            if (allDependents.containsKey(oldFile.getName())) {
+                // Still needed as base of deltas (deleted with the deltas).
+                continue;
+            }
+            log.info("Deleting cache file of older format: " + oldFile.getAbsolutePath());
+            ArchiveFilelistCacheManifest.delete(oldFile);
+            manifest.remove(oldFile.getName());
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the items by {@link #ITEM_ORDER}. The case folded paths are computed once per item (instead of folding
+     * the characters on every comparison) and sorted in parallel (for large lists).
+     */
+    static void sort(List<BorgFilesystemItem> items) {
+        BorgFilesystemItem[] array = items.toArray(new BorgFilesystemItem[0]);
+        SortKey[] keys = new SortKey[array.length];
+        Arrays.parallelSetAll(keys, i -> new SortKey(array[i]));
+        Arrays.parallelSort(keys);
+        for (int i = 0; i < keys.length; i++) {
+            array[i] = keys[i].item;
+        }
+        for (int i = 1; i < array.length; i++) {
+            if (ITEM_ORDER.compare(array[i - 1], array[i]) > 0) {
+                // Folding differs from String.compareToIgnoreCase (e. g. for supplementary characters by newer JDKs):
+                Arrays.sort(array, ITEM_ORDER);
+                break;
+            }
+        }
+        ListIterator<BorgFilesystemItem> it = items.listIterator();
+        for (BorgFilesystemItem item : array) {
+            it.next();
+            it.set(item);
+        }
+    }
+
+    /**
+     * Sort key of {@link #ITEM_ORDER}: the path folded as done by {@link String#compareToIgnoreCase(String)}.
+     */
+    private static class SortKey implements Comparable<SortKey> {
+        private String foldedPath;
+        private BorgFilesystemItem item;
+
+        private SortKey(BorgFilesystemItem item) {
+            this.item = item;
+            this.foldedPath = fold(item.getPath());
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            String path = item.getPath(), otherPath = other.item.getPath();
+            if (path == null || otherPath == null) {
+                return path == otherPath ? 0 : (path == null ? -1 : 1);
+            }
+            int result = foldedPath.compareTo(other.foldedPath);
+            return result != 0 ? result : path.compareTo(otherPath);
+        }
+
+        /**
+         * @return The given path, if folding doesn't change any character (e. g. lower case paths).
+         */
+        private static String fold(String path) {
+            if (path == null) {
+                return null;
+            }
+            for (int i = 0; i < path.length(); i++) {
+                char ch = path.charAt(i);
+                if (fold(ch) != ch) {
+                    char[] chars = path.toCharArray();
+                    for (int j = i; j < chars.length; j++) {
+                        chars[j] = fold(chars[j]);
+                    }
+                    return new String(chars);
+                }
+            }
+            return path;
+        }
+
+        private static char fold(char ch) {
+            return Character.toLowerCase(Character.toUpperCase(ch));
+        }
+    }
+
+    /**
+     * Creates the delta of the given items to the best base file list of the same repository: the archive preceding
+     * the given archive (or following, if no preceding archive is cached). If the delta chain of this base has reached
+     * {@link #MAX_DELTA_CHAIN_LENGTH}, no delta is used.
+     *
+     * @param items The sorted items of the archive to save.
+     * @return The delta or null, if no base file list is available or if the archives differ too much (half of the
+     * items). The complete file list has to be stored in this case.
+     */
+    private Delta createDelta(String repo, Archive archive, File file, List<BorgFilesystemItem> items) {
+        File baseFile = null;
+        String baseTime = null;
+        boolean basePreceding = false;
+        // Other files of the same archive (older formats) are replaced by this file:
+        List<File> archiveFiles = getFiles(repo, archive);
+        for (ArchiveFilelistCacheManifest.Entry entry : manifest.getEntries()) {
+            File candidate = new File(cacheDir, entry.getFileName());
+            if (candidate.equals(file) || archiveFiles.contains(candidate) || !isFilelistFile(candidate)) continue;
+            try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(candidate)) {
+                if (!Objects.equals(repo, reader.getRepo()) || reader.getEncoding() != ArchiveFilelistFormat.ENCODING_PATH_IDS) {
+                    continue;
+                }
+                String time = StringUtils.defaultString(reader.getArchiveTime());
+                boolean preceding = time.compareTo(StringUtils.defaultString(archive.getTime())) <= 0;
+                if (baseFile == null
+                        || (preceding && (!basePreceding || time.compareTo(baseTime) > 0))
+                        || (!preceding && !basePreceding && time.compareTo(baseTime) < 0)) {
+                    baseFile = candidate;
+                    baseTime = time;
+                    basePreceding = preceding;
+                }
+            } catch (Exception ex) {
+                log.warn("Can't use file list '" + candidate.getAbsolutePath() + "' as delta base: " + ex.getMessage());
+            }
+        }
+        if (baseFile == null) {
+            return null;
+        }
+        Delta delta = new Delta();
+        delta.baseFile = baseFile;
+        List<BorgFilesystemItem> baseItems;
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(baseFile)) {
+            delta.baseFileId = reader.getFileId();
+            delta.chainLength = reader.getDeltaInfo() != null ? reader.getDeltaInfo().getChainLength() + 1 : 1;
+            if (delta.chainLength > MAX_DELTA_CHAIN_LENGTH) {
+                // Time for a complete file list.
+                return null;
+            }
+            baseItems = readAll(reader, 0);
+        } catch (Exception ex) {
+            log.warn("Can't read delta base '" + baseFile.getAbsolutePath() + "': " + ex.getMessage());
+            return null;
+        }
+        int maxChanges = items.size() / 2;
+        int i = 0, j = 0;
+        while (i < baseItems.size() || j < items.size()) {
+            int cmp = i >= baseItems.size() ? 1 : j >= items.size() ? -1 : ITEM_ORDER.compare(baseItems.get(i), items.get(j));
+            if (cmp < 0) {
+                delta.removedPaths.add(baseItems.get(i++).getPath());
+            } else if (cmp > 0) {
+                delta.changedItems.add(items.get(j++));
+            } else {
+                if (!isSame(baseItems.get(i++), items.get(j))) {
+                    delta.changedItems.add(items.get(j));
+                }
+                ++j;
+            }
+            if (delta.changedItems.size() + delta.removedPaths.size() > maxChanges) {
+                log.info("Archive differs too much from '" + baseFile.getName() + "', no delta is used.");
+                return null;
+            }
+        }
+        return delta;
+    }
+
+    private boolean isSame(BorgFilesystemItem item1, BorgFilesystemItem item2) {
+        return item1.equals(item2) && item1.isHealthy() == item2.isHealthy()
+                && Objects.equals(item1.getSource(), item2.getSource())
+                && Objects.equals(item1.getLinktarget(), item2.getLinktarget());
+    }
+
+    /**
+     * Reads all items of the given file list. Deltas are merged with their base file lists (recursively).
+     *
+     * @param reader
+     * @param depth  Current length of the delta chain (for detecting corrupted chains).
+     * @return All items, the file numbers are the positions.
+     */
+    private List<BorgFilesystemItem> readAll(ArchiveFilelistReader reader, int depth) throws IOException {
+        List<BorgFilesystemItem> items = new ArrayList<>(reader.getItemCount());
+        try (FilelistIterator it = new FilelistIterator(reader, null, depth)) {
+            it.forEachRemaining(items::add);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return items;
+    }
+
+    /**
+     * Iterates over the items of a file list in order, only the blocks read ahead are held in memory. Deltas are merged
+     * with their base file lists (recursively) while iterating: items of the delta replace the base items of the same
+     * path.
+     * <br>
+     * For searches the items not contained in the candidate blocks of the trigram indexes of the delta and its bases are
+     * marked (see {@link #isCandidate()}). All items are iterated anyway, because the file numbers of the merged list
+     * are counted.
+     */
+    private class FilelistIterator implements Iterator<BorgFilesystemItem>, Closeable {
+        private ArchiveFilelistReader reader;
+        private ArchiveFilelistReader.BlockIterator blocks;
+        private Iterator<BorgFilesystemItem> block = Collections.emptyIterator();
+        private int blockNumber;
+        // The own blocks containing all trigrams of the search key words (null, if all blocks are candidates):
+        private BitSet candidateBlocks;
+        // Only for deltas:
+        private FilelistIterator base;
+        private Set<String> removedPaths;
+        private BorgFilesystemItem baseItem;
+        private boolean baseCandidate;
+        private BorgFilesystemItem deltaItem;
+        private boolean deltaCandidate;
+        private int fileNumber;
+        private BorgFilesystemItem next;
+        private boolean nextCandidate;
+        private boolean candidate;
+
+        /**
+         * @param reader     Closed by this iterator.
+         * @param pathPrefix If given, only the blocks which may contain paths with this prefix are read (ignored for
+         *                   deltas, because the file numbers of the merged list are counted while iterating).
+         * @param depth      Current length of the delta chain (for detecting corrupted chains).
+         */
+        private FilelistIterator(ArchiveFilelistReader reader, String pathPrefix, int depth) throws IOException {
+            this(reader, pathPrefix, depth, null);
+        }
+
+        /**
+         * @param searchKeyWords If given, the candidates of these key words are marked (see {@link #isCandidate()}).
+         */
+        private FilelistIterator(ArchiveFilelistReader reader, String pathPrefix, int depth, String[] searchKeyWords) throws IOException {
+            this.reader = reader;
+            PathTrigramIndex pathTrigramIndex = PathTrigramIndex.isNarrowing(searchKeyWords) ? reader.readPathTrigramIndex() : null;
+            if (pathTrigramIndex != null) {
+                candidateBlocks = new BitSet(reader.getBlockCount());
+                for (int candidateBlock : pathTrigramIndex.getCandidates(searchKeyWords)) {
+                    candidateBlocks.set(candidateBlock);
+                }
+            }
+            ArchiveFilelistReader.DeltaInfo deltaInfo = reader.getDeltaInfo();
+            if (deltaInfo == null) {
+                int[] blockRange = reader.getBlockRange(pathPrefix);
+                blocks = reader.readBlocks(blockRange[0], blockRange[1]);
+                blockNumber = blockRange[0] - 1;
+                next = readNext();
+                nextCandidate = isOwnCandidate();
+                return;
+            }
+            if (depth >= MAX_DELTA_CHAIN_LENGTH) {
+                throw new IOException("Delta chain too long: " + reader.getFile().getAbsolutePath());
+            }
+            File baseFile = new File(reader.getFile().getParentFile(), deltaInfo.getBaseFileName());
+            if (!baseFile.exists()) {
+                throw new IOException("Base file list '" + baseFile.getAbsolutePath() + "' of delta doesn't exist.");
+            }
+            if (!manifest.verify(baseFile)) {
+                deleteFile(baseFile.getName(), getDependents());
+                throw new IOException("Base file list '" + baseFile.getAbsolutePath() + "' of delta is corrupted.");
+            }
+            // The base is used as well:
+            touch(baseFile);
+            ArchiveFilelistReader baseReader = ArchiveFilelistReader.open(baseFile);
+            try {
+                if (baseReader.getFileId() != deltaInfo.getBaseFileId()) {
+                    throw new IOException("Base file list '" + baseFile.getAbsolutePath() + "' of delta was replaced.");
+                }
+                base = new FilelistIterator(baseReader, null, depth + 1, searchKeyWords);
+            } catch (IOException | RuntimeException ex) {
+                baseReader.close();
+                throw ex;
+            }
+            try {
+                removedPaths = new HashSet<>(reader.readRemovedPaths());
+            } catch (IOException | RuntimeException ex) {
+                base.close();
+                throw ex;
+            }
+            blocks = reader.readBlocks(0, reader.getBlockCount());
+            blockNumber = -1;
+            nextBaseItem();
+            deltaItem = readNext();
+            deltaCandidate = isOwnCandidate();
+            next = mergeNext();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        /**
+         * @throws UncheckedIOException If a block isn't readable.
+         */
+        @Override
+        public BorgFilesystemItem next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            BorgFilesystemItem item = next;
+            candidate = nextCandidate;
+            if (base == null) {
+                next = readNext();
+                nextCandidate = isOwnCandidate();
+            } else {
+                next = mergeNext();
+            }
+            return item;
+        }
+
+        /**
+         * @return false, if the item returned by {@link #next()} can't match the search key words given on construction.
+         */
+        private boolean isCandidate() {
+            return candidate;
+        }
+
+        /**
+         * @return The next item of the own blocks or null, if all blocks are read.
+         */
+        private BorgFilesystemItem readNext() {
+            while (!block.hasNext()) {
+                if (!blocks.hasNext()) {
+                    return null;
+                }
+                block = blocks.next().iterator();
+                ++blockNumber;
+            }
+            return block.next();
+        }
+
+        /**
+         * @return true, if the block of the item returned by {@link #readNext()} is a candidate.
+         */
+        private boolean isOwnCandidate() {
+            return candidateBlocks == null || candidateBlocks.get(blockNumber);
+        }
+
+        private void nextBaseItem() {
+            baseItem = base.hasNext() ? base.next() : null;
+            baseCandidate = base.isCandidate();
+        }
+
+        /**
+         * Merges the two sorted lists of the base and the delta.
+         */
+        private BorgFilesystemItem mergeNext() {
+            while (baseItem != null || deltaItem != null) {
+                int cmp = baseItem == null ? 1 : deltaItem == null ? -1 : ITEM_ORDER.compare(baseItem, deltaItem);
+                BorgFilesystemItem item;
+                if (cmp < 0) {
+                    item = baseItem;
+                    nextCandidate = baseCandidate;
+                    nextBaseItem();
+                    if (removedPaths.contains(item.getPath())) {
+                        continue;
+                    }
+                } else {
+                    if (cmp == 0) {
+                        nextBaseItem();
+                    }
+                    item = deltaItem;
+                    nextCandidate = deltaCandidate;
+                    deltaItem = readNext();
+                    deltaCandidate = isOwnCandidate();
+                }
+                return item.setFileNumber(fileNumber++);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            blocks.close();
+            if (base != null) {
+                base.close();
+            }
+            reader.close();
+        }
+    }
+
+    private static class Delta {
+        private File baseFile;
+        private long baseFileId;
+        private int chainLength;
+        private List<BorgFilesystemItem> changedItems = new ArrayList<>();
+        private List<String> removedPaths = new ArrayList<>();
+    }
+
+    /**
+     * @param repository
+     * @param archive
+     * @return true, if the content of the archive is already cached, otherwise false.
+     */
+    public boolean contains(Repository repository, Archive archive) {
+        return contains(repository.getName(), archive);
+    }
+
+    /**
+     * @return true, if the content of the archive is already cached, otherwise false.
+     */
+    public boolean contains(BorgRepoConfig repoConfig, Archive archive) {
+        return contains(repoConfig.getRepo(), archive);
+    }
+
+    private boolean contains(String repo, Archive archive) {
+        for (File file : getFiles(repo, archive)) {
+            if (manifest.contains(file.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calls {@link #load(BorgRepoConfig, Archive, FileSystemFilter)} with filter null.
+     *
+     * @param repoConfig
+     * @param archive
+     * @return
+     */
+    public List<BorgFilesystemItem> load(BorgRepoConfig repoConfig, Archive archive) {
+        return load(repoConfig, archive, null);
+    }
+
+
+    /**
+     * Will load and touch the archive file if exist. The file will be touched (last modified time will be set to now)
+     * for pruning oldest cache files. The last modified time will be the time of the last usage.
+     *
+     * @param repoConfig
+     * @param archive
+     * @param filter     If given, only file items matching this filter are returned.
+     * @return
+     */
+    public List<BorgFilesystemItem> load(BorgRepoConfig repoConfig, Archive archive, FileSystemFilter filter) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null) {
+            return null;
+        }
+        List<BorgFilesystemItem> list = load(file, archive, filter);
+        if (list != null && !file.equals(getFile(repoConfig, archive))) {
+            // Files of older formats (e. g. legacy files don't contain their repo and archive) are migrated on their
+            // first usage.
+            migrationExecutorService.submit(() -> migrate(file, repoConfig.getRepo(), archive));
+        }
+        return list;
+    }
+
+    /**
+     * Loads the complete file list of the given archive in column representation. The blocks are added one by one, so
+     * the items of only a few blocks are on the heap at once (deltas and files of older formats are loaded as list
+     * first).
+     *
+     * @return The columns or null, if the archive content isn't cached.
+     */
+    public FileSystemItemColumns loadColumns(BorgRepoConfig repoConfig, Archive archive) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null) {
+            return null;
+        }
+        if (!ArchiveFilelistFormat.isFilelistFormat(file) || !file.equals(getFile(repoConfig, archive))) {
+            // Legacy files and files stored by name are migrated on loading.
+            List<BorgFilesystemItem> items = load(repoConfig, archive, null);
+            return items != null ? FileSystemItemColumns.create(items) : null;
+        }
+        log.info("Loading archive content as columns from: " + file.getAbsolutePath());
+        if (!manifest.verify(file)) {
+            deleteFile(file.getName(), getDependents());
+            return null;
+        }
+        touch(file);
+        long millis = System.currentTimeMillis();
+        FileSystemItemColumns columns;
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            if (reader.getDeltaInfo() != null) {
+                columns = FileSystemItemColumns.create(readAll(reader, 0));
+            } else {
+                FileSystemItemColumns.Builder builder = new FileSystemItemColumns.Builder(reader.getItemCount());
+                try (ArchiveFilelistReader.BlockIterator it = reader.readBlocks(0, reader.getBlockCount())) {
+                    while (it.hasNext()) {
+                        for (BorgFilesystemItem item : it.next()) {
+                            builder.add(item);
+                        }
+                    }
+                }
+                columns = builder.build();
+            }
+        } catch (Exception ex) {
+            log.error("Error while reading file list '" + file.getAbsolutePath() + "': " + ex.getMessage() + ". OK, trying to get the data from Borg again.");
+            return null;
+        }
+        BigDecimal bd = new BigDecimal(System.currentTimeMillis() - millis).divide(THOUSAND, 1, RoundingMode.HALF_UP);
+        log.info("Loading of " + String.format("%,d", columns.size()) + " file system items done in " + bd + " seconds.");
+        return columns;
+    }
+
+    /**
+     * Streams the cached file list of the given archive in order without loading it: the blocks are read one by one
+     * (used in low memory mode, see {@link de.micromata.borgbutler.config.Configuration#isLowMemoryMode()}). Files of
+     * older formats are loaded completely and migrated.
+     *
+     * @param pathPrefix If given, only the blocks which may contain paths starting with this prefix are read (the
+     *                   stream may contain other items as well).
+     * @return The stream (has to be closed, throws {@link UncheckedIOException} on read errors) or null, if the archive
+     * content isn't cached or not readable.
+     */
+    public Stream<BorgFilesystemItem> stream(BorgRepoConfig repoConfig, Archive archive, String pathPrefix) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null) {
+            return null;
+        }
+        if (!ArchiveFilelistFormat.isFilelistFormat(file) || !file.equals(getFile(repoConfig, archive))) {
+            // Legacy files and files stored by name are migrated on loading.
+            List<BorgFilesystemItem> items = load(repoConfig, archive, null);
+            return items != null ? items.stream() : null;
+        }
+        if (!manifest.verify(file)) {
+            deleteFile(file.getName(), getDependents());
+            return null;
+        }
+        touch(file);
+        FilelistIterator it;
+        try {
+            ArchiveFilelistReader reader = ArchiveFilelistReader.open(file);
+            try {
+                it = new FilelistIterator(reader, pathPrefix, 0);
+            } catch (IOException | RuntimeException ex) {
+                reader.close();
+                throw ex;
+            }
+        } catch (Exception ex) {
+            log.error("Error while reading file list '" + file.getAbsolutePath() + "': " + ex.getMessage() + ".");
+            return null;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        it.close();
+                    } catch (IOException ex) {
+                        log.warn("Can't close file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
+                    }
+                });
+    }
+
+    /**
+     * Registers the usage of the cached file list of the given archive without loading it (used for file lists served
+     * by the memory cache, so their cache files aren't evicted as unused).
+     */
+    public void registerAccess(BorgRepoConfig repoConfig, Archive archive) {
+        for (File file : getFiles(repoConfig.getRepo(), archive)) {
+            // Files not registered in the manifest are ignored.
+            touch(file);
+        }
+    }
+
+    /**
+     * @param file
+     * @param filter If given, only file items matching this filter are returned.
+     * @return
+     */
+    public List<BorgFilesystemItem> load(File file, FileSystemFilter filter) {
+        return load(file, null, filter);
+    }
+
+    /**
+     * @param file
+     * @param archive Only for storing file system items as recent (may-be null)
+     * @param filter  If given, only file items matching this filter are returned.
+     * @return
+     */
+    public List<BorgFilesystemItem> load(File file, Archive archive, FileSystemFilter filter) throws RuntimeException {
+        if (!file.exists()) {
+            log.error("File '" + file.getAbsolutePath() + "' doesn't exist. Can't get archive content files.");
+            return null;
+        }
+        log.info("Loading archive content as file list from: " + file.getAbsolutePath());
+        if (!manifest.verify(file)) {
+            deleteFile(file.getName(), getDependents());
+            return null;
+        }
+        touch(file);
+        if (!ArchiveFilelistFormat.isFilelistFormat(file)) {
+            return loadLegacy(file, filter);
+        }
+        List<BorgFilesystemItem> list = new ArrayList<>();
+        long millis = System.currentTimeMillis();
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            if (reader.getDeltaInfo() != null && PathTrigramIndex.isNarrowing(filter)) {
+                // The delta is streamed, only the items of the candidate blocks (of the delta and its bases) are checked
+                // (the iterator closes its reader):
+                try (FilelistIterator it = new FilelistIterator(ArchiveFilelistReader.open(file), null, 0, filter.getSearchKeyWords())) {
+                    while (it.hasNext()) {
+                        BorgFilesystemItem item = it.next();
+                        if (it.isCandidate() && filter.matches(item)) {
+                            list.add(item);
+                            if (filter.isFinished()) break;
+                        }
+                    }
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+            } else if (reader.getDeltaInfo() != null) {
+                // Deltas are merged completely with their base, the filter is applied afterwards.
+                for (BorgFilesystemItem item : readAll(reader, 0)) {
+                    if (filter == null || filter.matches(item)) {
+                        list.add(item);
+                        if (filter != null && filter.isFinished()) break;
+                    }
+                }
+            } else if (filter != null && filter.getFileNumber() != null) {
+                // Only the block containing the requested file is needed.
+                BorgFilesystemItem item = reader.readItem(filter.getFileNumber());
+                if (item != null && filter.matches(item)) {
+                    list.add(item);
+                }
+            } else {
+                // The blocks are decompressed in parallel, the filter is applied in order:
+                try (ArchiveFilelistReader.BlockIterator it = reader.readBlocks(getBlocks(reader, filter))) {
+                    blocks:
+                    while (it.hasNext()) {
+                        for (BorgFilesystemItem item : it.next()) {
+                            if (filter == null || filter.matches(item)) {
+                                list.add(item);
+                                if (filter != null && filter.isFinished()) break blocks;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            log.error("Error while reading file list '" + file.getAbsolutePath() + "': " + ex.getMessage() + ". OK, trying to get the data from Borg again.");
+            return null;
+        }
+        BigDecimal bd = new BigDecimal(System.currentTimeMillis() - millis).divide(THOUSAND, 1, RoundingMode.HALF_UP);
+        log.info("Loading of " + String.format("%,d", list.size()) + " file system items done in " + bd + " seconds.");
+        return filter(list, filter);
+    }
+
+    /**
+     * Checks whether the archive contains the given path. The Bloom filter of the file list rules out most archives not
+     * containing the path without decoding any block, otherwise only the blocks which may contain the path are read.
+     * Paths not modified by a delta are checked in its base (by the Bloom filter of the base). The file isn't touched.
+     *
+     * @param repoConfig
+     * @param archive
+     * @param path       The exact path (as stored by Borg, without leading slash).
+     * @return true or false, if the archive content is cached, otherwise null (unknown).
+     */
+    public Boolean containsPath(BorgRepoConfig repoConfig, Archive archive, String path) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null) {
+            return null;
+        }
+        if (!ArchiveFilelistFormat.isFilelistFormat(file)) {
+            // Legacy files have to be read completely.
+            List<BorgFilesystemItem> items = load(repoConfig, archive, null);
+            if (items == null) {
+                return null;
+            }
+            for (BorgFilesystemItem item : items) {
+                if (path.equals(item.getPath())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            return containsPath(reader, path, 0);
+        } catch (Exception ex) {
+            log.error("Error while reading file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private boolean containsPath(ArchiveFilelistReader reader, String path, int depth) throws IOException {
+        PathBloomFilter bloomFilter = reader.readBloomFilter();
+        if (bloomFilter == null || bloomFilter.mightContain(path)) {
+            // Probably contained (or no Bloom filter available):
+            int[] blockRange = reader.getBlockRange(path);
+            try (ArchiveFilelistReader.BlockIterator it = reader.readBlocks(blockRange[0], blockRange[1])) {
+                while (it.hasNext()) {
+                    for (BorgFilesystemItem item : it.next()) {
+                        if (path.equals(item.getPath())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        ArchiveFilelistReader.DeltaInfo deltaInfo = reader.getDeltaInfo();
+        if (deltaInfo == null || reader.readRemovedPaths().contains(path)) {
+            return false;
+        }
+        if (depth >= MAX_DELTA_CHAIN_LENGTH) {
+            throw new IOException("Delta chain too long: " + reader.getFile().getAbsolutePath());
+        }
+        // Not modified by the delta, so the base decides:
+        File baseFile = new File(reader.getFile().getParentFile(), deltaInfo.getBaseFileName());
+        try (ArchiveFilelistReader baseReader = ArchiveFilelistReader.open(baseFile)) {
+            if (baseReader.getFileId() != deltaInfo.getBaseFileId()) {
+                throw new IOException("Base file list '" + baseFile.getAbsolutePath() + "' of delta was replaced.");
+            }
+            return containsPath(baseReader, path, depth + 1);
+        }
+    }
+
+    /**
+     * Gets the statistics of the archive content stored with the file list, so the file list isn't read. For file
+     * lists written without statistics (by older versions) the statistics are computed by streaming the file list.
+     * The file isn't touched.
+     *
+     * @param repoConfig
+     * @param archive
+     * @return The statistics or null, if the archive content isn't cached.
+     */
+    public ArchiveStatistics loadStatistics(BorgRepoConfig repoConfig, Archive archive) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null) {
+            return null;
+        }
+        if (ArchiveFilelistFormat.isFilelistFormat(file)) {
+            try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+                ArchiveStatistics statistics = reader.readStatistics();
+                if (statistics != null) {
+                    return statistics;
                 }
-            } catch (IOException ex) {
-                log.error("Error while writing file list '" + file.getAbsolutePath() + "': " + ex.getMessage(), ex);
+            } catch (Exception ex) {
+                log.error("Error while reading statistics of file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
             }
-        } finally {
-            synchronized (savingFiles) {
-                savingFiles.remove(file);
+        }
+        ArchiveStatisticsCollector collector = new ArchiveStatisticsCollector();
+        try (Stream<BorgFilesystemItem> stream = stream(repoConfig, archive, null)) {
+            if (stream == null) {
+                return null;
             }
+            stream.forEach(collector::add);
+        } catch (UncheckedIOException ex) {
+            log.error("Error while reading file list '" + file.getAbsolutePath() + "' for the statistics: " + ex.getMessage(), ex);
+            return null;
         }
-        log.info("Saving done.");
+        return collector.getStatistics();
     }
 
     /**
-     * @param repository
+     * Gets the tree view of the current directory of the given filter by the directory index stored with the file
+     * list (see {@link ArchiveFilelistFormat#SECTION_DIRECTORY_INDEX}): only the blocks containing the children are
+     * read (deltas are merged with their base up to the last child). The file will be touched as well.
+     *
+     * @param repoConfig
      * @param archive
-     * @return true, if the content of the archive is already cached, otherwise false.
+     * @param filter     A filter of {@link FileSystemFilter#isDirectoryLookup()}.
+     * @return The reduced list (see {@link FileSystemFilter#reduce(DirectoryIndex, java.util.function.Function)}) or
+     * null, if the archive content isn't cached, not readable or written without directory index (by older versions).
      */
-    public boolean contains(Repository repository, Archive archive) {
-        File file = getFile(repository, archive);
-        return file.exists();
+    public List<BorgFilesystemItem> loadDirectory(BorgRepoConfig repoConfig, Archive archive, FileSystemFilter filter) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null || !ArchiveFilelistFormat.isFilelistFormat(file) || !file.equals(getFile(repoConfig, archive))) {
+            // Legacy files and files stored by name are migrated on loading.
+            return null;
+        }
+        if (!manifest.verify(file)) {
+            deleteFile(file.getName(), getDependents());
+            return null;
+        }
+        touch(file);
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            DirectoryIndex index = reader.readDirectoryIndex();
+            if (index == null) {
+                return null;
+            }
+            return filter.reduce(index, rows -> {
+                try {
+                    return readItems(reader, rows);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (Exception ex) {
+            log.error("Error while reading directory '" + filter.getCurrentDirectory() + "' of file list '"
+                    + file.getAbsolutePath() + "': " + ex.getMessage());
+            return null;
+        }
     }
 
     /**
-     * Calls {@link #load(BorgRepoConfig, Archive, FileSystemFilter)} with filter null.
+     * Searches the paths by the trigram index stored with the file list: only the blocks containing candidates are
+     * read (deltas are streamed), so the file list isn't loaded into memory.
      *
      * @param repoConfig
      * @param archive
-     * @return
+     * @param filter     A filter of {@link PathTrigramIndex#isNarrowing(FileSystemFilter)}.
+     * @return The matching items or null, if the archive content isn't cached, not readable or written without trigram
+     * index (by older versions).
      */
-    public List<BorgFilesystemItem> load(BorgRepoConfig repoConfig, Archive archive) {
-        return load(repoConfig, archive, null);
+    public List<BorgFilesystemItem> search(BorgRepoConfig repoConfig, Archive archive, FileSystemFilter filter) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null || !ArchiveFilelistFormat.isFilelistFormat(file) || !file.equals(getFile(repoConfig, archive))) {
+            // Legacy files and files stored by name are migrated on loading.
+            return null;
+        }
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            if (reader.readPathTrigramIndex() == null) {
+                return null;
+            }
+        } catch (Exception ex) {
+            log.error("Error while reading trigram index of file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
+            return null;
+        }
+        return load(file, archive, filter);
     }
 
+    /**
+     * Gets the directory index stored with the file list (e. g. for the totals of the sub directories of tree views).
+     * The file isn't touched.
+     *
+     * @return The index (a view of the memory mapped file) or null, if the archive content isn't cached or written
+     * without directory index (by older versions).
+     */
+    public DirectoryIndex loadDirectoryIndex(BorgRepoConfig repoConfig, Archive archive) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null || !ArchiveFilelistFormat.isFilelistFormat(file)) {
+            return null;
+        }
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            return reader.readDirectoryIndex();
+        } catch (Exception ex) {
+            log.error("Error while reading directory index of file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
+            return null;
+        }
+    }
 
     /**
-     * Will load and touch the archive file if exist. The file will be touched (last modified time will be set to now)
-     * for pruning oldest cache files. The last modified time will be the time of the last usage.
+     * Reads the items of the given file numbers: only the blocks containing them are read, deltas are merged with their
+     * base up to the last requested item.
+     *
+     * @param fileNumbers Ascending file numbers.
+     * @return The items in the order of the file numbers.
+     */
+    private List<BorgFilesystemItem> readItems(ArchiveFilelistReader reader, int[] fileNumbers) throws IOException {
+        List<BorgFilesystemItem> list = new ArrayList<>(fileNumbers.length);
+        if (reader.getDeltaInfo() != null) {
+            // The file numbers of a delta are known after merging with the base only (the iterator closes its reader):
+            try (FilelistIterator it = new FilelistIterator(ArchiveFilelistReader.open(reader.getFile()), null, 0)) {
+                int fileNumber = 0;
+                while (list.size() < fileNumbers.length && it.hasNext()) {
+                    BorgFilesystemItem item = it.next();
+                    if (fileNumber++ == fileNumbers[list.size()]) {
+                        list.add(item);
+                    }
+                }
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+        } else {
+            int[] blocks = new int[fileNumbers.length];
+            int blockCount = 0;
+            for (int fileNumber : fileNumbers) {
+                int block = reader.getBlockOfItem(fileNumber);
+                if (block >= 0 && (blockCount == 0 || blocks[blockCount - 1] != block)) {
+                    blocks[blockCount++] = block;
+                }
+            }
+            try (ArchiveFilelistReader.BlockIterator it = reader.readBlocks(Arrays.copyOf(blocks, blockCount))) {
+                int i = 0;
+                for (int b = 0; b < blockCount; b++) {
+                    List<BorgFilesystemItem> items = it.next();
+                    int firstItem = reader.getBlockFirstItem(blocks[b]);
+                    for (; i < fileNumbers.length && fileNumbers[i] < firstItem + items.size(); i++) {
+                        // The file numbers aren't set by the Kryo encoding:
+                        list.add(items.get(fileNumbers[i] - firstItem).setFileNumber(fileNumbers[i]));
+                    }
+                }
+            }
+        }
+        if (list.size() != fileNumbers.length) {
+            throw new IOException("Directory index doesn't match the file list.");
+        }
+        return list;
+    }
+
+    /**
+     * Reads only the requested item (the file number is used as direct index). The file will be touched as well.
      *
      * @param repoConfig
      * @param archive
-     * @param filter     If given, only file items matching this filter are returned.
-     * @return
+     * @param fileNumber
+     * @return The item or null, if the archive content isn't cached or no such item exists.
      */
-    public List<BorgFilesystemItem> load(BorgRepoConfig repoConfig, Archive archive, FileSystemFilter filter) {
-        File file = getFile(repoConfig, archive);
-        if (!file.exists()) {
+    public BorgFilesystemItem loadItem(BorgRepoConfig repoConfig, Archive archive, int fileNumber) {
+        File file = getExistingFile(repoConfig.getRepo(), archive);
+        if (file == null || !ArchiveFilelistFormat.isFilelistFormat(file)) {
+            // Legacy files (if any) have to be read completely.
+            List<BorgFilesystemItem> items = load(repoConfig, archive, new FileSystemFilter().setFileNumber(fileNumber));
+            return CollectionUtils.isNotEmpty(items) ? items.get(0) : null;
+        }
+        if (!manifest.verify(file)) {
+            deleteFile(file.getName(), getDependents());
+            return null;
+        }
+        touch(file);
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            if (reader.getDeltaInfo() != null) {
+                // The file numbers of a delta are known after merging with the base only.
+                List<BorgFilesystemItem> items = readAll(reader, 0);
+                return fileNumber >= 0 && fileNumber < items.size() ? items.get(fileNumber) : null;
+            }
+            return reader.readItem(fileNumber);
+        } catch (Exception ex) {
+            log.error("Error while reading file #" + fileNumber + " of file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
             return null;
         }
-        return load(file, archive, filter);
     }
 
     /**
-     * @param file
-     * @param filter If given, only file items matching this filter are returned.
-     * @return
+     * Rewrites all cache files of older format versions or encodings and files stored by name instead of archive id
+     * in the background (one after another in a thread of low priority). Files of the legacy format don't contain their repo and archive, so they're migrated on their
+     * first usage by {@link #load(BorgRepoConfig, Archive, FileSystemFilter)}.
+     * <br>
+     * Deltas and base files of deltas are never outdated (they're written in the current format).
+     *
+     * @return The future of the migration (for waiting in tests).
      */
-    public List<BorgFilesystemItem> load(File file, FileSystemFilter filter) {
-        return load(file, null, filter);
+    public Future<?> migrateOutdatedFiles() {
+        return migrationExecutorService.submit(() -> {
+            for (ArchiveFilelistCacheManifest.Entry entry : manifest.getEntries()) {
+                File file = new File(cacheDir, entry.getFileName());
+                if (!isFilelistFile(file)) continue;
+                String repo = null;
+                Archive archive = null;
+                try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+                    if (StringUtils.isNotBlank(reader.getArchiveTime()) && !getDependents().containsKey(file.getName())) {
+                        Archive fileArchive = new Archive().setId(reader.getArchiveId()).setName(reader.getArchiveName())
+                                .setTime(reader.getArchiveTime());
+                        // Outdated format or stored by name instead of archive id:
+                        if (isOutdated(reader) || !file.equals(getFile(reader.getRepo(), fileArchive))) {
+                            repo = reader.getRepo();
+                            archive = fileArchive;
+                        }
+                    }
+                } catch (Exception ex) {
+                    log.warn("Can't read file list '" + file.getAbsolutePath() + "': " + ex.getMessage());
+                }
+                if (archive != null) {
+                    migrate(file, repo, archive);
+                }
+            }
+        });
     }
 
     /**
-     * @param file
-     * @param archive Only for storing file system items as recent (may-be null)
-     * @param filter  If given, only file items matching this filter are returned.
-     * @return
+     * Reads the given file completely and writes it in the current format (the file name is given by the repo and
+     * archive and doesn't change for files of the current format). The usage of the file is taken over.
+     *
+     * @return true, if the file was migrated successfully.
      */
-    public List<BorgFilesystemItem> load(File file, Archive archive, FileSystemFilter filter) throws RuntimeException {
-        if (!file.exists()) {
-            log.error("File '" + file.getAbsolutePath() + "' doesn't exist. Can't get archive content files.");
-            return null;
+    boolean migrate(File file, String repo, Archive archive) {
+        ArchiveFilelistCacheManifest.Entry oldEntry = manifest.get(file.getName());
+        if (oldEntry == null) {
+            // Deleted in the meantime.
+            return false;
         }
-        log.info("Loading archive content as file list from: " + file.getAbsolutePath());
-        try {
-            // Set last modified time of file:
-            Files.setAttribute(file.toPath(), "lastModifiedTime", FileTime.fromMillis(System.currentTimeMillis()));
-        } catch (IOException ex) {
-            log.error("Can't set lastModifiedTime on file '" + file.getAbsolutePath() + "'. Pruning old cache files may not work.");
+        log.info("Migrating cache file to current format: " + file.getAbsolutePath());
+        List<BorgFilesystemItem> items;
+        if (ArchiveFilelistFormat.isFilelistFormat(file)) {
+            try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+                items = readAll(reader, 0);
+            } catch (Exception ex) {
+                log.error("Error while reading file list '" + file.getAbsolutePath() + "' for migration: " + ex.getMessage());
+                return false;
+            }
+        } else {
+            items = loadLegacy(file, null);
+        }
+        if (CollectionUtils.isEmpty(items)) {
+            return false;
+        }
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo(repo);
+        save(repoConfig, archive, items);
+        File newFile = getFile(repoConfig, archive);
+        ArchiveFilelistCacheManifest.Entry newEntry = manifest.get(newFile.getName());
+        if (newEntry == null || (newFile.equals(file) && newEntry.getChecksum() == oldEntry.getChecksum())) {
+            log.error("Migration of cache file '" + file.getAbsolutePath() + "' failed.");
+            return false;
+        }
+        // Migration isn't a usage:
+        manifest.put(newEntry.setLastAccess(oldEntry.getLastAccess()).setHitCount(oldEntry.getHitCount()));
+        return true;
+    }
+
+    /**
+     * @return true, if the file list isn't written in the current format version with the default encoding. File lists
+     * exceeding one run of the ingest are written without path dictionary (see {@link #saveSorted(BorgRepoConfig, Archive, int, Iterator)}).
+     */
+    private boolean isOutdated(ArchiveFilelistReader reader) {
+        if (reader.getDeltaInfo() != null) {
+            return false;
+        }
+        if (reader.getFormatVersion() < ArchiveFilelistFormat.FORMAT_VERSION) {
+            return true;
+        }
+        if (reader.getEncoding() == ArchiveFilelistFormat.ENCODING_COMPACT) {
+            return reader.getItemCount() <= ArchiveFilelistIngest.DEFAULT_RUN_SIZE;
+        }
+        return reader.getEncoding() != ArchiveFilelistFormat.ENCODING_PATH_IDS;
+    }
+
+    /**
+     * Registers the usage of the file in the manifest (for pruning the oldest cache files).
+     */
+    private void touch(File file) {
+        manifest.registerAccess(file.getName(), System.currentTimeMillis());
+    }
+
+    /**
+     * In tree mode only the items of the current directory are of interest. The sparse path index is used for
+     * reading only the blocks containing the current directory.
+     * <br>
+     * In flat mode the zone maps are used for skipping blocks not matching the size, mtime and type criteria of the
+     * filter. This isn't done in tree mode, because the directory items of the current directory are needed for
+     * registering the sub directories (even if they don't match). Searches skip the blocks not containing all
+     * trigrams of the search key words (see {@link PathTrigramIndex}).
+     *
+     * @return The blocks to read.
+     */
+    private int[] getBlocks(ArchiveFilelistReader reader, FileSystemFilter filter) throws IOException {
+        if (filter != null && filter.getMode() == FileSystemFilter.Mode.TREE) {
+            int[] blockRange = reader.getBlockRange(filter.getCurrentDirectory());
+            return reader.getMatchingBlocks(blockRange[0], blockRange[1], null);
         }
+        int[] blocks = reader.getMatchingBlocks(0, reader.getBlockCount(), filter);
+        PathTrigramIndex pathTrigramIndex = PathTrigramIndex.isNarrowing(filter) ? reader.readPathTrigramIndex() : null;
+        if (pathTrigramIndex == null) {
+            return blocks;
+        }
+        // Only the blocks containing all trigrams of the search key words may contain matching items:
+        int[] candidates = pathTrigramIndex.getCandidates(filter.getSearchKeyWords());
+        int[] result = new int[Math.min(blocks.length, candidates.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < blocks.length && j < candidates.length; ) {
+            if (blocks[i] < candidates[j]) {
+                ++i;
+            } else if (blocks[i] > candidates[j]) {
+                ++j;
+            } else {
+                result[count++] = blocks[i++];
+                ++j;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Reads files of the legacy format (one gzipped Kryo stream of all items).
+     */
+    private List<BorgFilesystemItem> loadLegacy(File file, FileSystemFilter filter) {
         List<BorgFilesystemItem> list = new ArrayList<>();
         long millis = System.currentTimeMillis();
         // GZipCompressorInputStream buffers already, no BufferedInputReader needed.
-        Kryo kryo = createKryo();
+        Kryo kryo = ArchiveFilelistFormat.createKryo();
         try (Input inputStream = new Input(new GzipCompressorInputStream(new FileInputStream(file)))) {
             String serializationId = kryo.readObject(inputStream, String.class);
-            if (!SERIALIZATION_ID_STRING.equals(serializationId)) {
-                log.info("Incompatible archive cache file format. Expected id '" + SERIALIZATION_ID_STRING + "', but received: '" + serializationId
-                + "'. OK, trying to get the data from Borg again.");
+            if (!ArchiveFilelistFormat.LEGACY_SERIALIZATION_ID_STRING.equals(serializationId)) {
+                log.info("Incompatible archive cache file format. Expected id '" + ArchiveFilelistFormat.LEGACY_SERIALIZATION_ID_STRING
+                        + "', but received: '" + serializationId + "'. OK, trying to get the data from Borg again.");
                 return null;
             }
             int size = kryo.readObject(inputStream, Integer.class);
             for (int i = 0; i < size; i++) {
-                BorgFilesystemItem item = kryo.readObject(inputStream, BorgFilesystemItem.class);
+                BorgFilesystemItem item = kryo.readObject(inputStream, KryoFilesystemItem.class).toItem();
                 if (filter == null || filter.matches(item)) {
                     list.add(item);
                     if (filter != null && filter.isFinished()) break;
@@ -179,7 +1483,7 @@ class ArchiveFilelistCache {
             return null;
         }
         BigDecimal bd = new BigDecimal(System.currentTimeMillis() - millis).divide(THOUSAND, 1, RoundingMode.HALF_UP);
-        log.info("Loading of " + String.format("%,d", list.size()) + " file system items done in " + bd + " seconds.");
+        log.info("Loading of " + String.format("%,d", list.size()) + " file system items (legacy format) done in " + bd + " seconds.");
         return filter(list, filter);
     }
 
@@ -191,91 +1495,371 @@ class ArchiveFilelistCache {
     }
 
     /**
-     * Deletes archive contents older than 7 days and deletes the oldest archive contents if the max cache size is
-     * exceeded. The last modified time of a file is equals to the last usage by
-     * {@link #load(BorgRepoConfig, Archive, FileSystemFilter)}.
+     * Calls {@link #cleanUp(Map)} without quotas of repositories.
      */
     public void cleanUp() {
-        File[] files = cacheDir.listFiles();
+        cleanUp(Collections.emptyMap());
+    }
+
+    /**
+     * Deletes archive contents not used for 7 days and deletes archive contents of the lowest priority (see
+     * {@link ArchiveFilelistCacheManifest}) if the quota of a repository or the max cache size is exceeded. Pinned
+     * archive contents (and the base file lists of pinned deltas) are never deleted. Usage and priority of a file
+     * are taken from the manifest, so no file system access is needed except for deleting. Deltas of deleted files are
+     * deleted as well, so a base file list is used as long as one of its deltas is used (see
+     * {@link #inheritUsageOfDeltas(List)}).
+     * <br>
+     * The path dictionaries and path histories are counted, but only deleted if no archive content is left. Paths
+     * not referenced anymore are removed from the path dictionaries (see {@link RepoPathDictionary}).
+     *
+     * @param repoQuotasMB The maximum size of the archive contents of a repository in MB (by repo).
+     */
+    public void cleanUp(Map<String, Integer> repoQuotasMB) {
         long currentMillis = System.currentTimeMillis();
-        for (File file : files) {
-            try {
-                if (!file.exists() || !isCacheFile(file)) continue;
-                // Get last modified time of file:
-                FileTime time = Files.readAttributes(file.toPath(), BasicFileAttributes.class).lastModifiedTime();
-                if (currentMillis - FILES_EXPIRE_TIME > time.toMillis()) {
-                    log.info("Delete expired cache file (last usage " + time + " older than 7 days): " + file.getAbsolutePath());
-                    file.delete();
+        List<ArchiveFilelistCacheManifest.Entry> entries = manifest.getEntries();
+        inheritUsageOfDeltas(entries);
+        Map<String, List<String>> dependents = getDependents();
+        Set<String> protectedFiles = getProtectedFiles(entries);
+        Set<String> deleted = new HashSet<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : entries) {
+            if (!deleted.contains(entry.getFileName()) && !protectedFiles.contains(entry.getFileName())
+                    && currentMillis - FILES_EXPIRE_TIME > entry.getLastAccess()) {
+                log.info("Delete expired cache file (last usage " + new Date(entry.getLastAccess()) + " older than 7 days): "
+                        + entry.getFileName());
+                deleted.addAll(deleteFile(entry.getFileName(), dependents));
+            }
+        }
+        // Candidates for eviction, the lowest priority first:
+        List<ArchiveFilelistCacheManifest.Entry> candidates = new ArrayList<>();
+        Map<String, ArchiveFilelistCacheManifest.Entry> entryMap = new HashMap<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : entries) {
+            if (deleted.contains(entry.getFileName())) continue;
+            entryMap.put(entry.getFileName(), entry);
+            if (!protectedFiles.contains(entry.getFileName())) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(ArchiveFilelistCacheManifest.Entry::getPriority));
+        for (Map.Entry<String, Integer> quota : repoQuotasMB.entrySet()) {
+            String repo = quota.getKey();
+            int repoSizeInMB = 0;
+            for (ArchiveFilelistCacheManifest.Entry entry : entryMap.values()) {
+                if (repo.equals(entry.getRepo())) {
+                    repoSizeInMB += toMB(entry.getSize());
+                }
+            }
+            if (repoSizeInMB <= quota.getValue()) {
+                continue;
+            }
+            log.info("Quota of cache files of repo '" + repo + "' exceeded (" + repoSizeInMB + "MB > " + quota.getValue()
+                    + "MB). Deleting the ones of the lowest priority...");
+            for (ArchiveFilelistCacheManifest.Entry entry : candidates) {
+                if (repoSizeInMB <= quota.getValue()) break;
+                if (deleted.contains(entry.getFileName()) || !repo.equals(entry.getRepo())) continue;
+                for (ArchiveFilelistCacheManifest.Entry evicted : evict(entry, dependents, entryMap)) {
+                    deleted.add(evicted.getFileName());
+                    if (repo.equals(evicted.getRepo())) {
+                        repoSizeInMB -= toMB(evicted.getSize());
+                    }
                 }
-            } catch (IOException ex) {
-                log.error("Can't get last modified time from cache files (ignore file '" + file.getAbsolutePath() + "'): " + ex.getMessage(), ex);
             }
         }
-        int sizeInMB = getCacheDiskSizeInMB(files);
+        compactPathDictionaries(entryMap.values());
+        File[] dictionaryFiles = getDictionaryFiles();
+        int sizeInMB = getCacheDiskSizeInMB(dictionaryFiles);
         if (sizeInMB > cacheArchiveContentMaxDiscSizeMB) {
             log.info("Maximum size of cache files exceeded (" + sizeInMB + "MB > " + cacheArchiveContentMaxDiscSizeMB
-                    + "MB). Deleting the old ones (with the oldest usage)...");
+                    + "MB). Deleting the ones of the lowest priority...");
         } else {
             // Nothing to clean up anymore.
             return;
         }
-        SortedMap<FileTime, File> sortedFiles = new TreeMap<>();
-        for (File file : files) {
-            if (!file.exists() || !isCacheFile(file)) continue;
+        int newSizeInMB = sizeInMB;
+        for (ArchiveFilelistCacheManifest.Entry entry : candidates) {
+            if (deleted.contains(entry.getFileName())) continue;
+            for (ArchiveFilelistCacheManifest.Entry evicted : evict(entry, dependents, entryMap)) {
+                deleted.add(evicted.getFileName());
+                newSizeInMB -= toMB(evicted.getSize());
+            }
+            if (newSizeInMB < cacheArchiveContentMaxDiscSizeMB) {
+                log.info("New cache size is " + newSizeInMB + "MB. (" + (sizeInMB - newSizeInMB) + "MB deleted.)");
+                return;
+            }
+        }
+        if (!manifest.getEntries().isEmpty()) {
+            // Path dictionaries are still in use (or pinned archive contents exceed the maximum size).
+            return;
+        }
+        for (File file : dictionaryFiles) {
+            log.info("Deleting unused path dictionary: " + file.getAbsolutePath());
+            RepoPathDictionary.delete(file);
+        }
+        for (File file : getHistoryFiles()) {
+            log.info("Deleting unused path history: " + file.getAbsolutePath());
+            RepoPathHistory.delete(file);
+        }
+    }
+
+    /**
+     * Removes the paths not referenced anymore by the file lists of a repo from its path dictionary, if a check is due
+     * (see {@link RepoPathDictionary#isCheckDue(int)}). All file lists of the repo are decoded for collecting the
+     * referenced paths.
+     *
+     * @param entries The entries of all file lists not deleted.
+     */
+    private void compactPathDictionaries(Collection<ArchiveFilelistCacheManifest.Entry> entries) {
+        Map<String, List<ArchiveFilelistCacheManifest.Entry>> entriesByRepo = new HashMap<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : entries) {
+            if (entry.getRepo() != null) {
+                entriesByRepo.computeIfAbsent(entry.getRepo(), key -> new ArrayList<>()).add(entry);
+            }
+        }
+        for (Map.Entry<String, List<ArchiveFilelistCacheManifest.Entry>> repoEntries : entriesByRepo.entrySet()) {
+            File dictionaryFile = RepoPathDictionary.getFile(cacheDir, repoEntries.getKey());
+            if (!dictionaryFile.exists()) {
+                continue;
+            }
             try {
-                // Get last modified time of file:
-                FileTime time = Files.readAttributes(file.toPath(), BasicFileAttributes.class).lastModifiedTime();
-                sortedFiles.put(time, file);
+                RepoPathDictionary dictionary = RepoPathDictionary.getInstance(dictionaryFile);
+                if (!dictionary.isCheckDue(repoEntries.getValue().size())) {
+                    continue;
+                }
+                // No paths are added meanwhile:
+                try (CacheFileLock lock = dictionary.lock()) {
+                    BitSet referencedIds = new BitSet(dictionary.getSize());
+                    List<Long> fileIds = new ArrayList<>();
+                    for (ArchiveFilelistCacheManifest.Entry entry : repoEntries.getValue()) {
+                        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(new File(cacheDir, entry.getFileName()))) {
+                            if (reader.getEncoding() == ArchiveFilelistFormat.ENCODING_PATH_IDS) {
+                                reader.collectPathIds(referencedIds);
+                                fileIds.add(reader.getFileId());
+                            }
+                        } catch (IOException ex) {
+                            // Not readable (e. g. written with a deleted dictionary), so no paths are referenced.
+                            log.warn("Can't read cache file '" + entry.getFileName() + "': " + ex.getMessage());
+                        }
+                    }
+                    dictionary.compact(referencedIds, fileIds);
+                }
             } catch (IOException ex) {
-                log.error("Can't get last modified time from cache files (ignore file '" + file.getAbsolutePath() + "'): " + ex.getMessage(), ex);
+                log.error("Error while compacting path dictionary '" + dictionaryFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
             }
         }
-        for (Map.Entry<FileTime, File> entry : sortedFiles.entrySet()) {
-            FileTime time = entry.getKey();
-            File file = entry.getValue();
-            if (!file.exists() || !isCacheFile(file)) continue;
-            log.info("Deleting cache file (last usage " + time + "): " + file.getAbsolutePath());
-            file.delete();
-            int newSizeInMB = getCacheDiskSizeInMB(files);
-            if (newSizeInMB < cacheArchiveContentMaxDiscSizeMB) {
-                log.info("New cache size is " + newSizeInMB + "MB. (" + (sizeInMB - newSizeInMB) + "MB deleted.)");
-                break;
+    }
+
+    /**
+     * Deletes the file of the given entry (and its deltas) and raises the inflation value of the manifest.
+     *
+     * @return The entries of all deleted files.
+     */
+    private List<ArchiveFilelistCacheManifest.Entry> evict(ArchiveFilelistCacheManifest.Entry entry,
+                                                           Map<String, List<String>> dependents,
+                                                           Map<String, ArchiveFilelistCacheManifest.Entry> entryMap) {
+        log.info("Deleting cache file (priority " + String.format("%.2f", entry.getPriority()) + ", last usage "
+                + new Date(entry.getLastAccess()) + "): " + entry.getFileName());
+        manifest.registerEviction(entry);
+        List<ArchiveFilelistCacheManifest.Entry> evicted = new ArrayList<>();
+        for (String fileName : deleteFile(entry.getFileName(), dependents)) {
+            ArchiveFilelistCacheManifest.Entry deletedEntry = entryMap.remove(fileName);
+            if (deletedEntry != null) {
+                evicted.add(deletedEntry);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Reading a delta reads its base file list, but file lists served by the memory cache register the access of the
+     * delta only. So every base file list gets the last access and the priority of its most recently used and most
+     * valuable delta (recursively), otherwise an idle base would be deleted together with its deltas in use.
+     *
+     * @param entries Copies of the manifest entries, modified in place.
+     */
+    private void inheritUsageOfDeltas(List<ArchiveFilelistCacheManifest.Entry> entries) {
+        Map<String, ArchiveFilelistCacheManifest.Entry> entryMap = new HashMap<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : entries) {
+            entryMap.put(entry.getFileName(), entry);
+        }
+        for (ArchiveFilelistCacheManifest.Entry entry : entries) {
+            Set<String> visited = new HashSet<>();
+            visited.add(entry.getFileName());
+            ArchiveFilelistCacheManifest.Entry base = entry.getBaseFileName() != null ? entryMap.get(entry.getBaseFileName()) : null;
+            while (base != null && visited.add(base.getFileName())) {
+                base.setLastAccess(Math.max(base.getLastAccess(), entry.getLastAccess()));
+                base.setPriority(Math.max(base.getPriority(), entry.getPriority()));
+                base = base.getBaseFileName() != null ? entryMap.get(base.getBaseFileName()) : null;
+            }
+        }
+    }
+
+    /**
+     * @return The names of the pinned files and of the base files of pinned deltas (recursively).
+     */
+    private Set<String> getProtectedFiles(List<ArchiveFilelistCacheManifest.Entry> entries) {
+        Map<String, ArchiveFilelistCacheManifest.Entry> entryMap = new HashMap<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : entries) {
+            entryMap.put(entry.getFileName(), entry);
+        }
+        Set<String> protectedFiles = new HashSet<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : entries) {
+            if (!entry.isPinned()) continue;
+            ArchiveFilelistCacheManifest.Entry current = entry;
+            while (current != null && protectedFiles.add(current.getFileName()) && current.getBaseFileName() != null) {
+                current = entryMap.get(current.getBaseFileName());
+            }
+        }
+        return protectedFiles;
+    }
+
+    /**
+     * Pinned archive contents are never deleted by {@link #cleanUp(Map)} (but by {@link #removeAllCacheFiles()}).
+     *
+     * @return false, if the archive content isn't cached.
+     */
+    public boolean setPinned(Repository repository, Archive archive, boolean pinned) {
+        for (File file : getFiles(repository.getName(), archive)) {
+            if (manifest.contains(file.getName())) {
+                return manifest.setPinned(file.getName(), pinned);
+            }
+        }
+        return false;
+    }
+
+    public boolean isPinned(Repository repository, Archive archive) {
+        for (File file : getFiles(repository.getName(), archive)) {
+            if (isPinned(file)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private boolean isPinned(File file) {
+        ArchiveFilelistCacheManifest.Entry entry = manifest.get(file.getName());
+        return entry != null && entry.isPinned();
     }
 
     public int getCacheDiskSizeInMB() {
-        return getCacheDiskSizeInMB(cacheDir.listFiles());
+        return getCacheDiskSizeInMB(getDictionaryFiles());
     }
 
-    private int getCacheDiskSizeInMB(File[] files) {
+    private int getCacheDiskSizeInMB(File[] dictionaryFiles) {
         int sizeInMB = 0;
-        for (File file : files) {
-            if (!file.exists()) continue;
-            if (!isCacheFile(file)) continue;
-            sizeInMB += (int) (file.length() / 1048576); // In MB
+        for (ArchiveFilelistCacheManifest.Entry entry : manifest.getEntries()) {
+            sizeInMB += toMB(entry.getSize());
+        }
+        for (File file : dictionaryFiles) {
+            sizeInMB += toMB(file.length());
+        }
+        for (File file : getHistoryFiles()) {
+            sizeInMB += toMB(file.length());
         }
         return sizeInMB;
     }
 
+    private int toMB(long size) {
+        return (int) (size / 1048576);
+    }
+
+    private File[] getDictionaryFiles() {
+        File[] files = cacheDir.listFiles(RepoPathDictionary::isDictionaryFile);
+        return files != null ? files : new File[0];
+    }
+
+    private File[] getHistoryFiles() {
+        File[] files = cacheDir.listFiles(RepoPathHistory::isHistoryFile);
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Writes the manifest (accesses are written in batches only).
+     */
+    public void flush() {
+        manifest.flush();
+    }
+
     public void removeAllCacheFiles() {
         File[] files = cacheDir.listFiles();
         for (File file : files) {
             if (isCacheFile(file)) {
                 log.info("Deleting cache file: " + file.getAbsolutePath());
+                ArchiveFilelistCacheManifest.delete(file);
+            } else if (RepoPathDictionary.isDictionaryFile(file)) {
+                log.info("Deleting path dictionary: " + file.getAbsolutePath());
+                RepoPathDictionary.delete(file);
+            } else if (RepoPathHistory.isHistoryFile(file)) {
+                log.info("Deleting path history: " + file.getAbsolutePath());
+                RepoPathHistory.delete(file);
+            } else if (CacheFileLock.isLockFile(file) && !ArchiveFilelistCacheManifest.LOCK_FILENAME.equals(file.getName())) {
+                // Left by older versions (deleted together with the path dictionaries and path histories):
+                log.info("Deleting lock file: " + file.getAbsolutePath());
                 file.delete();
             }
         }
+        manifest.clear();
     }
 
     public void deleteCachFile(Repository repository, Archive archive) {
-        File file = getFile(repository, archive);
-        if (file.exists()) {
-            log.info("Deleting cache file: " + file.getAbsolutePath());
-            file.delete();
-        } else {
-            log.info("Can't delete requested file because it doesn't exist (anymore): " + file.getAbsolutePath());
+        boolean deleted = false;
+        for (File file : getFiles(repository.getName(), archive)) {
+            if (file.exists()) {
+                log.info("Deleting cache file: " + file.getAbsolutePath());
+                deleteFile(file.getName(), getDependents());
+                deleted = true;
+            }
+        }
+        if (!deleted) {
+            log.info("Can't delete requested file because it doesn't exist (anymore): " + getFile(repository, archive).getAbsolutePath());
+        }
+    }
+
+    /**
+     * Deletes the given file list and all deltas based on it (recursively) and removes them from the manifest.
+     *
+     * @param fileName
+     * @param dependents The deltas of each file, see {@link #getDependents()}.
+     * @return The names of all deleted files.
+     */
+    private List<String> deleteFile(String fileName, Map<String, List<String>> dependents) {
+        List<String> deleted = new ArrayList<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(fileName);
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (deleted.contains(name)) continue;
+            if (!name.equals(fileName)) {
+                log.info("Deleting delta: " + name);
+            }
+            // A file still in use is registered again on the next start (see initManifest):
+            ArchiveFilelistCacheManifest.delete(new File(cacheDir, name));
+            deleted.add(name);
+            List<String> deltas = dependents.get(name);
+            if (deltas != null) {
+                queue.addAll(deltas);
+            }
+        }
+        manifest.remove(deleted.toArray(new String[0]));
+        return deleted;
+    }
+
+    /**
+     * @return For every base file name the names of its deltas (from the manifest).
+     */
+    private Map<String, List<String>> getDependents() {
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (ArchiveFilelistCacheManifest.Entry entry : manifest.getEntries()) {
+            if (entry.getBaseFileName() != null) {
+                dependents.computeIfAbsent(entry.getBaseFileName(), key -> new ArrayList<>()).add(entry.getFileName());
+            }
         }
+        return dependents;
+    }
+
+    /**
+     * Only for tests.
+     */
+    ArchiveFilelistCacheManifest getManifest() {
+        return manifest;
     }
 
     File getFile(Repository repository, Archive archive) {
@@ -286,25 +1870,76 @@ class ArchiveFilelistCache {
         return getFile(repoConfig.getRepo(), archive);
     }
 
+    /**
+     * Archive ids of Borg are immutable hashes of the archive content, so the file list of an archive is stored under
+     * its id (independent of the URL of the repo): all instances of BorgButler sharing the cache directory use the same
+     * file. Archives without id (should only occur in tests) are stored by time, repo and archive name.
+     */
     private File getFile(String repo, Archive archive) {
+        if (StringUtils.isNotBlank(archive.getId())) {
+            return new File(cacheDir, ReplaceUtils.encodeFilename(CACHE_ARCHIVE_LISTS_BASENAME + archive.getId()
+                    + CACHE_FILE_EXTENSION, true));
+        }
+        return getNamedFile(repo, archive);
+    }
+
+    /**
+     * @return The file of the archive stored by time, repo and archive name (used before the files were stored by
+     * archive id).
+     */
+    private File getNamedFile(String repo, Archive archive) {
+        return new File(cacheDir, ReplaceUtils.encodeFilename(CACHE_ARCHIVE_LISTS_BASENAME + archive.getTime()
+                        + "-" + repo + "-" + archive.getName() + CACHE_FILE_EXTENSION,
+                true));
+    }
+
+    /**
+     * @return The current, the named and the legacy file of the given archive (the first existing one is used).
+     */
+    private List<File> getFiles(String repo, Archive archive) {
+        List<File> files = new ArrayList<>(3);
+        files.add(getFile(repo, archive));
+        File namedFile = getNamedFile(repo, archive);
+        if (!files.contains(namedFile)) {
+            files.add(namedFile);
+        }
+        files.add(getLegacyFile(repo, archive));
+        return files;
+    }
+
+    /**
+     * @return The first existing file of {@link #getFiles(String, Archive)} or null, if the archive isn't cached.
+     */
+    private File getExistingFile(String repo, Archive archive) {
+        for (File file : getFiles(repo, archive)) {
+            if (file.exists()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The file of the legacy format (gzipped Kryo stream).
+     */
+    private File getLegacyFile(String repo, Archive archive) {
         return new File(cacheDir, ReplaceUtils.encodeFilename(CACHE_ARCHIVE_LISTS_BASENAME + archive.getTime()
                         + "-" + repo + "-" + archive.getName() + CACHE_FILE_GZIP_EXTENSION,
                 true));
     }
 
     private boolean isCacheFile(File file) {
-        return file.getName().startsWith(CACHE_ARCHIVE_LISTS_BASENAME);
+        String name = file.getName();
+        return name.startsWith(CACHE_ARCHIVE_LISTS_BASENAME)
+                && (name.endsWith(CACHE_FILE_EXTENSION) || name.endsWith(CACHE_FILE_GZIP_EXTENSION));
     }
 
-
-    private Kryo createKryo() {
-        Kryo kryo = new Kryo();
-        kryo.register(BorgFilesystemItem.class, 9);
-        kryo.register(BorgFilesystemItem.DiffStatus.class, 10);
-        kryo.setMaxDepth(10);
-        kryo.setWarnUnregisteredClasses(true);
-        kryo.setReferences(false);
-        return kryo;
+    /**
+     * @return true for cache files of the current format (no legacy files).
+     */
+    private boolean isFilelistFile(File file) {
+        return file.exists() && isCacheFile(file) && file.getName().endsWith(CACHE_FILE_EXTENSION)
+                && ArchiveFilelistFormat.isFilelistFormat(file);
     }
 }
 
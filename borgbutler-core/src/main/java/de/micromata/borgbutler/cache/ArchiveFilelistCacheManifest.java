@@ -0,0 +1,568 @@
+package de.micromata.borgbutler.cache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Manifest of the files of the {@link ArchiveFilelistCache}: size, last access, number of hits, checksum, base
+ * file (of deltas), repo and pin state of every cache file. The manifest is held in memory, so eviction and
+ * {@link #contains(String)} don't need the file system, and usage is tracked without touching the cache files.
+ * <br>
+ * Every entry has a priority for eviction (GreedyDual-Size-Frequency): {@code inflation + frequency / size}, updated
+ * on every access. The entry of the lowest priority is evicted first and its priority becomes the new inflation
+ * value, so entries not used for a long time age out, even if they were used often in the past. Small file lists
+ * used frequently stay longer in the cache than huge file lists browsed only once.
+ * <br>
+ * Structural changes (new and deleted files) are written immediately, accesses are written in batches of
+ * {@link #FLUSH_INTERVAL}. The manifest file is written to a temporary file followed by an atomic rename.
+ * <br>
+ * The cache directory may be shared by several processes: the manifest is only written while holding the lock file
+ * {@link #LOCK_FILENAME}. Before writing, the manifest is read again and the changes of this process (including
+ * the accesses not yet written) are applied, so changes of other processes aren't lost. Changes of other processes
+ * are read, if the manifest file was modified.
+ * <br>
+ * Instances are thread safe.
+ */
+class ArchiveFilelistCacheManifest {
+    private static Logger log = LoggerFactory.getLogger(ArchiveFilelistCacheManifest.class);
+    static final String FILENAME = "filelist-cache.manifest";
+    static final String LOCK_FILENAME = FILENAME + CacheFileLock.LOCK_FILE_EXTENSION;
+    /**
+     * 'BBCM' (BorgButler cache manifest).
+     */
+    private static final int MAGIC = 0x4242434D;
+    private static final int VERSION = 2;
+    /**
+     * Number of accesses after which the manifest is written.
+     */
+    static final int FLUSH_INTERVAL = 50;
+
+    private File file;
+    private File lockFile;
+    private Map<String, Entry> entries = new HashMap<>();
+    private double inflation;
+    /**
+     * Accesses of this process not yet written (by file name).
+     */
+    private Map<String, Access> pendingAccesses = new HashMap<>();
+    /**
+     * Checksums of the files already verified by this process (by file name).
+     */
+    private Map<String, Long> verifiedChecksums = new HashMap<>();
+    private long lastModified;
+    private long lastLength;
+    private int unsavedChanges;
+
+    ArchiveFilelistCacheManifest(File dir) {
+        this.file = new File(dir, FILENAME);
+        this.lockFile = new File(dir, LOCK_FILENAME);
+    }
+
+    /**
+     * @return true, if the manifest file was read successfully, false if it doesn't exist or isn't readable.
+     */
+    synchronized boolean read() {
+        entries.clear();
+        pendingAccesses.clear();
+        lastModified = lastLength = 0;
+        try (CacheFileLock lock = CacheFileLock.lock(lockFile)) {
+            return reload(true);
+        } catch (IOException ex) {
+            log.error("Can't lock cache manifest '" + file.getAbsolutePath() + "': " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads the manifest file and applies the accesses of this process not yet written.
+     *
+     * @param force If false, the file is only read if modified (by another process) since the last read.
+     * @return false, if the manifest file doesn't exist or isn't readable (the entries in memory are kept).
+     */
+    private boolean reload(boolean force) {
+        if (!file.exists()) {
+            return false;
+        }
+        if (!force && file.lastModified() == lastModified && file.length() == lastLength) {
+            return true;
+        }
+        long modified = file.lastModified();
+        long length = file.length();
+        Map<String, Entry> newEntries = new HashMap<>();
+        double newInflation = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version;
+            if (in.readInt() != MAGIC || (version = in.readInt()) < 1 || version > VERSION) {
+                log.warn("Unsupported format of cache manifest: " + file.getAbsolutePath());
+                return false;
+            }
+            if (version >= 2) {
+                newInflation = in.readDouble();
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                Entry entry = new Entry(in.readUTF());
+                entry.size = in.readLong();
+                entry.lastAccess = in.readLong();
+                entry.hitCount = in.readInt();
+                entry.checksum = in.readLong();
+                entry.baseFileName = StringUtils.trimToNull(in.readUTF());
+                if (version >= 2) {
+                    entry.repo = StringUtils.trimToNull(in.readUTF());
+                    entry.pinned = in.readBoolean();
+                    entry.priority = in.readDouble();
+                } else {
+                    updatePriority(entry);
+                }
+                newEntries.put(entry.fileName, entry);
+            }
+        } catch (IOException ex) {
+            log.error("Can't read cache manifest '" + file.getAbsolutePath() + "': " + ex.getMessage());
+            return false;
+        }
+        entries = newEntries;
+        // Raised by evictions of this process and not yet written:
+        inflation = Math.max(inflation, newInflation);
+        for (Map.Entry<String, Access> access : pendingAccesses.entrySet()) {
+            Entry entry = entries.get(access.getKey());
+            if (entry != null) {
+                entry.hitCount += access.getValue().hitCount;
+                entry.lastAccess = Math.max(entry.lastAccess, access.getValue().lastAccess);
+                updatePriority(entry);
+            }
+        }
+        lastModified = modified;
+        lastLength = length;
+        return true;
+    }
+
+    /**
+     * Reads the manifest, applies the given change and writes the manifest (while holding the lock).
+     */
+    private synchronized void update(Runnable change) {
+        try (CacheFileLock lock = CacheFileLock.lock(lockFile)) {
+            reload(true);
+            change.run();
+            write();
+        } catch (IOException ex) {
+            log.error("Can't lock cache manifest '" + file.getAbsolutePath() + "': " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Writes the manifest (via temporary file and atomic rename).
+     */
+    synchronized void flush() {
+        update(() -> {
+        });
+    }
+
+    private void write() {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(inflation);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.fileName);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastAccess);
+                out.writeInt(entry.hitCount);
+                out.writeLong(entry.checksum);
+                out.writeUTF(StringUtils.defaultString(entry.baseFileName));
+                out.writeUTF(StringUtils.defaultString(entry.repo));
+                out.writeBoolean(entry.pinned);
+                out.writeDouble(entry.priority);
+            }
+        } catch (IOException ex) {
+            log.error("Can't write cache manifest '" + tmpFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
+            tmpFile.delete();
+            return;
+        }
+        try {
+            move(tmpFile, file);
+            pendingAccesses.clear();
+            unsavedChanges = 0;
+            lastModified = file.lastModified();
+            lastLength = file.length();
+        } catch (IOException ex) {
+            log.error("Can't rename cache manifest '" + tmpFile.getAbsolutePath() + "': " + ex.getMessage(), ex);
+        }
+    }
+
+    synchronized Entry get(String fileName) {
+        reload(false);
+        return entries.get(fileName);
+    }
+
+    synchronized boolean contains(String fileName) {
+        reload(false);
+        return entries.containsKey(fileName);
+    }
+
+    /**
+     * Adds or replaces the given entries. The manifest is written.
+     */
+    synchronized void put(Entry... newEntries) {
+        update(() -> {
+            for (Entry entry : newEntries) {
+                updatePriority(entry);
+                entries.put(entry.fileName, entry);
+            }
+        });
+    }
+
+    /**
+     * Removes the entries of the given files. The manifest is written.
+     */
+    synchronized void remove(String... fileNames) {
+        update(() -> {
+            for (String fileName : fileNames) {
+                entries.remove(fileName);
+                pendingAccesses.remove(fileName);
+            }
+        });
+    }
+
+    /**
+     * Registers an access of the given file (last access time and hit count). The manifest is written after
+     * {@link #FLUSH_INTERVAL} changes.
+     *
+     * @param fileName
+     * @param millis   The time of the access.
+     */
+    synchronized void registerAccess(String fileName, long millis) {
+        Entry entry = entries.get(fileName);
+        if (entry == null) {
+            return;
+        }
+        entry.lastAccess = millis;
+        ++entry.hitCount;
+        updatePriority(entry);
+        Access access = pendingAccesses.computeIfAbsent(fileName, key -> new Access());
+        ++access.hitCount;
+        access.lastAccess = Math.max(access.lastAccess, millis);
+        if (++unsavedChanges >= FLUSH_INTERVAL) {
+            flush();
+        }
+    }
+
+    /**
+     * Pins or unpins the given file. Pinned files are never evicted. The manifest is written.
+     *
+     * @return false, if the file isn't registered.
+     */
+    synchronized boolean setPinned(String fileName, boolean pinned) {
+        boolean[] result = new boolean[1];
+        update(() -> {
+            Entry entry = entries.get(fileName);
+            if (entry != null) {
+                entry.pinned = pinned;
+                result[0] = true;
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * Registers the eviction of an entry: the inflation value is raised to its priority (if higher), so entries
+     * registered or accessed later on get a higher priority than entries not used since then.
+     */
+    synchronized void registerEviction(Entry entry) {
+        if (entry.priority > inflation) {
+            inflation = entry.priority;
+        }
+    }
+
+    synchronized double getInflation() {
+        reload(false);
+        return inflation;
+    }
+
+    /**
+     * GreedyDual-Size-Frequency with the same cost for all files (a miss means listing the archive by Borg again):
+     * the number of accesses (including the first one) per MB.
+     */
+    private void updatePriority(Entry entry) {
+        entry.priority = inflation + (entry.hitCount + 1) * 1048576.0 / Math.max(entry.size, 1);
+    }
+
+    /**
+     * @return A copy of all entries.
+     */
+    synchronized List<Entry> getEntries() {
+        reload(false);
+        List<Entry> list = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            list.add(entry.clone());
+        }
+        return list;
+    }
+
+    synchronized long getTotalSize() {
+        reload(false);
+        long size = 0;
+        for (Entry entry : entries.values()) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    /**
+     * Verifies the checksum of the given file once (on the first call after start). Entries without checksum (e. g.
+     * added by a rebuild of the manifest) are accepted.
+     *
+     * @param file
+     * @return false, if the checksum of the given file doesn't match (the file is corrupted).
+     */
+    boolean verify(File file) {
+        long expectedChecksum;
+        synchronized (this) {
+            reload(false);
+            Entry entry = entries.get(file.getName());
+            if (entry == null || entry.checksum == 0
+                    || Long.valueOf(entry.checksum).equals(verifiedChecksums.get(file.getName()))) {
+                return true;
+            }
+            expectedChecksum = entry.checksum;
+        }
+        try {
+            long checksum = computeChecksum(file);
+            if (checksum != expectedChecksum) {
+                log.error("Checksum of cache file doesn't match (file corrupted): " + file.getAbsolutePath());
+                return false;
+            }
+        } catch (IOException ex) {
+            log.error("Can't verify checksum of cache file '" + file.getAbsolutePath() + "': " + ex.getMessage());
+            return false;
+        }
+        synchronized (this) {
+            verifiedChecksums.put(file.getName(), expectedChecksum);
+        }
+        return true;
+    }
+
+    synchronized void clear() {
+        update(() -> {
+            entries.clear();
+            pendingAccesses.clear();
+            inflation = 0;
+        });
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @param file
+     * @return The CRC32 of the content of the given file (never 0, because 0 stands for no checksum).
+     */
+    static long computeChecksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Integer.MAX_VALUE, size - position));
+                crc.update(buffer);
+            }
+        }
+        return crc.getValue() != 0 ? crc.getValue() : 1;
+    }
+
+    /**
+     * Renames the source file atomically to the destination file (replaces the destination). If the destination can't
+     * be replaced, the rename is retried once after {@link #releaseMappings()}.
+     */
+    static void move(File src, File dest) throws IOException {
+        try {
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (!src.exists() || !dest.exists()) {
+                throw ex;
+            }
+            releaseMappings();
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Deletes the given file. If the file can't be deleted, the deletion is retried once after
+     * {@link #releaseMappings()}.
+     *
+     * @return true, if the file doesn't exist (anymore).
+     */
+    static boolean delete(File file) {
+        if (file.delete() || !file.exists()) {
+            return true;
+        }
+        releaseMappings();
+        if (file.delete() || !file.exists()) {
+            return true;
+        }
+        log.warn("Can't delete file (still in use?): " + file.getAbsolutePath());
+        return false;
+    }
+
+    /**
+     * On Windows a file can't be deleted or replaced as long as it's mapped into memory. The file lists are mapped by
+     * {@link ArchiveFilelistReader}, which doesn't unmap on close, because the views of the mapping (e. g. the
+     * directory index and the trigram index) are used after closing the reader. Java provides no API for unmapping,
+     * the mappings are released by the garbage collector as soon as no view is referenced anymore. So a garbage
+     * collection is requested and the cleaner (unmapping asynchronously) is given a moment.
+     */
+    private static void releaseMappings() {
+        System.gc();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static class Entry implements Cloneable {
+        private String fileName;
+        private long size;
+        private long lastAccess;
+        private int hitCount;
+        private long checksum;
+        private String baseFileName;
+        private String repo;
+        private boolean pinned;
+        private double priority;
+
+        Entry(String fileName) {
+            this.fileName = fileName;
+        }
+
+        String getFileName() {
+            return fileName;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        Entry setSize(long size) {
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * @return The time of the last usage (epoch millis).
+         */
+        long getLastAccess() {
+            return lastAccess;
+        }
+
+        Entry setLastAccess(long lastAccess) {
+            this.lastAccess = lastAccess;
+            return this;
+        }
+
+        int getHitCount() {
+            return hitCount;
+        }
+
+        Entry setHitCount(int hitCount) {
+            this.hitCount = hitCount;
+            return this;
+        }
+
+        /**
+         * @return The CRC32 of the file or 0, if unknown.
+         */
+        long getChecksum() {
+            return checksum;
+        }
+
+        Entry setChecksum(long checksum) {
+            this.checksum = checksum;
+            return this;
+        }
+
+        /**
+         * @return The name of the base file, if the file is a delta, otherwise null.
+         */
+        String getBaseFileName() {
+            return baseFileName;
+        }
+
+        Entry setBaseFileName(String baseFileName) {
+            this.baseFileName = baseFileName;
+            return this;
+        }
+
+        /**
+         * @return The repo of the file or null, if unknown (legacy files).
+         */
+        String getRepo() {
+            return repo;
+        }
+
+        Entry setRepo(String repo) {
+            this.repo = repo;
+            return this;
+        }
+
+        boolean isPinned() {
+            return pinned;
+        }
+
+        Entry setPinned(boolean pinned) {
+            this.pinned = pinned;
+            return this;
+        }
+
+        /**
+         * @return The priority for eviction (entries of lowest priority are evicted first).
+         */
+        double getPriority() {
+            return priority;
+        }
+
+        Entry setPriority(double priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        @Override
+        protected Entry clone() {
+            try {
+                return (Entry) super.clone();
+            } catch (CloneNotSupportedException ex) {
+                throw new UnsupportedOperationException(ex);
+            }
+        }
+    }
+
+    /**
+     * Accesses of a file not yet written.
+     */
+    private static class Access {
+        private int hitCount;
+        private long lastAccess;
+    }
+}
@@ -0,0 +1,217 @@
+package de.micromata.borgbutler.cache;
+
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression codecs of the blocks of a file list. The codec of a file is stored in its header.
+ */
+enum ArchiveFilelistCodec {
+    /**
+     * zlib deflate (same compression as the gzip format used by legacy files): good compression ratio, but slow.
+     */
+    DEFLATE((byte) 1) {
+        @Override
+        byte[] compress(byte[] data, int length) {
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(data, 0, length);
+                deflater.finish();
+                byte[] buf = new byte[Math.max(1024, length / 2)];
+                int compressedLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    compressedLength += deflater.deflate(buf, compressedLength, buf.length - compressedLength);
+                }
+                return Arrays.copyOf(buf, compressedLength);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        Decompressor createDecompressor(ByteBuffer compressed, int uncompressedLength) {
+            return new InflaterDecompressor(compressed, uncompressedLength);
+        }
+    },
+    /**
+     * LZ4: very fast compression and decompression, but larger files than {@link #DEFLATE}.
+     */
+    LZ4((byte) 2) {
+        @Override
+        byte[] compress(byte[] data, int length) {
+            return lz4Factory.fastCompressor().compress(data, 0, length);
+        }
+
+        @Override
+        Decompressor createDecompressor(ByteBuffer compressed, int uncompressedLength) {
+            return new Decompressor(uncompressedLength) {
+                @Override
+                void decompress(int minLength) throws IOException {
+                    if (length == bytes.length) {
+                        return;
+                    }
+                    // Fast enough, the whole block is decompressed in one go.
+                    try {
+                        int read = lz4Factory.fastDecompressor().decompress(compressed, compressed.position(),
+                                ByteBuffer.wrap(bytes), 0, bytes.length);
+                        if (read != compressed.remaining()) {
+                            throw new IOException("Corrupted LZ4 block (length mismatch).");
+                        }
+                    } catch (LZ4Exception ex) {
+                        throw new IOException("Corrupted LZ4 block: " + ex.getMessage(), ex);
+                    }
+                    length = bytes.length;
+                }
+            };
+        }
+    },
+    /**
+     * No compression.
+     */
+    NONE((byte) 3) {
+        @Override
+        byte[] compress(byte[] data, int length) {
+            return Arrays.copyOf(data, length);
+        }
+
+        @Override
+        Decompressor createDecompressor(ByteBuffer compressed, int uncompressedLength) {
+            return new Decompressor(uncompressedLength) {
+                @Override
+                void decompress(int minLength) throws IOException {
+                    minLength = Math.min(minLength, bytes.length);
+                    if (length >= minLength) {
+                        return;
+                    }
+                    if (compressed.remaining() < bytes.length) {
+                        throw new IOException("Corrupted block (too short).");
+                    }
+                    ByteBuffer buf = compressed.duplicate();
+                    buf.position(compressed.position() + length);
+                    buf.get(bytes, length, minLength - length);
+                    length = minLength;
+                }
+            };
+        }
+    };
+
+    private static final LZ4Factory lz4Factory = LZ4Factory.fastestInstance();
+
+    private byte id;
+
+    ArchiveFilelistCodec(byte id) {
+        this.id = id;
+    }
+
+    /**
+     * @return The id stored in the file header.
+     */
+    byte getId() {
+        return id;
+    }
+
+    /**
+     * @param id
+     * @return The codec with the given id or null, if not supported.
+     */
+    static ArchiveFilelistCodec get(byte id) {
+        for (ArchiveFilelistCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param data
+     * @param length Number of bytes of data to compress.
+     * @return The compressed bytes.
+     */
+    abstract byte[] compress(byte[] data, int length);
+
+    /**
+     * @param compressed         The compressed block (from position to limit).
+     * @param uncompressedLength
+     */
+    abstract Decompressor createDecompressor(ByteBuffer compressed, int uncompressedLength);
+
+    /**
+     * Decompresses a block on demand (only as far as needed, if supported by the codec). Not thread safe.
+     */
+    static abstract class Decompressor {
+        /**
+         * The decompressed bytes, valid up to {@link #length}.
+         */
+        final byte[] bytes;
+        int length;
+
+        Decompressor(int uncompressedLength) {
+            this.bytes = new byte[uncompressedLength];
+        }
+
+        /**
+         * @param minLength Decompresses at least the given number of bytes (if available).
+         * @throws IOException If the block is corrupted.
+         */
+        abstract void decompress(int minLength) throws IOException;
+
+        void decompressAll() throws IOException {
+            decompress(bytes.length);
+            if (length != bytes.length) {
+                throw new IOException("Corrupted block (too short).");
+            }
+        }
+
+        /**
+         * Frees resources (if any).
+         */
+        void end() {
+        }
+    }
+
+    private static class InflaterDecompressor extends Decompressor {
+        private Inflater inflater = new Inflater();
+
+        private InflaterDecompressor(ByteBuffer compressed, int uncompressedLength) {
+            super(uncompressedLength);
+            byte[] input = new byte[compressed.remaining()];
+            compressed.duplicate().get(input);
+            inflater.setInput(input);
+        }
+
+        @Override
+        void decompress(int minLength) throws IOException {
+            minLength = Math.min(minLength, bytes.length);
+            try {
+                while (length < minLength && !inflater.finished()) {
+                    int n = inflater.inflate(bytes, length, bytes.length - length);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += n;
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupted block: " + ex.getMessage(), ex);
+            }
+            if (length < minLength) {
+                throw new IOException("Corrupted block (too short).");
+            }
+        }
+
+        @Override
+        void end() {
+            inflater.end();
+        }
+    }
+}
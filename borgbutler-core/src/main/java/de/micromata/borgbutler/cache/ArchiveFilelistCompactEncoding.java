@@ -0,0 +1,255 @@
+package de.micromata.borgbutler.cache;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact encoding of file system items ({@link ArchiveFilelistFormat#ENCODING_COMPACT}):
+ * <ul>
+ * <li>Paths are front coded: length of the prefix shared with the previous path and the remaining suffix. Every
+ * {@link #RESTART_INTERVAL} items (and at the beginning of every block) the full path is written, so a single item
+ * is decodable by decoding at maximum {@link #RESTART_INTERVAL} items.</li>
+ * <li>The low cardinality fields type, mode, user, group and flags are written as ids of per-file dictionaries
+ * (stored in section {@link ArchiveFilelistFormat#SECTION_DICTIONARIES}).</li>
+ * <li>The mtime is written as epoch seconds (as string, if not in one of the formats parsed by
+ * {@link BorgFilesystemItem#setMtime(String)}).</li>
+ * </ul>
+ * The file number isn't written, it's given by the position of the item.
+ * <br>
+ * With {@link ArchiveFilelistFormat#ENCODING_PATH_IDS} the paths aren't written, but their ids of the
+ * {@link RepoPathDictionary} (as difference to the id of the previous item, items sorted by path of an archive are
+ * mostly added to the dictionary in this order).
+ */
+final class ArchiveFilelistCompactEncoding {
+    static final int RESTART_INTERVAL = 16;
+
+    private static final int NUMBER_OF_DICTIONARIES = 5;
+    private static final int DICT_TYPE = 0, DICT_MODE = 1, DICT_USER = 2, DICT_GROUP = 3, DICT_FLAGS = 4;
+
+    private static final int HEALTHY = 1;
+    private static final int HAS_SOURCE = 2;
+    private static final int HAS_LINKTARGET = 4;
+    private static final int MTIME_EPOCH = 8;
+    private static final int MTIME_STRING = 16;
+
+    /**
+     * Not thread safe, use one encoder per file.
+     */
+    static class Encoder {
+        private List<Map<String, Integer>> dictionaries = new ArrayList<>(NUMBER_OF_DICTIONARIES);
+        private List<List<String>> dictionaryValues = new ArrayList<>(NUMBER_OF_DICTIONARIES);
+        private String previousPath;
+        private RepoPathDictionary pathDictionary;
+        private int previousPathId;
+
+        /**
+         * @param pathDictionary If given, the ids of paths are written instead of the paths.
+         */
+        Encoder(RepoPathDictionary pathDictionary) {
+            this.pathDictionary = pathDictionary;
+            for (int i = 0; i < NUMBER_OF_DICTIONARIES; i++) {
+                dictionaries.add(new HashMap<>());
+                dictionaryValues.add(new ArrayList<>());
+            }
+        }
+
+        /**
+         * @param restart If true, the full path is written (first item of a block or of a restart interval).
+         */
+        void write(Output out, BorgFilesystemItem item, boolean restart) throws IOException {
+            String path = item.getPath();
+            if (pathDictionary != null) {
+                int pathId = path != null ? pathDictionary.getId(path) : -1;
+                out.writeVarInt(restart ? pathId : pathId - previousPathId, false);
+                previousPathId = pathId;
+            } else {
+                int prefixLength = restart ? 0 : getCommonPrefixLength(previousPath, path);
+                out.writeVarInt(prefixLength, true);
+                out.writeString(prefixLength > 0 ? path.substring(prefixLength) : path);
+                previousPath = path;
+            }
+            long epochSeconds = item.getMtimeEpochSeconds();
+            int bits = (item.isHealthy() ? HEALTHY : 0)
+                    | (item.getSource() != null ? HAS_SOURCE : 0)
+                    | (item.getLinktarget() != null ? HAS_LINKTARGET : 0)
+                    | (epochSeconds != Long.MIN_VALUE ? MTIME_EPOCH : (item.getMtime() != null ? MTIME_STRING : 0));
+            out.writeByte(bits);
+            out.writeVarInt(getId(DICT_TYPE, item.getType()), true);
+            out.writeVarInt(getId(DICT_MODE, item.getMode()), true);
+            out.writeVarInt(getId(DICT_USER, item.getUser()), true);
+            out.writeVarInt(getId(DICT_GROUP, item.getGroup()), true);
+            out.writeVarInt(getId(DICT_FLAGS, item.getFlags()), true);
+            out.writeVarLong(item.getUid(), true);
+            out.writeVarLong(item.getGid(), true);
+            if ((bits & MTIME_EPOCH) != 0) {
+                out.writeVarLong(epochSeconds, false);
+            } else if ((bits & MTIME_STRING) != 0) {
+                out.writeString(item.getMtime());
+            }
+            out.writeVarLong(item.getSize(), true);
+            if ((bits & HAS_SOURCE) != 0) {
+                out.writeString(item.getSource());
+            }
+            if ((bits & HAS_LINKTARGET) != 0) {
+                out.writeString(item.getLinktarget());
+            }
+        }
+
+        /**
+         * @return The dictionaries to write as section {@link ArchiveFilelistFormat#SECTION_DICTIONARIES}.
+         */
+        byte[] getDictionaries() throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(baos)) {
+                for (List<String> values : dictionaryValues) {
+                    out.writeInt(values.size());
+                    for (String value : values) {
+                        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                }
+            }
+            return baos.toByteArray();
+        }
+
+        /**
+         * @return The id of the value (0 for null, 1 for the first entry of the dictionary etc.).
+         */
+        private int getId(int dictionary, String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer id = dictionaries.get(dictionary).get(value);
+            if (id == null) {
+                List<String> values = dictionaryValues.get(dictionary);
+                values.add(value);
+                id = values.size();
+                dictionaries.get(dictionary).put(value, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Not thread safe, use one decoder per block (the dictionaries may be shared).
+     */
+    static class Decoder {
+        private String[][] dictionaries;
+        private String previousPath;
+        private RepoPathDictionary pathDictionary;
+        private RepoPathDictionary.Chunk pathChunk;
+        private int previousPathId;
+
+        /**
+         * @param dictionaries   As read by {@link #readDictionaries(ByteBuffer)}.
+         * @param pathDictionary Needed for {@link ArchiveFilelistFormat#ENCODING_PATH_IDS}, otherwise null.
+         */
+        Decoder(String[][] dictionaries, RepoPathDictionary pathDictionary) {
+            this.dictionaries = dictionaries;
+            this.pathDictionary = pathDictionary;
+        }
+
+        /**
+         * @param restart Must be the same value as used for writing this item.
+         */
+        BorgFilesystemItem read(Input in, boolean restart) throws IOException {
+            String path;
+            if (pathDictionary != null) {
+                int pathId = in.readVarInt(false) + (restart ? 0 : previousPathId);
+                previousPathId = pathId;
+                if (pathId < 0) {
+                    path = null;
+                } else {
+                    if (pathChunk == null || !pathChunk.contains(pathId)) {
+                        pathChunk = pathDictionary.getChunk(pathId);
+                    }
+                    path = pathChunk.getPath(pathId);
+                }
+            } else {
+                int prefixLength = in.readVarInt(true);
+                String suffix = in.readString();
+                path = prefixLength > 0 && !restart ? previousPath.substring(0, prefixLength) + suffix : suffix;
+                previousPath = path;
+            }
+            int bits = in.readByte();
+            BorgFilesystemItem item = new BorgFilesystemItem()
+                    .setPath(path)
+                    .setHealthy((bits & HEALTHY) != 0)
+                    .setType(dictionaries[DICT_TYPE][in.readVarInt(true)])
+                    .setMode(dictionaries[DICT_MODE][in.readVarInt(true)])
+                    .setUser(dictionaries[DICT_USER][in.readVarInt(true)])
+                    .setGroup(dictionaries[DICT_GROUP][in.readVarInt(true)])
+                    .setFlags(dictionaries[DICT_FLAGS][in.readVarInt(true)])
+                    .setUid(in.readVarLong(true))
+                    .setGid(in.readVarLong(true));
+            if ((bits & MTIME_EPOCH) != 0) {
+                item.setMtimeEpochSeconds(in.readVarLong(false));
+            } else if ((bits & MTIME_STRING) != 0) {
+                item.setMtime(in.readString());
+            }
+            item.setSize(in.readVarLong(true));
+            if ((bits & HAS_SOURCE) != 0) {
+                item.setSource(in.readString());
+            }
+            if ((bits & HAS_LINKTARGET) != 0) {
+                item.setLinktarget(in.readString());
+            }
+            return item;
+        }
+
+        /**
+         * @return The path id of the item read last (-1 for items without path), only for
+         * {@link ArchiveFilelistFormat#ENCODING_PATH_IDS}.
+         */
+        int getPathId() {
+            return previousPathId;
+        }
+    }
+
+    /**
+     * @param buf The section {@link ArchiveFilelistFormat#SECTION_DICTIONARIES}.
+     * @return The dictionaries (index 0 of every dictionary is null).
+     */
+    static String[][] readDictionaries(ByteBuffer buf) {
+        String[][] dictionaries = new String[NUMBER_OF_DICTIONARIES][];
+        for (int i = 0; i < NUMBER_OF_DICTIONARIES; i++) {
+            int size = buf.getInt();
+            String[] values = new String[size + 1];
+            for (int j = 1; j <= size; j++) {
+                byte[] bytes = new byte[buf.getInt()];
+                buf.get(bytes);
+                // Interned: the values are shared by the file lists of all archives.
+                values[j] = new String(bytes, StandardCharsets.UTF_8).intern();
+            }
+            dictionaries[i] = values;
+        }
+        return dictionaries;
+    }
+
+    static int getCommonPrefixLength(String s1, String s2) {
+        if (s1 == null || s2 == null) {
+            return 0;
+        }
+        int max = Math.min(s1.length(), s2.length());
+        int i = 0;
+        while (i < max && s1.charAt(i) == s2.charAt(i)) {
+            ++i;
+        }
+        return i;
+    }
+
+    private ArchiveFilelistCompactEncoding() {
+    }
+}
@@ -0,0 +1,174 @@
+package de.micromata.borgbutler.cache;
+
+import com.esotericsoftware.kryo.Kryo;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Constants and helpers of the on-disk format of cached archive file lists (since version 2).
+ * <br>
+ * Layout of a file:
+ * <ul>
+ * <li>Fixed header of {@link #HEADER_SIZE} bytes (magic, format version, item count, total size, number of
+ * directories and files, block size, number of blocks, item encoding, codec and the offset of the section table).</li>
+ * <li>Blocks: each block contains up to {@link #DEFAULT_BLOCK_SIZE} items (sorted by path) and is compressed
+ * independently, so every block may be read without reading the other ones. Since version 3 a block starts with the
+ * lengths of its serialized items (var ints), so a single item may be read by inflating only the beginning of the
+ * block up to this item.</li>
+ * <li>Section table: id, offset and length of every section (e. g. the block offset table). Sections unknown by the
+ * reader are ignored, missing sections are treated as not available.</li>
+ * </ul>
+ * A file list may be stored as delta of another file list of the same repository (see {@link #SECTION_DELTA}).
+ * <br>
+ * The file is designed for reading via {@link java.nio.channels.FileChannel#map(java.nio.channels.FileChannel.MapMode, long, long)}.
+ * The format used before (one gzipped Kryo stream) is still readable as legacy format.
+ */
+final class ArchiveFilelistFormat {
+    /**
+     * 'BBFL' (BorgButler file list).
+     */
+    static final int MAGIC = 0x4242464C;
+    static final int FORMAT_VERSION = 3;
+    /**
+     * Oldest version readable (version 2 has no item lengths in the blocks).
+     */
+    static final int MIN_FORMAT_VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * Kryo serialization of the items.
+     */
+    static final byte ENCODING_KRYO = 1;
+    /**
+     * Front coded paths and dictionaries, see {@link ArchiveFilelistCompactEncoding}.
+     */
+    static final byte ENCODING_COMPACT = 2;
+    /**
+     * As {@link #ENCODING_COMPACT}, but the paths are ids of the {@link RepoPathDictionary} of the repository.
+     */
+    static final byte ENCODING_PATH_IDS = 3;
+
+    /**
+     * Codec of the blocks, see {@link ArchiveFilelistCodec}.
+     */
+    static final ArchiveFilelistCodec DEFAULT_CODEC = ArchiveFilelistCodec.LZ4;
+
+    /**
+     * Per block: offset (long), compressed length (int), uncompressed length (int), number of first item (int) and
+     * number of items (int).
+     */
+    static final int SECTION_BLOCK_TABLE = 1;
+    static final int BLOCK_TABLE_ENTRY_SIZE = 24;
+    /**
+     * Repo name, archive id, archive name and archive time (for information and maintenance purposes).
+     */
+    static final int SECTION_ARCHIVE_INFO = 2;
+    /**
+     * Sparse path index: the path of the first item of every block (length (int) and UTF-8 bytes). Because the items
+     * are sorted by path, the blocks containing a directory may be found via binary search.
+     */
+    static final int SECTION_PATH_INDEX = 3;
+    /**
+     * Dictionaries of {@link #ENCODING_COMPACT}.
+     */
+    static final int SECTION_DICTIONARIES = 4;
+    /**
+     * Id (long) of the {@link RepoPathDictionary} used by {@link #ENCODING_PATH_IDS}.
+     */
+    static final int SECTION_PATH_DICTIONARY = 5;
+    /**
+     * Random id (long) of the file, written on every write. Referenced by deltas based on this file.
+     */
+    static final int SECTION_FILE_ID = 6;
+    /**
+     * Only for delta file lists (the blocks contain only the added and modified items): name of the file of the base
+     * archive (UTF), id of the base file (long), length of the delta chain (int, 1 if the base is a full file list),
+     * number of removed paths (int) followed by the removed paths (var int ids of the {@link RepoPathDictionary} for
+     * {@link #ENCODING_PATH_IDS}, otherwise Kryo strings).
+     */
+    static final int SECTION_DELTA = 7;
+    /**
+     * Zone maps: statistics of every block for skipping blocks not matching a filter. Per block: minimum and maximum
+     * size (long), minimum and maximum mtime (epoch seconds, long, only parseable mtimes are considered) and the
+     * bitmap of the types of the items (int, see {@link #getTypeBit(String)}).
+     */
+    static final int SECTION_ZONE_MAPS = 8;
+    static final int ZONE_MAP_ENTRY_SIZE = 36;
+    /**
+     * Bloom filter of the paths of all items of the file (for deltas only of the added and modified items), see
+     * {@link PathBloomFilter}.
+     */
+    static final int SECTION_BLOOM_FILTER = 9;
+    /**
+     * Summary of the content (totals, largest files, number and size per extension, user, group and type) of the whole
+     * archive (for deltas as well), see {@link ArchiveStatisticsCollector}.
+     */
+    static final int SECTION_STATISTICS = 10;
+    /**
+     * Directory tree of the whole archive (for deltas as well, rows are the file numbers of the merged file list):
+     * children and totals of every directory, see {@link de.micromata.borgbutler.data.DirectoryIndex}.
+     */
+    static final int SECTION_DIRECTORY_INDEX = 11;
+    /**
+     * Trigram index of the lower case paths for searching: the posting lists contain the blocks of this file (for deltas
+     * only the own blocks) containing the trigram, see {@link de.micromata.borgbutler.data.PathTrigramIndex}.
+     */
+    static final int SECTION_PATH_TRIGRAMS = 12;
+
+    /**
+     * Serialization id of the legacy format (gzipped Kryo stream).
+     */
+    static final String LEGACY_SERIALIZATION_ID_STRING = "kryo 5.0.0-RC1";
+
+    /**
+     * @param file
+     * @return true, if the given file starts with the {@link #MAGIC} of this format, false for legacy files.
+     */
+    static boolean isFilelistFormat(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    return false;
+                }
+                magic = (magic << 8) | b;
+            }
+            return magic == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Item types of Borg, the position is the bit of the type in the zone maps.
+     */
+    private static final String TYPES = "-dlbcps";
+
+    /**
+     * @param type The item type.
+     * @return The bit of the given type used by the zone maps (all unknown types share one bit).
+     */
+    static int getTypeBit(String type) {
+        int pos = type != null && type.length() == 1 ? TYPES.indexOf(type.charAt(0)) : -1;
+        return 1 << (pos >= 0 ? pos : TYPES.length());
+    }
+
+    static Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        kryo.register(KryoFilesystemItem.class, 9);
+        kryo.register(BorgFilesystemItem.DiffStatus.class, 10);
+        kryo.setMaxDepth(10);
+        kryo.setWarnUnregisteredClasses(true);
+        kryo.setReferences(false);
+        return kryo;
+    }
+
+    private ArchiveFilelistFormat() {
+    }
+}
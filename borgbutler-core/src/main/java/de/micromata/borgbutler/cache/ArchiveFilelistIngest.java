@@ -0,0 +1,263 @@
+package de.micromata.borgbutler.cache;
+
+import de.micromata.borgbutler.config.BorgRepoConfig;
+import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Streaming ingest of the file list of an archive while Borg is still listing the archive (external merge sort):
+ * the items are buffered up to the run size, every full buffer is sorted and written as run to a temporary file. After
+ * Borg has finished, the runs are merged into the cache file. So the heap needed doesn't depend on the size of the
+ * archive.
+ * <br>
+ * File lists not exceeding one run are saved as usual by {@link ArchiveFilelistCache#save(BorgRepoConfig, Archive, List)}
+ * (e. g. as delta of another archive).
+ * <br>
+ * Not thread safe: the items are added by the thread processing Borg's output, {@link #finish()} is called afterwards.
+ */
+class ArchiveFilelistIngest implements Closeable {
+    private static Logger log = LoggerFactory.getLogger(ArchiveFilelistIngest.class);
+    static final int DEFAULT_RUN_SIZE = 100000;
+    /**
+     * Maximum number of runs merged at once (one block of each run is held in memory). If more runs exist, they're
+     * merged to larger runs first.
+     */
+    static final int MAX_MERGE_FAN_IN = 16;
+
+    private ArchiveFilelistCache cache;
+    private BorgRepoConfig repoConfig;
+    private Archive archive;
+    private int runSize;
+    private List<BorgFilesystemItem> buffer = new ArrayList<>();
+    private List<File> runs = new ArrayList<>();
+    private int itemCount;
+    private boolean failed;
+    private boolean finished;
+
+    ArchiveFilelistIngest(ArchiveFilelistCache cache, BorgRepoConfig repoConfig, Archive archive, int runSize) {
+        this.cache = cache;
+        this.repoConfig = repoConfig;
+        this.archive = archive;
+        this.runSize = runSize;
+    }
+
+    /**
+     * Items may be added in any order.
+     */
+    void add(BorgFilesystemItem item) {
+        if (failed) {
+            return;
+        }
+        buffer.add(item);
+        ++itemCount;
+        if (buffer.size() >= runSize) {
+            writeRun();
+        }
+    }
+
+    /**
+     * Saves the file list in the cache.
+     *
+     * @return true, if the file list was saved, false if no items were added or on errors.
+     */
+    boolean finish() {
+        if (failed || itemCount == 0) {
+            return false;
+        }
+        if (runs.isEmpty()) {
+            cache.save(repoConfig, archive, buffer);
+            return finished = true;
+        }
+        writeRun();
+        if (failed) {
+            return false;
+        }
+        try {
+            while (runs.size() > MAX_MERGE_FAN_IN) {
+                mergeRuns();
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            log.error("Error while merging the sorted runs of the file list of archive '" + archive.getName() + "': "
+                    + ex.getMessage(), ex);
+            return false;
+        }
+        log.info("Merging " + runs.size() + " sorted runs of " + String.format("%,d", itemCount) + " items.");
+        try (RunMerger merger = new RunMerger(runs)) {
+            return finished = cache.saveSorted(repoConfig, archive, itemCount, merger);
+        } catch (IOException ex) {
+            log.error("Error while reading the sorted runs of the file list of archive '" + archive.getName() + "': "
+                    + ex.getMessage(), ex);
+            return false;
+        }
+    }
+
+    /**
+     * @return All items, if the file list was saved by {@link #finish()} and didn't exceed one run (sorted), otherwise
+     * null (read the file list from the cache).
+     */
+    List<BorgFilesystemItem> getItems() {
+        return finished && runs.isEmpty() ? buffer : null;
+    }
+
+    int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private void writeRun() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        ArchiveFilelistCache.sort(buffer);
+        File run = cache.createTmpFile("ingest-run");
+        runs.add(run);
+        try (ArchiveFilelistWriter writer = createRunWriter(run)) {
+            for (BorgFilesystemItem item : buffer) {
+                writer.add(item);
+            }
+        } catch (IOException ex) {
+            log.error("Error while writing sorted run '" + run.getAbsolutePath() + "' of the file list of archive '"
+                    + archive.getName() + "': " + ex.getMessage(), ex);
+            failed = true;
+            close();
+        }
+        buffer = new ArrayList<>();
+    }
+
+    /**
+     * Merges the first {@link #MAX_MERGE_FAN_IN} runs to one run.
+     */
+    private void mergeRuns() throws IOException {
+        List<File> mergeRuns = new ArrayList<>(runs.subList(0, MAX_MERGE_FAN_IN));
+        File run = cache.createTmpFile("ingest-run");
+        runs.add(run);
+        try (RunMerger merger = new RunMerger(mergeRuns);
+             ArchiveFilelistWriter writer = createRunWriter(run)) {
+            while (merger.hasNext()) {
+                writer.add(merger.next());
+            }
+        }
+        for (File mergedRun : mergeRuns) {
+            mergedRun.delete();
+        }
+        runs.removeAll(mergeRuns);
+    }
+
+    private ArchiveFilelistWriter createRunWriter(File run) throws IOException {
+        // No path dictionary, the runs are only temporary:
+        return new ArchiveFilelistWriter(run, repoConfig.getRepo(), archive, ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE,
+                ArchiveFilelistFormat.ENCODING_COMPACT, ArchiveFilelistFormat.DEFAULT_CODEC);
+    }
+
+    /**
+     * Iterates over the items of all given runs in the order of {@link ArchiveFilelistCache#ITEM_ORDER}. Only the current
+     * block of each run is held in memory.
+     */
+    private static class RunMerger implements Iterator<BorgFilesystemItem>, Closeable {
+        private List<RunCursor> cursors = new ArrayList<>();
+        private PriorityQueue<RunCursor> queue = new PriorityQueue<>((cursor1, cursor2) ->
+                ArchiveFilelistCache.ITEM_ORDER.compare(cursor1.current(), cursor2.current()));
+
+        private RunMerger(List<File> runs) throws IOException {
+            try {
+                for (File run : runs) {
+                    RunCursor cursor = new RunCursor(ArchiveFilelistReader.open(run));
+                    cursors.add(cursor);
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+            } catch (IOException | UncheckedIOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        /**
+         * @throws UncheckedIOException If a run isn't readable.
+         */
+        @Override
+        public BorgFilesystemItem next() {
+            RunCursor cursor = queue.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            BorgFilesystemItem item = cursor.current();
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            return item;
+        }
+
+        @Override
+        public void close() {
+            for (RunCursor cursor : cursors) {
+                try {
+                    cursor.reader.close();
+                } catch (IOException ex) {
+                    log.warn("Can't close sorted run '" + cursor.reader.getFile().getAbsolutePath() + "': " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private static class RunCursor {
+        private ArchiveFilelistReader reader;
+        private int nextBlock;
+        private List<BorgFilesystemItem> block;
+        private int position = -1;
+
+        private RunCursor(ArchiveFilelistReader reader) {
+            this.reader = reader;
+        }
+
+        private BorgFilesystemItem current() {
+            return block.get(position);
+        }
+
+        /**
+         * @return false, if the end of the run is reached.
+         */
+        private boolean advance() {
+            while (block == null || ++position >= block.size()) {
+                if (nextBlock >= reader.getBlockCount()) {
+                    return false;
+                }
+                try {
+                    block = reader.readBlock(nextBlock++);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                position = -1;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package de.micromata.borgbutler.cache;
+
+import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.FileSystemItemColumns;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory tier above {@link ArchiveFilelistCache}: holds the decoded file lists of the most recently used archives,
+ * so browsing the directories of the last archives doesn't decode the cache files again. The least recently used
+ * lists are dropped, if the size of all lists exceeds the budget.
+ * <br>
+ * The file lists are held in column representation ({@link FileSystemItemColumns}, mainly off-heap), so even lists of
+ * millions of items don't burden the garbage collector. They're immutable and shared between all requests. The indexes
+ * built on first usage (directory and trigram index) are charged to the budget of their list as well.
+ */
+class ArchiveFilelistMemoryCache {
+    private Logger log = LoggerFactory.getLogger(ArchiveFilelistMemoryCache.class);
+
+    private long maxSize;
+    private long size;
+    // Access order: the least recently used list is the first one.
+    private Map<String, CachedList> lists = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Keys of lists exceeding the budget on their own. They're read from disk (only the blocks needed by the filter).
+     */
+    private Set<String> oversizedKeys = new HashSet<>();
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxSizeMB Memory budget of all cached lists.
+     */
+    ArchiveFilelistMemoryCache(int maxSizeMB) {
+        this.maxSize = (long) maxSizeMB * 1024 * 1024;
+    }
+
+    /**
+     * @param key See {@link #getKey(String, Archive)}.
+     * @return The cached list or null, if not cached.
+     */
+    synchronized FileSystemItemColumns get(String key) {
+        CachedList cachedList = lists.get(key);
+        if (cachedList == null) {
+            ++missCount;
+            return null;
+        }
+        ++hitCount;
+        return cachedList.columns;
+    }
+
+    /**
+     * Caches the given list (if it fits into the budget) and drops the least recently used lists, if the budget is
+     * exceeded.
+     *
+     * @param key     See {@link #getKey(String, Archive)}.
+     * @param columns The complete file list of the archive.
+     * @return true, if the list is cached.
+     */
+    synchronized boolean put(String key, FileSystemItemColumns columns) {
+        long columnsSize = columns.getMemorySize() + columns.getIndexMemorySize();
+        remove(key);
+        if (columnsSize > maxSize) {
+            log.info("File list of '" + key + "' is too large for the memory cache (" + columnsSize / 1024 / 1024
+                    + " MB), reading it from disk.");
+            oversizedKeys.add(key);
+            return false;
+        }
+        lists.put(key, new CachedList(columns, columnsSize));
+        size += columnsSize;
+        columns.setIndexListener(() -> updateMemorySize(key, columns));
+        evict();
+        return true;
+    }
+
+    /**
+     * Charges the indexes built after caching the list to its budget. The least recently used lists are dropped, if the
+     * budget is exceeded. A list exceeding the budget on its own (including its indexes) is dropped as well and read
+     * from disk afterwards.
+     *
+     * @param key     See {@link #getKey(String, Archive)}.
+     * @param columns The cached list (nothing is done, if it isn't cached anymore).
+     */
+    synchronized void updateMemorySize(String key, FileSystemItemColumns columns) {
+        CachedList cachedList = lists.get(key);
+        if (cachedList == null || cachedList.columns != columns) {
+            return;
+        }
+        long columnsSize = columns.getMemorySize() + columns.getIndexMemorySize();
+        size += columnsSize - cachedList.size;
+        cachedList.size = columnsSize;
+        if (columnsSize > maxSize) {
+            log.info("File list of '" + key + "' including its indexes is too large for the memory cache ("
+                    + columnsSize / 1024 / 1024 + " MB), reading it from disk.");
+            remove(key);
+            oversizedKeys.add(key);
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Drops the least recently used lists until the budget is met.
+     */
+    private void evict() {
+        Iterator<CachedList> it = lists.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().size;
+            it.remove();
+        }
+    }
+
+    /**
+     * @return true, if the list of the given key was too large for caching.
+     */
+    synchronized boolean isOversized(String key) {
+        return oversizedKeys.contains(key);
+    }
+
+    synchronized void remove(String key) {
+        CachedList cachedList = lists.remove(key);
+        if (cachedList != null) {
+            size -= cachedList.size;
+        }
+        oversizedKeys.remove(key);
+    }
+
+    synchronized void clear() {
+        lists.clear();
+        oversizedKeys.clear();
+        size = 0;
+    }
+
+    synchronized ArchiveFilelistMemoryCacheStatistics getStatistics() {
+        ArchiveFilelistMemoryCacheStatistics statistics = new ArchiveFilelistMemoryCacheStatistics();
+        statistics.numberOfArchives = lists.size();
+        statistics.sizeInMB = (int) (size / 1024 / 1024);
+        statistics.maxSizeInMB = (int) (maxSize / 1024 / 1024);
+        statistics.hitCount = hitCount;
+        statistics.missCount = missCount;
+        return statistics;
+    }
+
+    /**
+     * The archive id is unique over all repositories. Archives without id (not yet loaded by Borg) are identified
+     * by repo and name.
+     */
+    static String getKey(String repo, Archive archive) {
+        if (StringUtils.isNotBlank(archive.getId())) {
+            return archive.getId();
+        }
+        return repo + "::" + archive.getName();
+    }
+
+    private static class CachedList {
+        private FileSystemItemColumns columns;
+        private long size;
+
+        private CachedList(FileSystemItemColumns columns, long size) {
+            this.columns = columns;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.micromata.borgbutler.cache;
+
+/**
+ * Statistics of the in-memory cache of decoded archive file lists (usage and number of hits and misses).
+ */
+public class ArchiveFilelistMemoryCacheStatistics {
+    int numberOfArchives;
+    int sizeInMB;
+    int maxSizeInMB;
+    long hitCount;
+    long missCount;
+
+    public int getNumberOfArchives() {
+        return this.numberOfArchives;
+    }
+
+    /**
+     * @return The memory used by all cached file lists (mainly off-heap).
+     */
+    public int getSizeInMB() {
+        return this.sizeInMB;
+    }
+
+    public int getMaxSizeInMB() {
+        return this.maxSizeInMB;
+    }
+
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    public long getMissCount() {
+        return this.missCount;
+    }
+}
@@ -0,0 +1,805 @@
+package de.micromata.borgbutler.cache;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import de.micromata.borgbutler.data.ArchiveStatistics;
+import de.micromata.borgbutler.data.DirectoryIndex;
+import de.micromata.borgbutler.data.PathTrigramIndex;
+import de.micromata.borgbutler.data.FileSystemFilter;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file list written by {@link ArchiveFilelistWriter}. The file is memory mapped, so only the blocks really
+ * needed are read and decompressed.
+ * <br>
+ * Instances are thread safe.
+ */
+class ArchiveFilelistReader implements Closeable {
+    private static final int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
+    /**
+     * For decompressing and decoding blocks in parallel (shared by all readers).
+     */
+    private static final ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "borgbutler-filelist-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private File file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int formatVersion;
+    private int itemCount;
+    private int dirCount;
+    private int fileCount;
+    private long totalSize;
+    private int blockSize;
+    private int blockCount;
+    private byte encoding;
+    private ArchiveFilelistCodec codec;
+    private Map<Integer, long[]> sections = new HashMap<>();
+    private long[] blockOffsets;
+    private int[] blockCompressedLengths;
+    private int[] blockUncompressedLengths;
+    private int[] blockFirstItems;
+    private int[] blockItemCounts;
+    /**
+     * Path of the first item of every block (sparse path index), null if not available.
+     */
+    private String[] blockFirstPaths;
+    /**
+     * Zone maps of the blocks (null if not available): minimum and maximum size and mtime.
+     */
+    private long[][] blockZoneMaps;
+    private int[] blockTypeBits;
+    /**
+     * Dictionaries of {@link ArchiveFilelistFormat#ENCODING_COMPACT}.
+     */
+    private String[][] dictionaries;
+    /**
+     * Needed for {@link ArchiveFilelistFormat#ENCODING_PATH_IDS}.
+     */
+    private RepoPathDictionary pathDictionary;
+    private String repo;
+    private String archiveId;
+    private String archiveName;
+    private String archiveTime;
+    private long fileId;
+    /**
+     * Only given for delta file lists.
+     */
+    private DeltaInfo deltaInfo;
+
+    /**
+     * @param file
+     * @return The opened reader.
+     * @throws IOException If the file isn't readable or if the format (version) of the file isn't supported.
+     */
+    static ArchiveFilelistReader open(File file) throws IOException {
+        ArchiveFilelistReader reader = new ArchiveFilelistReader(file);
+        try {
+            reader.readHeader();
+        } catch (IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+        return reader;
+    }
+
+    private ArchiveFilelistReader(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer buf = buffer.duplicate();
+        if (buf.remaining() < ArchiveFilelistFormat.HEADER_SIZE || buf.getInt() != ArchiveFilelistFormat.MAGIC) {
+            throw new IOException("Not a file list of BorgButler: " + file.getAbsolutePath());
+        }
+        formatVersion = buf.getInt();
+        if (formatVersion < ArchiveFilelistFormat.MIN_FORMAT_VERSION || formatVersion > ArchiveFilelistFormat.FORMAT_VERSION) {
+            throw new IOException("Unsupported format version " + formatVersion + " (expected "
+                    + ArchiveFilelistFormat.MIN_FORMAT_VERSION + "-" + ArchiveFilelistFormat.FORMAT_VERSION + "): "
+                    + file.getAbsolutePath());
+        }
+        itemCount = buf.getInt();
+        dirCount = buf.getInt();
+        fileCount = buf.getInt();
+        totalSize = buf.getLong();
+        blockSize = buf.getInt();
+        blockCount = buf.getInt();
+        encoding = buf.get();
+        byte codecId = buf.get();
+        codec = ArchiveFilelistCodec.get(codecId);
+        buf.getShort(); // reserved
+        long sectionTableOffset = buf.getLong();
+        if ((encoding != ArchiveFilelistFormat.ENCODING_KRYO && encoding != ArchiveFilelistFormat.ENCODING_COMPACT
+                && encoding != ArchiveFilelistFormat.ENCODING_PATH_IDS)
+                || codec == null) {
+            throw new IOException("Unsupported encoding " + encoding + " or codec " + codecId + ": " + file.getAbsolutePath());
+        }
+        buf.position((int) sectionTableOffset);
+        int numberOfSections = buf.getInt();
+        for (int i = 0; i < numberOfSections; i++) {
+            int id = buf.getInt();
+            long offset = buf.getLong();
+            int length = buf.getInt();
+            sections.put(id, new long[]{offset, length});
+        }
+        readBlockTable();
+        readArchiveInfo();
+        readPathIndex();
+        readZoneMaps();
+        readDeltaInfo();
+        ByteBuffer fileIdBuffer = getSection(ArchiveFilelistFormat.SECTION_FILE_ID);
+        if (fileIdBuffer != null) {
+            fileId = fileIdBuffer.getLong();
+        }
+        if (encoding == ArchiveFilelistFormat.ENCODING_PATH_IDS) {
+            ByteBuffer dictionaryBuffer = getSection(ArchiveFilelistFormat.SECTION_PATH_DICTIONARY);
+            pathDictionary = RepoPathDictionary.getInstance(RepoPathDictionary.getFile(file.getAbsoluteFile().getParentFile(),
+                    repo != null ? repo : ""));
+            long dictionaryId = dictionaryBuffer != null ? dictionaryBuffer.getLong() : 0;
+            if (dictionaryBuffer != null && !pathDictionary.matches(dictionaryId, fileId)) {
+                // The dictionary may be replaced or compacted by another process sharing the cache directory:
+                pathDictionary.refresh();
+            }
+            if (dictionaryBuffer == null || !pathDictionary.matches(dictionaryId, fileId)) {
+                throw new IOException("Path dictionary of repo '" + repo + "' missing or doesn't match: " + file.getAbsolutePath());
+            }
+        }
+        if (encoding == ArchiveFilelistFormat.ENCODING_COMPACT || encoding == ArchiveFilelistFormat.ENCODING_PATH_IDS) {
+            ByteBuffer dictionariesBuffer = getSection(ArchiveFilelistFormat.SECTION_DICTIONARIES);
+            if (dictionariesBuffer == null) {
+                throw new IOException("Dictionaries missing: " + file.getAbsolutePath());
+            }
+            dictionaries = ArchiveFilelistCompactEncoding.readDictionaries(dictionariesBuffer);
+        }
+    }
+
+    private void readBlockTable() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_BLOCK_TABLE);
+        if (buf == null || buf.remaining() != blockCount * ArchiveFilelistFormat.BLOCK_TABLE_ENTRY_SIZE) {
+            throw new IOException("Block table missing or corrupted: " + file.getAbsolutePath());
+        }
+        blockOffsets = new long[blockCount];
+        blockCompressedLengths = new int[blockCount];
+        blockUncompressedLengths = new int[blockCount];
+        blockFirstItems = new int[blockCount];
+        blockItemCounts = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = buf.getLong();
+            blockCompressedLengths[i] = buf.getInt();
+            blockUncompressedLengths[i] = buf.getInt();
+            blockFirstItems[i] = buf.getInt();
+            blockItemCounts[i] = buf.getInt();
+        }
+    }
+
+    private void readArchiveInfo() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_ARCHIVE_INFO);
+        if (buf == null) {
+            return;
+        }
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            repo = in.readUTF();
+            archiveId = in.readUTF();
+            archiveName = in.readUTF();
+            archiveTime = in.readUTF();
+        }
+    }
+
+    private void readZoneMaps() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_ZONE_MAPS);
+        if (buf == null) {
+            return;
+        }
+        if (buf.remaining() != blockCount * ArchiveFilelistFormat.ZONE_MAP_ENTRY_SIZE) {
+            throw new IOException("Zone maps corrupted: " + file.getAbsolutePath());
+        }
+        long[][] zoneMaps = new long[blockCount][];
+        int[] typeBits = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            zoneMaps[i] = new long[]{buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong()};
+            typeBits[i] = buf.getInt();
+        }
+        blockZoneMaps = zoneMaps;
+        blockTypeBits = typeBits;
+    }
+
+    /**
+     * Uses the zone maps for skipping blocks which can't contain any item matching the size, mtime and type criteria
+     * of the given filter. Other criteria of the filter aren't checked.
+     *
+     * @param fromBlock
+     * @param toBlock   exclusive.
+     * @param filter
+     * @return The blocks of the given range which may contain matching items (all, if no zone maps are available).
+     */
+    int[] getMatchingBlocks(int fromBlock, int toBlock, FileSystemFilter filter) {
+        toBlock = Math.min(toBlock, blockCount);
+        int[] blocks = new int[Math.max(0, toBlock - fromBlock)];
+        int size = 0;
+        int typeBits = 0;
+        if (filter != null && filter.getTypes() != null) {
+            for (char type : filter.getTypes().toCharArray()) {
+                typeBits |= ArchiveFilelistFormat.getTypeBit(String.valueOf(type));
+            }
+        }
+        for (int block = fromBlock; block < toBlock; block++) {
+            if (blockZoneMaps != null && filter != null) {
+                long[] zoneMap = blockZoneMaps[block];
+                if ((filter.getMinSize() != null && zoneMap[1] < filter.getMinSize())
+                        || (filter.getMaxSize() != null && zoneMap[0] > filter.getMaxSize())
+                        || (filter.getMtimeFromEpochSeconds() != null && zoneMap[3] < filter.getMtimeFromEpochSeconds())
+                        || (filter.getMtimeUntilEpochSeconds() != null && zoneMap[2] > filter.getMtimeUntilEpochSeconds())
+                        || (typeBits != 0 && (blockTypeBits[block] & typeBits) == 0)) {
+                    continue;
+                }
+            }
+            blocks[size++] = block;
+        }
+        return size == blocks.length ? blocks : Arrays.copyOf(blocks, size);
+    }
+
+    private void readDeltaInfo() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_DELTA);
+        if (buf == null) {
+            return;
+        }
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            deltaInfo = new DeltaInfo(in.readUTF(), in.readLong(), in.readInt());
+        }
+    }
+
+    /**
+     * @return The Bloom filter of all paths of the archive or null, if the file doesn't contain one.
+     */
+    PathBloomFilter readBloomFilter() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_BLOOM_FILTER);
+        return buf != null ? PathBloomFilter.read(buf) : null;
+    }
+
+    /**
+     * @return The statistics of the archive or null, if not available (written by older versions).
+     */
+    ArchiveStatistics readStatistics() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_STATISTICS);
+        return buf != null ? ArchiveStatisticsCollector.read(buf) : null;
+    }
+
+    /**
+     * @return The directory index of the archive (a view of the mapped file, usable after closing this reader) or null,
+     * if not available (written by older versions).
+     */
+    DirectoryIndex readDirectoryIndex() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_DIRECTORY_INDEX);
+        return buf != null ? DirectoryIndex.read(buf) : null;
+    }
+
+    /**
+     * @return The trigram index of the paths of the archive (a view of the mapped file, usable after closing this
+     * reader) or null, if not available (written by older versions).
+     */
+    PathTrigramIndex readPathTrigramIndex() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_PATH_TRIGRAMS);
+        return buf != null ? PathTrigramIndex.read(buf) : null;
+    }
+
+    /**
+     * @return The paths of the base archive removed by this delta file list (empty, if this file isn't a delta).
+     */
+    List<String> readRemovedPaths() throws IOException {
+        List<String> paths = new ArrayList<>();
+        readRemovedPaths(input -> paths.add(pathDictionary != null ? pathDictionary.getPath(input.readVarInt(true)) : input.readString()));
+        return paths;
+    }
+
+    private void readRemovedPaths(RemovedPathConsumer consumer) throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_DELTA);
+        if (buf == null) {
+            return;
+        }
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            in.readUTF();
+            in.readLong();
+            in.readInt();
+            int size = in.readInt();
+            try (Input input = new Input(in)) {
+                for (int i = 0; i < size; i++) {
+                    consumer.read(input);
+                }
+            }
+        }
+    }
+
+    private interface RemovedPathConsumer {
+        void read(Input input) throws IOException;
+    }
+
+    /**
+     * Adds the ids of all paths referred by this file list (items and removed paths of a delta) to the given set, only
+     * for {@link ArchiveFilelistFormat#ENCODING_PATH_IDS} (nothing is done otherwise). All blocks are decoded.
+     *
+     * @param ids The ids of the {@link RepoPathDictionary} of the repo.
+     */
+    void collectPathIds(BitSet ids) throws IOException {
+        if (pathDictionary == null) {
+            return;
+        }
+        readRemovedPaths(input -> ids.set(input.readVarInt(true)));
+        for (int block = 0; block < blockCount; block++) {
+            ArchiveFilelistCodec.Decompressor decompressor = createDecompressor(block);
+            try {
+                decompressor.decompressAll();
+                int size = blockItemCounts[block];
+                try (Input input = new Input(decompressor.bytes)) {
+                    if (hasItemOffsets()) {
+                        for (int i = 0; i < size; i++) {
+                            input.readVarInt(true); // Skip item offset table.
+                        }
+                    }
+                    ArchiveFilelistCompactEncoding.Decoder decoder = new ArchiveFilelistCompactEncoding.Decoder(dictionaries, pathDictionary);
+                    for (int i = 0; i < size; i++) {
+                        decoder.read(input, i % ArchiveFilelistCompactEncoding.RESTART_INTERVAL == 0);
+                        if (decoder.getPathId() >= 0) {
+                            ids.set(decoder.getPathId());
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                throw createBlockException(block, ex);
+            } finally {
+                decompressor.end();
+            }
+        }
+    }
+
+    private void readPathIndex() throws IOException {
+        ByteBuffer buf = getSection(ArchiveFilelistFormat.SECTION_PATH_INDEX);
+        if (buf == null) {
+            return;
+        }
+        String[] paths = new String[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            byte[] bytes = new byte[buf.getInt()];
+            buf.get(bytes);
+            paths[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        if (buf.hasRemaining()) {
+            throw new IOException("Path index corrupted: " + file.getAbsolutePath());
+        }
+        blockFirstPaths = paths;
+    }
+
+    /**
+     * Uses the sparse path index for getting all blocks which may contain items starting with the given path prefix.
+     * The items are sorted by {@link BorgFilesystemItem#compareTo(BorgFilesystemItem)} (case insensitive), so all
+     * items starting with the prefix are placed in a coherent range of blocks.
+     *
+     * @param pathPrefix The prefix (e. g. the current directory including trailing '/').
+     * @return The range of blocks [from, to) which may contain matching items. All blocks, if the prefix is empty or
+     * the file doesn't contain a path index.
+     */
+    int[] getBlockRange(String pathPrefix) {
+        if (blockFirstPaths == null || pathPrefix == null || pathPrefix.length() == 0 || blockCount == 0) {
+            return new int[]{0, blockCount};
+        }
+        // Find the last block whose first path is less than the prefix (the block may contain matching items at its end).
+        int low = 0;
+        int high = blockCount - 1;
+        int from = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockFirstPaths[mid].compareToIgnoreCase(pathPrefix) < 0) {
+                from = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int to = from + 1;
+        while (to < blockCount) {
+            String firstPath = blockFirstPaths[to];
+            if (firstPath.compareToIgnoreCase(pathPrefix) > 0
+                    && !firstPath.regionMatches(true, 0, pathPrefix, 0, pathPrefix.length())) {
+                // This block and all following blocks are behind all paths starting with the prefix.
+                break;
+            }
+            ++to;
+        }
+        return new int[]{from, to};
+    }
+
+    /**
+     * @param id
+     * @return The content of the section as buffer (positioned at the start of the section) or null, if the file
+     * doesn't contain such a section.
+     */
+    ByteBuffer getSection(int id) {
+        long[] section = sections.get(id);
+        if (section == null) {
+            return null;
+        }
+        ByteBuffer buf = buffer.duplicate();
+        buf.position((int) section[0]);
+        buf.limit((int) (section[0] + section[1]));
+        return buf.slice();
+    }
+
+    /**
+     * Reads and decompresses the given block.
+     *
+     * @param block
+     * @return The items of the block.
+     */
+    List<BorgFilesystemItem> readBlock(int block) throws IOException {
+        ArchiveFilelistCodec.Decompressor decompressor = createDecompressor(block);
+        try {
+            decompressor.decompressAll();
+            int size = blockItemCounts[block];
+            List<BorgFilesystemItem> list = new ArrayList<>(size);
+            try (Input input = new Input(decompressor.bytes)) {
+                if (hasItemOffsets()) {
+                    for (int i = 0; i < size; i++) {
+                        input.readVarInt(true); // Skip item offset table.
+                    }
+                }
+                if (dictionaries != null) {
+                    ArchiveFilelistCompactEncoding.Decoder decoder = new ArchiveFilelistCompactEncoding.Decoder(dictionaries, pathDictionary);
+                    for (int i = 0; i < size; i++) {
+                        BorgFilesystemItem item = decoder.read(input, i % ArchiveFilelistCompactEncoding.RESTART_INTERVAL == 0);
+                        list.add(item.setFileNumber(blockFirstItems[block] + i));
+                    }
+                } else {
+                    Kryo kryo = ArchiveFilelistFormat.createKryo();
+                    for (int i = 0; i < size; i++) {
+                        list.add(kryo.readObject(input, KryoFilesystemItem.class).toItem());
+                    }
+                }
+            }
+            return list;
+        } catch (IOException ex) {
+            throw createBlockException(block, ex);
+        } finally {
+            decompressor.end();
+        }
+    }
+
+    /**
+     * Reads the given range of blocks in order. If multiple processors are available, the following blocks are
+     * decompressed and decoded in parallel (read ahead) while the caller processes the current block. The iterator
+     * should be closed (the blocks read ahead are cancelled), if the caller stops before all blocks are read.
+     *
+     * @param fromBlock First block (inclusive).
+     * @param toBlock   Last block (exclusive).
+     */
+    BlockIterator readBlocks(int fromBlock, int toBlock) {
+        return new BlockIterator(getMatchingBlocks(fromBlock, toBlock, null));
+    }
+
+    /**
+     * As {@link #readBlocks(int, int)}, but reads only the given blocks (e. g. selected by
+     * {@link #getMatchingBlocks(int, int, FileSystemFilter)}).
+     *
+     * @param blocks The blocks to read in the given order.
+     */
+    BlockIterator readBlocks(int[] blocks) {
+        return new BlockIterator(blocks);
+    }
+
+    class BlockIterator implements Iterator<List<BorgFilesystemItem>>, Closeable {
+        private Deque<Future<List<BorgFilesystemItem>>> readAhead = new ArrayDeque<>();
+        private int[] blocks;
+        private int next;
+
+        private BlockIterator(int[] blocks) {
+            this.blocks = blocks;
+            fillReadAhead();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !readAhead.isEmpty() || next < blocks.length;
+        }
+
+        /**
+         * @throws UncheckedIOException If the block isn't readable.
+         */
+        @Override
+        public List<BorgFilesystemItem> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                if (readAhead.isEmpty()) {
+                    // Single processor.
+                    return readBlock(blocks[next++]);
+                }
+                Future<List<BorgFilesystemItem>> future = readAhead.poll();
+                fillReadAhead();
+                return future.get();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw new UncheckedIOException((IOException) ex.getCause());
+                }
+                throw new RuntimeException(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private void fillReadAhead() {
+            if (NUMBER_OF_THREADS < 2) {
+                return;
+            }
+            while (readAhead.size() < 2 * NUMBER_OF_THREADS && next < blocks.length) {
+                final int block = blocks[next++];
+                readAhead.add(executorService.submit(() -> readBlock(block)));
+            }
+        }
+
+        @Override
+        public void close() {
+            for (Future<List<BorgFilesystemItem>> future : readAhead) {
+                future.cancel(false);
+            }
+            readAhead.clear();
+            next = blocks.length;
+        }
+    }
+
+    /**
+     * Reads only the requested item: the block containing the item is decompressed only up to the end of this item and only
+     * the item itself is deserialized (for the compact encoding all items since the last restart point of the front
+     * coded paths).
+     *
+     * @param fileNumber
+     * @return The item or null, if no such item exist.
+     */
+    BorgFilesystemItem readItem(int fileNumber) throws IOException {
+        int block = getBlockOfItem(fileNumber);
+        if (block < 0) {
+            return null;
+        }
+        int index = fileNumber - blockFirstItems[block];
+        if (!hasItemOffsets()) {
+            return readBlock(block).get(index);
+        }
+        ArchiveFilelistCodec.Decompressor decompressor = createDecompressor(block);
+        try {
+            // The item offset table at the beginning of the block contains at maximum 5 bytes per item.
+            decompressor.decompress(5 * blockItemCounts[block]);
+            // Decoding starts at the restart point of the front coded paths (compact encoding):
+            int first = dictionaries != null ? index - index % ArchiveFilelistCompactEncoding.RESTART_INTERVAL : index;
+            int offset = 0;
+            int length = 0;
+            try (Input input = new Input(decompressor.bytes, 0, decompressor.length)) {
+                for (int i = 0; i < blockItemCounts[block]; i++) {
+                    int itemLength = input.readVarInt(true);
+                    if (i < first) {
+                        offset += itemLength;
+                    } else if (i <= index) {
+                        length += itemLength;
+                    }
+                }
+                offset += input.position(); // Items are placed after the offset table.
+            }
+            decompressor.decompress(offset + length);
+            try (Input input = new Input(decompressor.bytes, offset, length)) {
+                if (dictionaries == null) {
+                    return ArchiveFilelistFormat.createKryo().readObject(input, KryoFilesystemItem.class).toItem();
+                }
+                ArchiveFilelistCompactEncoding.Decoder decoder = new ArchiveFilelistCompactEncoding.Decoder(dictionaries, pathDictionary);
+                BorgFilesystemItem item = null;
+                for (int i = first; i <= index; i++) {
+                    item = decoder.read(input, i == first);
+                }
+                return item.setFileNumber(fileNumber);
+            }
+        } catch (IOException ex) {
+            throw createBlockException(block, ex);
+        } finally {
+            decompressor.end();
+        }
+    }
+
+    private boolean hasItemOffsets() {
+        return formatVersion >= 3;
+    }
+
+    /**
+     * @param fileNumber
+     * @return The block containing the given item or -1, if the file number is out of range.
+     */
+    int getBlockOfItem(int fileNumber) {
+        if (fileNumber < 0 || fileNumber >= itemCount) {
+            return -1;
+        }
+        int block = fileNumber / blockSize;
+        if (block < blockCount && blockFirstItems[block] <= fileNumber
+                && fileNumber < blockFirstItems[block] + blockItemCounts[block]) {
+            // All blocks (except the last one) are full, so the block is given directly.
+            return block;
+        }
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blockFirstItems[mid] <= fileNumber) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private ArchiveFilelistCodec.Decompressor createDecompressor(int block) {
+        ByteBuffer buf = buffer.duplicate();
+        buf.position((int) blockOffsets[block]);
+        buf.limit((int) (blockOffsets[block] + blockCompressedLengths[block]));
+        return codec.createDecompressor(buf.slice(), blockUncompressedLengths[block]);
+    }
+
+    private IOException createBlockException(int block, IOException ex) {
+        return new IOException("Error while reading block #" + block + " of file '" + file.getAbsolutePath() + "': "
+                + ex.getMessage(), ex);
+    }
+
+    /**
+     * The memory mapping itself is released by the garbage collector, because views of it (directory index, trigram
+     * index) may be used after closing. So deleting or replacing the file may fail on Windows until then, see
+     * {@link ArchiveFilelistCacheManifest#delete(File)} and {@link ArchiveFilelistCacheManifest#move(File, File)}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getFormatVersion() {
+        return formatVersion;
+    }
+
+    int getItemCount() {
+        return itemCount;
+    }
+
+    int getDirCount() {
+        return dirCount;
+    }
+
+    int getFileCount() {
+        return fileCount;
+    }
+
+    long getTotalSize() {
+        return totalSize;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    int getBlockFirstItem(int block) {
+        return blockFirstItems[block];
+    }
+
+    int getBlockItemCount(int block) {
+        return blockItemCounts[block];
+    }
+
+    String getRepo() {
+        return repo;
+    }
+
+    String getArchiveId() {
+        return archiveId;
+    }
+
+    String getArchiveName() {
+        return archiveName;
+    }
+
+    String getArchiveTime() {
+        return archiveTime;
+    }
+
+    byte getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return The random id of the file (0 for files written before the file id was introduced).
+     */
+    long getFileId() {
+        return fileId;
+    }
+
+    /**
+     * @return The base of this delta file list or null, if this file list is complete.
+     */
+    DeltaInfo getDeltaInfo() {
+        return deltaInfo;
+    }
+
+    /**
+     * Reference of a delta file list to its base file list.
+     */
+    static class DeltaInfo {
+        private String baseFileName;
+        private long baseFileId;
+        private int chainLength;
+
+        private DeltaInfo(String baseFileName, long baseFileId, int chainLength) {
+            this.baseFileName = baseFileName;
+            this.baseFileId = baseFileId;
+            this.chainLength = chainLength;
+        }
+
+        /**
+         * @return The name of the base file (located in the same directory).
+         */
+        String getBaseFileName() {
+            return baseFileName;
+        }
+
+        long getBaseFileId() {
+            return baseFileId;
+        }
+
+        /**
+         * @return 1, if the base is a complete file list, 2 if the base is a delta of a complete file list etc.
+         */
+        int getChainLength() {
+            return chainLength;
+        }
+    }
+}
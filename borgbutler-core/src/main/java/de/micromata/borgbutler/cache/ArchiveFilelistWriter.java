@@ -0,0 +1,388 @@
+package de.micromata.borgbutler.cache;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.ArchiveStatistics;
+import de.micromata.borgbutler.data.DirectoryIndex;
+import de.micromata.borgbutler.data.PathTrigramIndex;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a file list in the format described by {@link ArchiveFilelistFormat}. The items have to be added in sorted
+ * order (by path). The file numbers of the items are assigned by this writer.
+ */
+class ArchiveFilelistWriter implements Closeable {
+    private FileChannel channel;
+    private byte encoding;
+    private Kryo kryo;
+    private ArchiveFilelistCompactEncoding.Encoder encoder;
+    private RepoPathDictionary pathDictionary;
+    /**
+     * The id of the path dictionary when assigning the first path ids (0, if no ids assigned yet).
+     */
+    private long pathDictionaryId;
+    private Output itemOutput = new Output(64 * 1024, -1);
+    private Output blockOutput = new Output(64 * 1024, -1);
+    private ArchiveFilelistCodec codec;
+    private int blockSize;
+    private List<BorgFilesystemItem> blockItems;
+    private ByteArrayOutputStream blockTableBytes = new ByteArrayOutputStream();
+    private DataOutputStream blockTable = new DataOutputStream(blockTableBytes);
+    private ByteArrayOutputStream pathIndexBytes = new ByteArrayOutputStream();
+    private DataOutputStream pathIndex = new DataOutputStream(pathIndexBytes);
+    private ByteArrayOutputStream zoneMapsBytes = new ByteArrayOutputStream();
+    private DataOutputStream zoneMaps = new DataOutputStream(zoneMapsBytes);
+    private byte[] archiveInfo;
+    private long fileId = ThreadLocalRandom.current().nextLong();
+    private byte[] delta;
+    private PathBloomFilter bloomFilter;
+    private ArchiveStatistics statistics;
+    private DirectoryIndex.Builder directoryIndex;
+    private PathTrigramIndex.Builder pathTrigramIndex = new PathTrigramIndex.Builder();
+    private List<Integer> sectionIds = new ArrayList<>();
+    private List<Long> sectionOffsets = new ArrayList<>();
+    private List<Integer> sectionLengths = new ArrayList<>();
+    private long position = ArchiveFilelistFormat.HEADER_SIZE;
+    private int itemCount;
+    private int dirCount;
+    private int fileCount;
+    private long totalSize;
+    private int blockCount;
+
+    ArchiveFilelistWriter(File file, String repo, Archive archive) throws IOException {
+        this(file, repo, archive, ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE, ArchiveFilelistFormat.ENCODING_PATH_IDS,
+                ArchiveFilelistFormat.DEFAULT_CODEC);
+    }
+
+    /**
+     * @param encoding {@link ArchiveFilelistFormat#ENCODING_PATH_IDS} (the path dictionary of the repo is located in the
+     *                 directory of the file), {@link ArchiveFilelistFormat#ENCODING_COMPACT} or
+     *                 {@link ArchiveFilelistFormat#ENCODING_KRYO}.
+     * @param codec    The compression codec of the blocks.
+     */
+    ArchiveFilelistWriter(File file, String repo, Archive archive, int blockSize, byte encoding,
+                          ArchiveFilelistCodec codec) throws IOException {
+        this.blockSize = blockSize;
+        this.codec = codec;
+        this.encoding = encoding;
+        if (encoding == ArchiveFilelistFormat.ENCODING_PATH_IDS) {
+            pathDictionary = RepoPathDictionary.getInstance(RepoPathDictionary.getFile(file.getAbsoluteFile().getParentFile(),
+                    StringUtils.defaultString(repo)));
+            encoder = new ArchiveFilelistCompactEncoding.Encoder(pathDictionary);
+        } else if (encoding == ArchiveFilelistFormat.ENCODING_COMPACT) {
+            encoder = new ArchiveFilelistCompactEncoding.Encoder(null);
+        } else if (encoding == ArchiveFilelistFormat.ENCODING_KRYO) {
+            kryo = ArchiveFilelistFormat.createKryo();
+        } else {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        this.blockItems = new ArrayList<>(blockSize);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeUTF(StringUtils.defaultString(repo));
+            out.writeUTF(StringUtils.defaultString(archive != null ? archive.getId() : null));
+            out.writeUTF(StringUtils.defaultString(archive != null ? archive.getName() : null));
+            out.writeUTF(StringUtils.defaultString(archive != null ? archive.getTime() : null));
+        }
+        this.archiveInfo = baos.toByteArray();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @param item The item to add. Items must be added in sorted order. The file number of the item will be set.
+     */
+    void add(BorgFilesystemItem item) throws IOException {
+        item.setFileNumber(itemCount++);
+        if ("d".equals(item.getType())) {
+            ++dirCount;
+        } else if ("-".equals(item.getType())) {
+            ++fileCount;
+            totalSize += item.getSize();
+        }
+        blockItems.add(item);
+        pathTrigramIndex.add(blockCount, item.getPath());
+        if (blockItems.size() >= blockSize) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Marks this file list as delta of the given base file list: only the added and modified items are added to this
+     * writer.
+     *
+     * @param baseFileName The name of the file of the base archive (located in the same directory).
+     * @param baseFileId   The id of the base file (for detecting replaced base files).
+     * @param chainLength  1, if the base file is a full file list, otherwise the chain length of the base plus 1.
+     * @param removedPaths The paths of the base archive not contained in this archive.
+     */
+    void setDeltaBase(String baseFileName, long baseFileId, int chainLength, List<String> removedPaths) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeUTF(baseFileName);
+            out.writeLong(baseFileId);
+            out.writeInt(chainLength);
+            out.writeInt(removedPaths.size());
+        }
+        Output output = new Output(baos);
+        if (pathDictionary != null) {
+            try (CacheFileLock lock = lockPathDictionary()) {
+                for (String path : removedPaths) {
+                    output.writeVarInt(pathDictionary.getId(path), true);
+                }
+                pathDictionary.flush();
+            }
+        } else {
+            for (String path : removedPaths) {
+                output.writeString(path);
+            }
+        }
+        output.flush();
+        this.delta = baos.toByteArray();
+    }
+
+    /**
+     * @param bloomFilter The Bloom filter of all paths of the archive (written as section, if given).
+     */
+    void setBloomFilter(PathBloomFilter bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+
+    /**
+     * @param statistics The statistics of the whole archive (written as section, if given).
+     */
+    void setStatistics(ArchiveStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param directoryIndex The directory index of the whole archive (written as section, if given).
+     */
+    void setDirectoryIndex(DirectoryIndex.Builder directoryIndex) {
+        this.directoryIndex = directoryIndex;
+    }
+
+    /**
+     * @return The random id of the written file.
+     */
+    long getFileId() {
+        return fileId;
+    }
+
+    private void writeBlock() throws IOException {
+        if (blockItems.isEmpty()) {
+            return;
+        }
+        itemOutput.reset();
+        blockOutput.reset();
+        if (pathDictionary != null) {
+            try (CacheFileLock lock = lockPathDictionary()) {
+                encodeBlock();
+                pathDictionary.flush();
+            }
+        } else {
+            encodeBlock();
+        }
+        blockOutput.writeBytes(itemOutput.getBuffer(), 0, itemOutput.position());
+        int uncompressedLength = blockOutput.position();
+        long offset = position;
+        write(ByteBuffer.wrap(codec.compress(blockOutput.getBuffer(), uncompressedLength)));
+        blockTable.writeLong(offset);
+        blockTable.writeInt((int) (position - offset));
+        blockTable.writeInt(uncompressedLength);
+        blockTable.writeInt(blockItems.get(0).getFileNumber());
+        blockTable.writeInt(blockItems.size());
+        byte[] firstPath = StringUtils.defaultString(blockItems.get(0).getPath()).getBytes(StandardCharsets.UTF_8);
+        pathIndex.writeInt(firstPath.length);
+        pathIndex.write(firstPath);
+        writeZoneMap();
+        ++blockCount;
+        blockItems.clear();
+    }
+
+    private void encodeBlock() throws IOException {
+        int lastPosition = 0;
+        for (int i = 0; i < blockItems.size(); i++) {
+            BorgFilesystemItem item = blockItems.get(i);
+            if (encoder != null) {
+                encoder.write(itemOutput, item, i % ArchiveFilelistCompactEncoding.RESTART_INTERVAL == 0);
+            } else {
+                kryo.writeObject(itemOutput, KryoFilesystemItem.of(item));
+            }
+            // Item offset table (as lengths): needed for reading single items.
+            blockOutput.writeVarInt(itemOutput.position() - lastPosition, true);
+            lastPosition = itemOutput.position();
+        }
+    }
+
+    /**
+     * No other writer (of any process) may add paths until the new paths are written, so the lock is held while
+     * assigning the path ids of a block and writing the new paths (but not while compressing). Saves of the same repo
+     * only wait for each other while assigning ids.
+     *
+     * @return The lock of the path dictionary.
+     * @throws IOException If the dictionary was compacted or replaced since assigning the first ids (the ids assigned
+     *                     before may refer removed paths).
+     */
+    private CacheFileLock lockPathDictionary() throws IOException {
+        CacheFileLock lock = pathDictionary.lock();
+        if (pathDictionaryId == 0) {
+            pathDictionaryId = pathDictionary.getDictionaryId();
+        } else if (pathDictionaryId != pathDictionary.getDictionaryId()) {
+            lock.close();
+            throw new IOException("Path dictionary compacted or replaced while writing: " + pathDictionary.getFile().getAbsolutePath());
+        }
+        return lock;
+    }
+
+    private void writeZoneMap() throws IOException {
+        long minSize = Long.MAX_VALUE, maxSize = Long.MIN_VALUE, minMtime = Long.MAX_VALUE, maxMtime = Long.MIN_VALUE;
+        int typeBits = 0;
+        for (BorgFilesystemItem item : blockItems) {
+            minSize = Math.min(minSize, item.getSize());
+            maxSize = Math.max(maxSize, item.getSize());
+            long mtime = item.getMtimeEpochSeconds();
+            if (mtime != Long.MIN_VALUE) {
+                minMtime = Math.min(minMtime, mtime);
+                maxMtime = Math.max(maxMtime, mtime);
+            }
+            typeBits |= ArchiveFilelistFormat.getTypeBit(item.getType());
+        }
+        zoneMaps.writeLong(minSize);
+        zoneMaps.writeLong(maxSize);
+        zoneMaps.writeLong(minMtime);
+        zoneMaps.writeLong(maxMtime);
+        zoneMaps.writeInt(typeBits);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Writes the last block, the sections and the header and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeBlock();
+            blockTable.flush();
+            pathIndex.flush();
+            zoneMaps.flush();
+            addSection(ArchiveFilelistFormat.SECTION_BLOCK_TABLE, blockTableBytes.toByteArray());
+            addSection(ArchiveFilelistFormat.SECTION_ARCHIVE_INFO, archiveInfo);
+            addSection(ArchiveFilelistFormat.SECTION_PATH_INDEX, pathIndexBytes.toByteArray());
+            addSection(ArchiveFilelistFormat.SECTION_ZONE_MAPS, zoneMapsBytes.toByteArray());
+            addSection(ArchiveFilelistFormat.SECTION_FILE_ID, ByteBuffer.allocate(8).putLong(fileId).array());
+            if (delta != null) {
+                addSection(ArchiveFilelistFormat.SECTION_DELTA, delta);
+            }
+            if (bloomFilter != null) {
+                addSection(ArchiveFilelistFormat.SECTION_BLOOM_FILTER, bloomFilter.toBytes());
+            }
+            if (statistics != null) {
+                addSection(ArchiveFilelistFormat.SECTION_STATISTICS, ArchiveStatisticsCollector.toBytes(statistics));
+            }
+            if (directoryIndex != null) {
+                addSection(ArchiveFilelistFormat.SECTION_DIRECTORY_INDEX, directoryIndex::writeTo);
+            }
+            addSection(ArchiveFilelistFormat.SECTION_PATH_TRIGRAMS, pathTrigramIndex::writeTo);
+            if (encoder != null) {
+                addSection(ArchiveFilelistFormat.SECTION_DICTIONARIES, encoder.getDictionaries());
+            }
+            if (pathDictionary != null) {
+                // The new paths are already written with the blocks. The id of the dictionary of the first path ids is
+                // stored, so this file list doesn't match a dictionary compacted meanwhile:
+                addSection(ArchiveFilelistFormat.SECTION_PATH_DICTIONARY, ByteBuffer.allocate(8)
+                        .putLong(pathDictionaryId != 0 ? pathDictionaryId : pathDictionary.getDictionaryId()).array());
+            }
+            long sectionTableOffset = position;
+            ByteBuffer sectionTable = ByteBuffer.allocate(4 + sectionIds.size() * 16);
+            sectionTable.putInt(sectionIds.size());
+            for (int i = 0; i < sectionIds.size(); i++) {
+                sectionTable.putInt(sectionIds.get(i)).putLong(sectionOffsets.get(i)).putInt(sectionLengths.get(i));
+            }
+            sectionTable.flip();
+            write(sectionTable);
+            ByteBuffer header = ByteBuffer.allocate(ArchiveFilelistFormat.HEADER_SIZE);
+            header.putInt(ArchiveFilelistFormat.MAGIC)
+                    .putInt(ArchiveFilelistFormat.FORMAT_VERSION)
+                    .putInt(itemCount)
+                    .putInt(dirCount)
+                    .putInt(fileCount)
+                    .putLong(totalSize)
+                    .putInt(blockSize)
+                    .putInt(blockCount)
+                    .put(encoding)
+                    .put(codec.getId())
+                    .putShort((short) 0)
+                    .putLong(sectionTableOffset);
+            header.rewind();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes the given section at the current position. The section is registered in the section table.
+     *
+     * @param id
+     * @param data
+     */
+    private void addSection(int id, byte[] data) throws IOException {
+        sectionIds.add(id);
+        sectionOffsets.add(position);
+        sectionLengths.add(data.length);
+        write(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Writes the given section (e. g. too large for a byte array) at the current position. The section is registered
+     * in the section table.
+     */
+    private void addSection(int id, SectionWriter sectionWriter) throws IOException {
+        long offset = position;
+        channel.position(position);
+        // Not closed, the channel is still needed:
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        sectionWriter.write(out);
+        out.flush();
+        position = channel.position();
+        sectionIds.add(id);
+        sectionOffsets.add(offset);
+        sectionLengths.add(Math.toIntExact(position - offset));
+    }
+
+    @FunctionalInterface
+    private interface SectionWriter {
+        void write(OutputStream out) throws IOException;
+    }
+}
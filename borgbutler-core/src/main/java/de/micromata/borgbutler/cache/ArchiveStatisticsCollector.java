@@ -0,0 +1,209 @@
+package de.micromata.borgbutler.cache;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import de.micromata.borgbutler.data.ArchiveStatistics;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Computes the {@link ArchiveStatistics} of a file list by one pass over all items (while the file list is written)
+ * and serializes them as section {@link ArchiveFilelistFormat#SECTION_STATISTICS}.
+ */
+class ArchiveStatisticsCollector {
+    private static final byte VERSION = 1;
+    static final int MAX_LARGEST_FILES = 100;
+    static final int MAX_EXTENSIONS = 100;
+    // Longer extensions (e. g. of backup files named by time stamp) are handled as no extension:
+    static final int MAX_EXTENSION_LENGTH = 16;
+    // Bounds the memory for file lists with lots of distinct extensions, further extensions are summarized as others:
+    private static final int MAX_EXTENSIONS_IN_MEMORY = 10000;
+
+    private static final Comparator<ArchiveStatistics.LargeFile> SIZE_ORDER = Comparator.comparingLong(ArchiveStatistics.LargeFile::getSize);
+
+    private long itemCount;
+    private long fileCount;
+    private long directoryCount;
+    private long totalSize;
+    // Min heap, so the smallest of the largest files is replaced:
+    private PriorityQueue<ArchiveStatistics.LargeFile> largestFiles = new PriorityQueue<>(MAX_LARGEST_FILES + 1, SIZE_ORDER);
+    private Map<String, long[]> extensions = new HashMap<>();
+    private long[] otherExtensions = new long[2];
+    private Map<String, long[]> users = new HashMap<>();
+    private Map<String, long[]> groups = new HashMap<>();
+    private Map<String, long[]> types = new HashMap<>();
+
+    void add(BorgFilesystemItem item) {
+        ++itemCount;
+        long size = item.getSize();
+        totalSize += size;
+        add(users, item.getUser(), size);
+        add(groups, item.getGroup(), size);
+        add(types, item.getType(), size);
+        if ("d".equals(item.getType())) {
+            ++directoryCount;
+            return;
+        }
+        if (!"-".equals(item.getType())) {
+            return;
+        }
+        ++fileCount;
+        String extension = getExtension(item.getPath());
+        if (extensions.size() < MAX_EXTENSIONS_IN_MEMORY || extensions.containsKey(extension)) {
+            add(extensions, extension, size);
+        } else {
+            otherExtensions[0]++;
+            otherExtensions[1] += size;
+        }
+        if (largestFiles.size() < MAX_LARGEST_FILES || size > largestFiles.peek().getSize()) {
+            largestFiles.add(new ArchiveStatistics.LargeFile(item.getPath(), size, item.getMtime()));
+            if (largestFiles.size() > MAX_LARGEST_FILES) {
+                largestFiles.poll();
+            }
+        }
+    }
+
+    ArchiveStatistics getStatistics() {
+        ArchiveStatistics statistics = new ArchiveStatistics()
+                .setItemCount(itemCount)
+                .setFileCount(fileCount)
+                .setDirectoryCount(directoryCount)
+                .setTotalSize(totalSize)
+                .setUsers(toTotals(users))
+                .setGroups(toTotals(groups))
+                .setTypes(toTotals(types));
+        List<ArchiveStatistics.Total> extensionTotals = toTotals(extensions);
+        long otherCount = otherExtensions[0];
+        long otherSize = otherExtensions[1];
+        while (extensionTotals.size() > MAX_EXTENSIONS) {
+            ArchiveStatistics.Total total = extensionTotals.remove(extensionTotals.size() - 1);
+            otherCount += total.getCount();
+            otherSize += total.getSize();
+        }
+        if (otherCount > 0) {
+            extensionTotals.add(new ArchiveStatistics.Total(null, otherCount, otherSize));
+        }
+        statistics.setExtensions(extensionTotals);
+        List<ArchiveStatistics.LargeFile> files = new ArrayList<>(largestFiles);
+        files.sort(SIZE_ORDER.reversed().thenComparing(ArchiveStatistics.LargeFile::getPath));
+        statistics.setLargestFiles(files);
+        return statistics;
+    }
+
+    /**
+     * @return Version (byte), the totals (var longs) followed by the lists (size as var int, entries as string and var
+     * longs).
+     */
+    static byte[] toBytes(ArchiveStatistics statistics) {
+        Output output = new Output(1024, -1);
+        output.writeByte(VERSION);
+        output.writeVarLong(statistics.getItemCount(), true);
+        output.writeVarLong(statistics.getFileCount(), true);
+        output.writeVarLong(statistics.getDirectoryCount(), true);
+        output.writeVarLong(statistics.getTotalSize(), true);
+        output.writeVarInt(statistics.getLargestFiles().size(), true);
+        for (ArchiveStatistics.LargeFile file : statistics.getLargestFiles()) {
+            output.writeString(file.getPath());
+            output.writeVarLong(file.getSize(), true);
+            output.writeString(file.getMtime());
+        }
+        write(output, statistics.getExtensions());
+        write(output, statistics.getUsers());
+        write(output, statistics.getGroups());
+        write(output, statistics.getTypes());
+        return output.toBytes();
+    }
+
+    /**
+     * @param buf The bytes written by {@link #toBytes(ArchiveStatistics)}.
+     */
+    static ArchiveStatistics read(ByteBuffer buf) throws IOException {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        try (Input input = new Input(bytes)) {
+            if (bytes.length == 0 || input.readByte() != VERSION) {
+                throw new IOException("Unsupported version of archive statistics.");
+            }
+            ArchiveStatistics statistics = new ArchiveStatistics()
+                    .setItemCount(input.readVarLong(true))
+                    .setFileCount(input.readVarLong(true))
+                    .setDirectoryCount(input.readVarLong(true))
+                    .setTotalSize(input.readVarLong(true));
+            int size = input.readVarInt(true);
+            List<ArchiveStatistics.LargeFile> files = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                files.add(new ArchiveStatistics.LargeFile(input.readString(), input.readVarLong(true), input.readString()));
+            }
+            return statistics.setLargestFiles(files)
+                    .setExtensions(readTotals(input))
+                    .setUsers(readTotals(input))
+                    .setGroups(readTotals(input))
+                    .setTypes(readTotals(input));
+        } catch (RuntimeException ex) {
+            // Kryo throws KryoException on buffer underflow:
+            throw new IOException("Archive statistics corrupted: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return The lower case extension of the file name or "" (none or too long).
+     */
+    static String getExtension(String path) {
+        if (path == null) {
+            return "";
+        }
+        int pos = path.lastIndexOf('.');
+        if (pos < 0 || pos == path.length() - 1 || path.length() - pos - 1 > MAX_EXTENSION_LENGTH) {
+            return "";
+        }
+        int separator = path.lastIndexOf('/');
+        if (pos <= separator + 1) {
+            // No dot in the file name or a hidden file without extension (e. g. .bashrc):
+            return "";
+        }
+        return path.substring(pos + 1).toLowerCase();
+    }
+
+    private static void add(Map<String, long[]> map, String key, long size) {
+        long[] total = map.computeIfAbsent(key != null ? key : "", k -> new long[2]);
+        total[0]++;
+        total[1] += size;
+    }
+
+    private static List<ArchiveStatistics.Total> toTotals(Map<String, long[]> map) {
+        List<ArchiveStatistics.Total> list = new ArrayList<>(map.size());
+        for (Map.Entry<String, long[]> entry : map.entrySet()) {
+            list.add(new ArchiveStatistics.Total(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        list.sort(Comparator.comparingLong(ArchiveStatistics.Total::getSize).reversed()
+                .thenComparing(Comparator.comparingLong(ArchiveStatistics.Total::getCount).reversed())
+                .thenComparing(ArchiveStatistics.Total::getName));
+        return list;
+    }
+
+    private static void write(Output output, List<ArchiveStatistics.Total> totals) {
+        output.writeVarInt(totals.size(), true);
+        for (ArchiveStatistics.Total total : totals) {
+            output.writeString(total.getName());
+            output.writeVarLong(total.getCount(), true);
+            output.writeVarLong(total.getSize(), true);
+        }
+    }
+
+    private static List<ArchiveStatistics.Total> readTotals(Input input) {
+        int size = input.readVarInt(true);
+        List<ArchiveStatistics.Total> totals = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            totals.add(new ArchiveStatistics.Total(input.readString(), input.readVarLong(true), input.readVarLong(true)));
+        }
+        return totals;
+    }
+}
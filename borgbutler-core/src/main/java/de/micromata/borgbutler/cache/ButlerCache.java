@@ -6,8 +6,15 @@ import de.micromata.borgbutler.config.BorgRepoConfig;
 import de.micromata.borgbutler.config.Configuration;
 import de.micromata.borgbutler.config.ConfigurationHandler;
 import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.ArchivePathInfo;
+import de.micromata.borgbutler.data.ArchivePathVersion;
 import de.micromata.borgbutler.data.ArchiveShortInfo;
+import de.micromata.borgbutler.data.ArchiveStatistics;
+import de.micromata.borgbutler.data.DiffFileSystemFilter;
 import de.micromata.borgbutler.data.FileSystemFilter;
+import de.micromata.borgbutler.data.DirectoryIndex;
+import de.micromata.borgbutler.data.FileSystemItemColumns;
+import de.micromata.borgbutler.data.PathTrigramIndex;
 import de.micromata.borgbutler.data.Repository;
 import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
 import org.apache.commons.collections4.CollectionUtils;
@@ -18,9 +25,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Caches all borg objects such as repository information, archive and archive content. Therefore a fluent work
@@ -37,6 +51,9 @@ public class ButlerCache {
     private JCSCache jcsCache;
     private CacheAccess<String, Repository> repoCacheAccess;
     private ArchiveFilelistCache archiveFilelistCache;
+    private ArchiveFilelistMemoryCache archiveFilelistMemoryCache;
+    // One lock per archive, so the file list of an archive is listed by Borg and written to the cache only once at a time:
+    private Map<String, Object> loadByBorgLocks = new ConcurrentHashMap<>();
     private int notYetLoadedIdCounter = 1;
 
     public static ButlerCache getInstance() {
@@ -122,6 +139,7 @@ public class ButlerCache {
     public void clearAllCaches() {
         clearRepoCacheAccess();
         log.info("Clearing cache with file lists of archives...");
+        this.archiveFilelistMemoryCache.clear();
         this.archiveFilelistCache.removeAllCacheFiles();
     }
 
@@ -228,6 +246,7 @@ public class ButlerCache {
 
     /**
      * Updates for all archives of the given repository the cache status ({@link Archive#isFileListAlreadyCached()} and
+     * {@link Archive#isFileListPinned()})
      * updates also the list of {@link ArchiveShortInfo} for all archives of the given repository.
      *
      * @param repository
@@ -239,6 +258,7 @@ public class ButlerCache {
         List<ArchiveShortInfo> archiveInfoList = new ArrayList<>();
         for (Archive archive : repository.getArchives()) {
             archive.setFileListAlreadyCached(archiveFilelistCache.contains(repository, archive));
+            archive.setFileListPinned(archiveFilelistCache.isPinned(repository, archive));
             archiveInfoList.add(new ArchiveShortInfo(archive));
         }
         for (Archive archive : repository.getArchives()) {
@@ -284,22 +304,20 @@ public class ButlerCache {
             return null;
         }
         synchronized (archive) {
-            List<BorgFilesystemItem> items = archiveFilelistCache.load(repoConfig, archive, filter);
-            if (items == null && forceLoad) {
-                List<BorgFilesystemItem> list = BorgCommands.listArchiveContent(repoConfig, archive);
-                if (CollectionUtils.isNotEmpty(list)) {
-                    archiveFilelistCache.save(repoConfig, archive, list);
-                    items = new ArrayList<>();
-                    Iterator<BorgFilesystemItem> it = list.iterator(); // Don't use for-each (ConcurrentModificationException)
-                    while (it.hasNext()) {
-                        BorgFilesystemItem item = it.next();
-                        if (filter == null || filter.matches(item)) {
-                            items.add(item);
-                            if (filter != null && filter.isFinished()) break;
-                        }
-                    }
-                    if (filter != null) {
-                        items = filter.reduce(items);
+            List<BorgFilesystemItem> items = null;
+            if (ConfigurationHandler.getConfiguration().isLowMemoryMode()) {
+                // No fallback to the column representation: it would load the whole file list into the heap (and
+                // would run borg list a second time, if the ingest failed or was cancelled).
+                items = getArchiveContentStreamed(repoConfig, archive, forceLoad, filter);
+            } else {
+                if (archiveFilelistMemoryCache.isOversized(ArchiveFilelistMemoryCache.getKey(repoConfig.getRepo(), archive))) {
+                    // Too large for the memory cache, so read only the blocks needed by the filter:
+                    items = load(repoConfig, archive, filter);
+                }
+                if (items == null) {
+                    FileSystemItemColumns columns = getArchiveContentColumns(repoConfig, archive, forceLoad);
+                    if (columns != null) {
+                        items = filter(columns, filter);
                     }
                 }
             }
@@ -310,6 +328,428 @@ public class ButlerCache {
         }
     }
 
+    /**
+     * Low memory mode: the cached file list is streamed, only the items of the result are held in memory (all items,
+     * if no filter is given).
+     */
+    private List<BorgFilesystemItem> getArchiveContentStreamed(BorgRepoConfig repoConfig, Archive archive, boolean forceLoad,
+                                                               FileSystemFilter filter) {
+        Function<String, Stream<BorgFilesystemItem>> source = getArchiveContentSource(repoConfig, archive, forceLoad);
+        if (source == null) {
+            return null;
+        }
+        if (filter == null) {
+            return archiveFilelistCache.load(repoConfig, archive);
+        }
+        if (filter.isDirectoryLookup()) {
+            List<BorgFilesystemItem> items = archiveFilelistCache.loadDirectory(repoConfig, archive, filter);
+            if (items != null) {
+                return items;
+            }
+        } else if (PathTrigramIndex.isNarrowing(filter)) {
+            // Only the candidate blocks of the trigram index stored with the file list are read:
+            List<BorgFilesystemItem> items = archiveFilelistCache.search(repoConfig, archive, filter);
+            if (items != null) {
+                return items;
+            }
+        }
+        try {
+            return applyTotals(filter.filter(source), filter, archiveFilelistCache.loadDirectoryIndex(repoConfig, archive), null);
+        } catch (UncheckedIOException ex) {
+            log.error("Error while reading file list of archive '" + archive.getBorgIdentifier() + "': " + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * File lists not held in memory: browsing the tree is a lookup in the directory index stored with the file list
+     * (only the blocks containing the children are read), otherwise only the blocks needed by the filter are read.
+     */
+    private List<BorgFilesystemItem> load(BorgRepoConfig repoConfig, Archive archive, FileSystemFilter filter) {
+        if (filter != null && filter.isDirectoryLookup()) {
+            List<BorgFilesystemItem> items = archiveFilelistCache.loadDirectory(repoConfig, archive, filter);
+            if (items != null) {
+                return items;
+            }
+            // Written by an older version (without directory index).
+        }
+        List<BorgFilesystemItem> items = archiveFilelistCache.load(repoConfig, archive, filter);
+        if (filter == null) {
+            return items;
+        }
+        return applyTotals(items, filter, archiveFilelistCache.loadDirectoryIndex(repoConfig, archive), null);
+    }
+
+    /**
+     * Sets the totals of the sub trees of the directories of tree views.
+     *
+     * @param index      The directory index of the archive (nothing is done, if null).
+     * @param otherIndex For differences: the directory index of the archive to compare with (for removed items).
+     * @return The given items.
+     */
+    private List<BorgFilesystemItem> applyTotals(List<BorgFilesystemItem> items, FileSystemFilter filter,
+                                                 DirectoryIndex index, DirectoryIndex otherIndex) {
+        if (items == null || filter.getMode() != FileSystemFilter.Mode.TREE) {
+            return items;
+        }
+        for (BorgFilesystemItem item : items) {
+            DirectoryIndex itemIndex = item.getDiffStatus() == BorgFilesystemItem.DiffStatus.REMOVED ? otherIndex : index;
+            if (itemIndex != null) {
+                itemIndex.applyTotals(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Extracts the differences between the file lists of two archives (loaded by Borg, if not yet cached). In low memory
+     * mode the cached file lists are streamed and the result is limited to the max result size of the filter (flat
+     * mode), otherwise the file lists in column representation are used.
+     *
+     * @param archiveId
+     * @param diffArchiveId The archive to compare with.
+     * @param filter
+     * @return The differences reduced by the filter (see {@link FileSystemFilter#reduce(List)}).
+     */
+    public List<BorgFilesystemItem> getArchiveDifferences(String archiveId, String diffArchiveId, DiffFileSystemFilter filter) {
+        if (!ConfigurationHandler.getConfiguration().isLowMemoryMode()) {
+            // The differences are extracted without creating items for all rows:
+            FileSystemItemColumns columns = getArchiveContentColumns(archiveId, true);
+            FileSystemItemColumns diffColumns = getArchiveContentColumns(diffArchiveId, true);
+            if (filter.getMode() != FileSystemFilter.Mode.TREE) {
+                return filter.reduce(filter.extractDifferences(columns, diffColumns));
+            }
+            // Only the sub trees of the current directory are compared:
+            DirectoryIndex index = columns != null ? columns.getDirectoryIndex() : null;
+            DirectoryIndex diffIndex = diffColumns != null ? diffColumns.getDirectoryIndex() : null;
+            List<BorgFilesystemItem> items = filter.reduce(filter.extractDifferences(columns, getSubtreeRows(index, filter),
+                    diffColumns, getSubtreeRows(diffIndex, filter)));
+            return applyTotals(items, filter, index, diffIndex);
+        }
+        Function<String, Stream<BorgFilesystemItem>> source = getArchiveContentSource(archiveId);
+        Function<String, Stream<BorgFilesystemItem>> diffSource = getArchiveContentSource(diffArchiveId);
+        try {
+            // Missing file lists are handled as empty ones (as in column mode):
+            List<BorgFilesystemItem> items = filter.extractDifferences(source != null ? source : dir -> null,
+                    diffSource != null ? diffSource : dir -> null);
+            return applyTotals(items, filter, loadDirectoryIndex(archiveId), loadDirectoryIndex(diffArchiveId));
+        } catch (UncheckedIOException ex) {
+            log.error("Error while reading file lists of archives '" + archiveId + "' and '" + diffArchiveId + "': "
+                    + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return The rows of the sub tree of the current directory of the filter (all rows, if no index is given).
+     */
+    private int[] getSubtreeRows(DirectoryIndex index, FileSystemFilter filter) {
+        if (index == null) {
+            return null;
+        }
+        int[] rows = index.getSubtreeRows(filter.getCurrentDirectory());
+        // Unknown directory: nothing to compare.
+        return rows != null ? rows : new int[]{0, 0};
+    }
+
+    private DirectoryIndex loadDirectoryIndex(String archiveId) {
+        Archive archive = getArchive(archiveId);
+        if (archive == null || StringUtils.isBlank(archive.getName())) {
+            return null;
+        }
+        BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(archive.getRepoId());
+        return archiveFilelistCache.loadDirectoryIndex(repoConfig, archive);
+    }
+
+    private Function<String, Stream<BorgFilesystemItem>> getArchiveContentSource(String archiveId) {
+        Archive archive = getArchive(archiveId);
+        if (archive == null || StringUtils.isBlank(archive.getName())) {
+            log.error("Can't find archive with id '" + archiveId + "'. May-be it doesn't exist or the archives of the target repository aren't yet loaded.");
+            return null;
+        }
+        BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(archive.getRepoId());
+        synchronized (archive) {
+            return getArchiveContentSource(repoConfig, archive, true);
+        }
+    }
+
+    /**
+     * Low memory mode: the file list is loaded by Borg and streamed into the disk cache, if not yet cached.
+     *
+     * @return Streams the cached file list for a directory (see {@link FileSystemFilter#filter(Function)}) or null, if
+     * the archive content isn't available.
+     */
+    private Function<String, Stream<BorgFilesystemItem>> getArchiveContentSource(BorgRepoConfig repoConfig, Archive archive,
+                                                                                 boolean forceLoad) {
+        if (!archiveFilelistCache.contains(repoConfig, archive)) {
+            if (!forceLoad) {
+                return null;
+            }
+            try (ArchiveFilelistIngest ingest = archiveFilelistCache.createIngest(repoConfig, archive)) {
+                if (!loadByBorg(repoConfig, archive, ingest)) {
+                    return null;
+                }
+            }
+        }
+        return pathPrefix -> archiveFilelistCache.stream(repoConfig, archive, pathPrefix);
+    }
+
+    /**
+     * Gets the complete file list of an archive in column representation (e. g. for extracting the differences of two
+     * archives without creating millions of items).
+     *
+     * @param archiveId
+     * @param forceLoad If false, the file list will only get if already cached.
+     * @return The file list or null, if not available.
+     */
+    public FileSystemItemColumns getArchiveContentColumns(String archiveId, boolean forceLoad) {
+        Archive archive = getArchive(archiveId);
+        if (archive == null || StringUtils.isBlank(archive.getName())) {
+            log.error("Can't find archive with id '" + archiveId + "'. May-be it doesn't exist or the archives of the target repository aren't yet loaded.");
+            return null;
+        }
+        BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(archive.getRepoId());
+        synchronized (archive) {
+            FileSystemItemColumns columns = getArchiveContentColumns(repoConfig, archive, forceLoad);
+            if (columns == null && forceLoad) {
+                log.warn("Repo::archiv with name '" + archive.getBorgIdentifier() + "' not found or job was cancelled.");
+            }
+            return columns;
+        }
+    }
+
+    /**
+     * The file list is taken from the memory cache, from the disk cache or is loaded by Borg (in this order) and is
+     * put into the memory cache (if not too large).
+     */
+    private FileSystemItemColumns getArchiveContentColumns(BorgRepoConfig repoConfig, Archive archive, boolean forceLoad) {
+        String memoryCacheKey = ArchiveFilelistMemoryCache.getKey(repoConfig.getRepo(), archive);
+        FileSystemItemColumns columns = archiveFilelistMemoryCache.get(memoryCacheKey);
+        if (columns != null) {
+            archiveFilelistCache.registerAccess(repoConfig, archive);
+            return columns;
+        }
+        columns = archiveFilelistCache.loadColumns(repoConfig, archive);
+        if (columns == null && forceLoad) {
+            // The items are written to the cache while Borg is listing, large archives aren't held in memory:
+            try (ArchiveFilelistIngest ingest = archiveFilelistCache.createIngest(repoConfig, archive)) {
+                if (loadByBorg(repoConfig, archive, ingest)) {
+                    List<BorgFilesystemItem> items = ingest.getItems();
+                    columns = items != null ? FileSystemItemColumns.create(items)
+                            : archiveFilelistCache.loadColumns(repoConfig, archive);
+                }
+            }
+        }
+        if (columns != null) {
+            archiveFilelistMemoryCache.put(memoryCacheKey, columns);
+        }
+        return columns;
+    }
+
+    /**
+     * Lets Borg list the archive, the items are written to the disk cache while Borg is listing.
+     *
+     * @return true, if the file list is cached. The ingest is only finished, if its items were listed by Borg,
+     * otherwise (cached meanwhile or listed by another job) the file list has to be read from the cache.
+     */
+    private boolean loadByBorg(BorgRepoConfig repoConfig, Archive archive, ArchiveFilelistIngest ingest) {
+        Object lock = loadByBorgLocks.computeIfAbsent(ArchiveFilelistMemoryCache.getKey(repoConfig.getRepo(), archive),
+                key -> new Object());
+        synchronized (lock) {
+            if (archiveFilelistCache.contains(repoConfig, archive)) {
+                // Written by another caller meanwhile.
+                return true;
+            }
+            BorgCommands.ListResult result = BorgCommands.listArchiveContent(repoConfig, archive, ingest::add);
+            if (result == BorgCommands.ListResult.LISTED_BY_OTHER_JOB) {
+                // The items were passed to the other job, so this ingest is incomplete and is discarded:
+                if (!archiveFilelistCache.contains(repoConfig, archive)) {
+                    log.error("The file list of archive '" + archive.getBorgIdentifier() + "' was listed by another job, but isn't cached.");
+                    return false;
+                }
+                return true;
+            }
+            if (result != BorgCommands.ListResult.OK || !ingest.finish()) {
+                return false;
+            }
+        }
+        // Prune expired cache files and the ones of the lowest priority, if a quota is exceeded.
+        archiveFilelistCache.cleanUp(getRepoQuotas());
+        return true;
+    }
+
+    /**
+     * Items are only created for the matching rows. Browsing the tree is a lookup in the directory index of the
+     * columns, the directories of tree views contain the totals of their sub trees.
+     *
+     * @param columns The complete file list.
+     * @param filter  If given, only the items matching this filter are returned.
+     * @return The matching items.
+     */
+    private List<BorgFilesystemItem> filter(FileSystemItemColumns columns, FileSystemFilter filter) {
+        if (filter == null) {
+            List<BorgFilesystemItem> items = new ArrayList<>(columns.size());
+            for (int row = 0; row < columns.size(); row++) {
+                items.add(columns.getItem(row));
+            }
+            return items;
+        }
+        if (filter.isDirectoryLookup()) {
+            return filter.reduce(columns, columns.getDirectoryIndex());
+        }
+        // Only the candidates of the trigram index are checked, if the search string is long enough:
+        int[] candidates = null;
+        if (PathTrigramIndex.isNarrowing(filter)) {
+            candidates = columns.getPathTrigramIndex().getCandidates(filter.getSearchKeyWords());
+        }
+        int size = candidates != null ? candidates.length : columns.size();
+        int[] rows = new int[64];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int row = candidates != null ? candidates[i] : i;
+            if (filter.matches(columns, row)) {
+                if (count == rows.length) {
+                    rows = Arrays.copyOf(rows, 2 * count);
+                }
+                rows[count++] = row;
+                if (filter.isFinished()) break;
+            }
+        }
+        List<BorgFilesystemItem> items = filter.reduce(columns, Arrays.copyOf(rows, count));
+        if (filter.getMode() == FileSystemFilter.Mode.TREE) {
+            applyTotals(items, filter, columns.getDirectoryIndex(), null);
+        }
+        return items;
+    }
+
+    /**
+     * Gets a single file system item of a cached archive content by its file number (without loading the whole file list).
+     *
+     * @param archiveId
+     * @param fileNumber
+     * @return The item or null, if not found or the archive content isn't yet cached.
+     */
+    public BorgFilesystemItem getArchiveContentItem(String archiveId, int fileNumber) {
+        Archive archive = getArchive(archiveId);
+        if (archive == null) {
+            log.error("Can't find archive with id '" + archiveId + "'. May-be it doesn't exist or the archives of the target repository aren't yet loaded.");
+            return null;
+        }
+        BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(archive.getRepoId());
+        FileSystemItemColumns columns = archiveFilelistMemoryCache.get(ArchiveFilelistMemoryCache.getKey(repoConfig.getRepo(), archive));
+        if (columns != null && fileNumber >= 0 && fileNumber < columns.size()) {
+            // The file number is the row.
+            archiveFilelistCache.registerAccess(repoConfig, archive);
+            return columns.getItem(fileNumber);
+        }
+        return archiveFilelistCache.loadItem(repoConfig, archive, fileNumber);
+    }
+
+    /**
+     * Checks for all archives of the given repository with cached file lists, whether they contain the given path. The
+     * file lists aren't loaded: most archives not containing the path are ruled out by their Bloom filters.
+     *
+     * @param repoIdOrName
+     * @param path         The exact path (a leading slash is ignored, because Borg stores paths without).
+     * @return The archives of the repository, {@link ArchivePathInfo#getContainsPath()} is null for archives not yet
+     * cached.
+     */
+    public List<ArchivePathInfo> containsPath(String repoIdOrName, String path) {
+        Repository repository = getRepositoryArchives(repoIdOrName);
+        if (repository == null) {
+            log.error("Repository '" + repoIdOrName + "' not found.");
+            return null;
+        }
+        String borgPath = StringUtils.removeStart(path, "/");
+        BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(repository.getName());
+        List<ArchivePathInfo> result = new ArrayList<>();
+        if (repository.getArchives() != null && StringUtils.isNotEmpty(borgPath)) {
+            for (Archive archive : repository.getArchives()) {
+                result.add(new ArchivePathInfo(archive, archiveFilelistCache.containsPath(repoConfig, archive, borgPath)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets every version of the given path across all archives of the repository from the path history (an inverted
+     * index of all file lists cached so far), so the file lists of the archives aren't loaded.
+     *
+     * @param repoIdOrName
+     * @param path         The exact path (a leading slash is ignored, because Borg stores paths without).
+     * @return The archives containing the path with size and mtime of the path, the newest archive first. Archives
+     * whose file lists were never cached aren't contained.
+     */
+    public List<ArchivePathVersion> getPathHistory(String repoIdOrName, String path) {
+        Repository repository = getRepositoryArchives(repoIdOrName);
+        if (repository == null) {
+            log.error("Repository '" + repoIdOrName + "' not found.");
+            return null;
+        }
+        String borgPath = StringUtils.removeStart(path, "/");
+        List<ArchivePathVersion> result = new ArrayList<>();
+        if (repository.getArchives() == null || StringUtils.isEmpty(borgPath)) {
+            return result;
+        }
+        BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(repository.getName());
+        Map<String, BorgFilesystemItem> versions = archiveFilelistCache.getPathHistory(repoConfig,
+                new ArrayList<>(repository.getArchives()), borgPath);
+        if (versions == null) {
+            return null;
+        }
+        for (Archive archive : repository.getArchives()) {
+            BorgFilesystemItem item = versions.get(archive.getId());
+            if (item != null) {
+                result.add(new ArchivePathVersion(archive, item.getSize(), item.getMtime()));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Gets the statistics of the archive content stored with the cached file list (computed once on caching), so the
+     * file list isn't loaded.
+     *
+     * @param archiveId
+     * @param forceLoad If false, the statistics will only get if the file list is already cached.
+     * @return The statistics or null, if not available.
+     */
+    public ArchiveStatistics getArchiveStatistics(String archiveId, boolean forceLoad) {
+        Archive archive = getArchive(archiveId);
+        if (archive == null || StringUtils.isBlank(archive.getName())) {
+            log.error("Can't find archive with id '" + archiveId + "'. May-be it doesn't exist or the archives of the target repository aren't yet loaded.");
+            return null;
+        }
+        BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(archive.getRepoId());
+        synchronized (archive) {
+            ArchiveStatistics statistics = archiveFilelistCache.loadStatistics(repoConfig, archive);
+            if (statistics != null || !forceLoad) {
+                return statistics;
+            }
+            // Loads the file list by Borg into the disk cache:
+            if (ConfigurationHandler.getConfiguration().isLowMemoryMode()) {
+                if (getArchiveContentSource(repoConfig, archive, true) == null) {
+                    return null;
+                }
+            } else {
+                FileSystemItemColumns columns = getArchiveContentColumns(repoConfig, archive, true);
+                if (columns == null) {
+                    return null;
+                }
+                if (!archiveFilelistCache.contains(repoConfig, archive)) {
+                    // Only available in the memory cache:
+                    ArchiveStatisticsCollector collector = new ArchiveStatisticsCollector();
+                    for (int row = 0; row < columns.size(); row++) {
+                        collector.add(columns.getItem(row));
+                    }
+                    return collector.getStatistics();
+                }
+            }
+            return archiveFilelistCache.loadStatistics(repoConfig, archive);
+        }
+    }
+
     public List<BorgFilesystemItem> getArchiveContent(File file) {
         return archiveFilelistCache.load(file, null);
     }
@@ -326,9 +766,57 @@ public class ButlerCache {
             return;
         }
         archiveFilelistCache.deleteCachFile(repository, archive);
+        archiveFilelistMemoryCache.remove(ArchiveFilelistMemoryCache.getKey(repository.getName(), archive));
+    }
+
+    /**
+     * Pins or unpins the cached file list of the given archive. Pinned file lists are never evicted from the cache.
+     *
+     * @return The archive or null, if the repository or archive wasn't found or if the file list of the archive isn't
+     * cached.
+     */
+    public Archive pinCachedArchiveContent(String repoIdOrName, String archiveIdOrName, boolean pinned) {
+        Repository repository = getRepository(repoIdOrName);
+        if (repository == null) {
+            log.warn("Can't pin archive content cache file, repository not found: " + repoIdOrName);
+            return null;
+        }
+        Archive archive = getArchive(repoIdOrName, archiveIdOrName);
+        if (archive == null) {
+            log.warn("Can't pin archive content cache file, archive not found: " + archiveIdOrName);
+            return null;
+        }
+        if (!archiveFilelistCache.setPinned(repository, archive, pinned)) {
+            log.warn("Can't pin archive content cache file, archive content isn't cached: " + archiveIdOrName);
+            return null;
+        }
+        archive.setFileListPinned(pinned);
+        return archive;
+    }
+
+    /**
+     * @return The cache quotas of all repos having one.
+     * @see BorgRepoConfig#getMaxArchiveContentCacheCapacityMb()
+     */
+    private Map<String, Integer> getRepoQuotas() {
+        Map<String, Integer> quotas = new HashMap<>();
+        for (BorgRepoConfig repoConfig : ConfigurationHandler.getConfiguration().getAllRepoConfigs()) {
+            if (repoConfig.getMaxArchiveContentCacheCapacityMb() > 0 && repoConfig.getRepo() != null) {
+                quotas.put(repoConfig.getRepo(), repoConfig.getMaxArchiveContentCacheCapacityMb());
+            }
+        }
+        return quotas;
+    }
+
+    /**
+     * @return The usage of the memory cache of the most recently used file lists.
+     */
+    public ArchiveFilelistMemoryCacheStatistics getArchiveContentMemoryCacheStatistics() {
+        return archiveFilelistMemoryCache.getStatistics();
     }
 
     public void shutdown() {
+        archiveFilelistCache.flush();
         JCS.shutdown();
     }
 
@@ -340,7 +828,21 @@ public class ButlerCache {
         Configuration configuration = ConfigurationHandler.getConfiguration();
         this.jcsCache = JCSCache.getInstance();
         this.repoCacheAccess = jcsCache.getJCSCache("repositories");
-        this.archiveFilelistCache = new ArchiveFilelistCache(getCacheDir(), configuration.getMaxArchiveContentCacheCapacityMb());
+        File archiveContentCacheDir = getCacheDir();
+        if (StringUtils.isNotBlank(configuration.getArchiveContentCacheDir())) {
+            // Shared by several instances of BorgButler:
+            archiveContentCacheDir = new File(configuration.getArchiveContentCacheDir());
+            if (!archiveContentCacheDir.exists()) {
+                log.info("Creating directory for archive contents: " + archiveContentCacheDir.getAbsolutePath());
+                archiveContentCacheDir.mkdirs();
+            }
+        }
+        this.archiveFilelistCache = new ArchiveFilelistCache(archiveContentCacheDir, configuration.getMaxArchiveContentCacheCapacityMb());
+        // Not more than a quarter of the heap (none in low memory mode):
+        int maxMemoryMB = configuration.isLowMemoryMode() ? 0 : (int) (Runtime.getRuntime().maxMemory() / 1024 / 1024 / 4);
+        this.archiveFilelistMemoryCache = new ArchiveFilelistMemoryCache(Math.min(configuration.getMaxArchiveContentMemoryCapacityMb(), maxMemoryMB));
+        // Rewrite cache files of older BorgButler versions in the background:
+        this.archiveFilelistCache.migrateOutdatedFiles();
         // Assign the repo ids to the repo config objects:
         getAllRepositories();
     }
@@ -0,0 +1,123 @@
+package de.micromata.borgbutler.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock of a lock file for all threads of this process and all other processes (e. g. other BorgButler
+ * instances sharing the cache directory on the same host or on a shared mount). The lock is reentrant for the
+ * current thread.
+ * <br>
+ * File locks are held by the whole process (a second lock of the same file by the same process fails), so the threads
+ * of this process are synchronized by a {@link ReentrantLock} per file before acquiring the file lock.
+ * <br>
+ * Lock files are deleted together with the file they protect (see {@link #deleteLockFile()}). Waiting lockers notice
+ * this after acquiring the lock and lock the current lock file instead.
+ */
+class CacheFileLock implements Closeable {
+    static final String LOCK_FILE_EXTENSION = ".lock";
+
+    private static final Map<File, ReentrantLock> localLocks = new HashMap<>();
+
+    private File lockFile;
+    private ReentrantLock localLock;
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    /**
+     * Blocks until the lock is acquired.
+     *
+     * @param lockFile The lock file (created, if not exist).
+     * @return The lock, which has to be closed.
+     */
+    static CacheFileLock lock(File lockFile) throws IOException {
+        File key = lockFile.getAbsoluteFile();
+        ReentrantLock localLock;
+        synchronized (localLocks) {
+            localLock = localLocks.computeIfAbsent(key, file -> new ReentrantLock());
+        }
+        localLock.lock();
+        if (localLock.getHoldCount() > 1) {
+            // File lock is already held by this thread.
+            return new CacheFileLock(key, localLock, null, null);
+        }
+        while (true) {
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(key.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                Object fileKey = getFileKey(key);
+                FileLock fileLock = channel.lock();
+                if (key.exists() && (fileKey == null || fileKey.equals(getFileKey(key)))) {
+                    return new CacheFileLock(key, localLock, channel, fileLock);
+                }
+                // Deleted (and maybe created again) by the previous holder of the lock:
+                fileLock.release();
+                channel.close();
+            } catch (IOException | RuntimeException ex) {
+                if (channel != null) {
+                    channel.close();
+                }
+                localLock.unlock();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * @return The file key (e. g. the inode) or null, if not supported by the file system (or if the file doesn't exist).
+     */
+    private static Object getFileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    static boolean isLockFile(File file) {
+        return file.getName().endsWith(LOCK_FILE_EXTENSION);
+    }
+
+    private CacheFileLock(File lockFile, ReentrantLock localLock, FileChannel channel, FileLock fileLock) {
+        this.lockFile = lockFile;
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Deletes the lock file while holding the lock (e. g. after deleting the file protected by this lock). Nothing is
+     * done, if the lock was acquired reentrant (the lock file is deleted by the outermost lock only). On Windows the
+     * lock file isn't deleted while it's open.
+     */
+    void deleteLockFile() {
+        if (fileLock != null) {
+            lockFile.delete();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (localLock == null) {
+            return;
+        }
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+                channel.close();
+            }
+        } finally {
+            localLock.unlock();
+            localLock = null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.micromata.borgbutler.cache;
+
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+
+/**
+ * Field layout of {@link BorgFilesystemItem} as written by Kryo to the legacy files and the files of
+ * {@link ArchiveFilelistFormat#ENCODING_KRYO}. Kryo serializes the fields, so this class keeps the former string fields
+ * (names, types and order mustn't be changed), independent of the compact representation of
+ * {@link BorgFilesystemItem}.
+ */
+class KryoFilesystemItem {
+    private String type;
+    private String mode;
+    private String user;
+    private String group;
+    private long uid;
+    private long gid;
+    private String path;
+    private String displayPath;
+    private boolean healthy;
+    private String source;
+    private String linktarget;
+    private String flags;
+    private String mtime;
+    private long size;
+    private int fileNumber = -1;
+    private BorgFilesystemItem.DiffStatus diffStatus;
+    private KryoFilesystemItem diffItem;
+    private String differences;
+
+    static KryoFilesystemItem of(BorgFilesystemItem item) {
+        if (item == null) {
+            return null;
+        }
+        KryoFilesystemItem kryoItem = new KryoFilesystemItem();
+        kryoItem.type = item.getType();
+        kryoItem.mode = item.getMode();
+        kryoItem.user = item.getUser();
+        kryoItem.group = item.getGroup();
+        kryoItem.uid = item.getUid();
+        kryoItem.gid = item.getGid();
+        kryoItem.path = item.getPath();
+        kryoItem.displayPath = item.getDisplayPath();
+        kryoItem.healthy = item.isHealthy();
+        kryoItem.source = item.getSource();
+        kryoItem.linktarget = item.getLinktarget();
+        kryoItem.flags = item.getFlags();
+        kryoItem.mtime = item.getMtime();
+        kryoItem.size = item.getSize();
+        kryoItem.fileNumber = item.getFileNumber();
+        kryoItem.diffStatus = item.getDiffStatus();
+        kryoItem.diffItem = of(item.getDiffItem());
+        kryoItem.differences = item.getDifferences();
+        return kryoItem;
+    }
+
+    /**
+     * The differences aren't restored (only set by the diff tool, not part of cached file lists).
+     */
+    BorgFilesystemItem toItem() {
+        return new BorgFilesystemItem()
+                .setType(type)
+                .setMode(mode)
+                .setUser(user)
+                .setGroup(group)
+                .setUid(uid)
+                .setGid(gid)
+                .setPath(path)
+                .setDisplayPath(displayPath)
+                .setHealthy(healthy)
+                .setSource(source)
+                .setLinktarget(linktarget)
+                .setFlags(flags)
+                .setMtime(mtime)
+                .setSize(size)
+                .setFileNumber(fileNumber)
+                .setDiffStatus(diffStatus)
+                .setDiffItem(diffItem != null ? diffItem.toItem() : null)
+                .intern();
+    }
+}
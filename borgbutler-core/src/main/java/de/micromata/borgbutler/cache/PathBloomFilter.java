@@ -0,0 +1,113 @@
+package de.micromata.borgbutler.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter of the paths of a file list (stored in section {@link ArchiveFilelistFormat#SECTION_BLOOM_FILTER}).
+ * Used for ruling out archives not containing a path without decoding any block.
+ * <br>
+ * With {@link #BITS_PER_PATH} bits per path and {@link #NUMBER_OF_HASH_FUNCTIONS} hash functions the false positive
+ * rate is about 2% (1 MB for an archive with a million paths).
+ */
+class PathBloomFilter {
+    static final int BITS_PER_PATH = 8;
+    static final int NUMBER_OF_HASH_FUNCTIONS = 6;
+
+    private long[] bits;
+    private int numberOfHashFunctions;
+
+    /**
+     * @param expectedPaths The number of paths to add.
+     */
+    PathBloomFilter(int expectedPaths) {
+        this(new long[(int) Math.max(1, ((long) expectedPaths * BITS_PER_PATH + 63) / 64)], NUMBER_OF_HASH_FUNCTIONS);
+    }
+
+    private PathBloomFilter(long[] bits, int numberOfHashFunctions) {
+        this.bits = bits;
+        this.numberOfHashFunctions = numberOfHashFunctions;
+    }
+
+    void add(String path) {
+        if (path == null) {
+            return;
+        }
+        long hash = hash(path);
+        long numberOfBits = (long) bits.length * 64;
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            long bit = getBit(hash, i, numberOfBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param path
+     * @return false, if the given path was never added, true if the path was probably added.
+     */
+    boolean mightContain(String path) {
+        if (path == null) {
+            return false;
+        }
+        long hash = hash(path);
+        long numberOfBits = (long) bits.length * 64;
+        for (int i = 0; i < numberOfHashFunctions; i++) {
+            long bit = getBit(hash, i, numberOfBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of hash functions (int) followed by the bits (longs).
+     */
+    byte[] toBytes() {
+        ByteBuffer buf = ByteBuffer.allocate(4 + bits.length * 8);
+        buf.putInt(numberOfHashFunctions);
+        for (long value : bits) {
+            buf.putLong(value);
+        }
+        return buf.array();
+    }
+
+    /**
+     * @param buf The bytes written by {@link #toBytes()}.
+     */
+    static PathBloomFilter read(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 12 || (buf.remaining() - 4) % 8 != 0) {
+            throw new IOException("Bloom filter corrupted.");
+        }
+        int numberOfHashFunctions = buf.getInt();
+        long[] bits = new long[buf.remaining() / 8];
+        buf.asLongBuffer().get(bits);
+        return new PathBloomFilter(bits, numberOfHashFunctions);
+    }
+
+    /**
+     * Double hashing: the i-th hash function is h1 + i * h2 (the lower and upper half of the 64 bit hash).
+     */
+    private static long getBit(long hash, int i, long numberOfBits) {
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        return ((h1 + i * h2) & Long.MAX_VALUE) % numberOfBits;
+    }
+
+    /**
+     * FNV-1a over the chars followed by the finalizer of MurmurHash3 (for a good distribution of both halves).
+     */
+    private static long hash(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,630 @@
+package de.micromata.borgbutler.cache;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import de.micromata.borgbutler.utils.ReplaceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Dictionary of all paths of all cached archives of one repository. Consecutive archives of a repository share
+ * nearly all of their paths, so each path is stored (and decoded) only once per repository and the file lists of the
+ * archives refer the paths by id ({@link ArchiveFilelistFormat#ENCODING_PATH_IDS}).
+ * <br>
+ * Items decoded via the same dictionary share the same path instances, so comparing paths of items of different
+ * archives (e. g. by {@link de.micromata.borgbutler.data.DiffFileSystemFilter}) is mostly a reference comparison.
+ * <br>
+ * The file is append only: new paths are appended as chunks of up to {@link #CHUNK_SIZE} front coded and
+ * compressed paths. The header (number of paths and chunks) is written after the chunks, so incompletely written
+ * chunks are ignored.
+ * <br>
+ * Every dictionary has a random id, which is stored in the file lists referring it. So a file list is never decoded
+ * with another dictionary than the one it was written with (e. g. after deleting the dictionary).
+ * <br>
+ * The cache directory may be shared by several processes: paths are only added while holding the lock of the
+ * dictionary (see {@link #lock()}), and paths appended by other processes are read on demand (see {@link #refresh()}).
+ * <br>
+ * Paths of deleted file lists aren't removed on deletion, but the dictionary is compacted by
+ * {@link ArchiveFilelistCache#cleanUp(Map)}: as soon as the paths added since the last check may have doubled the
+ * number of paths referenced at that time or half of the file lists of the repo are deleted (see
+ * {@link #isCheckDue(int)}), the referenced paths are collected from the file lists of the repo. If the dictionary
+ * holds more than twice the referenced paths, all other paths are replaced by empty strings (see
+ * {@link #compact(BitSet, Collection)}). So the dictionary holds at most twice the paths referenced at the last check
+ * plus the paths added since (and an empty string of about two bytes before compression per id ever assigned).
+ * <br>
+ * Instances are thread safe and shared (see {@link #getInstance(File)}).
+ */
+class RepoPathDictionary {
+    private static Logger log = LoggerFactory.getLogger(RepoPathDictionary.class);
+    static final String FILE_BASENAME = "repo-paths-";
+    static final String FILE_EXTENSION = ".dict";
+    /**
+     * 'BBPD' (BorgButler path dictionary).
+     */
+    private static final int MAGIC = 0x42425044;
+    private static final int FORMAT_VERSION = 2;
+    /**
+     * Magic, version, dictionary id (long), number of paths, number of chunks, the result of the last compaction check
+     * (number of paths, of not removed paths, of referenced paths and of file lists) and the number of file ids
+     * following the header (the file lists written before the last compaction, see {@link #matches(long, long)}).
+     */
+    private static final int HEADER_SIZE = 44;
+    /**
+     * Number of paths (int), uncompressed length (int), compressed length (int) and codec (byte).
+     */
+    private static final int CHUNK_HEADER_SIZE = 13;
+    static final int CHUNK_SIZE = 4096;
+
+    private static final Map<File, RepoPathDictionary> instances = new HashMap<>();
+
+    private File file;
+    private long dictionaryId;
+    private int size;
+    private long endOffset = HEADER_SIZE;
+    /**
+     * The file lists of the previous dictionary id, which are valid for this dictionary (see {@link #compact(BitSet, Collection)}).
+     */
+    private Set<Long> compactedFileIds = new HashSet<>();
+    /**
+     * Result of the last compaction check: number of paths (including the removed ones), not removed paths, referenced
+     * paths and file lists referring this dictionary.
+     */
+    private int checkedSize, checkedLivePaths, checkedReferencedPaths, checkedFileLists;
+    private List<Long> chunkOffsets = new ArrayList<>();
+    private List<Integer> chunkFirstIds = new ArrayList<>();
+    private List<SoftReference<Chunk>> chunkCache = new ArrayList<>();
+    /**
+     * New paths (ids starting with {@link #size}), not yet written.
+     */
+    private List<String> pendingPaths = new ArrayList<>();
+    private SoftReference<Map<String, Integer>> idsReference;
+
+    /**
+     * @param dir  The cache directory.
+     * @param repo
+     * @return The dictionary file of the given repo.
+     */
+    static File getFile(File dir, String repo) {
+        return new File(dir, ReplaceUtils.encodeFilename(FILE_BASENAME + repo + FILE_EXTENSION, true));
+    }
+
+    /**
+     * @param file
+     * @return The shared instance of the dictionary (the file is created on first write).
+     */
+    static RepoPathDictionary getInstance(File file) throws IOException {
+        synchronized (instances) {
+            File key = file.getAbsoluteFile();
+            RepoPathDictionary dictionary = instances.get(key);
+            if (dictionary == null) {
+                try {
+                    dictionary = new RepoPathDictionary(key);
+                } catch (IOException ex) {
+                    // File lists referring this dictionary aren't readable anymore (they're detected by the dictionary id).
+                    log.error("Error while reading path dictionary '" + key.getAbsolutePath() + "' (deleting it): " + ex.getMessage());
+                    key.delete();
+                    dictionary = new RepoPathDictionary(key);
+                }
+                instances.put(key, dictionary);
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * Deletes the file, its lock file and the shared instance.
+     *
+     * @param file
+     */
+    static void delete(File file) {
+        // The lock is acquired first: the holder of the lock may need the shared instances.
+        try (CacheFileLock lock = CacheFileLock.lock(new File(file.getPath() + CacheFileLock.LOCK_FILE_EXTENSION))) {
+            synchronized (instances) {
+                instances.remove(file.getAbsoluteFile());
+                file.delete();
+            }
+            lock.deleteLockFile();
+        } catch (IOException ex) {
+            log.error("Error while locking path dictionary '" + file.getAbsolutePath() + "' for deletion: " + ex.getMessage(), ex);
+            synchronized (instances) {
+                instances.remove(file.getAbsoluteFile());
+                file.delete();
+            }
+        }
+    }
+
+    static boolean isDictionaryFile(File file) {
+        return file.getName().startsWith(FILE_BASENAME) && file.getName().endsWith(FILE_EXTENSION);
+    }
+
+    private RepoPathDictionary(File file) throws IOException {
+        this.file = file;
+        dictionaryId = UUID.randomUUID().getMostSignificantBits();
+        refresh();
+    }
+
+    /**
+     * Locks this dictionary for adding paths: exclusive for all threads of all processes using the cache directory.
+     * Paths added by other processes in the meantime are read.
+     *
+     * @return The lock, which has to be closed after flushing the new paths.
+     */
+    CacheFileLock lock() throws IOException {
+        CacheFileLock lock = CacheFileLock.lock(new File(file.getPath() + CacheFileLock.LOCK_FILE_EXTENSION));
+        try {
+            refresh();
+        } catch (IOException ex) {
+            lock.close();
+            throw ex;
+        }
+        return lock;
+    }
+
+    /**
+     * Reads the paths appended to the file by other processes (if any). If the file was deleted or replaced by another
+     * process, the dictionary is reset. Paths not yet written are discarded in this case (they're only in use while
+     * holding the lock).
+     */
+    synchronized void refresh() throws IOException {
+        if (!file.exists()) {
+            if (!chunkOffsets.isEmpty()) {
+                // Deleted by another process.
+                reset(UUID.randomUUID().getMostSignificantBits());
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a path dictionary of BorgButler or unsupported version: " + file.getAbsolutePath());
+            }
+            long id = header.getLong();
+            int numberOfPaths = header.getInt();
+            int numberOfChunks = header.getInt();
+            int headerCheckedSize = header.getInt();
+            int headerCheckedLivePaths = header.getInt();
+            int headerCheckedReferencedPaths = header.getInt();
+            int headerCheckedFileLists = header.getInt();
+            int numberOfFileIds = header.getInt();
+            if (id != dictionaryId) {
+                // New or compacted by another process:
+                reset(id);
+                ByteBuffer fileIds = read(channel, HEADER_SIZE, numberOfFileIds * 8);
+                for (int i = 0; i < numberOfFileIds; i++) {
+                    compactedFileIds.add(fileIds.getLong());
+                }
+                endOffset = HEADER_SIZE + numberOfFileIds * 8;
+            }
+            checkedSize = headerCheckedSize;
+            checkedLivePaths = headerCheckedLivePaths;
+            checkedReferencedPaths = headerCheckedReferencedPaths;
+            checkedFileLists = headerCheckedFileLists;
+            if (id == dictionaryId && numberOfChunks == chunkOffsets.size()) {
+                // Unmodified.
+                return;
+            }
+            pendingPaths.clear();
+            idsReference = null;
+            for (int i = chunkOffsets.size(); i < numberOfChunks; i++) {
+                ByteBuffer chunkHeader = read(channel, endOffset, CHUNK_HEADER_SIZE);
+                int count = chunkHeader.getInt();
+                chunkHeader.getInt();
+                int compressedLength = chunkHeader.getInt();
+                addChunk(endOffset, count);
+                endOffset += CHUNK_HEADER_SIZE + compressedLength;
+            }
+            if (size != numberOfPaths) {
+                throw new IOException("Corrupted path dictionary: " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    private void reset(long dictionaryId) {
+        this.dictionaryId = dictionaryId;
+        size = 0;
+        endOffset = HEADER_SIZE;
+        compactedFileIds.clear();
+        checkedSize = checkedLivePaths = checkedReferencedPaths = checkedFileLists = 0;
+        chunkOffsets.clear();
+        chunkFirstIds.clear();
+        chunkCache.clear();
+        pendingPaths.clear();
+        idsReference = null;
+    }
+
+    /**
+     * @return The number of paths (including the not yet written ones).
+     */
+    synchronized int getSize() {
+        return size + pendingPaths.size();
+    }
+
+    /**
+     * @param path
+     * @return The id of the given path. The path is added, if not yet contained (call {@link #flush()} afterwards).
+     */
+    synchronized int getId(String path) throws IOException {
+        Map<String, Integer> ids = getIds();
+        Integer id = ids.get(path);
+        if (id == null) {
+            id = size + pendingPaths.size();
+            pendingPaths.add(path);
+            ids.put(path, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param id
+     * @return The path of the given id.
+     * @throws IOException If the id is unknown (or on read errors).
+     */
+    String getPath(int id) throws IOException {
+        return getChunk(id).getPath(id);
+    }
+
+    /**
+     * @param id
+     * @return The (decoded) chunk containing the given id. The chunk may be used for reading following ids.
+     * @throws IOException If the id is unknown (or on read errors).
+     */
+    synchronized Chunk getChunk(int id) throws IOException {
+        Chunk chunk = findChunk(id);
+        if (chunk == null) {
+            // Compacted by another process: the ids are kept, but the chunks are moved.
+            refresh();
+            chunk = findChunk(id);
+            if (chunk == null) {
+                throw new IOException("Path dictionary replaced while reading: " + file.getAbsolutePath());
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * @return The chunk or null, if the file was replaced.
+     */
+    private Chunk findChunk(int id) throws IOException {
+        if (id >= size + pendingPaths.size() && pendingPaths.isEmpty()) {
+            // Path may be added by another process:
+            refresh();
+        }
+        if (id < 0 || id >= size + pendingPaths.size()) {
+            throw new IOException("Unknown path id " + id + " in path dictionary: " + file.getAbsolutePath());
+        }
+        if (id >= size) {
+            // Not yet written.
+            return new Chunk(size, pendingPaths.toArray(new String[0]));
+        }
+        int low = 0;
+        int high = chunkFirstIds.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunkFirstIds.get(mid) <= id) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return getChunkByIndex(low);
+    }
+
+    /**
+     * Writes all new paths (if any).
+     */
+    synchronized void flush() throws IOException {
+        if (pendingPaths.isEmpty()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Any bytes after the last complete chunk are garbage of an aborted flush:
+            channel.truncate(endOffset);
+            List<Long> offsets = new ArrayList<>();
+            long offset = endOffset;
+            Output output = new Output(64 * 1024, -1);
+            for (int start = 0; start < pendingPaths.size(); start += CHUNK_SIZE) {
+                offsets.add(offset);
+                offset += writeChunk(channel, offset, pendingPaths.subList(start, Math.min(start + CHUNK_SIZE, pendingPaths.size())),
+                        output);
+            }
+            channel.force(false);
+            // Commit (header):
+            writeHeader(channel, dictionaryId, size + pendingPaths.size(), chunkOffsets.size() + offsets.size(),
+                    compactedFileIds.size());
+            channel.force(false);
+            int numberOfNewPaths = pendingPaths.size();
+            for (int i = 0; i < offsets.size(); i++) {
+                int start = i * CHUNK_SIZE;
+                String[] paths = pendingPaths.subList(start, Math.min(start + CHUNK_SIZE, numberOfNewPaths)).toArray(new String[0]);
+                Chunk chunk = new Chunk(size, paths);
+                addChunk(offsets.get(i), paths.length);
+                chunkCache.set(chunkCache.size() - 1, new SoftReference<>(chunk));
+            }
+            endOffset = offset;
+            pendingPaths.clear();
+            log.info("Path dictionary with " + String.format("%,d", size) + " paths written (" + String.format("%,d",
+                    numberOfNewPaths) + " new ones): " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @param numberOfFileLists The number of file lists of the repo.
+     * @return true, if the paths added since the last compaction check may have doubled the number of paths
+     * referenced at that time or if half of the file lists of that time are deleted (always true for a dictionary not
+     * yet checked).
+     */
+    synchronized boolean isCheckDue(int numberOfFileLists) throws IOException {
+        refresh();
+        return size > 0 && (checkedLivePaths + (size - checkedSize) > 2 * checkedReferencedPaths
+                || numberOfFileLists <= checkedFileLists / 2);
+    }
+
+    /**
+     * Removes the paths not referenced anymore by replacing them with empty strings, if the dictionary holds more than
+     * twice the referenced paths (the ids of the referenced paths are kept). The compacted dictionary gets a new id:
+     * only the given file lists and the ones written afterwards match the compacted dictionary. File lists written
+     * meanwhile (e. g. by other processes) may refer removed paths, so they don't match anymore.
+     * <br>
+     * The lock must be held (see {@link #lock()}). The result of the check is stored, so the next check is due after
+     * adding as many paths as referenced now or after deleting half of the given file lists (see {@link #isCheckDue(int)}).
+     *
+     * @param referencedIds The ids of the paths referenced by the file lists of the repo.
+     * @param fileIds       The ids of the file lists referring this dictionary (see {@link #matches(long, long)}).
+     * @return true, if the dictionary was compacted.
+     */
+    synchronized boolean compact(BitSet referencedIds, Collection<Long> fileIds) throws IOException {
+        refresh();
+        if (!pendingPaths.isEmpty()) {
+            throw new IllegalStateException("Can't compact path dictionary with paths not yet written: " + file.getAbsolutePath());
+        }
+        referencedIds = (BitSet) referencedIds.clone();
+        if (referencedIds.length() > size) {
+            referencedIds.clear(size, referencedIds.length());
+        }
+        int livePaths = checkedLivePaths + (size - checkedSize);
+        int referencedPaths = referencedIds.cardinality();
+        checkedFileLists = fileIds.size();
+        if (livePaths <= 2 * referencedPaths) {
+            checkedSize = size;
+            checkedLivePaths = livePaths;
+            checkedReferencedPaths = referencedPaths;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                writeHeader(channel, dictionaryId, size, chunkOffsets.size(), compactedFileIds.size());
+                channel.force(false);
+            }
+            return false;
+        }
+        long oldSize = file.length();
+        long newDictionaryId = UUID.randomUUID().getMostSignificantBits();
+        Set<Long> newFileIds = new HashSet<>(fileIds);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        List<Long> offsets = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long offset = HEADER_SIZE;
+            ByteBuffer buf = ByteBuffer.allocate(newFileIds.size() * 8);
+            for (long fileId : newFileIds) {
+                buf.putLong(fileId);
+            }
+            buf.flip();
+            write(channel, buf, offset);
+            offset += buf.capacity();
+            Output output = new Output(64 * 1024, -1);
+            List<String> paths = new ArrayList<>(CHUNK_SIZE);
+            for (int id = 0; id < size; id++) {
+                paths.add(referencedIds.get(id) ? getPath(id) : "");
+                if (paths.size() == CHUNK_SIZE || id == size - 1) {
+                    offsets.add(offset);
+                    offset += writeChunk(channel, offset, paths, output);
+                    paths.clear();
+                }
+            }
+            // The number of paths isn't changed, but all of them are referenced now:
+            checkedSize = size;
+            checkedLivePaths = checkedReferencedPaths = referencedPaths;
+            writeHeader(channel, newDictionaryId, size, offsets.size(), newFileIds.size());
+            channel.force(false);
+        }
+        try {
+            ArchiveFilelistCacheManifest.move(tmpFile, file);
+        } catch (IOException ex) {
+            tmpFile.delete();
+            throw ex;
+        }
+        reset(newDictionaryId);
+        compactedFileIds.addAll(newFileIds);
+        endOffset = HEADER_SIZE + newFileIds.size() * 8;
+        refresh();
+        log.info("Path dictionary compacted: " + String.format("%,d", livePaths - referencedPaths)
+                + " paths not referenced anymore removed (" + String.format("%,d", oldSize) + " -> "
+                + String.format("%,d", file.length()) + " bytes): " + file.getAbsolutePath());
+        return true;
+    }
+
+    /**
+     * @param dictionaryId The id of the dictionary a file list was written with.
+     * @param fileId       The id of the file list.
+     * @return true, if the file list may be decoded with this dictionary: it was written with this dictionary or it
+     * was written before the last compaction with the previous dictionary.
+     */
+    synchronized boolean matches(long dictionaryId, long fileId) {
+        return dictionaryId == this.dictionaryId || compactedFileIds.contains(fileId);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The random id of this dictionary.
+     */
+    synchronized long getDictionaryId() {
+        return dictionaryId;
+    }
+
+    /**
+     * @param paths Written front coded and compressed.
+     * @return The number of bytes written.
+     */
+    private static int writeChunk(FileChannel channel, long offset, List<String> paths, Output output) throws IOException {
+        ArchiveFilelistCodec codec = ArchiveFilelistFormat.DEFAULT_CODEC;
+        output.reset();
+        String previousPath = null;
+        for (String path : paths) {
+            int prefixLength = ArchiveFilelistCompactEncoding.getCommonPrefixLength(previousPath, path);
+            output.writeVarInt(prefixLength, true);
+            output.writeString(path.substring(prefixLength));
+            previousPath = path;
+        }
+        byte[] compressed = codec.compress(output.getBuffer(), output.position());
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK_HEADER_SIZE + compressed.length);
+        buf.putInt(paths.size()).putInt(output.position()).putInt(compressed.length).put(codec.getId()).put(compressed);
+        buf.flip();
+        write(channel, buf, offset);
+        return buf.capacity();
+    }
+
+    private void writeHeader(FileChannel channel, long dictionaryId, int numberOfPaths, int numberOfChunks,
+                             int numberOfFileIds) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(dictionaryId).putInt(numberOfPaths).putInt(numberOfChunks)
+                .putInt(checkedSize).putInt(checkedLivePaths).putInt(checkedReferencedPaths).putInt(checkedFileLists)
+                .putInt(numberOfFileIds);
+        header.flip();
+        write(channel, header, 0);
+    }
+
+    private void addChunk(long offset, int count) {
+        chunkOffsets.add(offset);
+        chunkFirstIds.add(size);
+        chunkCache.add(null);
+        size += count;
+    }
+
+    /**
+     * @return The chunk or null, if the file was replaced (e. g. compacted by another process).
+     */
+    private Chunk getChunkByIndex(int index) throws IOException {
+        SoftReference<Chunk> reference = chunkCache.get(index);
+        Chunk chunk = reference != null ? reference.get() : null;
+        if (chunk != null) {
+            return chunk;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 16);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION || header.getLong() != dictionaryId) {
+                return null;
+            }
+            long offset = chunkOffsets.get(index);
+            ByteBuffer chunkHeader = read(channel, offset, CHUNK_HEADER_SIZE);
+            int count = chunkHeader.getInt();
+            int uncompressedLength = chunkHeader.getInt();
+            int compressedLength = chunkHeader.getInt();
+            ArchiveFilelistCodec codec = ArchiveFilelistCodec.get(chunkHeader.get());
+            if (codec == null) {
+                throw new IOException("Unsupported codec in path dictionary: " + file.getAbsolutePath());
+            }
+            ArchiveFilelistCodec.Decompressor decompressor = codec.createDecompressor(
+                    read(channel, offset + CHUNK_HEADER_SIZE, compressedLength), uncompressedLength);
+            String[] paths = new String[count];
+            try {
+                decompressor.decompressAll();
+                try (Input input = new Input(decompressor.bytes)) {
+                    String previousPath = null;
+                    for (int i = 0; i < count; i++) {
+                        int prefixLength = input.readVarInt(true);
+                        String suffix = input.readString();
+                        previousPath = paths[i] = prefixLength > 0 ? previousPath.substring(0, prefixLength) + suffix : suffix;
+                    }
+                }
+            } finally {
+                decompressor.end();
+            }
+            chunk = new Chunk(chunkFirstIds.get(index), paths);
+            chunkCache.set(index, new SoftReference<>(chunk));
+            return chunk;
+        }
+    }
+
+    /**
+     * @return The map of all paths to their ids (built on demand and held until memory is needed).
+     */
+    private Map<String, Integer> getIds() throws IOException {
+        Map<String, Integer> ids = idsReference != null ? idsReference.get() : null;
+        if (ids != null) {
+            return ids;
+        }
+        ids = new HashMap<>(Math.max(16, (size + pendingPaths.size()) * 4 / 3));
+        for (int i = 0; i < chunkOffsets.size(); i++) {
+            Chunk chunk = getChunkByIndex(i);
+            if (chunk == null) {
+                throw new IOException("Path dictionary replaced while reading: " + file.getAbsolutePath());
+            }
+            for (int j = 0; j < chunk.paths.length; j++) {
+                if (!chunk.paths[j].isEmpty()) {
+                    // Not removed by compaction.
+                    ids.putIfAbsent(chunk.paths[j], chunk.firstId + j);
+                }
+            }
+        }
+        for (int i = 0; i < pendingPaths.size(); i++) {
+            ids.putIfAbsent(pendingPaths.get(i), size + i);
+        }
+        idsReference = new SoftReference<>(ids);
+        return ids;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("Unexpected end of path dictionary.");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Decoded paths of a chunk.
+     */
+    static class Chunk {
+        private final int firstId;
+        private final String[] paths;
+
+        private Chunk(int firstId, String[] paths) {
+            this.firstId = firstId;
+            this.paths = paths;
+        }
+
+        boolean contains(int id) {
+            return id >= firstId && id < firstId + paths.length;
+        }
+
+        String getPath(int id) {
+            return paths[id - firstId];
+        }
+    }
+}
@@ -0,0 +1,587 @@
+package de.micromata.borgbutler.cache;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import de.micromata.borgbutler.utils.ReplaceUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Inverted index of all paths of all cached archives of one repository: for every path the versions (size and mtime)
+ * and the archives containing each version. So the history of a file across all archives is a lookup of one block
+ * instead of loading the file lists of all archives.
+ * <br>
+ * Unchanged files are stored only once per path: the archives of a version are stored as runs of archive numbers
+ * (the archives are numbered by time). The entries are sorted by path (same order as the file lists) and stored in
+ * compressed blocks of {@link #BLOCK_SIZE} entries, the index of the blocks (first path of every block) and the
+ * archive table are stored at the end of the file and held in memory.
+ * <br>
+ * Every file list written to the cache is merged into the history ({@link #update(Archive, Iterator, Set)}), the file
+ * is rewritten by streaming the entries, so the history isn't held in memory. The archives are kept in the history
+ * after their file lists are deleted from the cache.
+ * <br>
+ * The cache directory may be shared by several processes: the history is only updated while holding the lock of the
+ * file and the file is replaced atomically. Instances are thread safe and shared (see {@link #getInstance(File)}).
+ */
+class RepoPathHistory {
+    private static Logger log = LoggerFactory.getLogger(RepoPathHistory.class);
+    static final String FILE_BASENAME = "repo-history-";
+    static final String FILE_EXTENSION = ".hist";
+    /**
+     * 'BBPH' (BorgButler path history).
+     */
+    private static final int MAGIC = 0x42425048;
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * Magic, version and offset of the index.
+     */
+    private static final int HEADER_SIZE = 16;
+    /**
+     * Number of entries (int), uncompressed length (int), compressed length (int) and codec (byte).
+     */
+    private static final int BLOCK_HEADER_SIZE = 13;
+    static final int BLOCK_SIZE = 1024;
+    /**
+     * Order of the paths of the file lists (see {@link ArchiveFilelistCache#ITEM_ORDER}).
+     */
+    static final Comparator<String> PATH_ORDER = (path1, path2) -> {
+        int result = path1.compareToIgnoreCase(path2);
+        return result != 0 ? result : path1.compareTo(path2);
+    };
+
+    private static final Map<File, RepoPathHistory> instances = new HashMap<>();
+
+    private File file;
+    // State of the file, the index was read from (for detecting updates by other processes):
+    private long fileLength = -1;
+    private long fileLastModified;
+    // Sorted by time (the number of an archive is its position):
+    private List<Archive> archives = new ArrayList<>();
+    private List<Long> blockOffsets = new ArrayList<>();
+    private List<String> blockFirstPaths = new ArrayList<>();
+
+    /**
+     * @param dir  The cache directory.
+     * @param repo
+     * @return The history file of the given repo.
+     */
+    static File getFile(File dir, String repo) {
+        return new File(dir, ReplaceUtils.encodeFilename(FILE_BASENAME + repo + FILE_EXTENSION, true));
+    }
+
+    /**
+     * @param file
+     * @return The shared instance of the history (the file is created on first update).
+     */
+    static RepoPathHistory getInstance(File file) {
+        synchronized (instances) {
+            return instances.computeIfAbsent(file.getAbsoluteFile(), RepoPathHistory::new);
+        }
+    }
+
+    /**
+     * Deletes the file, its lock file and the shared instance.
+     *
+     * @param file
+     */
+    static void delete(File file) {
+        // The lock is acquired first: the holder of the lock may need the shared instances.
+        try (CacheFileLock lock = CacheFileLock.lock(new File(file.getPath() + CacheFileLock.LOCK_FILE_EXTENSION))) {
+            synchronized (instances) {
+                instances.remove(file.getAbsoluteFile());
+                file.delete();
+            }
+            lock.deleteLockFile();
+        } catch (IOException ex) {
+            log.error("Error while locking path history '" + file.getAbsolutePath() + "' for deletion: " + ex.getMessage(), ex);
+            synchronized (instances) {
+                instances.remove(file.getAbsoluteFile());
+                file.delete();
+            }
+        }
+    }
+
+    static boolean isHistoryFile(File file) {
+        return file.getName().startsWith(FILE_BASENAME) && file.getName().endsWith(FILE_EXTENSION);
+    }
+
+    private RepoPathHistory(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The ids of all archives of the history.
+     */
+    synchronized Set<String> getArchiveIds() throws IOException {
+        refresh();
+        Set<String> ids = new HashSet<>();
+        for (Archive archive : archives) {
+            ids.add(archive.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * @param path The exact path.
+     * @return The versions of the given path by archive id in the order of the archive times (the items contain path,
+     * size and mtime). Empty, if the path isn't contained in any archive of the history.
+     */
+    synchronized Map<String, BorgFilesystemItem> getVersions(String path) throws IOException {
+        refresh();
+        Map<String, BorgFilesystemItem> result = new LinkedHashMap<>();
+        if (blockOffsets.isEmpty()) {
+            return result;
+        }
+        int low = 0;
+        int high = blockFirstPaths.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (PATH_ORDER.compare(blockFirstPaths.get(mid), path) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (Entry entry : readBlock(channel, blockOffsets.get(low))) {
+                if (!entry.path.equals(path)) {
+                    continue;
+                }
+                BorgFilesystemItem[] items = new BorgFilesystemItem[archives.size()];
+                for (Version version : entry.versions) {
+                    for (int i = 0; i < version.archiveCount; i++) {
+                        items[version.archiveNumbers[i]] = version.toItem(path);
+                    }
+                }
+                for (int number = 0; number < items.length; number++) {
+                    if (items[number] != null) {
+                        result.put(archives.get(number).getId(), items[number]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges the file list of the given archive into the history. If the archive is already part of the history, its
+     * versions are replaced.
+     *
+     * @param archive     The archive (must have an id).
+     * @param sortedItems All items of the archive sorted by path (see {@link #PATH_ORDER}).
+     * @param archiveIds  If given, only the archives of these ids are kept in the history (e. g. for removing archives
+     *                    deleted from the repository).
+     */
+    synchronized void update(Archive archive, Iterator<BorgFilesystemItem> sortedItems, Set<String> archiveIds) throws IOException {
+        try (CacheFileLock lock = CacheFileLock.lock(new File(file.getPath() + CacheFileLock.LOCK_FILE_EXTENSION))) {
+            refresh();
+            List<Archive> newArchives = new ArrayList<>();
+            for (Archive oldArchive : archives) {
+                if (!oldArchive.getId().equals(archive.getId())
+                        && (archiveIds == null || archiveIds.contains(oldArchive.getId()))) {
+                    newArchives.add(oldArchive);
+                }
+            }
+            Archive newArchive = new Archive().setId(archive.getId()).setName(archive.getName()).setTime(archive.getTime());
+            newArchives.add(newArchive);
+            newArchives.sort(Comparator.comparing((Archive a) -> StringUtils.defaultString(a.getTime()))
+                    .thenComparing(Archive::getId));
+            // Archive numbers are the positions in the archive list (sorted by time), so they are renumbered:
+            int[] numberMapping = new int[archives.size()];
+            for (int number = 0; number < archives.size(); number++) {
+                numberMapping[number] = newArchives.indexOf(archives.get(number));
+            }
+            int newNumber = newArchives.indexOf(newArchive);
+            File tmpFile = new File(file.getPath() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try (FileChannel oldChannel = blockOffsets.isEmpty() ? null : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                Writer writer = new Writer(channel);
+                EntryIterator oldEntries = new EntryIterator(oldChannel);
+                Entry oldEntry = oldEntries.next(numberMapping);
+                BorgFilesystemItem item = nextItem(sortedItems);
+                while (oldEntry != null || item != null) {
+                    int cmp = oldEntry == null ? 1 : item == null ? -1 : PATH_ORDER.compare(oldEntry.path, item.getPath());
+                    Entry entry;
+                    if (cmp < 0) {
+                        entry = oldEntry;
+                        oldEntry = oldEntries.next(numberMapping);
+                    } else {
+                        if (cmp == 0) {
+                            entry = oldEntry;
+                            oldEntry = oldEntries.next(numberMapping);
+                        } else {
+                            entry = new Entry(item.getPath());
+                        }
+                        // Duplicate paths of the file list are merged into one entry:
+                        String path = item.getPath();
+                        do {
+                            entry.add(item, newNumber);
+                            item = nextItem(sortedItems);
+                        } while (item != null && item.getPath().equals(path));
+                    }
+                    if (!entry.versions.isEmpty()) {
+                        writer.add(entry);
+                    }
+                }
+                writer.finish(newArchives);
+            } catch (IOException | RuntimeException ex) {
+                tmpFile.delete();
+                throw ex;
+            }
+            ArchiveFilelistCacheManifest.move(tmpFile, file);
+            refresh();
+            log.info("Path history of " + newArchives.size() + " archives written: " + file.getAbsolutePath());
+        }
+    }
+
+    private BorgFilesystemItem nextItem(Iterator<BorgFilesystemItem> it) {
+        while (it.hasNext()) {
+            BorgFilesystemItem item = it.next();
+            if (item.getPath() != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the archive table and the block index, if the file was modified (e. g. by another process).
+     */
+    private void refresh() throws IOException {
+        if (!file.exists()) {
+            fileLength = -1;
+            archives.clear();
+            blockOffsets.clear();
+            blockFirstPaths.clear();
+            return;
+        }
+        if (file.length() == fileLength && file.lastModified() == fileLastModified) {
+            // Unmodified.
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a path history of BorgButler or unsupported version: " + file.getAbsolutePath());
+            }
+            long indexOffset = header.getLong();
+            List<Archive> newArchives = new ArrayList<>();
+            List<Long> newBlockOffsets = new ArrayList<>();
+            List<String> newBlockFirstPaths = new ArrayList<>();
+            try (Input input = new Input(read(channel, indexOffset, (int) (length - indexOffset)).array())) {
+                int archiveCount = input.readVarInt(true);
+                for (int i = 0; i < archiveCount; i++) {
+                    newArchives.add(new Archive().setId(input.readString()).setName(input.readString())
+                            .setTime(input.readString()));
+                }
+                int blockCount = input.readVarInt(true);
+                for (int i = 0; i < blockCount; i++) {
+                    newBlockOffsets.add(input.readVarLong(true));
+                    newBlockFirstPaths.add(input.readString());
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Corrupted path history: " + file.getAbsolutePath(), ex);
+            }
+            archives = newArchives;
+            blockOffsets = newBlockOffsets;
+            blockFirstPaths = newBlockFirstPaths;
+            fileLength = length;
+            fileLastModified = file.lastModified();
+        }
+    }
+
+    private List<Entry> readBlock(FileChannel channel, long offset) throws IOException {
+        ByteBuffer blockHeader = read(channel, offset, BLOCK_HEADER_SIZE);
+        int count = blockHeader.getInt();
+        int uncompressedLength = blockHeader.getInt();
+        int compressedLength = blockHeader.getInt();
+        ArchiveFilelistCodec codec = ArchiveFilelistCodec.get(blockHeader.get());
+        if (codec == null) {
+            throw new IOException("Unsupported codec in path history: " + file.getAbsolutePath());
+        }
+        ArchiveFilelistCodec.Decompressor decompressor = codec.createDecompressor(
+                read(channel, offset + BLOCK_HEADER_SIZE, compressedLength), uncompressedLength);
+        List<Entry> entries = new ArrayList<>(count);
+        try {
+            decompressor.decompressAll();
+            try (Input input = new Input(decompressor.bytes)) {
+                String previousPath = null;
+                for (int i = 0; i < count; i++) {
+                    int prefixLength = input.readVarInt(true);
+                    String suffix = input.readString();
+                    Entry entry = new Entry(prefixLength > 0 ? previousPath.substring(0, prefixLength) + suffix : suffix);
+                    int versionCount = input.readVarInt(true);
+                    for (int j = 0; j < versionCount; j++) {
+                        Version version = new Version(input.readVarLong(true), input.readVarLong(false), null);
+                        if (version.mtimeEpochSeconds == Long.MIN_VALUE) {
+                            version.mtime = input.readString();
+                        }
+                        int runCount = input.readVarInt(true);
+                        int end = 0;
+                        for (int k = 0; k < runCount; k++) {
+                            int start = end + input.readVarInt(true);
+                            end = start + input.readVarInt(true) + 1;
+                            for (int number = start; number < end; number++) {
+                                version.addArchive(number);
+                            }
+                        }
+                        entry.versions.add(version);
+                    }
+                    entries.add(entry);
+                    previousPath = entry.path;
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Corrupted path history: " + file.getAbsolutePath(), ex);
+            }
+        } finally {
+            decompressor.end();
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("Unexpected end of path history.");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Iterates over the entries of the current file block by block.
+     */
+    private class EntryIterator {
+        private FileChannel channel;
+        private int nextBlock;
+        private Iterator<Entry> block = Collections.emptyIterator();
+
+        private EntryIterator(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @param numberMapping The new numbers of the archives (-1 for removed archives).
+         * @return The next entry (with renumbered archives, maybe without versions) or null.
+         */
+        private Entry next(int[] numberMapping) throws IOException {
+            while (!block.hasNext()) {
+                if (nextBlock >= blockOffsets.size()) {
+                    return null;
+                }
+                block = readBlock(channel, blockOffsets.get(nextBlock++)).iterator();
+            }
+            Entry entry = block.next();
+            Iterator<Version> it = entry.versions.iterator();
+            while (it.hasNext()) {
+                Version version = it.next();
+                version.renumber(numberMapping);
+                if (version.archiveCount == 0) {
+                    it.remove();
+                }
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Writes the blocks, the index and the header.
+     */
+    private class Writer {
+        private FileChannel channel;
+        private long offset = HEADER_SIZE;
+        private List<Entry> entries = new ArrayList<>();
+        private Output output = new Output(64 * 1024, -1);
+        private List<Long> offsets = new ArrayList<>();
+        private List<String> firstPaths = new ArrayList<>();
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void add(Entry entry) throws IOException {
+            entries.add(entry);
+            if (entries.size() >= BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+
+        private void finish(List<Archive> newArchives) throws IOException {
+            writeBlock();
+            output.reset();
+            output.writeVarInt(newArchives.size(), true);
+            for (Archive archive : newArchives) {
+                output.writeString(archive.getId());
+                output.writeString(archive.getName());
+                output.writeString(archive.getTime());
+            }
+            output.writeVarInt(offsets.size(), true);
+            for (int i = 0; i < offsets.size(); i++) {
+                output.writeVarLong(offsets.get(i), true);
+                output.writeString(firstPaths.get(i));
+            }
+            write(channel, ByteBuffer.wrap(output.getBuffer(), 0, output.position()), offset);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(offset);
+            header.flip();
+            write(channel, header, 0);
+            channel.force(false);
+        }
+
+        private void writeBlock() throws IOException {
+            if (entries.isEmpty()) {
+                return;
+            }
+            output.reset();
+            String previousPath = null;
+            for (Entry entry : entries) {
+                int prefixLength = ArchiveFilelistCompactEncoding.getCommonPrefixLength(previousPath, entry.path);
+                output.writeVarInt(prefixLength, true);
+                output.writeString(entry.path.substring(prefixLength));
+                // In the order of their first archive:
+                entry.versions.sort(Comparator.comparingInt(version -> version.archiveNumbers[0]));
+                output.writeVarInt(entry.versions.size(), true);
+                for (Version version : entry.versions) {
+                    output.writeVarLong(version.size, true);
+                    output.writeVarLong(version.mtimeEpochSeconds, false);
+                    if (version.mtimeEpochSeconds == Long.MIN_VALUE) {
+                        output.writeString(version.mtime);
+                    }
+                    version.writeArchives(output);
+                }
+                previousPath = entry.path;
+            }
+            ArchiveFilelistCodec codec = ArchiveFilelistFormat.DEFAULT_CODEC;
+            byte[] compressed = codec.compress(output.getBuffer(), output.position());
+            ByteBuffer buf = ByteBuffer.allocate(BLOCK_HEADER_SIZE + compressed.length);
+            buf.putInt(entries.size()).putInt(output.position()).putInt(compressed.length).put(codec.getId()).put(compressed);
+            buf.flip();
+            write(channel, buf, offset);
+            offsets.add(offset);
+            firstPaths.add(entries.get(0).path);
+            offset += buf.capacity();
+            entries.clear();
+        }
+    }
+
+    private static class Entry {
+        private String path;
+        private List<Version> versions = new ArrayList<>(1);
+
+        private Entry(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Adds the given item as version of the given archive.
+         */
+        private void add(BorgFilesystemItem item, int archiveNumber) {
+            long mtimeEpochSeconds = item.getMtimeEpochSeconds();
+            String mtime = mtimeEpochSeconds == Long.MIN_VALUE ? item.getMtime() : null;
+            for (Version version : versions) {
+                if (version.size == item.getSize() && version.mtimeEpochSeconds == mtimeEpochSeconds
+                        && Objects.equals(version.mtime, mtime)) {
+                    version.addArchive(archiveNumber);
+                    return;
+                }
+            }
+            Version version = new Version(item.getSize(), mtimeEpochSeconds, mtime);
+            version.addArchive(archiveNumber);
+            versions.add(version);
+        }
+    }
+
+    private static class Version {
+        private long size;
+        private long mtimeEpochSeconds;
+        // Only if not representable as epoch seconds:
+        private String mtime;
+        // Sorted numbers of the archives containing this version:
+        private int[] archiveNumbers = new int[4];
+        private int archiveCount;
+
+        private Version(long size, long mtimeEpochSeconds, String mtime) {
+            this.size = size;
+            this.mtimeEpochSeconds = mtimeEpochSeconds;
+            this.mtime = mtime;
+        }
+
+        private void addArchive(int number) {
+            int pos = Arrays.binarySearch(archiveNumbers, 0, archiveCount, number);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            if (archiveCount == archiveNumbers.length) {
+                archiveNumbers = Arrays.copyOf(archiveNumbers, 2 * archiveCount);
+            }
+            System.arraycopy(archiveNumbers, pos, archiveNumbers, pos + 1, archiveCount - pos);
+            archiveNumbers[pos] = number;
+            ++archiveCount;
+        }
+
+        /**
+         * The mapping keeps the order of the remaining archives.
+         */
+        private void renumber(int[] numberMapping) {
+            int count = 0;
+            for (int i = 0; i < archiveCount; i++) {
+                int number = numberMapping[archiveNumbers[i]];
+                if (number >= 0) {
+                    archiveNumbers[count++] = number;
+                }
+            }
+            archiveCount = count;
+        }
+
+        /**
+         * As runs of consecutive archive numbers (gap to the previous run and length of the run).
+         */
+        private void writeArchives(Output output) {
+            int runCount = 0;
+            for (int i = 0; i < archiveCount; i++) {
+                if (i == 0 || archiveNumbers[i] != archiveNumbers[i - 1] + 1) {
+                    ++runCount;
+                }
+            }
+            output.writeVarInt(runCount, true);
+            int end = 0;
+            for (int i = 0; i < archiveCount; ) {
+                int start = archiveNumbers[i];
+                int j = i + 1;
+                while (j < archiveCount && archiveNumbers[j] == archiveNumbers[j - 1] + 1) {
+                    ++j;
+                }
+                output.writeVarInt(start - end, true);
+                output.writeVarInt(j - i - 1, true);
+                end = start + j - i;
+                i = j;
+            }
+        }
+
+        private BorgFilesystemItem toItem(String path) {
+            BorgFilesystemItem item = new BorgFilesystemItem().setPath(path).setSize(size);
+            return mtimeEpochSeconds != Long.MIN_VALUE ? item.setMtimeEpochSeconds(mtimeEpochSeconds) : item.setMtime(mtime);
+        }
+    }
+}
@@ -16,6 +16,33 @@ public class BorgRepoConfig {
     private String passphrase;
     private String passwordCommand;
     private String id;
+    /**
+     * Maximum size of the cached archive contents of this repo in MB (0 means no quota, only the maximum capacity of
+     * the whole cache is used).
+     */
+    private int maxArchiveContentCacheCapacityMb;
+    /**
+     * How Borg lists the content of archives (null means {@link ListMode#AUTO}).
+     */
+    private ListMode listMode;
+
+    /**
+     * Output of <tt>borg list</tt> for the content of archives.
+     */
+    public enum ListMode {
+        /**
+         * {@link #FORMAT}, falls back to {@link #JSON_LINES}, if not supported by the installed Borg version.
+         */
+        AUTO,
+        /**
+         * Only the needed fields, separated by NUL bytes (<tt>--format</tt>). Much faster to parse.
+         */
+        FORMAT,
+        /**
+         * One JSON object per item (<tt>--json-lines</tt>).
+         */
+        JSON_LINES
+    }
 
     @JsonIgnore
     public String[] getEnvironmentVariables() {
@@ -44,6 +71,8 @@ public class BorgRepoConfig {
         this.rsh = other.rsh;
         this.passphrase = other.passphrase;
         this.passwordCommand = other.passwordCommand;
+        this.maxArchiveContentCacheCapacityMb = other.maxArchiveContentCacheCapacityMb;
+        this.listMode = other.listMode;
     }
 
     public String getDisplayName() {
@@ -70,6 +99,14 @@ public class BorgRepoConfig {
         return this.id;
     }
 
+    public int getMaxArchiveContentCacheCapacityMb() {
+        return this.maxArchiveContentCacheCapacityMb;
+    }
+
+    public ListMode getListMode() {
+        return this.listMode;
+    }
+
     public void setDisplayName(String displayName) {
         this.displayName = displayName;
     }
@@ -93,4 +130,12 @@ public class BorgRepoConfig {
     public void setId(String id) {
         this.id = id;
     }
+
+    public void setMaxArchiveContentCacheCapacityMb(int maxArchiveContentCacheCapacityMb) {
+        this.maxArchiveContentCacheCapacityMb = maxArchiveContentCacheCapacityMb;
+    }
+
+    public void setListMode(ListMode listMode) {
+        this.listMode = listMode;
+    }
 }
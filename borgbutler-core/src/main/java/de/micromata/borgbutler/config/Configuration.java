@@ -29,6 +29,23 @@ public class Configuration {
      * Default is 100 MB (approximately).
      */
     private int maxArchiveContentCacheCapacityMb = 100;
+    /**
+     * Memory budget for the decoded file lists of the most recently used archives and their indexes (held off-heap).
+     * Default is 250 MB (a file list of one million items needs about 120 to 140 MB).
+     */
+    private int maxArchiveContentMemoryCapacityMb = 250;
+    /**
+     * Directory of the cached archive contents (file lists). Default is the cache dir of BorgButler. Several instances
+     * of BorgButler (on one host or on a shared mount) may use the same directory, so the file list of an archive is
+     * loaded by Borg only once.
+     */
+    private String archiveContentCacheDir;
+    /**
+     * If true, the file lists of archives are never held completely in memory: browsing and diffs stream the cached
+     * file lists block by block, so the heap needed depends on the result size, not on the archive size (e. g. for
+     * hosts with small heaps). Slower, because the file lists are read from disk for every request. Default is false.
+     */
+    private boolean lowMemoryMode;
 
     private boolean showDemoRepos = true;
 
@@ -93,6 +110,9 @@ public class Configuration {
     public void copyFrom(Configuration other) {
         this.borgCommand = other.borgCommand;
         this.maxArchiveContentCacheCapacityMb = other.maxArchiveContentCacheCapacityMb;
+        this.maxArchiveContentMemoryCapacityMb = other.maxArchiveContentMemoryCapacityMb;
+        this.archiveContentCacheDir = other.archiveContentCacheDir;
+        this.lowMemoryMode = other.lowMemoryMode;
         this.showDemoRepos = other.showDemoRepos;
     }
 
@@ -113,6 +133,23 @@ public class Configuration {
         return this.maxArchiveContentCacheCapacityMb;
     }
 
+    public int getMaxArchiveContentMemoryCapacityMb() {
+        return this.maxArchiveContentMemoryCapacityMb;
+    }
+
+    public String getArchiveContentCacheDir() {
+        return this.archiveContentCacheDir;
+    }
+
+    public boolean isLowMemoryMode() {
+        return this.lowMemoryMode;
+    }
+
+    public Configuration setLowMemoryMode(boolean lowMemoryMode) {
+        this.lowMemoryMode = lowMemoryMode;
+        return this;
+    }
+
     public boolean isShowDemoRepos() {
         return this.showDemoRepos;
     }
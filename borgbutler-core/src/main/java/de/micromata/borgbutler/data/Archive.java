@@ -52,6 +52,10 @@ public class Archive implements Serializable, Comparable<Archive> {
      * Is the file list of this archive loaded and available in Butler's cache.
      */
     private boolean fileListAlreadyCached;
+    /**
+     * Is the file list of this archive pinned in Butler's cache (never evicted).
+     */
+    private boolean fileListPinned;
 
     /**
      *
@@ -162,6 +166,10 @@ public class Archive implements Serializable, Comparable<Archive> {
         return this.fileListAlreadyCached;
     }
 
+    public boolean isFileListPinned() {
+        return this.fileListPinned;
+    }
+
     public Archive setRepoName(String repoName) {
         this.repoName = repoName;
         return this;
@@ -261,4 +269,9 @@ public class Archive implements Serializable, Comparable<Archive> {
         this.fileListAlreadyCached = fileListAlreadyCached;
         return this;
     }
+
+    public Archive setFileListPinned(boolean fileListPinned) {
+        this.fileListPinned = fileListPinned;
+        return this;
+    }
 }
@@ -0,0 +1,28 @@
+package de.micromata.borgbutler.data;
+
+/**
+ * Result of the query, whether an archive contains a path.
+ */
+public class ArchivePathInfo extends ArchiveShortInfo {
+    /**
+     * True or false, if known. Null, if the file list of the archive isn't cached (unknown).
+     */
+    private Boolean containsPath;
+
+    public ArchivePathInfo() {
+    }
+
+    public ArchivePathInfo(Archive archive, Boolean containsPath) {
+        super(archive);
+        this.containsPath = containsPath;
+    }
+
+    public Boolean getContainsPath() {
+        return this.containsPath;
+    }
+
+    public ArchivePathInfo setContainsPath(Boolean containsPath) {
+        this.containsPath = containsPath;
+        return this;
+    }
+}
@@ -0,0 +1,36 @@
+package de.micromata.borgbutler.data;
+
+/**
+ * Version of a path in an archive (result of the path history of a repository).
+ */
+public class ArchivePathVersion extends ArchiveShortInfo {
+    private long size;
+    private String mtime;
+
+    public ArchivePathVersion() {
+    }
+
+    public ArchivePathVersion(Archive archive, long size, String mtime) {
+        super(archive);
+        this.size = size;
+        this.mtime = mtime;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public ArchivePathVersion setSize(long size) {
+        this.size = size;
+        return this;
+    }
+
+    public String getMtime() {
+        return this.mtime;
+    }
+
+    public ArchivePathVersion setMtime(String mtime) {
+        this.mtime = mtime;
+        return this;
+    }
+}
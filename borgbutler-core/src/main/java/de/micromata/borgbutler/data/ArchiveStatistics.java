@@ -0,0 +1,184 @@
+package de.micromata.borgbutler.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of the content of an archive: totals, the largest files and the number and size of the items per
+ * extension, user, group and type. Computed once while the file list is cached and stored with it, so it's available
+ * without reading the file list.
+ */
+public class ArchiveStatistics {
+    private long itemCount;
+    private long fileCount;
+    private long directoryCount;
+    private long totalSize;
+    private List<LargeFile> largestFiles = new ArrayList<>();
+    private List<Total> extensions = new ArrayList<>();
+    private List<Total> users = new ArrayList<>();
+    private List<Total> groups = new ArrayList<>();
+    private List<Total> types = new ArrayList<>();
+
+    /**
+     * @return The number of all items (files, directories, links etc.).
+     */
+    public long getItemCount() {
+        return itemCount;
+    }
+
+    public ArchiveStatistics setItemCount(long itemCount) {
+        this.itemCount = itemCount;
+        return this;
+    }
+
+    /**
+     * @return The number of regular files.
+     */
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public ArchiveStatistics setFileCount(long fileCount) {
+        this.fileCount = fileCount;
+        return this;
+    }
+
+    public long getDirectoryCount() {
+        return directoryCount;
+    }
+
+    public ArchiveStatistics setDirectoryCount(long directoryCount) {
+        this.directoryCount = directoryCount;
+        return this;
+    }
+
+    /**
+     * @return The total size of all items.
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public ArchiveStatistics setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+        return this;
+    }
+
+    /**
+     * @return The largest regular files, the largest first.
+     */
+    public List<LargeFile> getLargestFiles() {
+        return largestFiles;
+    }
+
+    public ArchiveStatistics setLargestFiles(List<LargeFile> largestFiles) {
+        this.largestFiles = largestFiles;
+        return this;
+    }
+
+    /**
+     * @return The regular files per extension (lower case, "" for files without extension), the largest total size
+     * first. Rare extensions are summarized in one entry with name null.
+     */
+    public List<Total> getExtensions() {
+        return extensions;
+    }
+
+    public ArchiveStatistics setExtensions(List<Total> extensions) {
+        this.extensions = extensions;
+        return this;
+    }
+
+    /**
+     * @return All items per owner, the largest total size first.
+     */
+    public List<Total> getUsers() {
+        return users;
+    }
+
+    public ArchiveStatistics setUsers(List<Total> users) {
+        this.users = users;
+        return this;
+    }
+
+    /**
+     * @return All items per group, the largest total size first.
+     */
+    public List<Total> getGroups() {
+        return groups;
+    }
+
+    public ArchiveStatistics setGroups(List<Total> groups) {
+        this.groups = groups;
+        return this;
+    }
+
+    /**
+     * @return All items per type ("-" for regular files, "d" for directories etc.), the largest total size first.
+     */
+    public List<Total> getTypes() {
+        return types;
+    }
+
+    public ArchiveStatistics setTypes(List<Total> types) {
+        this.types = types;
+        return this;
+    }
+
+    /**
+     * Number and total size of the items of one group (extension, user etc.).
+     */
+    public static class Total {
+        private String name;
+        private long count;
+        private long size;
+
+        public Total() {
+        }
+
+        public Total(String name, long count, long size) {
+            this.name = name;
+            this.count = count;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    public static class LargeFile {
+        private String path;
+        private long size;
+        private String mtime;
+
+        public LargeFile() {
+        }
+
+        public LargeFile(String path, long size, String mtime) {
+            this.path = path;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getMtime() {
+            return mtime;
+        }
+    }
+}
@@ -4,9 +4,9 @@ import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Extracts the differences between two archives of one repo.
@@ -70,4 +70,209 @@ public class DiffFileSystemFilter extends FileSystemFilter {
         }
         return result;
     }
+
+    /**
+     * As {@link #extractDifferences(List, List)}, but works directly on the file lists in column representation.
+     * Items are only created for the differing rows. Only rows matching the attribute criteria and the search string
+     * of this filter are compared.
+     *
+     * @param currentColumns File list of the current archive (sorted).
+     * @param otherColumns   File list of the archive to extract differences.
+     * @return A list of differing items (new, removed and modified ones).
+     */
+    public List<BorgFilesystemItem> extractDifferences(FileSystemItemColumns currentColumns, FileSystemItemColumns otherColumns) {
+        return extractDifferences(currentColumns, null, otherColumns, null);
+    }
+
+    /**
+     * As {@link #extractDifferences(FileSystemItemColumns, FileSystemItemColumns)}, but only the given rows are
+     * compared, e. g. the rows of the sub tree of the current directory (see {@link DirectoryIndex#getSubtreeRows(String)}).
+     *
+     * @param currentRows The range [from, to) of the rows of the current archive to compare or null for all rows.
+     * @param otherRows   The range [from, to) of the rows of the archive to extract differences or null for all rows.
+     * @return A list of differing items (new, removed and modified ones).
+     */
+    public List<BorgFilesystemItem> extractDifferences(FileSystemItemColumns currentColumns, int[] currentRows,
+                                                       FileSystemItemColumns otherColumns, int[] otherRows) {
+        FileSystemItemColumns columns = currentColumns != null ? currentColumns : FileSystemItemColumns.create(new ArrayList<>());
+        if (otherColumns == null) {
+            otherColumns = FileSystemItemColumns.create(new ArrayList<>());
+        }
+        int end = currentRows != null ? Math.min(currentRows[1], columns.size()) : columns.size();
+        int otherEnd = otherRows != null ? Math.min(otherRows[1], otherColumns.size()) : otherColumns.size();
+        List<BorgFilesystemItem> result = new ArrayList<>();
+        int current = nextRow(columns, currentRows != null ? currentRows[0] : 0, end);
+        int other = nextRow(otherColumns, otherRows != null ? otherRows[0] : 0, otherEnd);
+        String currentPath = getPath(columns, current, end);
+        String otherPath = getPath(otherColumns, other, otherEnd);
+        while (current < end && other < otherEnd) {
+            int cmp = compare(currentPath, otherPath);
+            if (cmp == 0) { // Rows represent both the same file system item.
+                if (!isInCurrentDirectory(columns, current) || columns.isSame(current, otherColumns, other)) {
+                    // Sub directories are registered also for unmodified rows:
+                    checkDirectoryMatchAndRegisterSubDirectories(columns, current);
+                } else {
+                    BorgFilesystemItem item = columns.getItem(current);
+                    if (checkDirectoryMatchAndRegisterSubDirectories(item)) {
+                        // Current entry differs:
+                        item.setDiffStatus(BorgFilesystemItem.DiffStatus.MODIFIED);
+                        item.setDiffItem(otherColumns.getItem(other));
+                        item.buildDifferencesString();
+                        result.add(item);
+                    }
+                }
+                current = nextRow(columns, current + 1, end);
+                other = nextRow(otherColumns, other + 1, otherEnd);
+                currentPath = getPath(columns, current, end);
+                otherPath = getPath(otherColumns, other, otherEnd);
+            } else if (cmp < 0) {
+                addDifference(result, columns, current, BorgFilesystemItem.DiffStatus.NEW);
+                current = nextRow(columns, current + 1, end);
+                currentPath = getPath(columns, current, end);
+            } else {
+                addDifference(result, otherColumns, other, BorgFilesystemItem.DiffStatus.REMOVED);
+                other = nextRow(otherColumns, other + 1, otherEnd);
+                otherPath = getPath(otherColumns, other, otherEnd);
+            }
+        }
+        for (; current < end; current = nextRow(columns, current + 1, end)) {
+            result.add(columns.getItem(current).setDiffStatus(BorgFilesystemItem.DiffStatus.NEW));
+        }
+        for (; other < otherEnd; other = nextRow(otherColumns, other + 1, otherEnd)) {
+            result.add(otherColumns.getItem(other).setDiffStatus(BorgFilesystemItem.DiffStatus.REMOVED));
+        }
+        return result;
+    }
+
+    /**
+     * As {@link #extractDifferences(FileSystemItemColumns, FileSystemItemColumns)} followed by {@link #reduce(List)},
+     * but for streamed file lists (low memory mode): in flat mode the extraction stops after
+     * {@link #getMaxResultSize()} differences, in tree mode only the first difference of every sub directory of the
+     * current directory is held in memory.
+     *
+     * @param source      Streams the sorted items of the current archive for the given directory (see
+     *                    {@link #filter(Function)}).
+     * @param otherSource Streams the sorted items of the archive to extract differences.
+     * @return The differing items (new, removed and modified ones) for mode {@link Mode#FLAT} or the reduced list for
+     * the tree view.
+     */
+    public List<BorgFilesystemItem> extractDifferences(Function<String, Stream<BorgFilesystemItem>> source,
+                                                       Function<String, Stream<BorgFilesystemItem>> otherSource) {
+        String pathPrefix = getMode() == Mode.TREE ? getCurrentDirectory() : null;
+        List<BorgFilesystemItem> result = new ArrayList<>();
+        Set<String> topLevels = new HashSet<>();
+        try (Stream<BorgFilesystemItem> stream = source.apply(pathPrefix);
+             Stream<BorgFilesystemItem> otherStream = otherSource.apply(pathPrefix)) {
+            Iterator<BorgFilesystemItem> currentIt = stream != null ? stream.iterator() : Collections.emptyIterator();
+            Iterator<BorgFilesystemItem> otherIt = otherStream != null ? otherStream.iterator() : Collections.emptyIterator();
+            BorgFilesystemItem current = nextItem(currentIt);
+            BorgFilesystemItem other = nextItem(otherIt);
+            while (current != null || other != null) {
+                int cmp = current == null ? 1 : other == null ? -1 : current.compareTo(other);
+                boolean complete = false;
+                if (cmp == 0) { // Items represents both the same file system item.
+                    if (checkDirectoryMatchAndRegisterSubDirectories(current) && !current.equals(other)) {
+                        // Current entry differs:
+                        current.setDiffStatus(BorgFilesystemItem.DiffStatus.MODIFIED);
+                        current.setDiffItem(other);
+                        current.buildDifferencesString();
+                        complete = addDifference(result, topLevels, current);
+                    }
+                    current = nextItem(currentIt);
+                    other = nextItem(otherIt);
+                } else if (cmp < 0) {
+                    if (checkDirectoryMatchAndRegisterSubDirectories(current)) {
+                        complete = addDifference(result, topLevels, current.setDiffStatus(BorgFilesystemItem.DiffStatus.NEW));
+                    }
+                    current = nextItem(currentIt);
+                } else {
+                    if (checkDirectoryMatchAndRegisterSubDirectories(other)) {
+                        complete = addDifference(result, topLevels, other.setDiffStatus(BorgFilesystemItem.DiffStatus.REMOVED));
+                    }
+                    other = nextItem(otherIt);
+                }
+                if (complete) break;
+            }
+        }
+        if (getMode() != Mode.TREE) {
+            return result;
+        }
+        return reduceSubDirectories(result, filter -> ((DiffFileSystemFilter) filter).extractDifferences(source, otherSource));
+    }
+
+    /**
+     * @return The next item matching the attribute criteria and search string or null, if no further item matches.
+     */
+    private BorgFilesystemItem nextItem(Iterator<BorgFilesystemItem> it) {
+        while (it.hasNext()) {
+            BorgFilesystemItem item = it.next();
+            if (matchesAttributesAndSearchString(item)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * In tree mode only the first difference of every sub directory is added.
+     *
+     * @return true, if the result is complete (max result size reached in flat mode).
+     */
+    private boolean addDifference(List<BorgFilesystemItem> result, Set<String> topLevels, BorgFilesystemItem item) {
+        if (getMode() == Mode.TREE) {
+            if (topLevels.add(getTopLevel(item.getPath()))) {
+                result.add(item);
+            }
+            return false;
+        }
+        result.add(item);
+        return getMaxResultSize() > 0 && result.size() >= getMaxResultSize();
+    }
+
+    private void addDifference(List<BorgFilesystemItem> result, FileSystemItemColumns columns, int row,
+                               BorgFilesystemItem.DiffStatus diffStatus) {
+        if (!isInCurrentDirectory(columns, row)) {
+            return;
+        }
+        BorgFilesystemItem item = columns.getItem(row);
+        if (checkDirectoryMatchAndRegisterSubDirectories(item)) {
+            result.add(item.setDiffStatus(diffStatus));
+        }
+    }
+
+    /**
+     * @return The first row starting with the given one matching the attribute criteria and search string or the
+     * given end, if no further row matches.
+     */
+    private int nextRow(FileSystemItemColumns columns, int row, int end) {
+        while (row < end && !matchesAttributesAndSearchString(columns, row)) {
+            ++row;
+        }
+        return row;
+    }
+
+    @Override
+    protected DiffFileSystemFilter clone() {
+        return (DiffFileSystemFilter) copyTo(new DiffFileSystemFilter());
+    }
+
+    private String getPath(FileSystemItemColumns columns, int row, int end) {
+        return row < end ? columns.getPath(row) : null;
+    }
+
+    /**
+     * Same order as {@link BorgFilesystemItem#compareTo(BorgFilesystemItem)}.
+     */
+    private int compare(String path, String otherPath) {
+        if (path == otherPath) {
+            return 0;
+        }
+        if (path == null) {
+            return -1;
+        }
+        if (otherPath == null) {
+            return 1;
+        }
+        return path.compareToIgnoreCase(otherPath);
+    }
 }
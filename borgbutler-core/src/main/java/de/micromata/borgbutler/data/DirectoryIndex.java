@@ -0,0 +1,658 @@
+package de.micromata.borgbutler.data;
+
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Directory tree of a file list: every directory knows its children, the rows of its sub tree and the number and total
+ * size of the files of its whole sub tree (as "du" does). So the tree view looks up the children of the current
+ * directory instead of matching all rows on every navigation.
+ * <br>
+ * The index is built by one pass over the items ({@link Builder}). It's written as section of the cache file when the
+ * file list is saved and is read on demand from the memory mapped file (see {@link #read(ByteBuffer)}), so file lists
+ * not held in memory are browsed without reading all items. For file lists in column representation it's built on
+ * first usage ({@link FileSystemItemColumns#getDirectoryIndex()}).
+ * <br>
+ * Layout: version (byte), number of nodes, number of directories, length of the paths and length of the children
+ * (ints), the nodes sorted by path ({@link #NODE_SIZE} bytes each), the UTF-8 paths of the nodes and the children of
+ * all nodes. The children of a node are encoded as var ints: runs of consecutive rows as 2 * gap (from the end of the
+ * previous run of the node) followed by the length - 1, synthetic directories as 2 * length + 1 followed by the UTF-8
+ * path. So a directory with thousands of files needs only a few bytes.
+ * <br>
+ * The children of a directory are in the order of their first occurrence in the file list (as found by the
+ * {@link FileSystemFilter} scanning the rows). Directories not listed by Borg as separate items (e. g. mount points)
+ * are synthetic nodes without row. A directory occurring again after items of other directories (e. g. paths
+ * differing only in case) has several nodes, which are merged on lookup.
+ * <br>
+ * Instances are immutable and may be used by several threads.
+ */
+public class DirectoryIndex {
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 17;
+    /**
+     * Per node: offset and length of the path, row (-1 if synthetic), first and end row (exclusive) of the sub tree
+     * (ints), number of files and total size of the sub tree (longs), offset and length of the children (ints).
+     */
+    private static final int NODE_SIZE = 44;
+
+    private ByteBuffer buffer;
+    private int nodeCount;
+    private int directoryCount;
+    private int pathsOffset;
+    private int childrenOffset;
+
+    /**
+     * @param columns The file list (sorted by path).
+     */
+    public static DirectoryIndex create(FileSystemItemColumns columns) {
+        Builder builder = new Builder();
+        for (int row = 0; row < columns.size(); row++) {
+            builder.add(row, columns.getPath(row), columns.getType(row), columns.getSize(row));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param buffer The index as written by {@link Builder#writeTo(OutputStream)} from its position to its limit (e. g.
+     *               the memory mapped section of a cache file). The content isn't copied.
+     * @throws IOException If the buffer doesn't contain a directory index of this version.
+     */
+    public static DirectoryIndex read(ByteBuffer buffer) throws IOException {
+        ByteBuffer buf = buffer.slice();
+        if (buf.limit() < HEADER_SIZE || buf.get(0) != VERSION) {
+            throw new IOException("Unsupported version of directory index.");
+        }
+        long length = HEADER_SIZE + (long) buf.getInt(1) * NODE_SIZE + buf.getInt(9) + buf.getInt(13);
+        if (buf.getInt(1) < 1 || length != buf.limit()) {
+            throw new IOException("Directory index corrupted.");
+        }
+        return new DirectoryIndex(buf);
+    }
+
+    private DirectoryIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        nodeCount = buffer.getInt(1);
+        directoryCount = buffer.getInt(5);
+        pathsOffset = HEADER_SIZE + nodeCount * NODE_SIZE;
+        childrenOffset = pathsOffset + buffer.getInt(9);
+    }
+
+    /**
+     * @return The number of directories (including the root and synthetic directories).
+     */
+    public int getDirectoryCount() {
+        return directoryCount;
+    }
+
+    /**
+     * @return The size of the index in bytes (off-heap or memory mapped).
+     */
+    public long getMemorySize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @param directory The directory (with or without trailing separator), null or "" for the root.
+     * @return The number of files (all items except directories) of the whole sub tree or 0, if the directory is
+     * unknown.
+     */
+    public long getFileCount(String directory) {
+        Node node = find(directory);
+        return node != null ? node.fileCount : 0;
+    }
+
+    /**
+     * @param directory The directory (with or without trailing separator), null or "" for the root.
+     * @return The total size of the files of the whole sub tree or 0, if the directory is unknown.
+     */
+    public long getTotalSize(String directory) {
+        Node node = find(directory);
+        return node != null ? node.totalSize : 0;
+    }
+
+    /**
+     * @param directory The directory (with or without trailing separator), null or "" for the root.
+     * @return The range [from, to) of the rows containing all items of the sub tree of the given directory (items of
+     * sorted file lists are neighbours). Null, if the directory is unknown.
+     */
+    public int[] getSubtreeRows(String directory) {
+        Node node = find(directory);
+        if (node == null) {
+            return null;
+        }
+        return node.firstRow < node.endRow ? new int[]{node.firstRow, node.endRow} : new int[]{0, 0};
+    }
+
+    /**
+     * As {@link #getChildren(String, Function)} for a file list in column representation.
+     *
+     * @param columns   The file list this index was created from.
+     * @param directory The directory (with or without trailing separator), null or "" for the root.
+     * @return The children (display path is the path) or an empty list, if the directory is unknown.
+     */
+    public List<BorgFilesystemItem> getChildren(FileSystemItemColumns columns, String directory) {
+        return getChildren(directory, rows -> {
+            List<BorgFilesystemItem> list = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                list.add(columns.getItem(row));
+            }
+            return list;
+        });
+    }
+
+    /**
+     * Gets the items of the direct children of the given directory. The sub directories contain the totals of their
+     * sub trees (see {@link BorgFilesystemItem#getSubtreeSize()}).
+     *
+     * @param directory The directory (with or without trailing separator), null or "" for the root.
+     * @param items     Gets the items of the given rows (in ascending order) of the file list this index was created
+     *                  from, in the same order. Returns null, if the items aren't readable.
+     * @return The children (display path is the path) or an empty list, if the directory is unknown. Null, if the
+     * items aren't readable.
+     */
+    public List<BorgFilesystemItem> getChildren(String directory, Function<int[], List<BorgFilesystemItem>> items) {
+        Node node = find(directory);
+        if (node == null) {
+            return new ArrayList<>();
+        }
+        // Rows of the children (-1 for synthetic directories) and the paths of synthetic directories:
+        List<Integer> childRows = new ArrayList<>();
+        List<String> childPaths = new ArrayList<>();
+        Set<Integer> rows = new HashSet<>();
+        Set<String> syntheticPaths = new HashSet<>();
+        int[] pos = new int[1];
+        for (int i = node.first; i < node.first + node.count; i++) {
+            pos[0] = childrenOffset + buffer.getInt(getNodePosition(i) + 36);
+            int end = pos[0] + buffer.getInt(getNodePosition(i) + 40);
+            int previousEnd = 0;
+            while (pos[0] < end) {
+                int value = VarIntOutput.readVarInt(buffer, pos);
+                if ((value & 1) == 0) {
+                    int start = previousEnd + (value >> 1);
+                    previousEnd = start + VarIntOutput.readVarInt(buffer, pos) + 1;
+                    for (int row = start; row < previousEnd; row++) {
+                        if (rows.add(row)) {
+                            childRows.add(row);
+                            childPaths.add(null);
+                        }
+                    }
+                    continue;
+                }
+                String path = readString(pos[0], value >>> 1);
+                pos[0] += value >>> 1;
+                // The directory may be listed by Borg as item elsewhere (several nodes):
+                Node child = find(path);
+                int row = child != null ? child.row : -1;
+                if (row >= 0 ? rows.add(row) : syntheticPaths.add(path)) {
+                    childRows.add(row);
+                    childPaths.add(path);
+                }
+            }
+        }
+        int[] sortedRows = new int[rows.size()];
+        int count = 0;
+        for (int row : rows) {
+            sortedRows[count++] = row;
+        }
+        Arrays.sort(sortedRows);
+        List<BorgFilesystemItem> rowItems = sortedRows.length > 0 ? items.apply(sortedRows) : new ArrayList<>();
+        if (rowItems == null) {
+            return null;
+        }
+        List<BorgFilesystemItem> list = new ArrayList<>(childRows.size());
+        for (int i = 0; i < childRows.size(); i++) {
+            int row = childRows.get(i);
+            BorgFilesystemItem item;
+            if (row >= 0) {
+                item = rowItems.get(Arrays.binarySearch(sortedRows, row));
+                if (item == null) {
+                    continue;
+                }
+            } else {
+                item = new BorgFilesystemItem()
+                        .setPath(childPaths.get(i))
+                        .setDisplayPath(childPaths.get(i))
+                        .setType("d");
+            }
+            list.add(applyTotals(item));
+        }
+        return list;
+    }
+
+    /**
+     * Sets the totals of the sub tree, if the given item is a directory of this index.
+     *
+     * @return The given item.
+     */
+    public BorgFilesystemItem applyTotals(BorgFilesystemItem item) {
+        if (item == null || !"d".equals(item.getType()) || item.getPath() == null) {
+            return item;
+        }
+        Node node = find(item.getPath());
+        if (node != null) {
+            item.setSubtreeTotals(node.fileCount, node.totalSize);
+        }
+        return item;
+    }
+
+    /**
+     * @return All nodes of the given directory merged or null, if the directory is unknown.
+     */
+    private Node find(String directory) {
+        byte[] path = normalize(directory).getBytes(StandardCharsets.UTF_8);
+        // First node with a path not less than the given one:
+        int low = 0;
+        int high = nodeCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePath(mid, path) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        Node node = null;
+        for (int i = low; i < nodeCount && comparePath(i, path) == 0; i++) {
+            if (node == null) {
+                node = new Node(i);
+            }
+            node.add(i);
+        }
+        return node;
+    }
+
+    /**
+     * Compares the path of the given node with the given path (unsigned bytes).
+     */
+    private int comparePath(int node, byte[] path) {
+        int offset = pathsOffset + buffer.getInt(getNodePosition(node));
+        int length = buffer.getInt(getNodePosition(node) + 4);
+        for (int i = 0; i < length && i < path.length; i++) {
+            int cmp = (buffer.get(offset + i) & 0xFF) - (path[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - path.length;
+    }
+
+    private String readString(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int getNodePosition(int node) {
+        return HEADER_SIZE + node * NODE_SIZE;
+    }
+
+    private static String normalize(String directory) {
+        if (directory == null) {
+            return "";
+        }
+        return directory.endsWith("/") ? directory.substring(0, directory.length() - 1) : directory;
+    }
+
+    /**
+     * A directory (all of its nodes).
+     */
+    private class Node {
+        private int first;
+        private int count;
+        private int row = -1;
+        private int firstRow = Integer.MAX_VALUE;
+        private int endRow = Integer.MIN_VALUE;
+        private long fileCount;
+        private long totalSize;
+
+        private Node(int first) {
+            this.first = first;
+        }
+
+        private void add(int node) {
+            ++count;
+            int pos = getNodePosition(node);
+            if (row < 0) {
+                row = buffer.getInt(pos + 8);
+            }
+            int nodeFirstRow = buffer.getInt(pos + 12);
+            int nodeEndRow = buffer.getInt(pos + 16);
+            if (nodeFirstRow < nodeEndRow) {
+                firstRow = Math.min(firstRow, nodeFirstRow);
+                endRow = Math.max(endRow, nodeEndRow);
+            }
+            fileCount += buffer.getLong(pos + 20);
+            totalSize += buffer.getLong(pos + 28);
+        }
+    }
+
+    /**
+     * Builds the index by one pass over the items of a file list. Only the directories of the path of the recent item
+     * are open, the children of all other directories are already encoded. So the heap needed is mainly given by the
+     * number of directories (the children may be written to a temporary file).
+     */
+    public static class Builder implements Closeable {
+        private List<BuilderNode> nodes = new ArrayList<>();
+        // Open directories from the root to the directory of the recent item:
+        private List<BuilderNode> stack = new ArrayList<>();
+        // Children of all closed directories (in memory or in the children file):
+        private VarIntOutput children;
+        private File childrenFile;
+        private OutputStream childrenOut;
+        private int childrenLength;
+        private boolean finished;
+
+        /**
+         * The children are held in memory.
+         */
+        public Builder() {
+            this(null);
+        }
+
+        /**
+         * @param childrenFile If given, the children are written to this temporary file (deleted on {@link #close()}),
+         *                     e. g. for file lists too large for the heap.
+         */
+        public Builder(File childrenFile) {
+            this.childrenFile = childrenFile;
+            if (childrenFile == null) {
+                children = new VarIntOutput(64 * 1024);
+            }
+            push("", -1);
+        }
+
+        /**
+         * The items should be added in the order of the file list (sorted by path).
+         *
+         * @param row  The row (file number) of the item.
+         * @param path The path of the item (items without path are ignored).
+         * @throws UncheckedIOException If the children file isn't writable.
+         */
+        public void add(int row, String path, String type, long size) {
+            if (finished) {
+                throw new IllegalStateException("Directory index already built.");
+            }
+            if (path == null) {
+                return;
+            }
+            path = normalize(path);
+            if (path.isEmpty()) {
+                return;
+            }
+            BuilderNode parent = openDirectory(getParent(path));
+            parent.addRow(row);
+            if ("d".equals(type)) {
+                push(path, row);
+                return;
+            }
+            parent.fileCount++;
+            parent.totalSize += size;
+        }
+
+        /**
+         * @return The index (held off-heap).
+         * @throws UncheckedIOException If the children file isn't readable.
+         */
+        public DirectoryIndex build() {
+            try {
+                finish();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(getLength());
+                writeTo(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        buffer.put((byte) b);
+                    }
+
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) {
+                        buffer.put(bytes, offset, length);
+                    }
+                });
+                buffer.flip();
+                return new DirectoryIndex(buffer);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Writes the index in the layout read by {@link DirectoryIndex#read(ByteBuffer)}.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            finish();
+            DataOutputStream data = new DataOutputStream(out);
+            int directoryCount = 0;
+            int pathsLength = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                if (i == 0 || !Arrays.equals(nodes.get(i - 1).pathBytes, nodes.get(i).pathBytes)) {
+                    ++directoryCount;
+                }
+                pathsLength += nodes.get(i).pathBytes.length;
+            }
+            data.writeByte(VERSION);
+            data.writeInt(nodes.size());
+            data.writeInt(directoryCount);
+            data.writeInt(pathsLength);
+            data.writeInt(childrenLength);
+            int pathOffset = 0;
+            for (BuilderNode node : nodes) {
+                data.writeInt(pathOffset);
+                data.writeInt(node.pathBytes.length);
+                data.writeInt(node.row);
+                data.writeInt(node.endRow >= 0 ? node.firstRow : 0);
+                data.writeInt(node.endRow >= 0 ? node.endRow : 0);
+                data.writeLong(node.fileCount);
+                data.writeLong(node.totalSize);
+                data.writeInt(node.childrenOffset);
+                data.writeInt(node.childrenLength);
+                pathOffset += node.pathBytes.length;
+            }
+            for (BuilderNode node : nodes) {
+                data.write(node.pathBytes);
+            }
+            if (children != null) {
+                children.writeTo(data);
+            } else if (childrenFile != null) {
+                Files.copy(childrenFile.toPath(), data);
+            }
+            data.flush();
+        }
+
+        /**
+         * Deletes the children file (if any).
+         */
+        @Override
+        public void close() {
+            if (childrenOut != null) {
+                try {
+                    childrenOut.close();
+                } catch (IOException ex) {
+                    // Deleted anyway.
+                }
+                childrenOut = null;
+            }
+            if (childrenFile != null) {
+                childrenFile.delete();
+            }
+        }
+
+        /**
+         * @return The number of bytes written by {@link #writeTo(OutputStream)}.
+         */
+        private int getLength() {
+            int length = HEADER_SIZE + nodes.size() * NODE_SIZE + childrenLength;
+            for (BuilderNode node : nodes) {
+                length += node.pathBytes.length;
+            }
+            return length;
+        }
+
+        /**
+         * Closes all open directories and sorts the nodes by path (nodes of the same directory in order of creation).
+         */
+        private void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            while (!stack.isEmpty()) {
+                closeDirectory();
+            }
+            if (childrenOut != null) {
+                childrenOut.close();
+                childrenOut = null;
+            }
+            nodes.sort((node1, node2) -> Arrays.compareUnsigned(node1.pathBytes, node2.pathBytes));
+            finished = true;
+        }
+
+        /**
+         * Closes the open directories not containing the given directory and opens the given directory and its
+         * ancestors (as synthetic directories, if not yet open).
+         *
+         * @return The node of the given directory.
+         */
+        private BuilderNode openDirectory(String path) {
+            BuilderNode top = stack.get(stack.size() - 1);
+            while (!isAncestorOrSelf(top.path, path)) {
+                closeDirectory();
+                top = stack.get(stack.size() - 1);
+            }
+            while (top.path.length() < path.length()) {
+                // The next component has at least one char (paths may start with a separator):
+                int end = path.indexOf('/', top.path.isEmpty() ? 1 : top.path.length() + 1);
+                String childPath = end < 0 ? path : path.substring(0, end);
+                top.addSyntheticDirectory(childPath);
+                top = push(childPath, -1);
+            }
+            return top;
+        }
+
+        private BuilderNode push(String path, int row) {
+            BuilderNode node = new BuilderNode(path, row);
+            nodes.add(node);
+            stack.add(node);
+            return node;
+        }
+
+        /**
+         * Closes the recently opened directory: its children are encoded and its totals are added to its parent.
+         */
+        private void closeDirectory() {
+            BuilderNode node = stack.remove(stack.size() - 1);
+            node.flushRun();
+            node.childrenOffset = childrenLength;
+            node.childrenLength = node.children.length();
+            if (children != null) {
+                children.write(node.children);
+            } else {
+                try {
+                    if (childrenOut == null) {
+                        childrenOut = new BufferedOutputStream(new FileOutputStream(childrenFile), 64 * 1024);
+                    }
+                    node.children.writeTo(childrenOut);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            childrenLength += node.childrenLength;
+            node.children = null;
+            node.pathBytes = node.path.getBytes(StandardCharsets.UTF_8);
+            node.path = null;
+            if (stack.isEmpty()) {
+                return;
+            }
+            BuilderNode parent = stack.get(stack.size() - 1);
+            parent.fileCount += node.fileCount;
+            parent.totalSize += node.totalSize;
+            if (node.endRow >= 0) {
+                parent.firstRow = Math.min(parent.firstRow, node.firstRow);
+                parent.endRow = Math.max(parent.endRow, node.endRow);
+            }
+        }
+
+        private static boolean isAncestorOrSelf(String directory, String path) {
+            return directory.isEmpty() || path.equals(directory)
+                    || (path.startsWith(directory) && path.charAt(directory.length()) == '/');
+        }
+
+        private static String getParent(String path) {
+            int pos = path.lastIndexOf('/');
+            return pos < 0 ? "" : path.substring(0, pos);
+        }
+    }
+
+    private static class BuilderNode {
+        // Only while open:
+        private String path;
+        private VarIntOutput children = new VarIntOutput(16);
+        // After closing:
+        private byte[] pathBytes;
+        private int childrenOffset;
+        private int childrenLength;
+        private int row;
+        private int firstRow = Integer.MAX_VALUE;
+        private int endRow = -1;
+        private long fileCount;
+        private long totalSize;
+        // Current run of consecutive rows (only while open):
+        private int runStart = -1;
+        private int runEnd;
+        private int previousRunEnd;
+
+        private BuilderNode(String path, int row) {
+            this.path = path;
+            this.row = row;
+        }
+
+        private void addRow(int row) {
+            if (runStart >= 0 && row == runEnd) {
+                ++runEnd;
+            } else {
+                flushRun();
+                runStart = row;
+                runEnd = row + 1;
+            }
+            firstRow = Math.min(firstRow, row);
+            endRow = Math.max(endRow, row + 1);
+        }
+
+        private void flushRun() {
+            if (runStart < 0) {
+                return;
+            }
+            // The gap is negative only for rows not added in ascending order:
+            children.writeVarInt(2 * (runStart - previousRunEnd));
+            children.writeVarInt(runEnd - runStart - 1);
+            previousRunEnd = runEnd;
+            runStart = -1;
+        }
+
+        private void addSyntheticDirectory(String path) {
+            flushRun();
+            byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+            children.writeVarInt(2 * bytes.length + 1);
+            children.write(bytes, 0, bytes.length);
+        }
+    }
+}
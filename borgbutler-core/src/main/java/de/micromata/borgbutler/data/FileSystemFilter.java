@@ -1,12 +1,17 @@
 package de.micromata.borgbutler.data;
 
 import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import de.micromata.borgbutler.utils.DateUtils;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 public class FileSystemFilter {
     private Logger log = LoggerFactory.getLogger(FileSystemFilter.class);
@@ -54,6 +59,105 @@ public class FileSystemFilter {
         return this;
     }
 
+    public Long getMinSize() {
+        return this.minSize;
+    }
+
+    public FileSystemFilter setMinSize(Long minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    public Long getMaxSize() {
+        return this.maxSize;
+    }
+
+    public FileSystemFilter setMaxSize(Long maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    public String getMtimeFrom() {
+        return this.mtimeFrom;
+    }
+
+    /**
+     * @return The parsed {@link #getMtimeFrom()} as epoch seconds (see {@link DateUtils#toEpochSeconds(String)}) or
+     * null, if not given.
+     */
+    public Long getMtimeFromEpochSeconds() {
+        return this.mtimeFromEpochSeconds;
+    }
+
+    /**
+     * @param mtimeFrom Only items modified at or after this time are returned. Format <tt>yyyy-MM-dd HH:mm:ss</tt> or
+     *                  <tt>yyyy-MM-dd</tt> (start of day).
+     * @return this for chaining.
+     */
+    public FileSystemFilter setMtimeFrom(String mtimeFrom) {
+        this.mtimeFrom = mtimeFrom;
+        this.mtimeFromEpochSeconds = parseMtime(mtimeFrom, " 00:00:00");
+        return this;
+    }
+
+    public String getMtimeUntil() {
+        return this.mtimeUntil;
+    }
+
+    /**
+     * @return The parsed {@link #getMtimeUntil()} as epoch seconds (see {@link DateUtils#toEpochSeconds(String)}) or
+     * null, if not given.
+     */
+    public Long getMtimeUntilEpochSeconds() {
+        return this.mtimeUntilEpochSeconds;
+    }
+
+    /**
+     * @param mtimeUntil Only items modified at or before this time are returned. Format <tt>yyyy-MM-dd HH:mm:ss</tt>
+     *                   or <tt>yyyy-MM-dd</tt> (end of day).
+     * @return this for chaining.
+     */
+    public FileSystemFilter setMtimeUntil(String mtimeUntil) {
+        this.mtimeUntil = mtimeUntil;
+        this.mtimeUntilEpochSeconds = parseMtime(mtimeUntil, " 23:59:59");
+        return this;
+    }
+
+    public String getTypes() {
+        return this.types;
+    }
+
+    /**
+     * @param types The accepted item types as characters, e. g. <tt>"-"</tt> for normal files or <tt>"dl"</tt> for
+     *              directories and links. All types are accepted if null or empty.
+     * @return this for chaining.
+     */
+    public FileSystemFilter setTypes(String types) {
+        this.types = StringUtils.isEmpty(types) ? null : types;
+        return this;
+    }
+
+    /**
+     * @return true, if any criteria on the item attributes (size, mtime or type) is given.
+     */
+    public boolean hasAttributeCriteria() {
+        return minSize != null || maxSize != null || mtimeFromEpochSeconds != null || mtimeUntilEpochSeconds != null
+                || types != null;
+    }
+
+    private Long parseMtime(String mtime, String defaultTime) {
+        if (StringUtils.isBlank(mtime)) {
+            return null;
+        }
+        mtime = mtime.trim();
+        long epochSeconds = DateUtils.toEpochSeconds(mtime.length() == 10 ? mtime + defaultTime : mtime);
+        if (epochSeconds == Long.MIN_VALUE) {
+            log.error("Can't parse mtime '" + mtime + "' (expected format yyyy-MM-dd HH:mm:ss), ignoring it.");
+            return null;
+        }
+        return epochSeconds;
+    }
+
     public enum Mode {FLAT, TREE}
 
     private String searchString;
@@ -65,6 +169,8 @@ public class FileSystemFilter {
      */
     private boolean autoChangeDirectoryToLeafItem = true;
     private String currentDirectory;
+    // UTF-8 encoded currentDirectory for matching the rows of FileSystemItemColumns:
+    private byte[] currentDirectoryBytes;
     // For storing sub directories of the currentDirectory
     private Map<String, BorgFilesystemItem> subDirectories;
     private int maxResultSize = -1;
@@ -72,6 +178,13 @@ public class FileSystemFilter {
      * If given, only the file assigned to this number is searched and returned.
      */
     private Integer fileNumber;
+    private Long minSize;
+    private Long maxSize;
+    private String mtimeFrom;
+    private Long mtimeFromEpochSeconds;
+    private String mtimeUntil;
+    private Long mtimeUntilEpochSeconds;
+    private String types;
     private String[] searchKeyWords;
     private String[] blackListSearchKeyWords;
     private int counter = 0;
@@ -98,14 +211,102 @@ public class FileSystemFilter {
         if (!checkDirectoryMatchAndRegisterSubDirectories(item)) {
             return false;
         }
-        if (searchKeyWords == null && blackListSearchKeyWords == null) {
-            processFinishedFlag();
+        if (!matchesAttributeCriteria(item.getSize(), item.getType(),
+                item.getMtimeEpochSeconds())
+                || !matchesSearchString(item.getPath())) {
+            return false;
+        }
+        processFinishedFlag();
+        return true;
+    }
+
+    /**
+     * As {@link #matches(BorgFilesystemItem)}, but for a row of a file list in column representation. No item is
+     * created (except for the sub directories registered in tree mode) and the path is only decoded, if needed.
+     *
+     * @param columns
+     * @param row     The row (file number) of the item.
+     * @return true if the item of the given row matches this filter.
+     */
+    public boolean matches(FileSystemItemColumns columns, int row) {
+        if (fileNumber != null) {
+            if (row == fileNumber) {
+                finished = true; // Force finishing.
+                return true;
+            }
+            return false;
+        }
+        if (!checkDirectoryMatchAndRegisterSubDirectories(columns, row) || !matchesAttributesAndSearchString(columns, row)) {
+            return false;
+        }
+        processFinishedFlag();
+        return true;
+    }
+
+    /**
+     * Checks the attribute criteria (size, mtime and type) and the search string, but not the current directory.
+     */
+    protected boolean matchesAttributesAndSearchString(FileSystemItemColumns columns, int row) {
+        return matchesAttributeCriteria(columns.getSize(row), columns.getType(row), columns.getMtimeEpochSeconds(row))
+                && (!hasSearchKeyWords() || matchesSearchString(columns.getPath(row)));
+    }
+
+    /**
+     * As {@link #matchesAttributesAndSearchString(FileSystemItemColumns, int)}, but for an item.
+     */
+    protected boolean matchesAttributesAndSearchString(BorgFilesystemItem item) {
+        return matchesAttributeCriteria(item.getSize(), item.getType(), item.getMtimeEpochSeconds())
+                && matchesSearchString(item.getPath());
+    }
+
+    private boolean matchesAttributeCriteria(long size, String type, long mtimeEpochSeconds) {
+        if ((minSize != null && size < minSize) || (maxSize != null && size > maxSize)) {
+            return false;
+        }
+        if (types != null && (type == null || type.length() != 1 || types.indexOf(type.charAt(0)) < 0)) {
+            return false;
+        }
+        if (hasMtimeCriteria()) {
+            if (mtimeEpochSeconds == Long.MIN_VALUE
+                    || (mtimeFromEpochSeconds != null && mtimeEpochSeconds < mtimeFromEpochSeconds)
+                    || (mtimeUntilEpochSeconds != null && mtimeEpochSeconds > mtimeUntilEpochSeconds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true, if this filter only browses the tree (no file number, attribute criteria and search string), so
+     * the result may be looked up in the {@link DirectoryIndex} by {@link #reduce(FileSystemItemColumns, DirectoryIndex)}.
+     */
+    public boolean isDirectoryLookup() {
+        return mode == Mode.TREE && fileNumber == null && !hasAttributeCriteria() && !hasSearchKeyWords();
+    }
+
+    /**
+     * @return The lower case key words of the search string all of which must be contained in the path or null.
+     */
+    public String[] getSearchKeyWords() {
+        return searchKeyWords;
+    }
+
+    private boolean hasMtimeCriteria() {
+        return mtimeFromEpochSeconds != null || mtimeUntilEpochSeconds != null;
+    }
+
+    private boolean hasSearchKeyWords() {
+        return searchKeyWords != null || blackListSearchKeyWords != null;
+    }
+
+    private boolean matchesSearchString(String itemPath) {
+        if (!hasSearchKeyWords()) {
             return true;
         }
-        if (item.getPath() == null) {
+        if (itemPath == null) {
             return false;
         }
-        String path = item.getPath().toLowerCase();
+        String path = itemPath.toLowerCase();
         if (searchKeyWords != null) {
             for (String searchKeyWord : searchKeyWords) {
                 if (!path.contains(searchKeyWord))
@@ -118,7 +319,6 @@ public class FileSystemFilter {
                     return false;
             }
         }
-        processFinishedFlag();
         return true;
     }
 
@@ -136,11 +336,173 @@ public class FileSystemFilter {
         if (mode != FileSystemFilter.Mode.TREE) {
             return origList;
         }
+        List<BorgFilesystemItem> list = getSubDirectoryItems(origList.size(), i -> origList.get(i).getPath());
+        if (isAutoChangeDirectory(list)) {
+            // Only one sub directory is displayed, so change directory automatically to this sub directory:
+            FileSystemFilter filter = this.clone();
+            filter.setCurrentDirectory(list.get(0).getPath());
+            for (BorgFilesystemItem item : origList) {
+                filter.matches(item);
+            }
+            List<BorgFilesystemItem> result =
+                    filter.reduce(origList);
+            if (CollectionUtils.isNotEmpty(result)) {
+                // Use only result, if childs in the current directory do exist.
+                return result;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * As {@link #reduce(List)}, but for the matching rows of a file list in column representation.
+     *
+     * @param columns
+     * @param rows    The rows matched by {@link #matches(FileSystemItemColumns, int)}.
+     * @return The items of the given rows for mode {@link Mode#FLAT} or the reduced list for the tree view.
+     */
+    public List<BorgFilesystemItem> reduce(FileSystemItemColumns columns, int[] rows) {
+        if (mode != FileSystemFilter.Mode.TREE) {
+            List<BorgFilesystemItem> list = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                list.add(columns.getItem(row));
+            }
+            return list;
+        }
+        List<BorgFilesystemItem> list = getSubDirectoryItems(rows.length, i -> columns.getPath(rows[i]));
+        if (isAutoChangeDirectory(list)) {
+            FileSystemFilter filter = this.clone();
+            filter.setCurrentDirectory(list.get(0).getPath());
+            for (int row : rows) {
+                filter.matches(columns, row);
+            }
+            List<BorgFilesystemItem> result = filter.reduce(columns, rows);
+            if (CollectionUtils.isNotEmpty(result)) {
+                return result;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Tree view without matching the rows: the children of the current directory are looked up in the directory index.
+     * Only for filters of {@link #isDirectoryLookup()}, the result is the same as of
+     * {@link #reduce(FileSystemItemColumns, int[])} (and the sub directories contain the totals of their sub trees).
+     *
+     * @param columns
+     * @param index   The directory index of the columns.
+     * @return The reduced list for the tree view.
+     */
+    public List<BorgFilesystemItem> reduce(FileSystemItemColumns columns, DirectoryIndex index) {
+        return reduce(index, rows -> {
+            List<BorgFilesystemItem> list = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                list.add(columns.getItem(row));
+            }
+            return list;
+        });
+    }
+
+    /**
+     * As {@link #reduce(FileSystemItemColumns, DirectoryIndex)} for file lists not held in memory (e. g. the directory
+     * index section of a cached file list).
+     *
+     * @param index The directory index of the file list.
+     * @param items Gets the items of the given rows (see {@link DirectoryIndex#getChildren(String, Function)}).
+     * @return The reduced list for the tree view or null, if the items aren't readable.
+     */
+    public List<BorgFilesystemItem> reduce(DirectoryIndex index, Function<int[], List<BorgFilesystemItem>> items) {
+        List<BorgFilesystemItem> list = index.getChildren(currentDirectory, items);
+        if (list == null) {
+            return null;
+        }
+        for (BorgFilesystemItem item : list) {
+            item.setDisplayPath(StringUtils.removeStart(item.getPath(), currentDirectory));
+        }
+        list = orderDotFilesLast(list);
+        if (isAutoChangeDirectory(list)) {
+            FileSystemFilter filter = this.clone();
+            filter.setCurrentDirectory(list.get(0).getPath());
+            List<BorgFilesystemItem> result = filter.reduce(index, items);
+            if (CollectionUtils.isNotEmpty(result)) {
+                return result;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * As {@link #matches(BorgFilesystemItem)} for all items followed by {@link #reduce(List)}, but for a streamed file
+     * list (low memory mode): only the items of the result are held in memory, in tree mode only the first matching
+     * item of every sub directory of the current directory.
+     *
+     * @param source Streams the sorted items of the given directory (all items, if null). The stream may contain items
+     *               outside this directory. In tree mode the stream is opened again, if the filter changes
+     *               automatically to a single sub directory.
+     * @return The matching items for mode {@link Mode#FLAT} or the reduced list for the tree view. Null, if the source
+     * returns null.
+     */
+    public List<BorgFilesystemItem> filter(Function<String, Stream<BorgFilesystemItem>> source) {
+        List<BorgFilesystemItem> list = new ArrayList<>();
+        Set<String> topLevels = new HashSet<>();
+        try (Stream<BorgFilesystemItem> stream = source.apply(mode == Mode.TREE ? currentDirectory : null)) {
+            if (stream == null) {
+                return null;
+            }
+            Iterator<BorgFilesystemItem> it = stream.iterator();
+            while (it.hasNext()) {
+                BorgFilesystemItem item = it.next();
+                if (!matches(item)) {
+                    continue;
+                }
+                if (mode != Mode.TREE || topLevels.add(getTopLevel(item.getPath()))) {
+                    list.add(item);
+                }
+                if (finished) break;
+            }
+        }
+        if (mode != Mode.TREE) {
+            return list;
+        }
+        return reduceSubDirectories(list, filter -> filter.filter(source));
+    }
+
+    /**
+     * Tree view of streamed file lists: only the first item of every sub directory is needed.
+     *
+     * @param items              At least one item of every sub directory of the current directory to display.
+     * @param subDirectoryFilter Returns the result for the given filter of the sub directory, if the current directory
+     *                           is changed automatically to its single sub directory.
+     * @return The sub directory items (dot files at last).
+     */
+    protected List<BorgFilesystemItem> reduceSubDirectories(List<BorgFilesystemItem> items,
+                                                            Function<FileSystemFilter, List<BorgFilesystemItem>> subDirectoryFilter) {
+        List<BorgFilesystemItem> list = getSubDirectoryItems(items.size(), i -> items.get(i).getPath());
+        if (isAutoChangeDirectory(list)) {
+            FileSystemFilter filter = this.clone();
+            filter.setCurrentDirectory(list.get(0).getPath());
+            List<BorgFilesystemItem> result = subDirectoryFilter.apply(filter);
+            if (CollectionUtils.isNotEmpty(result)) {
+                return result;
+            }
+        }
+        return list;
+    }
+
+    private boolean isAutoChangeDirectory(List<BorgFilesystemItem> list) {
+        return autoChangeDirectoryToLeafItem && list.size() == 1 && "d".equals(list.get(0).getType());
+    }
+
+    /**
+     * @param size  Number of items.
+     * @param paths Path of the i-th item.
+     * @return The registered sub directories of the items in the current directory (dot files at last).
+     */
+    private List<BorgFilesystemItem> getSubDirectoryItems(int size, IntFunction<String> paths) {
         Set<String> set = new HashSet<>();
-        List<BorgFilesystemItem> list2 = origList;
         List<BorgFilesystemItem> list = new ArrayList<>();
-        for (BorgFilesystemItem item : list2) {
-            String topLevel = getTopLevel(item.getPath());
+        for (int i = 0; i < size; i++) {
+            String topLevel = getTopLevel(paths.apply(i));
             if (topLevel == null) {
                 continue;
             }
@@ -156,9 +518,14 @@ public class FileSystemFilter {
                 }
             }
         }
-        list2 = list;
-        // Re-ordering (show dot files at last)
-        list = new ArrayList<>();
+        return orderDotFilesLast(list);
+    }
+
+    /**
+     * Re-ordering (show dot files at last).
+     */
+    private List<BorgFilesystemItem> orderDotFilesLast(List<BorgFilesystemItem> list2) {
+        List<BorgFilesystemItem> list = new ArrayList<>(list2.size());
         // First add normal files:
         for (BorgFilesystemItem item : list2) {
             if (!item.getDisplayPath().startsWith(".")) {
@@ -171,20 +538,6 @@ public class FileSystemFilter {
                 list.add(item);
             }
         }
-        if (autoChangeDirectoryToLeafItem && list.size() == 1 && "d".equals(list.get(0).getType())) {
-            // Only one sub directory is displayed, so change directory automatically to this sub directory:
-            FileSystemFilter filter = this.clone();
-            filter.setCurrentDirectory(list.get(0).getPath());
-            for (BorgFilesystemItem item : origList) {
-                filter.matches(item);
-            }
-            List<BorgFilesystemItem> result =
-                    filter.reduce(origList);
-            if (CollectionUtils.isNotEmpty(result)) {
-                // Use only result, if childs in the current directory do exist.
-                return result;
-            }
-        }
         return list;
     }
 
@@ -240,15 +593,52 @@ public class FileSystemFilter {
             // item is not inside the current directory.
             return false;
         }
+        return registerSubDirectory(item.getPath(), item, null, -1);
+    }
+
+    /**
+     * As {@link #checkDirectoryMatchAndRegisterSubDirectories(BorgFilesystemItem)}, but for a row of a file list in
+     * column representation. Items are only created for registered sub directories.
+     */
+    protected boolean checkDirectoryMatchAndRegisterSubDirectories(FileSystemItemColumns columns, int row) {
+        if (mode != Mode.TREE) {
+            return true;
+        }
+        if (!isInCurrentDirectory(columns, row)) {
+            return false;
+        }
+        return registerSubDirectory(columns.getPath(row), null, columns, row);
+    }
+
+    /**
+     * @return true, if the path of the given row starts with the current directory (or if not in tree mode). Checked
+     * without decoding the path.
+     */
+    protected boolean isInCurrentDirectory(FileSystemItemColumns columns, int row) {
+        if (mode != Mode.TREE || StringUtils.isEmpty(currentDirectory)) {
+            return true;
+        }
+        if (currentDirectoryBytes == null) {
+            currentDirectoryBytes = currentDirectory.getBytes(StandardCharsets.UTF_8);
+        }
+        return columns.pathStartsWith(row, currentDirectoryBytes);
+    }
+
+    /**
+     * @param item    The item of the path or null, if given by columns and row (created only if registered).
+     * @param columns
+     * @param row
+     */
+    private boolean registerSubDirectory(String path, BorgFilesystemItem item, FileSystemItemColumns columns, int row) {
         // In this run only register all direct childs of currentDirectory.
-        String topLevelDir = getTopLevel(item.getPath());
+        String topLevelDir = getTopLevel(path);
         if (topLevelDir == null) {
             // item is not inside the current directory.
             return false;
         }
         if (!subDirectories.containsKey(topLevelDir)) {
-            if (!item.getPath().endsWith(topLevelDir)) {
-                String currentDir = this.currentDirectory;
+            if (!path.endsWith(topLevelDir)) {
+                String currentDir = StringUtils.defaultString(this.currentDirectory);
                 // Mount point? Top level was not received from Borg as separate item. Create a synthetic one (without file number):
                 BorgFilesystemItem syntheticItem = new BorgFilesystemItem()
                         .setPath(currentDir + topLevelDir)
@@ -257,7 +647,7 @@ public class FileSystemFilter {
                 // TODO: Register synthetic sub directories if exist (see failure of FileSystemFilterTest).
                 subDirectories.put(topLevelDir, syntheticItem);
             } else {
-                subDirectories.put(topLevelDir, item);
+                subDirectories.put(topLevelDir, item != null ? item : columns.getItem(row));
             }
         }
         return true;
@@ -291,11 +681,11 @@ public class FileSystemFilter {
             // item is not a child of currentDirectory.
             return null;
         }
-        if (path.length() <= currentDir.length() + 1) {
+        path = StringUtils.removeStart(path, currentDir);
+        if (path.isEmpty() || path.equals("/")) {
             // Don't show the current directory itself.
             return null;
         }
-        path = StringUtils.removeStart(path, currentDir);
         int pos = path.indexOf('/');
         if (pos < 0) {
             return path;
@@ -337,6 +727,7 @@ public class FileSystemFilter {
 
     public FileSystemFilter setCurrentDirectory(String currentDirectory) {
         this.currentDirectory = ensureTrailingSeparator(currentDirectory);
+        this.currentDirectoryBytes = null;
         return this;
     }
 
@@ -348,13 +739,28 @@ public class FileSystemFilter {
     }
 
     protected FileSystemFilter clone() {
-        FileSystemFilter filter = new FileSystemFilter();
+        return copyTo(new FileSystemFilter());
+    }
+
+    /**
+     * Copies the criteria of this filter (but not the matching state).
+     *
+     * @return The given filter.
+     */
+    protected FileSystemFilter copyTo(FileSystemFilter filter) {
         filter.currentDirectory = this.currentDirectory;
         filter.autoChangeDirectoryToLeafItem = this.autoChangeDirectoryToLeafItem;
         filter.setMode(this.mode);
         filter.searchString = this.searchString;
         filter.maxResultSize = this.maxResultSize;
         filter.fileNumber = this.fileNumber;
+        filter.minSize = this.minSize;
+        filter.maxSize = this.maxSize;
+        filter.mtimeFrom = this.mtimeFrom;
+        filter.mtimeFromEpochSeconds = this.mtimeFromEpochSeconds;
+        filter.mtimeUntil = this.mtimeUntil;
+        filter.mtimeUntilEpochSeconds = this.mtimeUntilEpochSeconds;
+        filter.types = this.types;
         filter.searchKeyWords = this.searchKeyWords;
         filter.blackListSearchKeyWords = this.blackListSearchKeyWords;
         return filter;
@@ -0,0 +1,489 @@
+package de.micromata.borgbutler.data;
+
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Column oriented, off-heap representation of a complete file list of an archive (struct of arrays): the paths and
+ * the other strings of arbitrary values are stored UTF-8 encoded in direct buffers, sizes, mtimes (as epoch seconds),
+ * uids and gids in primitive columns and the attributes with only a few distinct values (type, mode, user, group and
+ * flags) as ids of a small dictionary. So a file list of millions of items consists only of a few objects on the heap.
+ * <br>
+ * {@link FileSystemFilter} and {@link DiffFileSystemFilter} work directly on the rows, {@link BorgFilesystemItem}
+ * objects are only created for the results ({@link #getItem(int)}). The file number of an item is its row.
+ * <br>
+ * Instances are immutable and may be used by several threads. The direct memory is freed by the garbage collector, if
+ * the columns aren't referenced anymore.
+ */
+public class FileSystemItemColumns {
+    private static final byte HEALTHY = 1;
+    private static final int NULL = -1;
+
+    private int size;
+    private StringColumn paths;
+    /**
+     * Only the mtimes not representable as epoch seconds (see {@link BorgFilesystemItem#getMtimeEpochSeconds()}).
+     */
+    private StringColumn mtimes;
+    private StringColumn sources;
+    private StringColumn linktargets;
+    private LongBuffer sizes;
+    private LongBuffer mtimeEpochSeconds;
+    private LongBuffer uids;
+    private LongBuffer gids;
+    // Ids of the dictionary (or NULL):
+    private IntBuffer types;
+    private IntBuffer modes;
+    private IntBuffer users;
+    private IntBuffer groups;
+    private IntBuffer flags;
+    private ByteBuffer bits;
+    private List<String> dictionary;
+    private volatile DirectoryIndex directoryIndex;
+    private volatile PathTrigramIndex pathTrigramIndex;
+    private volatile Runnable indexListener;
+
+    /**
+     * @param items The items in the order of their file numbers.
+     */
+    public static FileSystemItemColumns create(List<BorgFilesystemItem> items) {
+        Builder builder = new Builder(items.size());
+        for (BorgFilesystemItem item : items) {
+            builder.add(item);
+        }
+        return builder.build();
+    }
+
+    private FileSystemItemColumns() {
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The size of the columns in bytes (mainly off-heap).
+     */
+    public long getMemorySize() {
+        long memorySize = paths.getMemorySize() + mtimes.getMemorySize() + sources.getMemorySize()
+                + linktargets.getMemorySize() + 4L * 8 * size + 5L * 4 * size + size;
+        for (String str : dictionary) {
+            memorySize += 56 + 2 * str.length();
+        }
+        return memorySize;
+    }
+
+    /**
+     * @return The size of the indexes built so far in bytes (off-heap), see {@link #getDirectoryIndex()} and
+     * {@link #getPathTrigramIndex()}.
+     */
+    public long getIndexMemorySize() {
+        DirectoryIndex directoryIndex = this.directoryIndex;
+        PathTrigramIndex pathTrigramIndex = this.pathTrigramIndex;
+        return (directoryIndex != null ? directoryIndex.getMemorySize() : 0)
+                + (pathTrigramIndex != null ? pathTrigramIndex.getMemorySize() : 0);
+    }
+
+    /**
+     * @param indexListener Called after an index was built (by the building thread, e. g. for charging its size to the
+     *                      memory budget of a cache).
+     */
+    public void setIndexListener(Runnable indexListener) {
+        this.indexListener = indexListener;
+    }
+
+    /**
+     * Creates the item of the given row (the display path is the path).
+     */
+    public BorgFilesystemItem getItem(int row) {
+        String path = getPath(row);
+        BorgFilesystemItem item = new BorgFilesystemItem()
+                .setPath(path)
+                .setDisplayPath(path)
+                .setType(getType(row))
+                .setMode(getDictionaryValue(modes, row))
+                .setUser(getDictionaryValue(users, row))
+                .setGroup(getDictionaryValue(groups, row))
+                .setUid(uids.get(row))
+                .setGid(gids.get(row))
+                .setHealthy((bits.get(row) & HEALTHY) != 0)
+                .setSource(sources.get(row))
+                .setLinktarget(linktargets.get(row))
+                .setFlags(getDictionaryValue(flags, row))
+                .setSize(sizes.get(row))
+                .setFileNumber(row);
+        long epochSeconds = mtimeEpochSeconds.get(row);
+        return epochSeconds != Long.MIN_VALUE ? item.setMtimeEpochSeconds(epochSeconds) : item.setMtime(mtimes.get(row));
+    }
+
+    /**
+     * The directory index is built on first usage (one pass over all rows) and kept as long as these columns.
+     */
+    public DirectoryIndex getDirectoryIndex() {
+        DirectoryIndex index = directoryIndex;
+        if (index == null) {
+            boolean built = false;
+            synchronized (this) {
+                index = directoryIndex;
+                if (index == null) {
+                    index = directoryIndex = DirectoryIndex.create(this);
+                    built = true;
+                }
+            }
+            if (built) {
+                fireIndexBuilt();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The trigram index of the paths is built on first usage (one pass over all rows) and kept as long as these
+     * columns.
+     */
+    public PathTrigramIndex getPathTrigramIndex() {
+        PathTrigramIndex index = pathTrigramIndex;
+        if (index == null) {
+            boolean built = false;
+            synchronized (this) {
+                index = pathTrigramIndex;
+                if (index == null) {
+                    index = pathTrigramIndex = PathTrigramIndex.create(this);
+                    built = true;
+                }
+            }
+            if (built) {
+                fireIndexBuilt();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Called outside of the lock of these columns, so the listener may lock its cache.
+     */
+    private void fireIndexBuilt() {
+        Runnable listener = indexListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    public String getPath(int row) {
+        return paths.get(row);
+    }
+
+    /**
+     * Compares the UTF-8 bytes without decoding the path.
+     *
+     * @param prefix UTF-8 encoded.
+     */
+    public boolean pathStartsWith(int row, byte[] prefix) {
+        return paths.startsWith(row, prefix);
+    }
+
+    public String getType(int row) {
+        return getDictionaryValue(types, row);
+    }
+
+    public long getSize(int row) {
+        return sizes.get(row);
+    }
+
+    /**
+     * @return The mtime as epoch seconds or {@link Long#MIN_VALUE}, see {@link BorgFilesystemItem#getMtimeEpochSeconds()}.
+     */
+    public long getMtimeEpochSeconds(int row) {
+        return mtimeEpochSeconds.get(row);
+    }
+
+    /**
+     * Compares all fields compared by {@link BorgFilesystemItem#equals(Object)} without creating the items.
+     */
+    public boolean isSame(int row, FileSystemItemColumns other, int otherRow) {
+        return sizes.get(row) == other.sizes.get(otherRow)
+                && uids.get(row) == other.uids.get(otherRow)
+                && gids.get(row) == other.gids.get(otherRow)
+                && paths.isSame(row, other.paths, otherRow)
+                && mtimeEpochSeconds.get(row) == other.mtimeEpochSeconds.get(otherRow)
+                && mtimes.isSame(row, other.mtimes, otherRow)
+                && Objects.equals(getType(row), other.getType(otherRow))
+                && Objects.equals(getDictionaryValue(modes, row), other.getDictionaryValue(other.modes, otherRow))
+                && Objects.equals(getDictionaryValue(users, row), other.getDictionaryValue(other.users, otherRow))
+                && Objects.equals(getDictionaryValue(groups, row), other.getDictionaryValue(other.groups, otherRow))
+                && Objects.equals(getDictionaryValue(flags, row), other.getDictionaryValue(other.flags, otherRow));
+    }
+
+    private String getDictionaryValue(IntBuffer column, int row) {
+        int id = column.get(row);
+        return id == NULL ? null : dictionary.get(id);
+    }
+
+    /**
+     * For creating the columns item by item (e. g. block by block while reading a cache file).
+     */
+    public static class Builder {
+        private FileSystemItemColumns columns = new FileSystemItemColumns();
+        private Map<String, Integer> dictionaryIds = new HashMap<>();
+        private int capacity;
+
+        /**
+         * @param expectedSize The expected number of items (the columns grow, if more items are added).
+         */
+        public Builder(int expectedSize) {
+            capacity = Math.max(16, expectedSize);
+            columns.paths = new StringColumn(capacity, 64);
+            columns.mtimes = new StringColumn(capacity, 0);
+            columns.sources = new StringColumn(capacity, 0);
+            columns.linktargets = new StringColumn(capacity, 0);
+            columns.sizes = allocate(capacity * 8).asLongBuffer();
+            columns.mtimeEpochSeconds = allocate(capacity * 8).asLongBuffer();
+            columns.uids = allocate(capacity * 8).asLongBuffer();
+            columns.gids = allocate(capacity * 8).asLongBuffer();
+            columns.types = allocate(capacity * 4).asIntBuffer();
+            columns.modes = allocate(capacity * 4).asIntBuffer();
+            columns.users = allocate(capacity * 4).asIntBuffer();
+            columns.groups = allocate(capacity * 4).asIntBuffer();
+            columns.flags = allocate(capacity * 4).asIntBuffer();
+            columns.bits = allocate(capacity);
+            columns.dictionary = new ArrayList<>();
+        }
+
+        /**
+         * The row of the item is the number of items added before.
+         */
+        public Builder add(BorgFilesystemItem item) {
+            if (columns.size == capacity) {
+                grow();
+            }
+            int row = columns.size;
+            columns.paths.add(row, item.getPath());
+            long epochSeconds = item.getMtimeEpochSeconds();
+            columns.mtimes.add(row, epochSeconds == Long.MIN_VALUE ? item.getMtime() : null);
+            columns.sources.add(row, item.getSource());
+            columns.linktargets.add(row, item.getLinktarget());
+            columns.sizes.put(row, item.getSize());
+            columns.mtimeEpochSeconds.put(row, epochSeconds);
+            columns.uids.put(row, item.getUid());
+            columns.gids.put(row, item.getGid());
+            columns.types.put(row, getDictionaryId(item.getType()));
+            columns.modes.put(row, getDictionaryId(item.getMode()));
+            columns.users.put(row, getDictionaryId(item.getUser()));
+            columns.groups.put(row, getDictionaryId(item.getGroup()));
+            columns.flags.put(row, getDictionaryId(item.getFlags()));
+            columns.bits.put(row, item.isHealthy() ? HEALTHY : 0);
+            ++columns.size;
+            return this;
+        }
+
+        /**
+         * The builder mustn't be used afterwards.
+         */
+        public FileSystemItemColumns build() {
+            // Free the unused capacity:
+            resize(columns.size);
+            columns.paths.trim();
+            columns.mtimes.trim();
+            columns.sources.trim();
+            columns.linktargets.trim();
+            FileSystemItemColumns result = columns;
+            columns = null;
+            return result;
+        }
+
+        private int getDictionaryId(String value) {
+            if (value == null) {
+                return NULL;
+            }
+            Integer id = dictionaryIds.get(value);
+            if (id == null) {
+                id = columns.dictionary.size();
+                columns.dictionary.add(value);
+                dictionaryIds.put(value, id);
+            }
+            return id;
+        }
+
+        private void grow() {
+            int newCapacity = (int) Math.min(Integer.MAX_VALUE / 8, 2L * capacity);
+            if (newCapacity <= capacity) {
+                throw new IllegalStateException("Too many items for columns: " + capacity);
+            }
+            resize(newCapacity);
+        }
+
+        /**
+         * Copies the rows added to columns of the new capacity.
+         */
+        private void resize(int newCapacity) {
+            if (newCapacity == capacity) {
+                return;
+            }
+            columns.paths.resize(newCapacity);
+            columns.mtimes.resize(newCapacity);
+            columns.sources.resize(newCapacity);
+            columns.linktargets.resize(newCapacity);
+            columns.sizes = copy(columns.sizes, newCapacity);
+            columns.mtimeEpochSeconds = copy(columns.mtimeEpochSeconds, newCapacity);
+            columns.uids = copy(columns.uids, newCapacity);
+            columns.gids = copy(columns.gids, newCapacity);
+            columns.types = copy(columns.types, newCapacity);
+            columns.modes = copy(columns.modes, newCapacity);
+            columns.users = copy(columns.users, newCapacity);
+            columns.groups = copy(columns.groups, newCapacity);
+            columns.flags = copy(columns.flags, newCapacity);
+            ByteBuffer bits = allocate(Math.max(1, newCapacity));
+            columns.bits.position(0).limit(columns.size);
+            bits.put(columns.bits);
+            columns.bits = bits.clear();
+            capacity = newCapacity;
+        }
+
+        private LongBuffer copy(LongBuffer buffer, int newCapacity) {
+            LongBuffer result = allocate(Math.max(1, newCapacity) * 8).asLongBuffer();
+            buffer.position(0).limit(columns.size);
+            result.put(buffer);
+            return result.clear();
+        }
+
+        private IntBuffer copy(IntBuffer buffer, int newCapacity) {
+            IntBuffer result = allocate(Math.max(1, newCapacity) * 4).asIntBuffer();
+            buffer.position(0).limit(columns.size);
+            result.put(buffer);
+            return result.clear();
+        }
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Strings (UTF-8 encoded) of all rows in one direct buffer, the offsets in another one: the string of a row ranges
+     * from its offset to the offset of the next row. The next offset of null values is stored as complement (negative).
+     */
+    private static class StringColumn {
+        private ByteBuffer data;
+        private IntBuffer offsets;
+        private int length;
+
+        private StringColumn(int capacity, int expectedStringLength) {
+            data = allocate(Math.max(16, capacity * expectedStringLength));
+            offsets = allocate((capacity + 1) * 4).asIntBuffer();
+        }
+
+        private void add(int row, String value) {
+            if (value == null) {
+                offsets.put(row + 1, ~length);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (length + bytes.length > data.capacity()) {
+                long newCapacity = Math.max(2L * data.capacity(), (long) length + bytes.length);
+                if (newCapacity > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Too many strings for columns: " + length);
+                }
+                ByteBuffer newData = allocate((int) newCapacity);
+                data.position(0).limit(length);
+                newData.put(data);
+                data = newData.clear();
+            }
+            data.position(length);
+            data.put(bytes);
+            length += bytes.length;
+            offsets.put(row + 1, length);
+        }
+
+        private String get(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            int offset = getOffset(row);
+            byte[] bytes = new byte[offsets.get(row + 1) - offset];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = data.get(offset + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private boolean startsWith(int row, byte[] prefix) {
+            if (isNull(row)) {
+                return false;
+            }
+            int offset = getOffset(row);
+            if (offsets.get(row + 1) - offset < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (data.get(offset + i) != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isSame(int row, StringColumn other, int otherRow) {
+            if (isNull(row) || other.isNull(otherRow)) {
+                return isNull(row) == other.isNull(otherRow);
+            }
+            int offset = getOffset(row);
+            int otherOffset = other.getOffset(otherRow);
+            int length = offsets.get(row + 1) - offset;
+            if (length != other.offsets.get(otherRow + 1) - otherOffset) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (data.get(offset + i) != other.data.get(otherOffset + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isNull(int row) {
+            return offsets.get(row + 1) < 0;
+        }
+
+        private int getOffset(int row) {
+            int offset = offsets.get(row);
+            return offset < 0 ? ~offset : offset;
+        }
+
+        /**
+         * @param newCapacity Number of rows (not less than the number of rows added).
+         */
+        private void resize(int newCapacity) {
+            IntBuffer newOffsets = allocate((newCapacity + 1) * 4).asIntBuffer();
+            offsets.position(0).limit(Math.min(offsets.capacity(), newCapacity + 1));
+            newOffsets.put(offsets);
+            offsets = newOffsets.clear();
+        }
+
+        /**
+         * Frees the unused capacity of the string data.
+         */
+        private void trim() {
+            if (data.capacity() == Math.max(1, length)) {
+                return;
+            }
+            ByteBuffer newData = allocate(Math.max(1, length));
+            data.position(0).limit(length);
+            newData.put(data);
+            data = newData.clear();
+        }
+
+        private long getMemorySize() {
+            return data.capacity() + 4L * offsets.capacity();
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package de.micromata.borgbutler.data;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Trigram index of the paths of a file list for the search string of {@link FileSystemFilter}: for every trigram
+ * (three consecutive chars of the lower case path) the rows containing it are stored as posting list. A key word of at
+ * least three chars can only be contained in the paths of the rows containing all of its trigrams, so only these
+ * candidates have to be checked exactly.
+ * <br>
+ * The posting lists are sequences of runs of consecutive rows (gap to the previous run and length of the run, both
+ * as var ints). Paths of the same directory are neighbours in the sorted file list, so the trigrams of the directories
+ * result in long runs and need only a few bytes.
+ * <br>
+ * For file lists in column representation the index of the rows is built on first usage
+ * ({@link FileSystemItemColumns#getPathTrigramIndex()}). Cache files store the index of their blocks instead of rows
+ * (written with the blocks and read on demand from the memory mapped file, see {@link #read(ByteBuffer)}), so searching
+ * file lists not held in memory decodes only the candidate blocks and the index stays small compared to the blocks.
+ * <br>
+ * Layout: the posting lists, the table of the trigrams sorted by trigram (the three chars and the offset of the posting
+ * list as int, the posting list ends at the offset of the next one) and the trailer (number of trigrams and length of the posting lists as ints and the version as byte).
+ * <br>
+ * Instances are immutable and may be used by several threads.
+ */
+public class PathTrigramIndex {
+    static final int GRAM_SIZE = 3;
+    private static final byte VERSION = 1;
+    private static final int TABLE_ENTRY_SIZE = 10;
+    private static final int TRAILER_SIZE = 9;
+
+    private ByteBuffer buffer;
+    private int size;
+    private int tableOffset;
+
+    /**
+     * Builds the index by one pass over all rows.
+     */
+    public static PathTrigramIndex create(FileSystemItemColumns columns) {
+        Builder builder = new Builder();
+        for (int row = 0; row < columns.size(); row++) {
+            builder.add(row, columns.getPath(row));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param buffer The index as written by {@link Builder#writeTo(OutputStream)} from its position to its limit (e. g.
+     *               the memory mapped section of a cache file). The content isn't copied.
+     * @throws IOException If the buffer doesn't contain a trigram index of this version.
+     */
+    public static PathTrigramIndex read(ByteBuffer buffer) throws IOException {
+        ByteBuffer buf = buffer.slice();
+        int limit = buf.limit();
+        if (limit < TRAILER_SIZE || buf.get(limit - 1) != VERSION) {
+            throw new IOException("Unsupported version of path trigram index.");
+        }
+        int size = buf.getInt(limit - TRAILER_SIZE);
+        int postingsLength = buf.getInt(limit - TRAILER_SIZE + 4);
+        if (size < 0 || postingsLength < 0 || (long) postingsLength + (long) size * TABLE_ENTRY_SIZE + TRAILER_SIZE != limit) {
+            throw new IOException("Path trigram index corrupted.");
+        }
+        return new PathTrigramIndex(buf, size, postingsLength);
+    }
+
+    /**
+     * @param filter The filter (may be null).
+     * @return true, if the candidates of the search key words of the filter may be used: the search string is long
+     * enough, no file number is requested and the mode is flat (the tree view registers the sub directories of the
+     * current directory by all of their rows).
+     */
+    public static boolean isNarrowing(FileSystemFilter filter) {
+        return filter != null && filter.getMode() != FileSystemFilter.Mode.TREE && filter.getFileNumber() == null
+                && isNarrowing(filter.getSearchKeyWords());
+    }
+
+    /**
+     * @param keyWords The lower case key words (as used by {@link FileSystemFilter}), may be null.
+     * @return true, if at least one key word is long enough for narrowing the candidates.
+     */
+    public static boolean isNarrowing(String[] keyWords) {
+        if (keyWords == null) {
+            return false;
+        }
+        for (String keyWord : keyWords) {
+            if (keyWord.length() >= GRAM_SIZE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PathTrigramIndex(ByteBuffer buffer, int size, int postingsLength) {
+        this.buffer = buffer;
+        this.size = size;
+        this.tableOffset = postingsLength;
+    }
+
+    /**
+     * @return The number of distinct trigrams.
+     */
+    public int getTrigramCount() {
+        return size;
+    }
+
+    /**
+     * @return The size of the index in bytes (off-heap or memory mapped).
+     */
+    public long getMemorySize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @param keyWords The lower case key words (as used by {@link FileSystemFilter}), all must be contained.
+     * @return The sorted rows, whose paths may contain all key words (a super set of the matching rows). Null, if no key
+     * word has at least three chars (all rows are candidates).
+     */
+    public int[] getCandidates(String[] keyWords) {
+        if (!isNarrowing(keyWords)) {
+            return null;
+        }
+        List<Integer> entries = new ArrayList<>();
+        for (String keyWord : keyWords) {
+            for (int pos = 0; pos + GRAM_SIZE <= keyWord.length(); pos++) {
+                int entry = find(getTrigram(keyWord, pos));
+                if (entry < 0) {
+                    return new int[0];
+                }
+                entries.add(entry);
+            }
+        }
+        // Starting with the shortest posting list, so the intersections are small from the beginning:
+        entries.sort(Comparator.comparingInt(this::getLength));
+        Runs result = null;
+        for (int entry : entries) {
+            result = result == null ? decode(entry) : result.intersect(this, entry);
+            if (result.count == 0) {
+                return new int[0];
+            }
+        }
+        return result.toRows();
+    }
+
+    /**
+     * @return The entry of the table (binary search) or -1, if the trigram isn't contained.
+     */
+    private int find(long trigram) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long key = getKey(mid);
+            if (key < trigram) {
+                low = mid + 1;
+            } else if (key > trigram) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private long getKey(int entry) {
+        int pos = tableOffset + entry * TABLE_ENTRY_SIZE;
+        return ((long) buffer.getChar(pos) << 32) | ((long) buffer.getChar(pos + 2) << 16) | buffer.getChar(pos + 4);
+    }
+
+    private int getOffset(int entry) {
+        return buffer.getInt(tableOffset + entry * TABLE_ENTRY_SIZE + 6);
+    }
+
+    private int getLength(int entry) {
+        return (entry + 1 < size ? getOffset(entry + 1) : tableOffset) - getOffset(entry);
+    }
+
+    private Runs decode(int entry) {
+        Runs runs = new Runs(16);
+        PostingReader reader = new PostingReader(entry);
+        while (reader.next()) {
+            runs.add(reader.start, reader.end);
+        }
+        return runs;
+    }
+
+    private static long getTrigram(String str, int pos) {
+        return ((long) str.charAt(pos) << 32) | ((long) str.charAt(pos + 1) << 16) | str.charAt(pos + 2);
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * Sorted, disjoint runs of rows: start (inclusive) and end (exclusive).
+     */
+    private static class Runs {
+        private int[] starts;
+        private int[] ends;
+        private int count;
+
+        private Runs(int capacity) {
+            starts = new int[capacity];
+            ends = new int[capacity];
+        }
+
+        private void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * count);
+                ends = Arrays.copyOf(ends, 2 * count);
+            }
+            starts[count] = start;
+            ends[count++] = end;
+        }
+
+        /**
+         * Intersects these runs with the posting list of the given entry while decoding it.
+         */
+        private Runs intersect(PathTrigramIndex index, int entry) {
+            Runs result = new Runs(Math.max(16, count));
+            PostingReader reader = index.new PostingReader(entry);
+            int i = 0;
+            boolean available = reader.next();
+            while (available && i < count) {
+                int start = Math.max(starts[i], reader.start);
+                int end = Math.min(ends[i], reader.end);
+                if (start < end) {
+                    result.add(start, end);
+                }
+                if (ends[i] < reader.end) {
+                    ++i;
+                } else {
+                    available = reader.next();
+                }
+            }
+            return result;
+        }
+
+        private int[] toRows() {
+            int rowCount = 0;
+            for (int i = 0; i < count; i++) {
+                rowCount += ends[i] - starts[i];
+            }
+            int[] rows = new int[rowCount];
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                for (int row = starts[i]; row < ends[i]; row++) {
+                    rows[pos++] = row;
+                }
+            }
+            return rows;
+        }
+    }
+
+    private class PostingReader {
+        private int[] pos = new int[1];
+        private int limit;
+        private int start;
+        private int end;
+
+        private PostingReader(int entry) {
+            pos[0] = getOffset(entry);
+            limit = pos[0] + getLength(entry);
+        }
+
+        private boolean next() {
+            if (pos[0] >= limit) {
+                return false;
+            }
+            start = end + VarIntOutput.readVarInt(buffer, pos);
+            end = start + VarIntOutput.readVarInt(buffer, pos) + 1;
+            return true;
+        }
+    }
+
+    /**
+    /**
+     * Builds the index by one pass over the rows (or blocks) in ascending order.
+     */
+    public static class Builder {
+        private long[] keys = new long[1024];
+        private int[] ids = new int[1024];
+        private int size;
+        // Per trigram id: the trigram, the encoded posting list and the current (not yet written) run.
+        private long[] idKeys = new long[512];
+        private byte[][] data = new byte[512][];
+        private int[] dataLengths = new int[512];
+        private int[] runStarts = new int[512];
+        private int[] runEnds = new int[512];
+        private int[] previousEnds = new int[512];
+        private long dataSize;
+
+        public Builder() {
+            Arrays.fill(ids, -1);
+        }
+
+        /**
+         * @param row  The row of the item (or the block of a file list containing it). Must be added in ascending
+         *             order, a row may be added several times.
+         * @param path The path of the item (items without path are ignored).
+         */
+        public void add(int row, String path) {
+            if (path == null) {
+                return;
+            }
+            path = path.toLowerCase();
+            for (int pos = 0; pos + GRAM_SIZE <= path.length(); pos++) {
+                int id = getOrCreateId(getTrigram(path, pos));
+                if (row < runEnds[id]) {
+                    continue; // Trigram already added for this row.
+                }
+                if (row == runEnds[id]) {
+                    ++runEnds[id];
+                    continue;
+                }
+                flushRun(id);
+                runStarts[id] = row;
+                runEnds[id] = row + 1;
+            }
+        }
+
+        /**
+         * @return The index (held off-heap).
+         */
+        public PathTrigramIndex build() {
+            flushRuns();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.toIntExact(dataSize + (long) size * TABLE_ENTRY_SIZE + TRAILER_SIZE));
+            try {
+                writeTo(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        buffer.put((byte) b);
+                    }
+
+                    @Override
+                    public void write(byte[] bytes, int offset, int length) {
+                        buffer.put(bytes, offset, length);
+                    }
+                });
+                buffer.flip();
+                return read(buffer);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        /**
+         * Writes the index in the layout read by {@link PathTrigramIndex#read(ByteBuffer)}.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            flushRuns();
+            long[] sortedKeys = Arrays.copyOf(idKeys, size);
+            Arrays.sort(sortedKeys);
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ids[findSlot(sortedKeys[i])];
+            }
+            DataOutputStream dataOut = new DataOutputStream(out);
+            for (int id : order) {
+                dataOut.write(data[id], 0, dataLengths[id]);
+            }
+            int offset = 0;
+            for (int id : order) {
+                dataOut.writeChar((int) (idKeys[id] >>> 32));
+                dataOut.writeChar((int) (idKeys[id] >>> 16));
+                dataOut.writeChar((int) idKeys[id]);
+                dataOut.writeInt(offset);
+                offset += dataLengths[id];
+            }
+            dataOut.writeInt(size);
+            dataOut.writeInt(offset);
+            dataOut.writeByte(VERSION);
+            dataOut.flush();
+        }
+
+        private void flushRuns() {
+            for (int id = 0; id < size; id++) {
+                flushRun(id);
+                runStarts[id] = runEnds[id] = previousEnds[id];
+            }
+        }
+
+        private int findSlot(long trigram) {
+            int mask = keys.length - 1;
+            int slot = hash(trigram) & mask;
+            while (ids[slot] >= 0 && keys[slot] != trigram) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private int getOrCreateId(long trigram) {
+            int slot = findSlot(trigram);
+            if (ids[slot] >= 0) {
+                return ids[slot];
+            }
+            int id = size++;
+            keys[slot] = trigram;
+            ids[slot] = id;
+            if (id == data.length) {
+                int newCapacity = 2 * id;
+                idKeys = Arrays.copyOf(idKeys, newCapacity);
+                data = Arrays.copyOf(data, newCapacity);
+                dataLengths = Arrays.copyOf(dataLengths, newCapacity);
+                runStarts = Arrays.copyOf(runStarts, newCapacity);
+                runEnds = Arrays.copyOf(runEnds, newCapacity);
+                previousEnds = Arrays.copyOf(previousEnds, newCapacity);
+            }
+            idKeys[id] = trigram;
+            data[id] = new byte[8];
+            // Load factor 0.5:
+            if (2 * size > keys.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new long[2 * oldKeys.length];
+            ids = new int[2 * oldIds.length];
+            Arrays.fill(ids, -1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldIds[i] >= 0) {
+                    int slot = findSlot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+
+        private void flushRun(int id) {
+            if (runEnds[id] == runStarts[id]) {
+                return; // No run.
+            }
+            writeVarInt(id, runStarts[id] - previousEnds[id]);
+            writeVarInt(id, runEnds[id] - runStarts[id] - 1);
+            previousEnds[id] = runEnds[id];
+        }
+
+        private void writeVarInt(int id, int value) {
+            byte[] bytes = data[id];
+            if (dataLengths[id] + 5 > bytes.length) {
+                bytes = data[id] = Arrays.copyOf(bytes, 2 * bytes.length);
+            }
+            int length = dataLengths[id];
+            while ((value & ~0x7F) != 0) {
+                bytes[dataLengths[id]++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[dataLengths[id]++] = (byte) value;
+            dataSize += dataLengths[id] - length;
+        }
+    }
+}
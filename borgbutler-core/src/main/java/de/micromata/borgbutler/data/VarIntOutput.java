@@ -0,0 +1,70 @@
+package de.micromata.borgbutler.data;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable byte array for var ints (7 bits per byte, as written by Kryo) used by the builders of the indexes.
+ */
+class VarIntOutput {
+    private byte[] bytes;
+    private int length;
+
+    VarIntOutput(int capacity) {
+        bytes = new byte[Math.max(8, capacity)];
+    }
+
+    void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    void write(byte[] src, int offset, int len) {
+        ensureCapacity(len);
+        System.arraycopy(src, offset, bytes, length, len);
+        length += len;
+    }
+
+    void write(VarIntOutput other) {
+        write(other.bytes, 0, other.length);
+    }
+
+    int length() {
+        return length;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, length);
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes, 0, length);
+    }
+
+    /**
+     * @return The var int at the given position of the buffer (absolute, the position of the buffer isn't changed) and
+     * the position behind it (as pos[0]).
+     */
+    static int readVarInt(ByteBuffer buffer, int[] pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + count));
+        }
+    }
+}
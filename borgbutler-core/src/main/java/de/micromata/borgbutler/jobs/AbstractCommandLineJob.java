@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 
 /**
@@ -65,12 +66,7 @@ public abstract class AbstractCommandLineJob extends AbstractJob<String> {
         this.watchdog = new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
         executor.setWatchdog(watchdog);
         //  ExecuteResultHandler handler = new DefaultExecuteResultHandler();
-        PumpStreamHandler streamHandler = new PumpStreamHandler(new LogOutputStream() {
-            @Override
-            protected void processLine(String line, int level) {
-                processStdOutLine(line, level);
-            }
-        }, new LogOutputStream() {
+        PumpStreamHandler streamHandler = new PumpStreamHandler(createStdOutStream(), new LogOutputStream() {
             @Override
             protected void processLine(String line, int level) {
                 processStdErrLine(line, level);
@@ -109,6 +105,19 @@ public abstract class AbstractCommandLineJob extends AbstractJob<String> {
                 "\n    [... ***** error log abbreviated ***** ...]\n", maxlength);
     }
 
+    /**
+     * @return The stream the standard output of the process is written to. At default, the output is split into lines
+     * passed to {@link #processStdOutLine(String, int)}. Jobs may process the raw bytes instead.
+     */
+    protected OutputStream createStdOutStream() {
+        return new LogOutputStream() {
+            @Override
+            protected void processLine(String line, int level) {
+                processStdOutLine(line, level);
+            }
+        };
+    }
+
     public void processStdOutLine(String line, int level) {
         //log.info(line);
         try {
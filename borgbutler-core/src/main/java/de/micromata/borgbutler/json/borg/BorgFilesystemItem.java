@@ -1,23 +1,42 @@
 package de.micromata.borgbutler.json.borg;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import de.micromata.borgbutler.utils.DateUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.Objects;
 
+/**
+ * A file system item of an archive. Archives may contain millions of items, so the item is kept compact: the mtime is
+ * stored as epoch seconds, the mode packed as number and the values of type, user, group and flags are shared by all
+ * items (see {@link #intern()}). The JSON representation is the same as with plain string fields.
+ */
 public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesystemItem> {
     private transient static Logger log = LoggerFactory.getLogger(BorgFilesystemItem.class);
-    private static final long serialVersionUID = -5545350851640655468L;
+    private static final long serialVersionUID = 2419512412466455318L;
+
+    /**
+     * File types of the first character of the mode, the position is stored in the packed mode.
+     */
+    private static final String MODE_TYPES = "-dlbcps";
+    private static final short MODE_NULL = -1;
+    private static final short MODE_STRING = -2;
 
     public String getType() {
         return this.type;
     }
 
+    /**
+     * @return The mode in the format of <tt>ls</tt>, e. g. <tt>drwxr-xr-x</tt>.
+     */
     public String getMode() {
-        return this.mode;
+        if (mode == MODE_STRING) {
+            return modeString;
+        }
+        return mode == MODE_NULL ? null : formatMode(mode);
     }
 
     public String getUser() {
@@ -60,7 +79,22 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
         return this.flags;
     }
 
+    /**
+     * @return The mtime in format <tt>yyyy-MM-dd HH:mm:ss</tt> (or as given, if not parseable).
+     */
     public String getMtime() {
+        if (mtime == Long.MIN_VALUE) {
+            return mtimeString;
+        }
+        return DateUtils.format(mtime);
+    }
+
+    /**
+     * @return The mtime as epoch seconds (UTC) or {@link Long#MIN_VALUE}, if no mtime is given or the mtime isn't in
+     * one of the formats accepted by {@link #setMtime(String)}.
+     */
+    @JsonIgnore
+    public long getMtimeEpochSeconds() {
         return this.mtime;
     }
 
@@ -84,13 +118,26 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
         return this.differences;
     }
 
+    public Long getSubtreeFileCount() {
+        return this.subtreeFileCount;
+    }
+
+    public Long getSubtreeSize() {
+        return this.subtreeSize;
+    }
+
     public BorgFilesystemItem setType(String type) {
         this.type = type;
         return this;
     }
 
+    /**
+     * @param mode The mode in the format of <tt>ls</tt>, e. g. <tt>drwxr-xr-x</tt>. Modes of other formats are stored
+     *             as given.
+     */
     public BorgFilesystemItem setMode(String mode) {
-        this.mode = mode;
+        this.mode = mode == null ? MODE_NULL : packMode(mode);
+        this.modeString = this.mode == MODE_STRING ? mode : null;
         return this;
     }
 
@@ -104,6 +151,16 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
         return this;
     }
 
+    public BorgFilesystemItem setGroup(String group) {
+        this.group = group;
+        return this;
+    }
+
+    public BorgFilesystemItem setGid(long gid) {
+        this.gid = gid;
+        return this;
+    }
+
     public BorgFilesystemItem setPath(String path) {
         this.path = path;
         return this;
@@ -114,8 +171,60 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
         return this;
     }
 
+    public BorgFilesystemItem setHealthy(boolean healthy) {
+        this.healthy = healthy;
+        return this;
+    }
+
+    public BorgFilesystemItem setSource(String source) {
+        this.source = source;
+        return this;
+    }
+
+    public BorgFilesystemItem setLinktarget(String linktarget) {
+        this.linktarget = linktarget;
+        return this;
+    }
+
+    public BorgFilesystemItem setFlags(String flags) {
+        this.flags = flags;
+        return this;
+    }
+
+    /**
+     * @param mtime In format <tt>yyyy-MM-dd HH:mm:ss</tt> or in Borg's format <tt>yyyy-MM-ddTHH:mm:ss.SSSSSS</tt>
+     *              (normalized to the first one, fractions of seconds are ignored). Other formats are stored as given.
+     */
     public BorgFilesystemItem setMtime(String mtime) {
-        this.mtime = mtime;
+        long epochSeconds = toMtimeEpochSeconds(mtime);
+        if (epochSeconds != Long.MIN_VALUE) {
+            this.mtime = epochSeconds;
+            this.mtimeString = null;
+        } else {
+            this.mtime = Long.MIN_VALUE;
+            this.mtimeString = mtime;
+        }
+        return this;
+    }
+
+    /**
+     * @param mtime The mtime in one of the formats accepted by {@link #setMtime(String)}.
+     * @return The epoch seconds or {@link Long#MIN_VALUE}, if the mtime has to be stored as given.
+     */
+    static long toMtimeEpochSeconds(CharSequence mtime) {
+        long epochSeconds = DateUtils.toEpochSeconds(mtime);
+        if (epochSeconds != Long.MIN_VALUE && (mtime.length() == 19 || mtime.charAt(10) == 'T')) {
+            return epochSeconds;
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * @param epochSeconds The mtime as epoch seconds (UTC) or {@link Long#MIN_VALUE} for no mtime.
+     */
+    public BorgFilesystemItem setMtimeEpochSeconds(long epochSeconds) {
+        this.mtime = epochSeconds;
+        this.mtimeString = null;
         return this;
     }
 
@@ -139,6 +248,16 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
         return this;
     }
 
+    /**
+     * @param fileCount Number of files of the directory including all sub directories.
+     * @param size      Total size of these files.
+     */
+    public BorgFilesystemItem setSubtreeTotals(long fileCount, long size) {
+        this.subtreeFileCount = fileCount;
+        this.subtreeSize = size;
+        return this;
+    }
+
     /**
      * If running in diff mode, this flag specifies the type of difference. Null represents unmodified.
      */
@@ -149,9 +268,12 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
      */
     private String type;
     /**
-     * Unix mode, e. g. <tt>drwxr-xr-x</tt>
+     * Unix mode, e. g. <tt>drwxr-xr-x</tt>, packed: index of the file type in {@link #MODE_TYPES} (bits 12-14),
+     * setuid, setgid and sticky bit (bits 9-11) and the permissions (bits 0-8). {@link #MODE_NULL} represents no mode,
+     * {@link #MODE_STRING} a mode of another format (stored in {@link #modeString}).
      */
-    private String mode;
+    private short mode = MODE_NULL;
+    private String modeString;
     private String user;
     private String group;
     private long uid;
@@ -162,7 +284,11 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
     private String source;
     private String linktarget;
     private String flags;
-    private String mtime;
+    /**
+     * Epoch seconds (UTC) or {@link Long#MIN_VALUE}, if not given or not parseable (stored in {@link #mtimeString}).
+     */
+    private long mtime = Long.MIN_VALUE;
+    private String mtimeString;
     private long size;
     /**
      * Represents the number of the file in the archive (for downloading). This field is created and only known by BorgButler.
@@ -182,6 +308,12 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
      * This String may used for displaying.
      */
     private String differences;
+    /**
+     * Only for directories displayed in the tree view (see {@link de.micromata.borgbutler.data.DirectoryIndex}): number
+     * of files and their total size of the whole sub tree ("du").
+     */
+    private Long subtreeFileCount;
+    private Long subtreeSize;
 
     @Override
     public int compareTo(BorgFilesystemItem o) {
@@ -209,34 +341,102 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
             return false;
         }
         BorgFilesystemItem rhs = (BorgFilesystemItem) obj;
-        return new EqualsBuilder()
-                .append(path, rhs.path)
-                .append(type, rhs.type)
-                .append(mode, rhs.mode)
-                .append(user, rhs.user)
-                .append(group, rhs.group)
-                .append(uid, rhs.uid)
-                .append(gid, rhs.gid)
-                .append(mtime, rhs.mtime)
-                .append(size, rhs.size)
-                .append(flags, rhs.flags)
-                .isEquals();
+        // Primitives first, the strings of type, user, group and flags are mostly interned (compared by identity).
+        return size == rhs.size
+                && mtime == rhs.mtime
+                && mode == rhs.mode
+                && uid == rhs.uid
+                && gid == rhs.gid
+                && Objects.equals(path, rhs.path)
+                && Objects.equals(type, rhs.type)
+                && Objects.equals(modeString, rhs.modeString)
+                && Objects.equals(user, rhs.user)
+                && Objects.equals(group, rhs.group)
+                && Objects.equals(mtimeString, rhs.mtimeString)
+                && Objects.equals(flags, rhs.flags);
     }
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder()
-                .append(path)
-                .append(type)
-                .append(mode)
-                .append(user)
-                .append(group)
-                .append(uid)
-                .append(gid)
-                .append(mtime)
-                .append(size)
-                .append(flags)
-                .toHashCode();
+        int result = Objects.hashCode(path);
+        result = 31 * result + Objects.hashCode(type);
+        result = 31 * result + mode;
+        result = 31 * result + Objects.hashCode(modeString);
+        result = 31 * result + Objects.hashCode(user);
+        result = 31 * result + Objects.hashCode(group);
+        result = 31 * result + Long.hashCode(uid);
+        result = 31 * result + Long.hashCode(gid);
+        result = 31 * result + Long.hashCode(mtime);
+        result = 31 * result + Objects.hashCode(mtimeString);
+        result = 31 * result + Long.hashCode(size);
+        result = 31 * result + Objects.hashCode(flags);
+        return result;
+    }
+
+    /**
+     * Interns the values of type, user, group and flags. They have only a few distinct values, so they're shared by all
+     * items instead of holding own copies per item (e. g. parsed from Borg's output).
+     *
+     * @return this for chaining.
+     */
+    public BorgFilesystemItem intern() {
+        type = intern(type);
+        user = intern(user);
+        group = intern(group);
+        flags = intern(flags);
+        return this;
+    }
+
+    private static String intern(String str) {
+        return str != null ? str.intern() : null;
+    }
+
+    /**
+     * @return The packed mode or {@link #MODE_STRING}, if the given mode isn't in the format of <tt>ls</tt>.
+     */
+    private static short packMode(String mode) {
+        int type = mode.length() == 10 ? MODE_TYPES.indexOf(mode.charAt(0)) : -1;
+        if (type < 0) {
+            return MODE_STRING;
+        }
+        int bits = type << 12;
+        for (int i = 0; i < 9; i++) {
+            char ch = mode.charAt(i + 1);
+            int bit = 1 << (8 - i);
+            if (ch == "rwx".charAt(i % 3)) {
+                bits |= bit;
+            } else if (ch != '-') {
+                if (i % 3 != 2) {
+                    return MODE_STRING;
+                }
+                // Execute flag combined with setuid, setgid (s/S) or sticky bit (t/T):
+                char special = i == 8 ? 't' : 's';
+                int specialBit = 1 << (11 - i / 3);
+                if (ch == special) {
+                    bits |= bit | specialBit;
+                } else if (ch == Character.toUpperCase(special)) {
+                    bits |= specialBit;
+                } else {
+                    return MODE_STRING;
+                }
+            }
+        }
+        return (short) bits;
+    }
+
+    private static String formatMode(short mode) {
+        char[] chars = new char[10];
+        chars[0] = MODE_TYPES.charAt(mode >> 12);
+        for (int i = 0; i < 9; i++) {
+            boolean set = (mode & (1 << (8 - i))) != 0;
+            if (i % 3 == 2 && (mode & (1 << (11 - i / 3))) != 0) {
+                char special = i == 8 ? 't' : 's';
+                chars[i + 1] = set ? special : Character.toUpperCase(special);
+            } else {
+                chars[i + 1] = set ? "rwx".charAt(i % 3) : '-';
+            }
+        }
+        return new String(chars);
     }
 
     /**
@@ -298,6 +498,7 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
         BorgFilesystemItem clone = new BorgFilesystemItem();
         clone.type = this.type;
         clone.mode = this.mode;
+        clone.modeString = this.modeString;
         clone.user = this.user;
         clone.group = this.group;
         clone.uid = this.uid;
@@ -309,11 +510,14 @@ public class BorgFilesystemItem implements Serializable, Comparable<BorgFilesyst
         clone.linktarget = this.linktarget;
         clone.flags = this.flags;
         clone.mtime = this.mtime;
+        clone.mtimeString = this.mtimeString;
         clone.size = this.size;
         clone.fileNumber = this.fileNumber;
         clone.diffStatus = this.diffStatus;
         clone.diffItem = this.diffItem;
         clone.differences = this.differences;
+        clone.subtreeFileCount = this.subtreeFileCount;
+        clone.subtreeSize = this.subtreeSize;
         return clone;
     }
 }
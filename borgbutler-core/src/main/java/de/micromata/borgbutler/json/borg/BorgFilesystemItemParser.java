@@ -0,0 +1,154 @@
+package de.micromata.borgbutler.json.borg;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Parses the lines of <tt>borg list --json-lines</tt> with Jackson's streaming API, so no object mapper has to be
+ * created and no bean introspection is done per line. The values of type, mode, user, group and flags are taken from
+ * a small cache of the recent values without creating a string, so the items share them (as by
+ * {@link BorgFilesystemItem#intern()}). The mtime is parsed from the chars of the parser.
+ * <br>
+ * Instances aren't thread safe (use one instance per Borg command).
+ */
+public class BorgFilesystemItemParser {
+    private static Logger log = LoggerFactory.getLogger(BorgFilesystemItemParser.class);
+    // Thread safe and recycles the buffers of the parsers:
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ValueCache types = new ValueCache();
+    private ValueCache modes = new ValueCache();
+    private ValueCache users = new ValueCache();
+    private ValueCache groups = new ValueCache();
+    private ValueCache flags = new ValueCache();
+
+    /**
+     * @param line A line of Borg's output (one JSON object per line). Unknown fields are ignored.
+     * @return The item or null, if the line isn't parseable.
+     */
+    public BorgFilesystemItem parse(String line) {
+        try (JsonParser parser = JSON_FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                log.error("JSON object expected: '" + line + "'.");
+                return null;
+            }
+            BorgFilesystemItem item = new BorgFilesystemItem();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                switch (field) {
+                    case "type":
+                        item.setType(types.get(parser));
+                        break;
+                    case "mode":
+                        item.setMode(modes.get(parser));
+                        break;
+                    case "user":
+                        item.setUser(users.get(parser));
+                        break;
+                    case "group":
+                        item.setGroup(groups.get(parser));
+                        break;
+                    case "flags":
+                        item.setFlags(flags.get(parser));
+                        break;
+                    case "uid":
+                        item.setUid(parser.getValueAsLong());
+                        break;
+                    case "gid":
+                        item.setGid(parser.getValueAsLong());
+                        break;
+                    case "size":
+                        item.setSize(parser.getValueAsLong());
+                        break;
+                    case "healthy":
+                        item.setHealthy(parser.getValueAsBoolean());
+                        break;
+                    case "path":
+                        item.setPath(parser.getValueAsString());
+                        break;
+                    case "source":
+                        item.setSource(parser.getValueAsString());
+                        break;
+                    case "linktarget":
+                        item.setLinktarget(parser.getValueAsString());
+                        break;
+                    case "mtime":
+                        setMtime(item, parser);
+                        break;
+                    default:
+                        // Unknown field.
+                }
+            }
+            return item;
+        } catch (IOException ex) {
+            log.error("Can't parse line '" + line + "': " + ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    private static void setMtime(BorgFilesystemItem item, JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            item.setMtime(parser.getValueAsString());
+            return;
+        }
+        long epochSeconds = BorgFilesystemItem.toMtimeEpochSeconds(CharBuffer.wrap(parser.getTextCharacters(),
+                parser.getTextOffset(), parser.getTextLength()));
+        if (epochSeconds != Long.MIN_VALUE) {
+            item.setMtimeEpochSeconds(epochSeconds);
+        } else {
+            // Stored as given:
+            item.setMtime(parser.getText());
+        }
+    }
+
+    /**
+     * The recent distinct values of a field with only a few distinct values (e. g. user). A cached value is compared
+     * with the chars of the parser, so only new values are created as string.
+     */
+    private static class ValueCache {
+        private static final int SIZE = 16;
+        private String[] values = new String[SIZE];
+        private int next;
+
+        private String get(JsonParser parser) throws IOException {
+            if (parser.currentToken() != JsonToken.VALUE_STRING) {
+                return parser.getValueAsString();
+            }
+            char[] chars = parser.getTextCharacters();
+            int offset = parser.getTextOffset();
+            int length = parser.getTextLength();
+            for (String value : values) {
+                if (value != null && equals(value, chars, offset, length)) {
+                    return value;
+                }
+            }
+            String value = new String(chars, offset, length).intern();
+            values[next] = value;
+            next = (next + 1) % SIZE;
+            return value;
+        }
+
+        private static boolean equals(String value, char[] chars, int offset, int length) {
+            if (value.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) != chars[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
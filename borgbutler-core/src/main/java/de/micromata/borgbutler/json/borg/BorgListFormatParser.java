@@ -0,0 +1,248 @@
+package de.micromata.borgbutler.json.borg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Parses the output of <tt>borg list --format {@value #FORMAT}</tt> byte by byte (used as output stream of the Borg
+ * process), so neither lines nor JSON have to be parsed. Every field is terminated by a NUL byte (the only byte not
+ * allowed in paths), so paths containing tabs or line breaks are read as given. The values of type, mode, user, group
+ * and flags are taken from a small cache of the recent values without creating a string (as by
+ * {@link BorgFilesystemItemParser}).
+ * <br>
+ * Instances aren't thread safe (use one instance per Borg command).
+ */
+public class BorgListFormatParser extends OutputStream {
+    private static Logger log = LoggerFactory.getLogger(BorgListFormatParser.class);
+
+    /**
+     * The fields needed by {@link BorgFilesystemItem} (source is the same as linktarget).
+     */
+    public static final String FORMAT = "{type}{NUL}{mode}{NUL}{user}{NUL}{group}{NUL}{uid}{NUL}{gid}{NUL}{size}{NUL}"
+            + "{isomtime}{NUL}{health}{NUL}{flags}{NUL}{path}{NUL}{linktarget}{NUL}";
+    private static final int TYPE = 0, MODE = 1, USER = 2, GROUP = 3, UID = 4, GID = 5, SIZE = 6, MTIME = 7, HEALTH = 8,
+            FLAGS = 9, PATH = 10, LINKTARGET = 11, NUMBER_OF_FIELDS = 12;
+    private static final byte[] HEALTHY = "healthy".getBytes(StandardCharsets.US_ASCII);
+    // Python's representation of no value:
+    private static final byte[] NONE = "None".getBytes(StandardCharsets.US_ASCII);
+
+    private Consumer<BorgFilesystemItem> consumer;
+    private byte[] buffer = new byte[1024];
+    private int length;
+    private int field;
+    private BorgFilesystemItem item = new BorgFilesystemItem();
+    private int itemCount;
+    private ValueCache types = new ValueCache();
+    private ValueCache modes = new ValueCache();
+    private ValueCache users = new ValueCache();
+    private ValueCache groups = new ValueCache();
+    private ValueCache flags = new ValueCache();
+    private AsciiChars mtimeChars = new AsciiChars();
+
+    /**
+     * @param consumer Called for every item (by the thread writing Borg's output).
+     */
+    public BorgListFormatParser(Consumer<BorgFilesystemItem> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void write(int b) {
+        if (b == 0) {
+            processField();
+            return;
+        }
+        if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * length);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int len) {
+        int end = offset + len;
+        while (offset < end) {
+            int pos = offset;
+            while (pos < end && bytes[pos] != 0) {
+                ++pos;
+            }
+            int count = pos - offset;
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + count));
+            }
+            System.arraycopy(bytes, offset, buffer, length, count);
+            length += count;
+            if (pos < end) {
+                processField();
+                ++pos; // Skip the NUL byte.
+            }
+            offset = pos;
+        }
+    }
+
+    /**
+     * @return The number of items passed to the consumer.
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * @return true, if the output ended after a complete item (no partial item left).
+     */
+    public boolean isComplete() {
+        return field == 0 && length == 0;
+    }
+
+    private void processField() {
+        switch (field) {
+            case TYPE:
+                item.setType(types.get(buffer, length));
+                break;
+            case MODE:
+                item.setMode(modes.get(buffer, length));
+                break;
+            case USER:
+                item.setUser(getValue(users));
+                break;
+            case GROUP:
+                item.setGroup(getValue(groups));
+                break;
+            case UID:
+                item.setUid(parseLong());
+                break;
+            case GID:
+                item.setGid(parseLong());
+                break;
+            case SIZE:
+                item.setSize(parseLong());
+                break;
+            case MTIME:
+                long epochSeconds = BorgFilesystemItem.toMtimeEpochSeconds(mtimeChars.set(buffer, length));
+                if (epochSeconds != Long.MIN_VALUE) {
+                    item.setMtimeEpochSeconds(epochSeconds);
+                } else {
+                    item.setMtime(length > 0 ? toString(buffer, length) : null);
+                }
+                break;
+            case HEALTH:
+                item.setHealthy(equals(HEALTHY, buffer, length));
+                break;
+            case FLAGS:
+                item.setFlags(length == 0 ? null : getValue(flags));
+                break;
+            case PATH:
+                item.setPath(toString(buffer, length));
+                break;
+            case LINKTARGET:
+                String linktarget = toString(buffer, length);
+                item.setLinktarget(linktarget).setSource(linktarget);
+                break;
+        }
+        length = 0;
+        if (++field == NUMBER_OF_FIELDS) {
+            field = 0;
+            ++itemCount;
+            consumer.accept(item);
+            item = new BorgFilesystemItem();
+        }
+    }
+
+    /**
+     * @return The value of the current field or null for None.
+     */
+    private String getValue(ValueCache cache) {
+        return equals(NONE, buffer, length) ? null : cache.get(buffer, length);
+    }
+
+    private long parseLong() {
+        long value = 0;
+        boolean negative = length > 0 && buffer[0] == '-';
+        for (int i = negative ? 1 : 0; i < length; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                log.warn("Number expected in field #" + field + " of item #" + itemCount + ": '" + toString(buffer, length) + "'.");
+                return 0;
+            }
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static String toString(byte[] bytes, int length) {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean equals(byte[] value, byte[] bytes, int length) {
+        if (value.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The recent distinct values of a field with only a few distinct values (e. g. user), compared by their bytes.
+     */
+    private static class ValueCache {
+        private static final int SIZE = 16;
+        private byte[][] keys = new byte[SIZE][];
+        private String[] values = new String[SIZE];
+        private int next;
+
+        private String get(byte[] bytes, int length) {
+            for (int i = 0; i < SIZE; i++) {
+                if (keys[i] != null && BorgListFormatParser.equals(keys[i], bytes, length)) {
+                    return values[i];
+                }
+            }
+            keys[next] = Arrays.copyOf(bytes, length);
+            String value = values[next] = BorgListFormatParser.toString(bytes, length).intern();
+            next = (next + 1) % SIZE;
+            return value;
+        }
+    }
+
+    /**
+     * Reusable view of ASCII bytes as chars (for parsing the mtime without creating a string).
+     */
+    private static class AsciiChars implements CharSequence {
+        private byte[] bytes;
+        private int length;
+
+        private AsciiChars set(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
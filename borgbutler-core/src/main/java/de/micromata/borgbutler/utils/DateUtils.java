@@ -1,6 +1,8 @@
 package de.micromata.borgbutler.utils;
 
+import java.time.DateTimeException;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 
 public class DateUtils {
@@ -24,4 +26,72 @@ public class DateUtils {
     public static String format(LocalDateTime dateTime) {
         return dateTime.format(DATE_TIME_FORMATTER);
     }
+
+    /**
+     * Fast formatting without a formatter (used for millions of file system items).
+     *
+     * @param epochSeconds Date time as epoch seconds (UTC), see {@link #toEpochSeconds(String)}.
+     * @return The date time in format <tt>yyyy-MM-dd HH:mm:ss</tt>.
+     */
+    public static String format(long epochSeconds) {
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(epochSeconds, 0, ZoneOffset.UTC);
+        char[] chars = new char[19];
+        appendDigits(chars, 0, dateTime.getYear(), 4);
+        chars[4] = '-';
+        appendDigits(chars, 5, dateTime.getMonthValue(), 2);
+        chars[7] = '-';
+        appendDigits(chars, 8, dateTime.getDayOfMonth(), 2);
+        chars[10] = ' ';
+        appendDigits(chars, 11, dateTime.getHour(), 2);
+        chars[13] = ':';
+        appendDigits(chars, 14, dateTime.getMinute(), 2);
+        chars[16] = ':';
+        appendDigits(chars, 17, dateTime.getSecond(), 2);
+        return new String(chars);
+    }
+
+    /**
+     * Fast parsing without creating a formatter (used for millions of file system items).
+     *
+     * @param dateTime In format <tt>yyyy-MM-dd HH:mm:ss</tt> or in Borg's format <tt>yyyy-MM-ddTHH:mm:ss.SSSSSS</tt>
+     *                 (fractions of seconds are ignored).
+     * @return Epoch seconds (date time interpreted as UTC) or {@link Long#MIN_VALUE}, if the given string isn't in
+     * one of the expected formats.
+     */
+    public static long toEpochSeconds(CharSequence dateTime) {
+        if (dateTime == null || dateTime.length() < 19 || dateTime.charAt(4) != '-' || dateTime.charAt(7) != '-'
+                || (dateTime.charAt(10) != ' ' && dateTime.charAt(10) != 'T') || dateTime.charAt(13) != ':'
+                || dateTime.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+        int year = parseDigits(dateTime, 0, 4), month = parseDigits(dateTime, 5, 2), day = parseDigits(dateTime, 8, 2),
+                hour = parseDigits(dateTime, 11, 2), minute = parseDigits(dateTime, 14, 2), second = parseDigits(dateTime, 17, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return Long.MIN_VALUE;
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static void appendDigits(char[] chars, int offset, int value, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int parseDigits(CharSequence str, int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char ch = str.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
 }
@@ -1,6 +1,7 @@
 package de.micromata.borgbutler;
 
 import de.micromata.borgbutler.data.DiffFileSystemFilter;
+import de.micromata.borgbutler.data.FileSystemItemColumns;
 import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
 import org.junit.jupiter.api.Test;
 
@@ -30,33 +31,33 @@ public class DiffFileSystemFilterTest {
         List<BorgFilesystemItem> l2 = null;
         List<BorgFilesystemItem> result;
         DiffFileSystemFilter filter = new DiffFileSystemFilter();
-        assertEquals(0, filter.extractDifferences(l1, l2).size());
+        assertEquals(0, extractDifferences(filter, l1, l2).size());
         l1 = create();
-        result = filter.extractDifferences(l1, l2);
+        result = extractDifferences(filter, l1, l2);
         assertEquals(7, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(1).getDiffStatus());
-        result = filter.extractDifferences(l2, l1);
+        result = extractDifferences(filter, l2, l1);
         assertEquals(7, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(1).getDiffStatus());
 
         l1 = create();
         l2 = create();
-        result = filter.extractDifferences(l2, l1);
+        result = extractDifferences(filter, l2, l1);
         assertEquals(0, result.size());
         remove(l2, "etc"); // 0
         remove(l2, "etc/passwd"); // 1
         remove(l1, "home/kai/.borgbutler/borgbutler-config-bak.json"); // 2
         get(l1, "home/kai/.borgbutler/borgbutler-config.json").setSize(712).setMtime("2018-11-22"); // 3
-        result = filter.extractDifferences(l1, l2);
+        result = extractDifferences(filter, l1, l2);
         assertEquals(4, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(1).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(2).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.MODIFIED, result.get(3).getDiffStatus());
 
-        result = filter.extractDifferences(l2, l1);
+        result = extractDifferences(filter, l2, l1);
         assertEquals(4, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(1).getDiffStatus());
@@ -68,12 +69,12 @@ public class DiffFileSystemFilterTest {
         remove(l2, "etc"); // 0
         remove(l2, "etc/passwd"); // 1
         remove(l1, "home/kai/.borgbutler/borgbutler-config.json"); // 2
-        result = filter.extractDifferences(l1, l2);
+        result = extractDifferences(filter, l1, l2);
         assertEquals(3, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(1).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(2).getDiffStatus());
-        result = filter.extractDifferences(l2, l1);
+        result = extractDifferences(filter, l2, l1);
         assertEquals(3, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(1).getDiffStatus());
@@ -84,11 +85,11 @@ public class DiffFileSystemFilterTest {
         l2 = create();
         remove(l1, "home/kai/.borgbutler/borgbutler-config-bak.json");
         remove(l2, "home/kai/.borgbutler/borgbutler-config.json");
-        result = filter.extractDifferences(l1, l2);
+        result = extractDifferences(filter, l1, l2);
         assertEquals(2, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(1).getDiffStatus());
-        result = filter.extractDifferences(l2, l1);
+        result = extractDifferences(filter, l2, l1);
         assertEquals(2, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(1).getDiffStatus());
@@ -98,18 +99,36 @@ public class DiffFileSystemFilterTest {
         remove(l1, "home/kai");
         remove(l1, "home/kai/.borgbutler");
         remove(l2, "home/kai/.borgbutler/borgbutler-config-bak.json");
-        result = filter.extractDifferences(l1, l2);
+        result = extractDifferences(filter, l1, l2);
         assertEquals(3, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(1).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(2).getDiffStatus());
-        result = filter.extractDifferences(l2, l1);
+        result = extractDifferences(filter, l2, l1);
         assertEquals(3, result.size());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(0).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.NEW, result.get(1).getDiffStatus());
         assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, result.get(2).getDiffStatus());
     }
 
+    /**
+     * Extracts the differences of the lists and of their column representations and checks that both are equal.
+     */
+    private List<BorgFilesystemItem> extractDifferences(DiffFileSystemFilter filter, List<BorgFilesystemItem> l1,
+                                                        List<BorgFilesystemItem> l2) {
+        FileSystemItemColumns c1 = l1 != null ? FileSystemItemColumns.create(l1) : null;
+        FileSystemItemColumns c2 = l2 != null ? FileSystemItemColumns.create(l2) : null;
+        List<BorgFilesystemItem> result = filter.extractDifferences(l1, l2);
+        List<BorgFilesystemItem> columnsResult = filter.extractDifferences(c1, c2);
+        assertEquals(result.size(), columnsResult.size());
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals(result.get(i), columnsResult.get(i));
+            assertEquals(result.get(i).getDiffStatus(), columnsResult.get(i).getDiffStatus());
+            assertEquals(result.get(i).getDifferences(), columnsResult.get(i).getDifferences());
+        }
+        return result;
+    }
+
     private BorgFilesystemItem create(String path, boolean directory, String mode, long size, String mtime) {
         return new BorgFilesystemItem()
                 .setPath(path)
@@ -1,21 +1,34 @@
 package de.micromata.borgbutler.cache;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
 import de.micromata.borgbutler.config.BorgRepoConfig;
 import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.ArchiveStatistics;
+import de.micromata.borgbutler.data.DirectoryIndex;
+import de.micromata.borgbutler.data.FileSystemFilter;
+import de.micromata.borgbutler.data.FileSystemItemColumns;
+import de.micromata.borgbutler.data.Repository;
 import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import de.micromata.borgbutler.utils.ReplaceUtils;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -61,9 +74,869 @@ public class ArchiveFilelistCacheTest {
     }
 
     @Test
-    void cleanUpMaximumSizeTest() throws Exception {
+    void readFileNumberTest() throws Exception {
+        List<BorgFilesystemItem> list = createList(1000000);
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive = createArchive("2018-12-11");
+        cache.save(repoConfig, archive, list);
+        for (int fileNumber : new int[]{0, 4095, 4096, 500000, 999999}) {
+            List<BorgFilesystemItem> items = cache.load(repoConfig, archive, new FileSystemFilter().setFileNumber(fileNumber));
+            assertEquals(1, items.size());
+            assertEquals(fileNumber, items.get(0).getFileNumber());
+            assertEquals(list.get(fileNumber).getPath(), items.get(0).getPath());
+        }
+        assertEquals(0, cache.load(repoConfig, archive, new FileSystemFilter().setFileNumber(1000000)).size());
+        for (int fileNumber = 4096; fileNumber < 2 * 4096; fileNumber++) {
+            // All items of a block (read via item offset table):
+            BorgFilesystemItem item = cache.loadItem(repoConfig, archive, fileNumber);
+            assertEquals(fileNumber, item.getFileNumber());
+            assertEquals(list.get(fileNumber).getPath(), item.getPath());
+        }
+        assertNull(cache.loadItem(repoConfig, archive, -1));
+        assertNull(cache.loadItem(repoConfig, archive, 1000000));
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void treeModeTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive = createArchive("2018-12-13");
+        cache.save(repoConfig, archive, list);
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(cache.getFile(repoConfig, archive))) {
+            assertTrue(reader.getBlockCount() > 20);
+            int[] range = reader.getBlockRange("home/user42/");
+            assertTrue(range[1] - range[0] <= 2, "Only the blocks of the directory should be read.");
+            assertEquals(0, reader.getBlockRange("")[0]);
+            assertEquals(reader.getBlockCount(), reader.getBlockRange("")[1]);
+        }
+        for (String dir : new String[]{"home/user42", "home/User7", "home/user99", "home", "opt", "zzz", "home/user4"}) {
+            FileSystemFilter filter = new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory(dir);
+            List<BorgFilesystemItem> items = cache.load(repoConfig, archive, filter);
+            FileSystemFilter expectedFilter = new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory(dir);
+            List<BorgFilesystemItem> expected = new ArrayList<>();
+            for (BorgFilesystemItem item : list) {
+                if (expectedFilter.matches(item)) {
+                    expected.add(item);
+                }
+            }
+            expected = expectedFilter.reduce(expected);
+            assertEquals(expected.size(), items.size(), "Directory: " + dir);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getPath(), items.get(i).getPath());
+            }
+            // Looked up in the directory index of the file:
+            items = cache.loadDirectory(repoConfig, archive, new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE)
+                    .setCurrentDirectory(dir));
+            assertEquals(expected.size(), items.size(), "Directory: " + dir);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getPath(), items.get(i).getPath());
+                assertEquals(expected.get(i).getDisplayPath(), items.get(i).getDisplayPath());
+                assertEquals(expected.get(i).getFileNumber(), items.get(i).getFileNumber());
+            }
+        }
+        DirectoryIndex index = cache.loadDirectoryIndex(repoConfig, archive);
+        assertEquals(499500, index.getTotalSize("home/user42"));
+        assertEquals(100001, index.getFileCount(""));
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void readLegacyFormatTest() throws Exception {
         List<BorgFilesystemItem> list = createList(1000000);
-        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 5);
+        Collections.sort(list);
+        File dir = new File("out");
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(dir, 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive = createArchive("2018-12-12");
+        File legacyFile = new File(dir, ReplaceUtils.encodeFilename("archive-content-" + archive.getTime()
+                + "-" + repoConfig.getRepo() + "-" + archive.getName() + ".gz", true));
+        Kryo kryo = ArchiveFilelistFormat.createKryo();
+        try (Output outputStream = new Output(new GzipCompressorOutputStream(new FileOutputStream(legacyFile)))) {
+            kryo.writeObject(outputStream, ArchiveFilelistFormat.LEGACY_SERIALIZATION_ID_STRING);
+            kryo.writeObject(outputStream, list.size());
+            for (BorgFilesystemItem item : list) {
+                kryo.writeObject(outputStream, KryoFilesystemItem.of(item));
+            }
+        }
+        assertFalse(ArchiveFilelistFormat.isFilelistFormat(legacyFile));
+        List<BorgFilesystemItem> filesystemItems = cache.load(repoConfig, archive);
+        assertEquals(list.size(), filesystemItems.size());
+        assertEquals(list.get(4711).getPath(), filesystemItems.get(4711).getPath());
+        cache.save(repoConfig, archive, filesystemItems);
+        assertFalse(legacyFile.exists());
+        assertTrue(ArchiveFilelistFormat.isFilelistFormat(cache.getFile(repoConfig, archive)));
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void compactEncodingTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        for (int i = 0; i < list.size(); i++) {
+            BorgFilesystemItem item = list.get(i);
+            item.setMode(i % 3 == 0 ? null : (i % 3 == 1 ? "-rw-r--r--" : "drwxr-xr-x")).setUser("kai").setGroup("staff")
+                    .setUid(i % 7 == 0 ? -1 : 501).setGid(20).setHealthy(i % 2 == 0)
+                    .setMtime(i % 11 == 0 ? "2018-11-22" : "2018-11-" + (10 + i % 20) + " 12:34:" + (10 + i % 50))
+                    .setSource(i % 5 == 0 ? "" : null).setLinktarget(i % 13 == 0 ? "../link" + i : null).setFlags(i % 17 == 0 ? "x" : null);
+        }
+        File dir = new File("out");
+        File kryoFile = new File(dir, "archive-content-kryo.filelist");
+        File compactFile = new File(dir, "archive-content-compact.filelist");
+        for (File file : new File[]{kryoFile, compactFile}) {
+            byte encoding = file == kryoFile ? ArchiveFilelistFormat.ENCODING_KRYO : ArchiveFilelistFormat.ENCODING_COMPACT;
+            try (ArchiveFilelistWriter writer = new ArchiveFilelistWriter(file, "repo", null, ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE,
+                    encoding, ArchiveFilelistFormat.DEFAULT_CODEC)) {
+                for (BorgFilesystemItem item : list) {
+                    writer.add(item);
+                }
+            }
+            try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+                int fileNumber = 0;
+                for (int block = 0; block < reader.getBlockCount(); block++) {
+                    for (BorgFilesystemItem item : reader.readBlock(block)) {
+                        assertItem(list.get(fileNumber), item);
+                        assertEquals(fileNumber++, item.getFileNumber());
+                    }
+                }
+                assertEquals(list.size(), fileNumber);
+                for (int number : new int[]{0, 1, 15, 16, 17, 4095, 4096, 4111, 50000, list.size() - 1}) {
+                    assertItem(list.get(number), reader.readItem(number));
+                    assertEquals(number, reader.readItem(number).getFileNumber());
+                }
+            }
+        }
+        log.info("Size of file list: " + kryoFile.length() + " bytes (Kryo), " + compactFile.length() + " bytes (compact).");
+        assertTrue(compactFile.length() < kryoFile.length());
+        kryoFile.delete();
+        compactFile.delete();
+    }
+
+    @Test
+    void codecTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        File file = new File("out", "archive-content-codec.filelist");
+        for (ArchiveFilelistCodec codec : ArchiveFilelistCodec.values()) {
+            try (ArchiveFilelistWriter writer = new ArchiveFilelistWriter(file, "repo", null, ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE,
+                    ArchiveFilelistFormat.ENCODING_COMPACT, codec)) {
+                for (BorgFilesystemItem item : list) {
+                    writer.add(item);
+                }
+            }
+            log.info("Size of file list (" + codec + "): " + file.length() + " bytes.");
+            try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+                int fileNumber = 0;
+                try (ArchiveFilelistReader.BlockIterator it = reader.readBlocks(0, reader.getBlockCount())) {
+                    while (it.hasNext()) {
+                        for (BorgFilesystemItem item : it.next()) {
+                            assertEquals(list.get(fileNumber).getPath(), item.getPath(), "Codec: " + codec);
+                            assertEquals(fileNumber++, item.getFileNumber());
+                        }
+                    }
+                }
+                assertEquals(list.size(), fileNumber);
+                try (ArchiveFilelistReader.BlockIterator it = reader.readBlocks(3, 5)) {
+                    assertEquals(list.get(3 * 4096).getPath(), it.next().get(0).getPath());
+                    // Closing before all blocks are read.
+                }
+                assertEquals(list.get(50001).getPath(), reader.readItem(50001).getPath());
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    void pathDictionaryTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        File dir = new File("out");
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(dir, 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive1 = createArchive("2018-12-14");
+        cache.save(repoConfig, archive1, list);
+        List<BorgFilesystemItem> list2 = new ArrayList<>();
+        for (BorgFilesystemItem item : list) {
+            list2.add(item.clone().setSize(item.getSize() + 1));
+        }
+        list2.add(new BorgFilesystemItem().setPath("home/user42/new-file.txt").setType("-"));
+        Archive archive2 = createArchive("2018-12-15");
+        cache.save(repoConfig, archive2, list2);
+        File pathDictionaryFile = RepoPathDictionary.getFile(dir, "repo");
+        assertEquals(list.size() + 1, RepoPathDictionary.getInstance(pathDictionaryFile).getSize());
+
+        List<BorgFilesystemItem> items1 = cache.load(repoConfig, archive1);
+        List<BorgFilesystemItem> items2 = cache.load(repoConfig, archive2);
+        assertEquals(list.size(), items1.size());
+        assertEquals(list.size() + 1, items2.size());
+        assertSame(items1.get(4711).getPath(), items2.get(4711).getPath(), "Paths should be shared.");
+        assertEquals(list.get(4711).getPath(), items1.get(4711).getPath());
+        assertEquals(list.get(4711).getSize() + 1, items2.get(4711).getSize());
+        assertEquals(list.get(4711).getPath(), cache.loadItem(repoConfig, archive2, 4711).getPath());
+
+        // Reading the dictionary from disk (other directory, other instance):
+        File copyDir = new File(dir, "copy");
+        copyDir.mkdirs();
+        File copyFile = new File(copyDir, cache.getFile(repoConfig, archive2).getName());
+        Files.copy(cache.getFile(repoConfig, archive2).toPath(), copyFile.toPath());
+        Files.copy(pathDictionaryFile.toPath(), RepoPathDictionary.getFile(copyDir, "repo").toPath());
+        ArchiveFilelistCache copyCache = new ArchiveFilelistCache(copyDir, 100);
+        List<BorgFilesystemItem> copyItems = copyCache.load(copyFile, null);
+        assertEquals(items2.size(), copyItems.size());
+        for (int i = 0; i < items2.size(); i++) {
+            assertEquals(items2.get(i), copyItems.get(i));
+        }
+        copyCache.removeAllCacheFiles();
+        copyDir.delete();
+
+        // A new dictionary doesn't match the file lists:
+        File lockFile = new File(pathDictionaryFile.getPath() + CacheFileLock.LOCK_FILE_EXTENSION);
+        assertTrue(lockFile.exists());
+        RepoPathDictionary.delete(pathDictionaryFile);
+        assertFalse(lockFile.exists(), "Lock file should be deleted with the dictionary.");
+        assertNull(cache.load(repoConfig, archive1));
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void pathDictionaryCompactionTest() throws Exception {
+        File dir = new File("out");
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(dir, 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        long millis = System.currentTimeMillis();
+        Archive archive1 = createArchive("2018-12-14");
+        List<BorgFilesystemItem> list1 = createRandomList(300000, 1);
+        Collections.sort(list1);
+        cache.save(repoConfig, archive1, list1);
+        Archive archive2 = createArchive("2018-12-15");
+        List<BorgFilesystemItem> list2 = createRandomList(100000, 2);
+        Collections.sort(list2);
+        cache.save(repoConfig, archive2, list2);
+        File pathDictionaryFile = RepoPathDictionary.getFile(dir, "repo");
+        RepoPathDictionary dictionary = RepoPathDictionary.getInstance(pathDictionaryFile);
+        assertEquals(400000, dictionary.getSize());
+        long dictionaryId = dictionary.getDictionaryId();
+        long size = pathDictionaryFile.length();
+
+        // All paths are referenced: only the result of the check is stored.
+        assertTrue(dictionary.isCheckDue(2));
+        cache.cleanUp();
+        assertFalse(dictionary.isCheckDue(2));
+        assertEquals(dictionaryId, dictionary.getDictionaryId());
+
+        // 300,000 of 400,000 paths aren't referenced anymore:
+        cache.getManifest().registerAccess(cache.getFile(repoConfig, archive1).getName(), millis - 8 * 24 * 3600000);
+        cache.cleanUp();
+        assertFalse(cache.getFile(repoConfig, archive1).exists());
+        assertNotEquals(dictionaryId, dictionary.getDictionaryId());
+        assertEquals(400000, dictionary.getSize(), "Ids are kept.");
+        assertTrue(pathDictionaryFile.length() < size / 2);
+        assertFalse(dictionary.isCheckDue(1));
+        long fileId2;
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(cache.getFile(repoConfig, archive2))) {
+            fileId2 = reader.getFileId();
+        }
+        assertTrue(dictionary.matches(dictionaryId, fileId2));
+        assertFalse(dictionary.matches(dictionaryId, fileId2 + 1), "Written meanwhile, may refer removed paths.");
+        assertListEquals(list2, cache.load(repoConfig, archive2));
+
+        // Removed paths are added again (with new ids):
+        cache.save(repoConfig, archive1, list1);
+        assertEquals(700000, dictionary.getSize());
+        assertListEquals(list1, cache.load(repoConfig, archive1));
+        assertListEquals(list2, cache.load(repoConfig, archive2));
+        assertTrue(dictionary.isCheckDue(2));
+
+        // Reading the compacted dictionary from disk (other directory, other instance):
+        File copyDir = new File(dir, "copy");
+        copyDir.mkdirs();
+        File copyFile = new File(copyDir, cache.getFile(repoConfig, archive2).getName());
+        Files.copy(cache.getFile(repoConfig, archive2).toPath(), copyFile.toPath());
+        Files.copy(pathDictionaryFile.toPath(), RepoPathDictionary.getFile(copyDir, "repo").toPath());
+        ArchiveFilelistCache copyCache = new ArchiveFilelistCache(copyDir, 100);
+        assertListEquals(list2, copyCache.load(copyFile, null));
+        copyCache.removeAllCacheFiles();
+        copyDir.delete();
+        cache.removeAllCacheFiles();
+    }
+
+    private void assertListEquals(List<BorgFilesystemItem> expected, List<BorgFilesystemItem> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getPath(), actual.get(i).getPath());
+        }
+    }
+
+    @Test
+    void deltaTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        File dir = new File("out");
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(dir, 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive1 = createArchive("2018-12-14");
+        cache.save(repoConfig, archive1, list);
+
+        List<BorgFilesystemItem> list2 = new ArrayList<>();
+        for (BorgFilesystemItem item : list) {
+            if (item.getPath().startsWith("home/user42/")) {
+                continue; // Removed
+            }
+            list2.add(item.getPath().startsWith("home/user43/") ? item.clone().setSize(item.getSize() + 1) : item.clone());
+        }
+        list2.add(new BorgFilesystemItem().setPath("home/user7/new-file.txt").setType("-")); // Differs in case only.
+        list2.add(new BorgFilesystemItem().setPath("zzz").setType("-"));
+        Archive archive2 = createArchive("2018-12-15");
+        cache.save(repoConfig, archive2, list2);
+        File file1 = cache.getFile(repoConfig, archive1);
+        File file2 = cache.getFile(repoConfig, archive2);
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file2)) {
+            assertNotNull(reader.getDeltaInfo());
+            assertEquals(file1.getName(), reader.getDeltaInfo().getBaseFileName());
+            assertEquals(1002, reader.getItemCount());
+            assertEquals(1000, reader.readRemovedPaths().size());
+        }
+        assertTrue(file2.length() < file1.length() / 10);
+        for (int i = 0; i < list2.size(); i++) {
+            assertEquals(i, list2.get(i).getFileNumber(), "File numbers of the saved list should be positions.");
+        }
+
+        List<BorgFilesystemItem> items2 = cache.load(repoConfig, archive2);
+        assertEquals(list2.size(), items2.size());
+        for (int i = 0; i < list2.size(); i++) {
+            assertItem(list2.get(i), items2.get(i));
+            assertEquals(i, items2.get(i).getFileNumber());
+        }
+        assertEquals(list2.get(50000).getPath(), cache.loadItem(repoConfig, archive2, 50000).getPath());
+        List<BorgFilesystemItem> treeItems = cache.load(repoConfig, archive2, new FileSystemFilter()
+                .setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory("home/user43"));
+        assertEquals(1000, treeItems.size());
+        assertEquals(1, treeItems.get(0).getSize());
+        // The directory index of a delta contains the whole archive:
+        treeItems = cache.loadDirectory(repoConfig, archive2, new FileSystemFilter()
+                .setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory("home/user43"));
+        assertEquals(1000, treeItems.size());
+        assertEquals(1, treeItems.get(0).getSize());
+        assertEquals(list2.get(treeItems.get(0).getFileNumber()).getPath(), treeItems.get(0).getPath());
+        treeItems = cache.loadDirectory(repoConfig, archive2, new FileSystemFilter()
+                .setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory("home"));
+        assertEquals(101, treeItems.size(), "home/user7 (synthetic) added.");
+        assertEquals(500500, (long) treeItems.stream().filter(item -> "home/user43".equals(item.getPath()))
+                .findFirst().get().getSubtreeSize());
+        // Only the blocks containing the trigrams of the search key words are read (deltas are merged with the
+        // candidate blocks of their bases):
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file1)) {
+            int[] candidates = reader.readPathTrigramIndex().getCandidates(new FileSystemFilter().setSearchString("user42 file99").getSearchKeyWords());
+            assertArrayEquals(new int[]{reader.getBlockOfItem(list.stream().filter(item -> "home/user42/file99.txt".equals(item.getPath()))
+                    .findFirst().get().getFileNumber())}, candidates);
+        }
+        assertSearch(cache, repoConfig, archive1, "user42 file99");
+        assertSearch(cache, repoConfig, archive2, "user43 file99");
+        assertSearch(cache, repoConfig, archive2, "USER7/new");
+        assertSearch(cache, repoConfig, archive2, "user42");
+        assertSearch(cache, repoConfig, archive2, "file123 !user4");
+
+        // Chain length is limited:
+        List<BorgFilesystemItem> current = list2;
+        for (int day = 16; day < 16 + ArchiveFilelistCache.MAX_DELTA_CHAIN_LENGTH; day++) {
+            current = new ArrayList<>(current);
+            current.add(new BorgFilesystemItem().setPath("zzz" + day).setType("-"));
+            cache.save(repoConfig, createArchive("2018-12-" + day), current);
+        }
+        File lastFile = cache.getFile(repoConfig, createArchive("2018-12-" + (14 + ArchiveFilelistCache.MAX_DELTA_CHAIN_LENGTH)));
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(lastFile)) {
+            assertEquals(ArchiveFilelistCache.MAX_DELTA_CHAIN_LENGTH, reader.getDeltaInfo().getChainLength());
+        }
+        File fullFile = cache.getFile(repoConfig, createArchive("2018-12-" + (15 + ArchiveFilelistCache.MAX_DELTA_CHAIN_LENGTH)));
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(fullFile)) {
+            assertNull(reader.getDeltaInfo(), "Complete file list expected after maximum chain length.");
+        }
+        assertEquals(current.size() - 1, cache.load(repoConfig, createArchive("2018-12-" + (14 + ArchiveFilelistCache.MAX_DELTA_CHAIN_LENGTH))).size());
+
+        // Deleting the base deletes all deltas:
+        Repository repository = new Repository();
+        repository.setName("repo");
+        cache.deleteCachFile(repository, archive1);
+        assertFalse(file1.exists());
+        assertFalse(file2.exists());
+        assertFalse(lastFile.exists());
+        assertTrue(fullFile.exists());
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void zoneMapTest() throws Exception {
+        // Sizes and mtimes are growing with the paths, so the zone maps of most blocks don't match:
+        List<BorgFilesystemItem> list = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            list.add(new BorgFilesystemItem().setPath(String.format("home/file%06d", i)).setType(i % 100 == 0 ? "d" : "-")
+                    .setSize(i).setMtime(String.format("2018-11-%02dT12:00:00.000000", 1 + i / 4000)));
+        }
+        list.add(new BorgFilesystemItem().setPath("home/link").setType("l"));
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive = createArchive("2018-12-14");
+        cache.save(repoConfig, archive, list);
+        File file = cache.getFile(repoConfig, archive);
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            int blockCount = reader.getBlockCount();
+            assertEquals(blockCount, reader.getMatchingBlocks(0, blockCount, new FileSystemFilter()).length);
+            assertEquals(1, reader.getMatchingBlocks(0, blockCount, new FileSystemFilter().setMinSize(99990L)).length);
+            assertEquals(2, reader.getMatchingBlocks(0, blockCount, new FileSystemFilter().setMtimeFrom("2018-11-25")).length);
+            assertEquals(1, reader.getMatchingBlocks(0, blockCount, new FileSystemFilter().setTypes("l")).length);
+        }
+        assertEquals(10, cache.load(repoConfig, archive, new FileSystemFilter().setMinSize(99990L)).size());
+        assertEquals(4000, cache.load(repoConfig, archive, new FileSystemFilter().setMtimeFrom("2018-11-25")).size());
+        assertEquals(1000, cache.load(repoConfig, archive, new FileSystemFilter().setTypes("d")).size());
+        assertEquals("home/link", cache.load(repoConfig, archive, new FileSystemFilter().setTypes("l")).get(0).getPath());
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void containsPathTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive1 = createArchive("2018-12-14");
+        cache.save(repoConfig, archive1, list);
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(cache.getFile(repoConfig, archive1))) {
+            PathBloomFilter bloomFilter = reader.readBloomFilter();
+            for (BorgFilesystemItem item : list) {
+                assertTrue(bloomFilter.mightContain(item.getPath()));
+            }
+            int falsePositives = 0;
+            for (int i = 0; i < 100000; i++) {
+                if (bloomFilter.mightContain("home/user" + i + "/unknown.txt")) {
+                    ++falsePositives;
+                }
+            }
+            assertTrue(falsePositives < 5000, "Too many false positives: " + falsePositives);
+        }
+        assertTrue(cache.containsPath(repoConfig, archive1, "home/user42/file4.txt"));
+        assertTrue(cache.containsPath(repoConfig, archive1, "home/User7"));
+        assertFalse(cache.containsPath(repoConfig, archive1, "home/user7"));
+        assertFalse(cache.containsPath(repoConfig, archive1, "home/user42/file4.tx"));
+
+        // Delta: removed, added and unmodified paths.
+        List<BorgFilesystemItem> list2 = new ArrayList<>();
+        for (BorgFilesystemItem item : list) {
+            if (!item.getPath().startsWith("home/user42/")) {
+                list2.add(item.clone());
+            }
+        }
+        list2.add(new BorgFilesystemItem().setPath("home/user43/new.txt").setType("-"));
+        Archive archive2 = createArchive("2018-12-15");
+        cache.save(repoConfig, archive2, list2);
+        assertFalse(cache.containsPath(repoConfig, archive2, "home/user42/file4.txt"));
+        assertTrue(cache.containsPath(repoConfig, archive2, "home/user43/new.txt"));
+        assertTrue(cache.containsPath(repoConfig, archive2, "home/user43/file4.txt"));
+        assertFalse(cache.containsPath(repoConfig, archive1, "home/user43/new.txt"));
+        assertNull(cache.containsPath(repoConfig, createArchive("2018-12-16"), "home/user43/new.txt"), "Not cached.");
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void sortTest() {
+        List<BorgFilesystemItem> list = createRandomList(100000, 42);
+        String[] paths = {"home/Äpfel", "home/äpfel", "home/apfel", "home/Straße", "home/STRASSE", "home/ǅ", "home/ǆ",
+                "home/Ǆ", "home/ı", "home/I", "home/i", "home/İ", "home/\uD801\uDC00", "home/\uD801\uDC28", "HOME", "home", ""};
+        for (String path : paths) {
+            list.add(new BorgFilesystemItem().setPath(path));
+        }
+        list.add(new BorgFilesystemItem());
+        Collections.shuffle(list, new Random(42));
+        List<BorgFilesystemItem> expected = new ArrayList<>(list);
+        expected.sort(ArchiveFilelistCache.ITEM_ORDER);
+        ArchiveFilelistCache.sort(list);
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < list.size(); i++) {
+            assertSame(expected.get(i), list.get(i), "Position " + i);
+        }
+    }
+
+    @Test
+    void cacheFileLockTest() throws Exception {
+        File lockFile = new File("out", "lock-test" + CacheFileLock.LOCK_FILE_EXTENSION);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        Thread thread;
+        try (CacheFileLock lock = CacheFileLock.lock(lockFile)) {
+            thread = new Thread(() -> {
+                try (CacheFileLock lock2 = CacheFileLock.lock(lockFile)) {
+                    // The lock file deleted by the previous holder is created again:
+                    events.add("locked " + lockFile.exists());
+                    lock2.deleteLockFile();
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            thread.start();
+            Thread.sleep(100);
+            events.add("deleted");
+            lock.deleteLockFile();
+            assertFalse(lockFile.exists());
+        }
+        thread.join(10000);
+        assertEquals(Arrays.asList("deleted", "locked true"), events);
+        assertFalse(lockFile.exists());
+    }
+
+    @Test
+    void deleteAndMoveFileTest() throws Exception {
+        File src = new File("out", "move-test.src");
+        File dest = new File("out", "move-test.dest");
+        Files.write(src.toPath(), new byte[]{1, 2, 3});
+        Files.write(dest.toPath(), new byte[]{4});
+        ArchiveFilelistCacheManifest.move(src, dest);
+        assertFalse(src.exists());
+        assertEquals(3, dest.length());
+        // A missing source isn't retried:
+        assertThrows(IOException.class, () -> ArchiveFilelistCacheManifest.move(src, dest));
+        assertTrue(ArchiveFilelistCacheManifest.delete(dest));
+        assertFalse(dest.exists());
+        // Already deleted:
+        assertTrue(ArchiveFilelistCacheManifest.delete(dest));
+    }
+
+    @Test
+    void concurrentWritersOfRepoTest() throws Exception {
+        File dir = new File("out");
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(dir, 100);
+        cache.removeAllCacheFiles();
+        List<BorgFilesystemItem> list1 = createRandomList(100000, 1);
+        List<BorgFilesystemItem> list2 = createRandomList(50000, 2);
+        for (int i = 0; i < 1000; i++) {
+            list2.add(list1.get(i).clone()); // Shared paths.
+        }
+        Collections.sort(list1);
+        Collections.sort(list2);
+        File file1 = new File(dir, "writer1-test.data");
+        File file2 = new File(dir, "writer2-test.data");
+        try (ArchiveFilelistWriter writer1 = new ArchiveFilelistWriter(file1, "repo", createArchive("2018-12-30"))) {
+            for (int i = 0; i < list1.size() / 2; i++) {
+                writer1.add(list1.get(i));
+            }
+            // The lock of the path dictionary is only held while assigning the ids of a block:
+            Thread thread = new Thread(() -> {
+                try (ArchiveFilelistWriter writer2 = new ArchiveFilelistWriter(file2, "repo", createArchive("2018-12-31"))) {
+                    for (BorgFilesystemItem item : list2) {
+                        writer2.add(item);
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+            thread.start();
+            thread.join(60000);
+            assertFalse(thread.isAlive(), "Second writer of the same repo blocked by the first one.");
+            for (int i = list1.size() / 2; i < list1.size(); i++) {
+                writer1.add(list1.get(i));
+            }
+        }
+        assertListEquals(list1, cache.load(file1, null));
+        assertListEquals(list2, cache.load(file2, null));
+        file1.delete();
+        file2.delete();
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void concurrentSaveTest() throws Exception {
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        int numberOfRepos = 4;
+        List<Thread> threads = new ArrayList<>();
+        List<List<BorgFilesystemItem>> lists = new ArrayList<>();
+        for (int i = 0; i < numberOfRepos; i++) {
+            BorgRepoConfig repoConfig = new BorgRepoConfig();
+            repoConfig.setRepo("repo" + i);
+            List<BorgFilesystemItem> list = createRandomList(200000, i);
+            lists.add(list);
+            Archive archive = createArchive("2018-12-30");
+            threads.add(new Thread(() -> cache.save(repoConfig, archive, list)));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < numberOfRepos; i++) {
+            BorgRepoConfig repoConfig = new BorgRepoConfig();
+            repoConfig.setRepo("repo" + i);
+            List<BorgFilesystemItem> expected = new ArrayList<>(lists.get(i));
+            expected.sort(ArchiveFilelistCache.ITEM_ORDER);
+            List<BorgFilesystemItem> items = cache.load(repoConfig, createArchive("2018-12-30"));
+            assertEquals(expected.size(), items.size());
+            for (int j = 0; j < items.size(); j++) {
+                assertEquals(expected.get(j).getPath(), items.get(j).getPath());
+            }
+        }
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void ingestTest() throws Exception {
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        File cacheDir = cache.createTmpFile("test").getParentFile();
+        // 50 runs, so the runs have to be merged twice:
+        List<BorgFilesystemItem> list = createRandomList(50000, 42);
+        Archive archive = createArchive("2018-12-31");
+        try (ArchiveFilelistIngest ingest = new ArchiveFilelistIngest(cache, repoConfig, archive, 1000)) {
+            for (BorgFilesystemItem item : list) {
+                ingest.add(item);
+            }
+            assertEquals(50000, ingest.getItemCount());
+            assertTrue(ingest.finish());
+            assertNull(ingest.getItems(), "Items not held in memory.");
+        }
+        assertEquals(0, cacheDir.listFiles((dir, name) -> name.startsWith("ingest-run")).length);
+        List<BorgFilesystemItem> expected = new ArrayList<>(list);
+        expected.sort(ArchiveFilelistCache.ITEM_ORDER);
+        List<BorgFilesystemItem> items = cache.load(repoConfig, archive);
+        assertEquals(expected.size(), items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertItem(expected.get(i), items.get(i));
+        }
+        assertTrue(cache.containsPath(repoConfig, archive, expected.get(4711).getPath()));
+        assertEquals(50000, cache.loadDirectoryIndex(repoConfig, archive).getFileCount(""));
+        assertEquals(0, cacheDir.listFiles((dir, name) -> name.contains(".directories.")).length);
+        assertSearch(cache, repoConfig, archive, "kai/ab");
+        assertSearch(cache, repoConfig, archive, expected.get(4711).getPath().substring(11, 27));
+
+        // Small file list (one run only):
+        Archive smallArchive = createArchive("2019-01-01");
+        try (ArchiveFilelistIngest ingest = new ArchiveFilelistIngest(cache, repoConfig, smallArchive, 1000)) {
+            for (BorgFilesystemItem item : list.subList(0, 999)) {
+                ingest.add(item);
+            }
+            assertNull(ingest.getItems(), "Not yet saved.");
+            assertTrue(ingest.finish());
+            assertEquals(999, ingest.getItems().size());
+        }
+        assertEquals(999, cache.load(repoConfig, smallArchive).size());
+
+        try (ArchiveFilelistIngest ingest = new ArchiveFilelistIngest(cache, repoConfig, createArchive("2019-01-02"), 1000)) {
+            assertFalse(ingest.finish(), "Nothing to save.");
+        }
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void statisticsTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        for (BorgFilesystemItem item : list) {
+            item.setUser(item.getPath().startsWith("home/user1") ? "kai" : "root").setGroup("staff");
+        }
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive1 = createArchive("2018-12-14");
+        assertNull(cache.loadStatistics(repoConfig, archive1), "Not cached.");
+        cache.save(repoConfig, archive1, list);
+        ArchiveStatistics statistics = cache.loadStatistics(repoConfig, archive1);
+        assertEquals(list.size(), statistics.getItemCount());
+        assertEquals(100001, statistics.getFileCount());
+        assertEquals(101, statistics.getDirectoryCount());
+        assertEquals(100 * 499500, statistics.getTotalSize());
+        assertEquals(ArchiveStatisticsCollector.MAX_LARGEST_FILES, statistics.getLargestFiles().size());
+        assertEquals(999, statistics.getLargestFiles().get(0).getSize());
+        assertEquals("home/User7/file999.txt", statistics.getLargestFiles().get(0).getPath());
+        assertEquals(999, statistics.getLargestFiles().get(99).getSize());
+        assertTotal(statistics.getExtensions(), 0, "txt", 100000, 100 * 499500);
+        assertTotal(statistics.getExtensions(), 1, "", 1, 0);
+        // home/user1, home/user10 ... home/user19:
+        assertTotal(statistics.getUsers(), 0, "root", list.size() - 11 * 1001, 89 * 499500);
+        assertTotal(statistics.getUsers(), 1, "kai", 11 * 1001, 11 * 499500);
+        assertTotal(statistics.getGroups(), 0, "staff", list.size(), 100 * 499500);
+        assertTotal(statistics.getTypes(), 0, "-", 100001, 100 * 499500);
+        assertTotal(statistics.getTypes(), 1, "d", 101, 0);
+
+        // Deltas contain the statistics of the whole archive:
+        List<BorgFilesystemItem> list2 = new ArrayList<>();
+        for (BorgFilesystemItem item : list) {
+            list2.add(item.clone());
+        }
+        list2.add(new BorgFilesystemItem().setPath("zzz/Image.JPG").setType("-").setSize(5000).setUser("root"));
+        Archive archive2 = createArchive("2018-12-15");
+        cache.save(repoConfig, archive2, list2);
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(cache.getFile(repoConfig, archive2))) {
+            assertNotNull(reader.getDeltaInfo());
+            assertEquals(1, reader.getItemCount());
+        }
+        statistics = cache.loadStatistics(repoConfig, archive2);
+        assertEquals(list2.size(), statistics.getItemCount());
+        assertEquals(100 * 499500 + 5000, statistics.getTotalSize());
+        assertEquals("zzz/Image.JPG", statistics.getLargestFiles().get(0).getPath());
+        assertTotal(statistics.getExtensions(), 1, "jpg", 1, 5000);
+
+        // Streamed into the cache (saveSorted):
+        Archive archive3 = createArchive("2018-12-16");
+        try (ArchiveFilelistIngest ingest = new ArchiveFilelistIngest(cache, repoConfig, archive3, 1000)) {
+            for (BorgFilesystemItem item : list.subList(0, 5000)) {
+                ingest.add(item);
+            }
+            assertTrue(ingest.finish());
+            assertNull(ingest.getItems());
+        }
+        statistics = cache.loadStatistics(repoConfig, archive3);
+        assertEquals(5000, statistics.getItemCount());
+        assertEquals(5000, statistics.getUsers().get(0).getCount() + statistics.getUsers().get(1).getCount());
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void statisticsSerializationTest() throws Exception {
+        ArchiveStatisticsCollector collector = new ArchiveStatisticsCollector();
+        for (int i = 0; i < 2 * ArchiveStatisticsCollector.MAX_EXTENSIONS; i++) {
+            collector.add(new BorgFilesystemItem().setPath("dir/file." + i + "x").setType("-").setSize(i).setUser("kai"));
+        }
+        collector.add(new BorgFilesystemItem().setPath("dir/link").setType("l").setMtime("2018-12-14 12:00:00"));
+        ArchiveStatistics statistics = ArchiveStatisticsCollector.read(ByteBuffer.wrap(
+                ArchiveStatisticsCollector.toBytes(collector.getStatistics())));
+        assertEquals(2 * ArchiveStatisticsCollector.MAX_EXTENSIONS + 1, statistics.getItemCount());
+        assertEquals(ArchiveStatisticsCollector.MAX_EXTENSIONS + 1, statistics.getExtensions().size());
+        assertTotal(statistics.getExtensions(), 0, "199x", 1, 199);
+        // The smallest extensions are summarized:
+        assertTotal(statistics.getExtensions(), ArchiveStatisticsCollector.MAX_EXTENSIONS, null, 100, 4950);
+        assertTotal(statistics.getTypes(), 1, "l", 1, 0);
+        assertEquals(ArchiveStatisticsCollector.MAX_LARGEST_FILES, statistics.getLargestFiles().size());
+        assertEquals(199, statistics.getLargestFiles().get(0).getSize());
+
+        assertEquals("txt", ArchiveStatisticsCollector.getExtension("home/kai/Notes.TXT"));
+        assertEquals("gz", ArchiveStatisticsCollector.getExtension("home/kai/backup.tar.gz"));
+        assertEquals("", ArchiveStatisticsCollector.getExtension("home/kai/.bashrc"));
+        assertEquals("", ArchiveStatisticsCollector.getExtension("home/kai.d/config"));
+        assertEquals("", ArchiveStatisticsCollector.getExtension("home/kai/file."));
+        assertEquals("", ArchiveStatisticsCollector.getExtension("home/kai/file.20181214120000123456"));
+    }
+
+    private void assertTotal(List<ArchiveStatistics.Total> totals, int index, String name, long count, long size) {
+        ArchiveStatistics.Total total = totals.get(index);
+        assertEquals(name, total.getName());
+        assertEquals(count, total.getCount());
+        assertEquals(size, total.getSize());
+    }
+
+    @Test
+    void pathHistoryTest() throws Exception {
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        // More than one block of the history:
+        List<BorgFilesystemItem> list1 = createTreeList();
+        Archive archive1 = createArchive("2018-12-14").setId("id1");
+        cache.save(repoConfig, archive1, list1);
+        List<BorgFilesystemItem> list2 = new ArrayList<>();
+        for (BorgFilesystemItem item : list1) {
+            if (item.getPath().equals("home/user42/file4.txt")) {
+                list2.add(item.clone().setSize(4711).setMtime("2018-12-15 08:00:00"));
+            } else if (!item.getPath().startsWith("home/user43/")) {
+                list2.add(item.clone());
+            }
+        }
+        Archive archive2 = createArchive("2018-12-15").setId("id2");
+        cache.save(repoConfig, archive2, list2);
+        // Saved before archive2, but older (numbered by time):
+        Archive archive0 = createArchive("2018-12-13").setId("id0");
+        try (ArchiveFilelistIngest ingest = new ArchiveFilelistIngest(cache, repoConfig, archive0, 1000)) {
+            for (BorgFilesystemItem item : list1) {
+                ingest.add(item.clone());
+            }
+            assertTrue(ingest.finish());
+        }
+        List<Archive> archives = new ArrayList<>();
+        archives.add(archive0);
+        archives.add(archive1);
+        archives.add(archive2);
+        Map<String, BorgFilesystemItem> versions = cache.getPathHistory(repoConfig, archives, "home/user42/file4.txt");
+        assertEquals(3, versions.size());
+        assertEquals(Arrays.asList("id0", "id1", "id2"), new ArrayList<>(versions.keySet()));
+        assertEquals(4, versions.get("id0").getSize());
+        assertEquals(4, versions.get("id1").getSize());
+        assertEquals(4711, versions.get("id2").getSize());
+        assertEquals("2018-12-15 08:00:00", versions.get("id2").getMtime());
+        versions = cache.getPathHistory(repoConfig, archives, "home/user43/file4.txt");
+        assertEquals(Arrays.asList("id0", "id1"), new ArrayList<>(versions.keySet()));
+        assertTrue(cache.getPathHistory(repoConfig, archives, "home/user43/unknown.txt").isEmpty());
+        assertEquals(3, cache.getPathHistory(repoConfig, archives, "home/User7").size());
+        assertTrue(cache.getPathHistory(repoConfig, archives, "home/user7").isEmpty());
+        assertEquals(3, cache.getPathHistory(repoConfig, archives, "opt/app/config").size());
+
+        // Saving an archive again replaces its versions:
+        cache.save(repoConfig, archive1, new ArrayList<>(list2));
+        assertEquals(4711, cache.getPathHistory(repoConfig, archives, "home/user42/file4.txt").get("id1").getSize());
+        assertEquals(Arrays.asList("id0"), new ArrayList<>(cache.getPathHistory(repoConfig, archives,
+                "home/user43/file4.txt").keySet()));
+
+        // The history keeps the versions of archives no longer cached (archive2 was a delta of archive1):
+        assertFalse(cache.contains(repoConfig, archive2));
+        assertEquals(3, cache.getPathHistory(repoConfig, archives, "home/user42/file4.txt").size());
+        cache.save(repoConfig, archive2, new ArrayList<>(list2));
+
+        // History is rebuilt from the cached file lists, archives not given anymore are removed:
+        File historyFile = RepoPathHistory.getFile(new File("out"), "repo");
+        assertTrue(historyFile.exists());
+        RepoPathHistory.delete(historyFile);
+        archives.remove(archive0);
+        versions = cache.getPathHistory(repoConfig, archives, "home/user42/file4.txt");
+        assertEquals(Arrays.asList("id1", "id2"), new ArrayList<>(versions.keySet()));
+        assertEquals(2, RepoPathHistory.getInstance(historyFile).getArchiveIds().size());
+        cache.removeAllCacheFiles();
+        assertFalse(historyFile.exists());
+    }
+
+    /**
+     * The search by the trigram index stored with the file list must return the same items as scanning all items.
+     */
+    private void assertSearch(ArchiveFilelistCache cache, BorgRepoConfig repoConfig, Archive archive, String searchString) {
+        FileSystemFilter filter = new FileSystemFilter().setSearchString(searchString);
+        List<BorgFilesystemItem> expected = new ArrayList<>();
+        for (BorgFilesystemItem item : cache.load(repoConfig, archive)) {
+            if (filter.matches(item)) {
+                expected.add(item);
+                if (filter.isFinished()) break;
+            }
+        }
+        expected = filter.reduce(expected);
+        List<BorgFilesystemItem> items = cache.search(repoConfig, archive, new FileSystemFilter().setSearchString(searchString));
+        assertEquals(expected.size(), items.size(), searchString);
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(expected.get(i).getPath(), items.get(i).getPath(), searchString);
+            assertEquals(expected.get(i).getFileNumber(), items.get(i).getFileNumber(), searchString);
+        }
+    }
+
+    private void assertItem(BorgFilesystemItem expected, BorgFilesystemItem actual) {
+        assertEquals(expected, actual, "Path: " + expected.getPath());
+        assertEquals(expected.isHealthy(), actual.isHealthy());
+        assertEquals(expected.getSource(), actual.getSource());
+        assertEquals(expected.getLinktarget(), actual.getLinktarget());
+    }
+
+    @Test
+    void cleanUpMaximumSizeTest() throws Exception {
+        // Random sizes: the file lists shouldn't be compressible too much. Different lists: no deltas should be used.
+        List<BorgFilesystemItem> list = createRandomList(1000000, 1);
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
         cache.removeAllCacheFiles();
         BorgRepoConfig repoConfig = new BorgRepoConfig();
         repoConfig.setRepo("repo");
@@ -73,26 +946,107 @@ public class ArchiveFilelistCacheTest {
         Archive archive = createArchive("2018-11-20");
         cache.save(repoConfig, archive, list);
         File oldestFile = cache.getFile(repoConfig, archive);
-        setLastModificationTime(oldestFile, millis - 10 * 3600000); // Fake lastModifiedTime - 10 h
+        cache.getManifest().registerAccess(oldestFile.getName(), millis - 10 * 3600000); // Fake last usage - 10 h
 
         archive = createArchive("2018-11-21");
+        list = createRandomList(1000000, 2);
         cache.save(repoConfig, archive, list);
         File newestFile = cache.getFile(repoConfig, archive);
-        setLastModificationTime(newestFile, millis - 60000); // Fake lastModifiedTime - 1min
+        for (int i = 0; i < 3; i++) {
+            cache.getManifest().registerAccess(newestFile.getName(), millis - 60000); // Fake last usage - 1min
+        }
 
         archive = createArchive("2018-11-22");
+        list = createRandomList(1000000, 3);
         cache.save(repoConfig, archive, list);
         File file = cache.getFile(repoConfig, archive);
-        setLastModificationTime(file, millis - 3600000); // Fake lastModifiedTime - 1 hour
+        cache.getManifest().registerAccess(file.getName(), millis - 3600000); // Fake last usage - 1 hour
 
         assertTrue(oldestFile.exists());
         assertTrue(newestFile.exists());
         assertTrue(file.exists());
 
+        int fileSizeInMB = (int) (file.length() / 1048576);
+        assertTrue(fileSizeInMB >= 1);
+        File pathDictionaryFile = RepoPathDictionary.getFile(new File("out"), "repo");
+        int pathDictionarySizeInMB = (int) (pathDictionaryFile.length() / 1048576);
+        // Maximum size of path dictionary and 2 files: the two files with the lowest priority (same size, less usage)
+        // will be deleted.
+        cache.flush();
+        cache = new ArchiveFilelistCache(new File("out"), pathDictionarySizeInMB + 2 * fileSizeInMB);
         cache.cleanUp();
         assertFalse(oldestFile.exists());
         assertFalse(file.exists());
         assertTrue(newestFile.exists());
+        assertTrue(pathDictionaryFile.exists());
+        assertEquals(list.size(), cache.load(repoConfig, createArchive("2018-11-21")).size());
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void cleanUpPriorityTest() throws Exception {
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 1000);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Repository repository = new Repository();
+        repository.setName("repo");
+        long millis = System.currentTimeMillis();
+
+        Archive smallArchive = createArchive("2018-11-20");
+        cache.save(repoConfig, smallArchive, createRandomList(300000, 1));
+        File smallFile = cache.getFile(repoConfig, smallArchive);
+        Archive bigArchive = createArchive("2018-11-21");
+        List<BorgFilesystemItem> bigList = createRandomList(1000000, 2);
+        cache.save(repoConfig, bigArchive, bigList);
+        File bigFile = cache.getFile(repoConfig, bigArchive);
+        // The small archive is used frequently (but not recently), the big one is browsed only once (recently):
+        for (int i = 0; i < 5; i++) {
+            cache.getManifest().registerAccess(smallFile.getName(), millis - 5 * 3600000);
+        }
+        cache.getManifest().registerAccess(bigFile.getName(), millis);
+        int smallSizeInMB = (int) (smallFile.length() / 1048576);
+        int bigSizeInMB = (int) (bigFile.length() / 1048576);
+        assertTrue(smallSizeInMB >= 1);
+        assertTrue(bigSizeInMB > smallSizeInMB);
+        int pathDictionarySizeInMB = (int) (RepoPathDictionary.getFile(new File("out"), "repo").length() / 1048576);
+        cache.flush();
+
+        // Size exceeded: the big archive has the lowest priority, although the small one wasn't used for a longer time.
+        cache = new ArchiveFilelistCache(new File("out"), pathDictionarySizeInMB + smallSizeInMB + bigSizeInMB - 1);
+        cache.cleanUp();
+        assertTrue(smallFile.exists());
+        assertFalse(bigFile.exists());
+        double inflation = cache.getManifest().getInflation();
+        assertTrue(inflation > 0);
+
+        // Pinned archives are never evicted:
+        cache.save(repoConfig, bigArchive, bigList);
+        assertFalse(cache.isPinned(repository, bigArchive));
+        assertTrue(cache.setPinned(repository, bigArchive, true));
+        assertFalse(cache.setPinned(repository, createArchive("2018-11-22"), true)); // Not cached.
+        cache.cleanUp();
+        assertFalse(smallFile.exists());
+        assertTrue(bigFile.exists());
+        cache.save(repoConfig, bigArchive, bigList);
+        assertTrue(cache.isPinned(repository, bigArchive)); // Pinned after writing again.
+
+        // Quota of the repo (without exceeding the maximum size):
+        cache.flush();
+        cache = new ArchiveFilelistCache(new File("out"), 1000);
+        assertTrue(cache.setPinned(repository, bigArchive, false));
+        cache.save(repoConfig, smallArchive, createRandomList(300000, 1));
+        Map<String, Integer> quotas = new HashMap<>();
+        quotas.put("other-repo", 1);
+        cache.cleanUp(quotas);
+        assertTrue(smallFile.exists());
+        assertTrue(bigFile.exists());
+        // Evicting the big archive is enough, the quota isn't exceeded anymore:
+        quotas.put("repo", smallSizeInMB);
+        cache.cleanUp(quotas);
+        assertTrue(smallFile.exists());
+        assertFalse(bigFile.exists());
+        assertTrue(cache.getManifest().getInflation() > inflation);
         cache.removeAllCacheFiles();
     }
 
@@ -109,12 +1063,12 @@ public class ArchiveFilelistCacheTest {
         Archive archive = createArchive("2018-10-20");
         cache.save(repoConfig, archive, list);
         File notExpiredFile = cache.getFile(repoConfig, archive);
-        setLastModificationTime(notExpiredFile, millis - 6 * 24 * 3600000); // Fake lastModifiedTime - 10 h
+        cache.getManifest().registerAccess(notExpiredFile.getName(), millis - 6 * 24 * 3600000); // Fake last usage - 10 h
 
         archive = createArchive("2018-10-21");
         cache.save(repoConfig, archive, list);
         File expiredFile = cache.getFile(repoConfig, archive);
-        setLastModificationTime(expiredFile, millis - 8 * 24 * 3600000); // Fake lastModifiedTime - 10 h
+        cache.getManifest().registerAccess(expiredFile.getName(), millis - 8 * 24 * 3600000); // Fake last usage - 10 h
 
         assertTrue(expiredFile.exists());
         assertTrue(notExpiredFile.exists());
@@ -125,6 +1079,292 @@ public class ArchiveFilelistCacheTest {
         cache.removeAllCacheFiles();
     }
 
+    @Test
+    void cleanUpDeltaBaseTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        long millis = System.currentTimeMillis();
+
+        Archive baseArchive = createArchive("2018-10-20");
+        cache.save(repoConfig, baseArchive, list);
+        File baseFile = cache.getFile(repoConfig, baseArchive);
+        List<BorgFilesystemItem> list2 = new ArrayList<>();
+        for (BorgFilesystemItem item : list) {
+            list2.add(item.getPath().startsWith("home/user43/") ? item.clone().setSize(item.getSize() + 1) : item.clone());
+        }
+        Archive deltaArchive = createArchive("2018-10-21");
+        cache.save(repoConfig, deltaArchive, list2);
+        File deltaFile = cache.getFile(repoConfig, deltaArchive);
+        assertEquals(baseFile.getName(), cache.getManifest().get(deltaFile.getName()).getBaseFileName());
+
+        // The base isn't read, if the delta is served by the memory cache:
+        cache.getManifest().registerAccess(baseFile.getName(), millis - 8 * 24 * 3600000);
+        cache.registerAccess(repoConfig, deltaArchive);
+        cache.cleanUp();
+        assertTrue(baseFile.exists());
+        assertTrue(deltaFile.exists());
+
+        // Both expired:
+        cache.getManifest().registerAccess(deltaFile.getName(), millis - 8 * 24 * 3600000);
+        cache.cleanUp();
+        assertFalse(baseFile.exists());
+        assertFalse(deltaFile.exists());
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void manifestTest() throws Exception {
+        List<BorgFilesystemItem> list = createList(1000);
+        File dir = new File("out");
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(dir, 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Repository repository = new Repository();
+        repository.setName("repo");
+        Archive archive = createArchive("2018-12-01");
+        cache.save(repoConfig, archive, list);
+        File file = cache.getFile(repoConfig, archive);
+        ArchiveFilelistCacheManifest.Entry entry = cache.getManifest().get(file.getName());
+        assertNotNull(entry);
+        assertEquals(file.length(), entry.getSize());
+        assertNotEquals(0, entry.getChecksum());
+        assertTrue(cache.contains(repository, archive));
+        assertFalse(cache.contains(repository, createArchive("2018-12-02")));
+        cache.load(repoConfig, archive);
+        assertEquals(1, cache.getManifest().get(file.getName()).getHitCount());
+
+        // Missing manifest and left temporary file of a crash: the manifest is rebuilt on start.
+        File tmpFile = new File(dir, file.getName() + ".1.tmp");
+        Files.write(tmpFile.toPath(), new byte[]{1, 2, 3});
+        tmpFile.setLastModified(System.currentTimeMillis() - 2 * 3600000);
+        // May be written by another process at the moment:
+        File currentTmpFile = new File(dir, file.getName() + ".2.tmp");
+        Files.write(currentTmpFile.toPath(), new byte[]{1, 2, 3});
+        new ArchiveFilelistCacheManifest(dir).getFile().delete();
+        cache = new ArchiveFilelistCache(dir, 100);
+        assertFalse(tmpFile.exists());
+        assertTrue(currentTmpFile.exists());
+        currentTmpFile.delete();
+        assertTrue(cache.contains(repository, archive));
+        assertEquals(0, cache.getManifest().get(file.getName()).getChecksum()); // Unknown after rebuild.
+
+        // Corrupted file is detected by its checksum and deleted.
+        cache.removeAllCacheFiles();
+        cache.save(repoConfig, archive, list);
+        cache.flush();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length / 2] ^= 0xFF;
+        Files.write(file.toPath(), bytes);
+        cache = new ArchiveFilelistCache(dir, 100);
+        assertTrue(cache.contains(repository, archive));
+        assertNull(cache.load(repoConfig, archive));
+        assertFalse(file.exists());
+        assertFalse(cache.contains(repository, archive));
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void sharedCacheDirTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        File dir = new File("out");
+        // Two instances of BorgButler using the same repo by different URLs:
+        ArchiveFilelistCache cache1 = new ArchiveFilelistCache(dir, 100);
+        cache1.removeAllCacheFiles();
+        ArchiveFilelistCache cache2 = new ArchiveFilelistCache(dir, 100);
+        BorgRepoConfig repoConfig1 = new BorgRepoConfig();
+        repoConfig1.setRepo("ssh://backup/repo");
+        BorgRepoConfig repoConfig2 = new BorgRepoConfig();
+        repoConfig2.setRepo("ssh://backup.example.org/repo");
+        Repository repository2 = new Repository();
+        repository2.setName(repoConfig2.getRepo());
+
+        // Stored by name (archive id unknown) by older versions:
+        Archive archive = createArchive("2018-12-30");
+        cache1.save(repoConfig1, archive, new ArrayList<>(list));
+        File namedFile = cache1.getFile(repoConfig1, archive);
+        archive.setId("6ad6d6b3cbe30a1d2ff4bdfd1b0a5e3b6c1b0b1ec0b7d3bbd3d6d7b3cbe30a1d");
+        File file = cache1.getFile(repoConfig1, archive);
+        assertNotEquals(namedFile, file);
+        assertEquals(file, cache2.getFile(repoConfig2, archive)); // Independent of the repo URL.
+        assertEquals(list.size(), cache1.load(repoConfig1, archive).size());
+        cache1.migrateOutdatedFiles().get(); // Waits for the migration of the named file (single thread).
+        assertFalse(namedFile.exists());
+        assertTrue(file.exists());
+
+        // The other instance uses the file of the first one:
+        assertTrue(cache2.contains(repository2, archive));
+        assertEquals(list.size(), cache2.load(repoConfig2, archive).size());
+        assertEquals(list.get(4711).getPath(), cache2.loadItem(repoConfig2, archive, 4711).getPath());
+        // Accesses of both instances are merged:
+        cache1.flush();
+        cache2.flush();
+        int hitCount = new ArchiveFilelistCache(dir, 100).getManifest().get(file.getName()).getHitCount();
+        assertEquals(3, hitCount); // 2 (first instance) + 1
+        cache2.deleteCachFile(repository2, archive);
+        assertFalse(file.exists());
+        assertFalse(cache1.contains(repository2, archive));
+        cache1.removeAllCacheFiles();
+    }
+
+    @Test
+    void memoryCacheTest() throws Exception {
+        FileSystemItemColumns columns = FileSystemItemColumns.create(createTreeList());
+        long size = columns.getMemorySize();
+        assertTrue(size > 100_000 * 8 * 6);
+        // Budget of 2 lists:
+        ArchiveFilelistMemoryCache memoryCache = new ArchiveFilelistMemoryCache((int) (2.5 * size / 1024 / 1024) + 1);
+        Archive archive1 = createArchive("2018-12-01");
+        Archive archive2 = createArchive("2018-12-02").setId("2");
+        String key1 = ArchiveFilelistMemoryCache.getKey("repo", archive1);
+        assertEquals("repo::archive-2018-12-01", key1);
+        assertEquals("2", ArchiveFilelistMemoryCache.getKey("repo", archive2));
+        assertNull(memoryCache.get(key1));
+        assertTrue(memoryCache.put(key1, columns));
+        assertTrue(memoryCache.put("2", FileSystemItemColumns.create(createTreeList())));
+        assertSame(columns, memoryCache.get(key1));
+        // Least recently used list is list 2:
+        assertTrue(memoryCache.put("3", FileSystemItemColumns.create(createTreeList())));
+        assertNull(memoryCache.get("2"));
+        assertNotNull(memoryCache.get(key1));
+        assertNotNull(memoryCache.get("3"));
+        ArchiveFilelistMemoryCacheStatistics statistics = memoryCache.getStatistics();
+        assertEquals(2, statistics.getNumberOfArchives());
+        assertEquals(3, statistics.getHitCount());
+        assertEquals(2, statistics.getMissCount());
+        assertTrue(statistics.getSizeInMB() <= statistics.getMaxSizeInMB());
+
+        // Indexes built after caching are charged to their list (the trigram index of 100,000 paths needs more than
+        // the remaining budget), the least recently used list is dropped:
+        FileSystemItemColumns columns1 = FileSystemItemColumns.create(createTreeList());
+        FileSystemItemColumns columns2 = FileSystemItemColumns.create(createTreeList());
+        ArchiveFilelistMemoryCache indexCache = new ArchiveFilelistMemoryCache((int) (2 * size / 1024 / 1024) + 1);
+        assertTrue(indexCache.put("1", columns1));
+        assertTrue(indexCache.put("2", columns2));
+        assertEquals(0, columns2.getIndexMemorySize());
+        assertNotNull(columns2.getPathTrigramIndex());
+        assertTrue(columns2.getIndexMemorySize() > 0);
+        assertNull(indexCache.get("1"));
+        assertSame(columns2, indexCache.get("2"));
+        // A list exceeding the budget including its indexes is read from disk:
+        ArchiveFilelistMemoryCache singleCache = new ArchiveFilelistMemoryCache((int) (size / 1024 / 1024) + 1);
+        assertTrue(singleCache.put("1", columns1));
+        columns1.getDirectoryIndex();
+        assertSame(columns1, singleCache.get("1"), "Directory index is small.");
+        columns1.getPathTrigramIndex();
+        assertNull(singleCache.get("1"));
+        assertTrue(singleCache.isOversized("1"));
+        // Indexes built before caching are charged on put:
+        assertFalse(singleCache.put("2", columns2));
+
+        ArchiveFilelistMemoryCache smallCache = new ArchiveFilelistMemoryCache(1);
+        assertFalse(smallCache.put("3", columns));
+        assertTrue(smallCache.isOversized("3"));
+        assertNull(smallCache.get("3"));
+        smallCache.remove("3");
+        assertFalse(smallCache.isOversized("3"));
+        memoryCache.clear();
+        assertEquals(0, memoryCache.getStatistics().getNumberOfArchives());
+        assertEquals(0, memoryCache.getStatistics().getSizeInMB());
+    }
+
+    @Test
+    void loadColumnsTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive = createArchive("2018-12-01").setId("1");
+        assertNull(cache.loadColumns(repoConfig, archive));
+        cache.save(repoConfig, archive, new ArrayList<>(list));
+        FileSystemItemColumns columns = cache.loadColumns(repoConfig, archive);
+        assertEquals(list.size(), columns.size());
+        for (int row = 0; row < list.size(); row += 997) {
+            assertEquals(list.get(row), columns.getItem(row));
+        }
+        // Delta of the first archive:
+        list.get(4711).setSize(4711);
+        Archive archive2 = createArchive("2018-12-02").setId("2");
+        cache.save(repoConfig, archive2, new ArrayList<>(list));
+        columns = cache.loadColumns(repoConfig, archive2);
+        assertEquals(list.size(), columns.size());
+        assertEquals(4711, columns.getSize(4711));
+        cache.removeAllCacheFiles();
+    }
+
+    @Test
+    void migrationTest() throws Exception {
+        List<BorgFilesystemItem> list = createTreeList();
+        list.sort(ArchiveFilelistCache.ITEM_ORDER);
+        File dir = new File("out");
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(dir, 100);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+
+        // File list of an older encoding:
+        Archive archive = createArchive("2018-12-20");
+        archive.setId("4711");
+        File file = cache.getFile(repoConfig, archive);
+        List<BorgFilesystemItem> smallList = new ArrayList<>(list.subList(0, 10000));
+        writeCompact(file, archive, smallList);
+        // Large file lists are written without path dictionary by the ingest:
+        Archive largeArchive = createArchive("2018-12-22");
+        largeArchive.setId("4712");
+        File largeFile = cache.getFile(repoConfig, largeArchive);
+        assertTrue(list.size() > ArchiveFilelistIngest.DEFAULT_RUN_SIZE);
+        writeCompact(largeFile, largeArchive, list);
+        // Legacy file:
+        Archive legacyArchive = createArchive("2018-12-21");
+        File legacyFile = new File(dir, ReplaceUtils.encodeFilename("archive-content-" + legacyArchive.getTime()
+                + "-" + repoConfig.getRepo() + "-" + legacyArchive.getName() + ".gz", true));
+        Kryo kryo = ArchiveFilelistFormat.createKryo();
+        try (Output outputStream = new Output(new GzipCompressorOutputStream(new FileOutputStream(legacyFile)))) {
+            kryo.writeObject(outputStream, ArchiveFilelistFormat.LEGACY_SERIALIZATION_ID_STRING);
+            kryo.writeObject(outputStream, list.size());
+            for (BorgFilesystemItem item : list) {
+                kryo.writeObject(outputStream, KryoFilesystemItem.of(item));
+            }
+        }
+        cache = new ArchiveFilelistCache(dir, 100);
+        cache.getManifest().registerAccess(file.getName(), 4711);
+        cache.migrateOutdatedFiles().get();
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(file)) {
+            assertEquals(ArchiveFilelistFormat.ENCODING_PATH_IDS, reader.getEncoding());
+            assertEquals("4711", reader.getArchiveId());
+        }
+        try (ArchiveFilelistReader reader = ArchiveFilelistReader.open(largeFile)) {
+            assertEquals(ArchiveFilelistFormat.ENCODING_COMPACT, reader.getEncoding(), "Not migrated.");
+        }
+        assertEquals(4711, cache.getManifest().get(file.getName()).getLastAccess()); // Migration isn't a usage.
+        assertTrue(legacyFile.exists()); // Migrated on first usage.
+        assertEquals(smallList.size(), cache.load(repoConfig, archive).size());
+
+        assertEquals(list.size(), cache.load(repoConfig, legacyArchive).size());
+        cache.migrateOutdatedFiles().get(); // Waits for the migration of the legacy file (single thread).
+        assertFalse(legacyFile.exists());
+        File newFile = cache.getFile(repoConfig, legacyArchive);
+        assertTrue(ArchiveFilelistFormat.isFilelistFormat(newFile));
+        List<BorgFilesystemItem> items = cache.load(repoConfig, legacyArchive);
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(list.get(i).getPath(), items.get(i).getPath());
+        }
+        cache.removeAllCacheFiles();
+    }
+
+    private void writeCompact(File file, Archive archive, List<BorgFilesystemItem> list) throws Exception {
+        try (ArchiveFilelistWriter writer = new ArchiveFilelistWriter(file, "repo", archive, ArchiveFilelistFormat.DEFAULT_BLOCK_SIZE,
+                ArchiveFilelistFormat.ENCODING_COMPACT, ArchiveFilelistFormat.DEFAULT_CODEC)) {
+            for (BorgFilesystemItem item : list) {
+                writer.add(item);
+            }
+        }
+    }
+
     private List<BorgFilesystemItem> createList(int number) throws Exception {
         List<BorgFilesystemItem> list = new ArrayList<>();
         for (int i = 0; i < 1000000; i++) {
@@ -133,12 +1373,38 @@ public class ArchiveFilelistCacheTest {
         return list;
     }
 
-    private BorgFilesystemItem create(int i) throws Exception {
-        BorgFilesystemItem item = new BorgFilesystemItem();
-        set(item, "type", "-").set(item, "mode", "drwxr-xr-x")
-                .set(item, "user", "kai").set(item, "group", "user")
-                .set(item, "path", "/Users/kai/Test" + i + ".java").set(item, "size", 1000);
-        return item;
+    private List<BorgFilesystemItem> createRandomList(int number, long seed) {
+        Random random = new Random(seed);
+        List<BorgFilesystemItem> list = new ArrayList<>();
+        for (int i = 0; i < number; i++) {
+            list.add(new BorgFilesystemItem().setPath("/Users/kai/" + Long.toHexString(random.nextLong()) + ".java")
+                    .setType("-").setSize(random.nextInt(100000)));
+        }
+        return list;
+    }
+
+    /**
+     * home/user0 ... home/user99 (home/User7 in upper case) with 1,000 files each.
+     */
+    private List<BorgFilesystemItem> createTreeList() {
+        List<BorgFilesystemItem> list = new ArrayList<>();
+        list.add(new BorgFilesystemItem().setPath("home").setType("d"));
+        for (int i = 0; i < 100; i++) {
+            String dir = (i == 7 ? "home/User" : "home/user") + i;
+            list.add(new BorgFilesystemItem().setPath(dir).setType("d"));
+            for (int j = 0; j < 1000; j++) {
+                list.add(new BorgFilesystemItem().setPath(dir + "/file" + j + ".txt").setType("-").setSize(j));
+            }
+        }
+        list.add(new BorgFilesystemItem().setPath("opt/app/config").setType("-"));
+        Collections.sort(list);
+        return list;
+    }
+
+    private BorgFilesystemItem create(int i) {
+        return new BorgFilesystemItem().setType("-").setMode("drwxr-xr-x")
+                .setUser("kai").setGroup("user")
+                .setPath("/Users/kai/Test" + i + ".java").setSize(1000);
     }
 
     private ArchiveFilelistCacheTest set(Object obj, String field, Object value) throws Exception {
@@ -155,9 +1421,4 @@ public class ArchiveFilelistCacheTest {
         return archive;
     }
 
-    private void setLastModificationTime(File file, long lastModificationTime) throws IOException {
-        Path path = file.toPath();
-        FileTime fileTime = FileTime.fromMillis(lastModificationTime);
-        Files.setAttribute(path, "lastModifiedTime", fileTime);
-    }
 }
@@ -0,0 +1,51 @@
+package de.micromata.borgbutler.cache;
+
+import de.micromata.borgbutler.config.BorgRepoConfig;
+import de.micromata.borgbutler.config.Configuration;
+import de.micromata.borgbutler.config.ConfigurationHandler;
+import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.FileSystemFilter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * In low memory mode an archive content not available from the cache file (not cached or ingest failed) is never
+ * loaded into the memory cache.
+ */
+@Tag("lowMemory")
+public class ButlerCacheLowMemoryTest {
+    @Test
+    void noColumnsFallbackTest() {
+        Configuration configuration = ConfigurationHandler.getConfiguration();
+        boolean lowMemoryMode = configuration.isLowMemoryMode();
+        String borgCommand = configuration.getBorgCommand();
+        try {
+            configuration.setLowMemoryMode(true);
+            // Every borg call fails:
+            configuration.setBorgCommand("false");
+            ButlerCache butlerCache = ButlerCache.getInstance();
+            BorgRepoConfig repoConfig = new BorgRepoConfig();
+            repoConfig.setRepo("low-memory-test-repo");
+            Archive archive = new Archive().setId("low-memory-test-archive").setName("archive-2019-01-01").setTime("2019-01-01");
+            ArchiveFilelistMemoryCacheStatistics statistics = butlerCache.getArchiveContentMemoryCacheStatistics();
+            long hitCount = statistics.getHitCount();
+            long missCount = statistics.getMissCount();
+
+            // Not cached:
+            assertNull(butlerCache.getArchiveContent(repoConfig, archive, false, null));
+            // Ingest failed:
+            assertNull(butlerCache.getArchiveContent(repoConfig, archive, true, null));
+            assertNull(butlerCache.getArchiveContent(repoConfig, archive, true, new FileSystemFilter().setSearchString("home")));
+
+            statistics = butlerCache.getArchiveContentMemoryCacheStatistics();
+            assertEquals(hitCount, statistics.getHitCount());
+            assertEquals(missCount, statistics.getMissCount());
+        } finally {
+            configuration.setLowMemoryMode(lowMemoryMode);
+            configuration.setBorgCommand(borgCommand);
+        }
+    }
+}
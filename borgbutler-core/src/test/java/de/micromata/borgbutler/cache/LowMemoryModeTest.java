@@ -0,0 +1,136 @@
+package de.micromata.borgbutler.cache;
+
+import de.micromata.borgbutler.config.BorgRepoConfig;
+import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.DiffFileSystemFilter;
+import de.micromata.borgbutler.data.FileSystemFilter;
+import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Browses and diffs two archives of 5,000,000 files each as done in low memory mode: the file lists are streamed into
+ * the cache while they're listed and streamed block by block from the cache for every request. As items on the heap
+ * the file list of one archive needs about 850 MB.
+ * <br>
+ * Run with a small heap by <tt>gradle :borgbutler-core:lowMemoryTest</tt>.
+ */
+@Tag("lowMemory")
+public class LowMemoryModeTest {
+    private static final int USERS = 100;
+    private static final int DIRS = 500;
+    private static final int FILES = 100;
+    private static final int NUMBER_OF_FILES = USERS * DIRS * FILES;
+
+    @Test
+    void browseAndDiffTest() throws Exception {
+        ArchiveFilelistCache cache = new ArchiveFilelistCache(new File("out"), 1000);
+        cache.removeAllCacheFiles();
+        BorgRepoConfig repoConfig = new BorgRepoConfig();
+        repoConfig.setRepo("repo");
+        Archive archive1 = new Archive().setId("1").setName("archive-2019-01-01").setTime("2019-01-01");
+        Archive archive2 = new Archive().setId("2").setName("archive-2019-01-02").setTime("2019-01-02");
+        ingest(cache, repoConfig, archive1, false);
+        ingest(cache, repoConfig, archive2, true);
+        Function<String, Stream<BorgFilesystemItem>> source1 = pathPrefix -> cache.stream(repoConfig, archive1, pathPrefix);
+        Function<String, Stream<BorgFilesystemItem>> source2 = pathPrefix -> cache.stream(repoConfig, archive2, pathPrefix);
+
+        // Tree view of the root: changes automatically to the single directory home.
+        List<BorgFilesystemItem> items = new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).filter(source1);
+        assertEquals(USERS, items.size());
+        assertEquals("home/user0", items.get(0).getPath());
+        items = new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory("home/user42/dir7")
+                .filter(source1);
+        assertEquals(FILES, items.size());
+        assertEquals("file0.txt", items.get(0).getDisplayPath());
+        // Looked up in the directory index stored with the file list (only the blocks of the children are read):
+        items = cache.loadDirectory(repoConfig, archive1, new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE)
+                .setCurrentDirectory("home/user42"));
+        assertEquals(DIRS, items.size());
+        assertEquals(FILES, (long) items.get(0).getSubtreeFileCount());
+        assertEquals((long) NUMBER_OF_FILES * (NUMBER_OF_FILES - 1) / 2, cache.loadDirectoryIndex(repoConfig, archive1).getTotalSize(""));
+        // Flat view (first page):
+        items = new FileSystemFilter().setMode(FileSystemFilter.Mode.FLAT).setMaxResultSize(50).filter(source1);
+        assertEquals(50, items.size());
+        items = new FileSystemFilter().setMode(FileSystemFilter.Mode.FLAT).setMaxResultSize(50)
+                .setSearchString("user42/dir7/file5").filter(source1);
+        assertEquals(11, items.size()); // file5.txt, file50.txt, ..., file59.txt
+        // Only the candidate blocks of the trigram index stored with the file list are read:
+        List<BorgFilesystemItem> searchItems = cache.search(repoConfig, archive1, new FileSystemFilter()
+                .setMode(FileSystemFilter.Mode.FLAT).setMaxResultSize(50).setSearchString("user42/dir7/file5"));
+        assertEquals(items.stream().map(BorgFilesystemItem::getPath).collect(Collectors.toList()),
+                searchItems.stream().map(BorgFilesystemItem::getPath).collect(Collectors.toList()));
+        items = new FileSystemFilter().setMode(FileSystemFilter.Mode.FLAT).setMaxResultSize(50).setMinSize((long) NUMBER_OF_FILES)
+                .filter(source2);
+        assertEquals(1, items.size());
+        assertEquals("home/user0/new.txt", items.get(0).getPath());
+
+        // Diff of the flat view (first page):
+        DiffFileSystemFilter diffFilter = new DiffFileSystemFilter();
+        diffFilter.setMode(FileSystemFilter.Mode.FLAT).setMaxResultSize(50);
+        items = diffFilter.extractDifferences(source2, source1);
+        assertEquals(50, items.size());
+        diffFilter = new DiffFileSystemFilter();
+        diffFilter.setMode(FileSystemFilter.Mode.FLAT).setMaxResultSize(500).setSearchString("user99/dir499/");
+        items = diffFilter.extractDifferences(source2, source1);
+        assertEquals(FILES, items.size());
+        for (BorgFilesystemItem item : items) {
+            assertEquals(BorgFilesystemItem.DiffStatus.REMOVED, item.getDiffStatus());
+        }
+        // Diff of the tree view: every 10th directory contains a modified file.
+        diffFilter = new DiffFileSystemFilter();
+        diffFilter.setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory("home/user0");
+        items = diffFilter.extractDifferences(source2, source1);
+        assertEquals(DIRS / 10 + 1, items.size());
+        assertEquals("home/user0/dir0", items.get(0).getPath());
+        assertEquals("home/user0/new.txt", items.get(items.size() - 1).getPath());
+        cache.removeAllCacheFiles();
+    }
+
+    /**
+     * The items are added in a scrambled order (as the external merge sort has to sort them anyway).
+     *
+     * @param modified If true, every 1,000th file is modified, the files of the last directory are removed and the file
+     *                 home/user0/new.txt is added.
+     */
+    private void ingest(ArchiveFilelistCache cache, BorgRepoConfig repoConfig, Archive archive, boolean modified) {
+        try (ArchiveFilelistIngest ingest = cache.createIngest(repoConfig, archive)) {
+            ingest.add(createDir("home"));
+            for (int user = 0; user < USERS; user++) {
+                ingest.add(createDir("home/user" + user));
+                for (int dir = 0; dir < DIRS; dir++) {
+                    ingest.add(createDir("home/user" + user + "/dir" + dir));
+                }
+            }
+            for (int i = 0; i < NUMBER_OF_FILES; i++) {
+                // 3,000,017 and 5,000,000 are coprime, so every file is added once:
+                int file = (int) ((long) i * 3_000_017 % NUMBER_OF_FILES);
+                int dir = file / FILES;
+                if (modified && dir == USERS * DIRS - 1) {
+                    continue;
+                }
+                ingest.add(new BorgFilesystemItem().setType("-").setMode("-rw-r--r--").setUser("kai").setGroup("staff")
+                        .setPath("home/user" + dir / DIRS + "/dir" + dir % DIRS + "/file" + file % FILES + ".txt")
+                        .setMtime("2019-01-01 12:00:00").setSize(modified && file % 1000 == 0 ? file + 1 : file));
+            }
+            if (modified) {
+                ingest.add(new BorgFilesystemItem().setType("-").setPath("home/user0/new.txt").setSize(NUMBER_OF_FILES));
+            }
+            assertTrue(ingest.finish());
+            assertNull(ingest.getItems(), "File list not held in memory.");
+        }
+    }
+
+    private BorgFilesystemItem createDir(String path) {
+        return new BorgFilesystemItem().setType("d").setMode("drwxr-xr-x").setUser("kai").setGroup("staff").setPath(path)
+                .setMtime("2019-01-01 12:00:00");
+    }
+}
@@ -3,11 +3,15 @@ package de.micromata.borgbutler.data;
 import de.micromata.borgbutler.json.borg.BorgFilesystemItem;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class FileSystemFilterTest {
     @Test
@@ -20,6 +24,7 @@ public class FileSystemFilterTest {
         assertNull(filter.getTopLevel("home"));
         assertEquals("kai", filter.getTopLevel("home/kai"));
         assertEquals("kai", filter.getTopLevel("home/kai/test.java"));
+        assertEquals("a", filter.getTopLevel("home/a"));
         assertNull(filter.getTopLevel("etc/test"));
         List<BorgFilesystemItem> list = createList();
         filter.setCurrentDirectory("").setMode(FileSystemFilter.Mode.TREE);
@@ -82,6 +87,291 @@ public class FileSystemFilterTest {
         assertEquals("test.txt", list.get(0).getDisplayPath()); // if Filter#autoChangeDirectoryToLeafItem == true works
     }
 
+    @Test
+    void attributeCriteriaTest() {
+        List<BorgFilesystemItem> list = createList();
+        list.get(2).setSize(2000).setMtime("2018-11-21T22:31:51.000000");
+        list.get(4).setSize(500).setMtime("2018-11-22T08:00:00.000000");
+        list.get(5).setSize(5000).setMtime("2018-11-23T08:00:00.000000");
+        assertEquals(2, count(list, new FileSystemFilter().setMinSize(1000L)));
+        assertEquals(2, count(list, new FileSystemFilter().setMinSize(500L).setMaxSize(2000L)));
+        assertEquals(2, count(list, new FileSystemFilter().setMtimeFrom("2018-11-22")));
+        assertEquals(1, count(list, new FileSystemFilter().setMtimeFrom("2018-11-22").setMtimeUntil("2018-11-22")));
+        assertEquals(1, count(list, new FileSystemFilter().setMtimeUntil("2018-11-21 22:31:51")));
+        assertEquals(9, count(list, new FileSystemFilter().setTypes("d")));
+        assertEquals(1, count(list, new FileSystemFilter().setTypes("-").setMinSize(1000L).setSearchString("test")));
+        assertEquals(list.size(), count(list, new FileSystemFilter().setMtimeFrom("invalid")));
+    }
+
+    @Test
+    void columnsTest() {
+        List<BorgFilesystemItem> list = createList();
+        list.get(2).setSize(2000).setMtime("2018-11-21T22:31:51.000000").setUser("kai").setGroup("staff")
+                .setUid(501).setGid(20).setHealthy(true).setFlags("0");
+        list.get(4).setPath("home/kai/borg/cäche").setLinktarget("../cache").setType("l");
+        list.get(5).setSource("home/kai/borg/cache").setSize(5000).setMtime("2018-11-23T08:00:00.000000");
+        for (int i = 0; i < list.size(); i++) {
+            list.get(i).setFileNumber(i); // The file number is the row of the columns.
+        }
+        FileSystemItemColumns columns = FileSystemItemColumns.create(list);
+        assertEquals(list.size(), columns.size());
+        for (int row = 0; row < list.size(); row++) {
+            BorgFilesystemItem item = columns.getItem(row);
+            BorgFilesystemItem expected = list.get(row);
+            assertEquals(expected, item);
+            assertEquals(row, item.getFileNumber());
+            assertEquals(expected.getSource(), item.getSource());
+            assertEquals(expected.getLinktarget(), item.getLinktarget());
+            assertEquals(expected.isHealthy(), item.isHealthy());
+            assertTrue(columns.isSame(row, columns, row));
+        }
+        assertFalse(columns.isSame(4, columns, 5));
+        assertTrue(columns.pathStartsWith(4, "home/kai/borg/cä".getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+        // The columns grow beyond the expected size:
+        FileSystemItemColumns.Builder builder = new FileSystemItemColumns.Builder(1);
+        for (int i = 0; i < 1000; i++) {
+            builder.add(list.get(i % list.size()));
+        }
+        FileSystemItemColumns grown = builder.build();
+        assertEquals(1000, grown.size());
+        assertEquals(list.get(999 % list.size()), grown.getItem(999));
+
+        // Same results for lists, columns and streams:
+        assertSameResults(list, columns, new FileSystemFilter().setMinSize(1000L));
+        assertSameResults(list, columns, new FileSystemFilter().setMtimeFrom("2018-11-22"));
+        assertSameResults(list, columns, new FileSystemFilter().setTypes("-").setSearchString("test"));
+        assertSameResults(list, columns, new FileSystemFilter().setSearchString("borg !config").setMaxResultSize(1));
+        assertSameResults(list, columns, new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE));
+        assertSameResults(list, columns, new FileSystemFilter().setCurrentDirectory("home").setMode(FileSystemFilter.Mode.TREE));
+        assertSameResults(list, columns, new FileSystemFilter().setCurrentDirectory("opt").setMode(FileSystemFilter.Mode.TREE));
+        assertSameResults(list, columns, new FileSystemFilter().setCurrentDirectory("home/admin").setMode(FileSystemFilter.Mode.TREE));
+        assertSameResults(list, columns, new FileSystemFilter().setFileNumber(5));
+    }
+
+    @Test
+    void directoryIndexTest() throws IOException {
+        List<BorgFilesystemItem> list = createList();
+        list.get(2).setSize(100); // home/admin/Documents/www/home/test.txt
+        list.get(4).setSize(20);  // home/kai/borg/cache
+        list.get(5).setSize(3);   // home/kai/borg/config
+        list.get(8).setSize(1);   // home/.bashrc
+        list.get(16).setSize(1000); // opt/vbox-backups/...
+        FileSystemItemColumns columns = FileSystemItemColumns.create(list);
+        DirectoryIndex index = columns.getDirectoryIndex();
+        assertSame(index, columns.getDirectoryIndex());
+        // Root, home, admin, Documents, www, home, kai, borg, Java, .borgbutler, etc, apache, opt, openhab, addons,
+        // conf and vbox-backups:
+        assertEquals(17, index.getDirectoryCount());
+        assertEquals(8, index.getFileCount(""));
+        assertEquals(1124, index.getTotalSize(null));
+        assertEquals(6, index.getFileCount("home/"));
+        assertEquals(124, index.getTotalSize("home"));
+        assertEquals(23, index.getTotalSize("home/kai/borg"));
+        assertEquals(1000, index.getTotalSize("opt"));
+        assertEquals(0, index.getFileCount("opt/openhab"));
+        assertEquals(0, index.getFileCount("unknown"));
+
+        List<BorgFilesystemItem> children = index.getChildren(columns, "home");
+        assertEquals(4, children.size());
+        assertEquals("home/admin", children.get(0).getPath());
+        assertEquals(1, children.get(0).getFileNumber());
+        assertEquals(100L, (long) children.get(0).getSubtreeSize());
+        assertEquals("home/kai", children.get(1).getPath());
+        assertEquals(4L, (long) children.get(1).getSubtreeFileCount());
+        assertEquals("home/.bashrc", children.get(2).getPath());
+        assertNull(children.get(2).getSubtreeSize(), "No totals for files.");
+        assertEquals("home/.borgbutler", children.get(3).getPath());
+        assertEquals(0L, (long) children.get(3).getSubtreeFileCount());
+        children = index.getChildren(columns, "");
+        assertEquals("opt", children.get(2).getPath());
+        assertEquals(-1, children.get(2).getFileNumber()); // Synthetic (mount point).
+        assertEquals(1000L, (long) children.get(2).getSubtreeSize());
+        assertTrue(index.getChildren(columns, "home/.bashrc").isEmpty());
+
+        List<BorgFilesystemItem> items = new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE)
+                .setCurrentDirectory("home").reduce(columns, index);
+        assertEquals("admin", items.get(0).getDisplayPath());
+        assertEquals(".bashrc", items.get(2).getDisplayPath());
+        assertEquals(".borgbutler", items.get(3).getDisplayPath());
+        BorgFilesystemItem kai = columns.getItem(3);
+        assertSame(kai, index.applyTotals(kai));
+        assertEquals(23L, (long) kai.getSubtreeSize());
+        assertFalse(new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).setSearchString("kai").isDirectoryLookup());
+        assertFalse(new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).setMinSize(1L).isDirectoryLookup());
+        assertFalse(new FileSystemFilter().setMode(FileSystemFilter.Mode.FLAT).isDirectoryLookup());
+
+        // As written to the cache file:
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DirectoryIndex.Builder builder = new DirectoryIndex.Builder();
+        for (int row = 0; row < columns.size(); row++) {
+            builder.add(row, columns.getPath(row), columns.getType(row), columns.getSize(row));
+        }
+        builder.writeTo(out);
+        DirectoryIndex readIndex = DirectoryIndex.read(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(17, readIndex.getDirectoryCount());
+        assertEquals(1124, readIndex.getTotalSize(""));
+        assertEquals(23, readIndex.getTotalSize("home/kai/borg"));
+        assertArrayEquals(new int[]{4, 8}, readIndex.getSubtreeRows("home/kai"));
+        assertArrayEquals(new int[]{1, 10}, readIndex.getSubtreeRows("home/"));
+        assertNull(readIndex.getSubtreeRows("unknown"));
+        items = new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).setCurrentDirectory("home")
+                .reduce(readIndex, rows -> Arrays.stream(rows).mapToObj(columns::getItem).collect(Collectors.toList()));
+        assertEquals(4, items.size());
+        assertEquals("kai", items.get(1).getDisplayPath());
+        assertEquals(23L, (long) items.get(1).getSubtreeSize());
+        assertNull(new FileSystemFilter().setMode(FileSystemFilter.Mode.TREE).reduce(readIndex, rows -> null),
+                "Items not readable.");
+        assertThrows(IOException.class, () -> DirectoryIndex.read(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+
+        // Directories occurring again after other directories (not sorted case sensitive):
+        List<BorgFilesystemItem> unsorted = new ArrayList<>();
+        unsorted.add(create("a", true));
+        unsorted.add(create("a/x", false).setSize(1));
+        unsorted.add(create("A/y", false).setSize(2));
+        unsorted.add(create("a/z", false).setSize(4));
+        DirectoryIndex unsortedIndex = FileSystemItemColumns.create(unsorted).getDirectoryIndex();
+        assertEquals(3, unsortedIndex.getDirectoryCount());
+        assertEquals(5, unsortedIndex.getTotalSize("a"));
+        assertArrayEquals(new int[]{1, 4}, unsortedIndex.getSubtreeRows("a"));
+        children = unsortedIndex.getChildren("a", rows -> Arrays.stream(rows).mapToObj(unsorted::get).collect(Collectors.toList()));
+        assertEquals(2, children.size());
+        assertEquals("a/x", children.get(0).getPath());
+        assertEquals("a/z", children.get(1).getPath());
+        children = unsortedIndex.getChildren("", rows -> Arrays.stream(rows).mapToObj(unsorted::get).collect(Collectors.toList()));
+        assertEquals(2, children.size(), "a listed once.");
+        assertEquals(5L, (long) children.get(0).getSubtreeSize());
+    }
+
+    @Test
+    void pathTrigramIndexTest() throws IOException {
+        List<BorgFilesystemItem> list = new ArrayList<>();
+        for (int dir = 0; dir < 100; dir++) {
+            list.add(create("home/user" + dir % 7 + "/Dir" + dir, true));
+            for (int file = 0; file < 50; file++) {
+                list.add(create("home/user" + dir % 7 + "/Dir" + dir + "/file" + file + (file % 3 == 0 ? ".java" : ".txt"), false));
+            }
+        }
+        list.add(create("home/kai/Größe.txt", false));
+        FileSystemItemColumns columns = FileSystemItemColumns.create(list);
+        PathTrigramIndex index = columns.getPathTrigramIndex();
+        assertSame(index, columns.getPathTrigramIndex());
+        assertTrue(index.getTrigramCount() > 0);
+        assertNull(index.getCandidates(new FileSystemFilter().setSearchString("d1 !x").getSearchKeyWords()));
+        assertEquals(0, index.getCandidates(new FileSystemFilter().setSearchString("xyz").getSearchKeyWords()).length);
+        assertEquals(1, index.getCandidates(new FileSystemFilter().setSearchString("GRÖSSE").getSearchKeyWords()).length
+                + index.getCandidates(new FileSystemFilter().setSearchString("größe").getSearchKeyWords()).length);
+        for (String searchString : new String[]{"dir4", "DIR42/", "file1 java", "user3 dir9 !.txt", "dir1 /file4",
+                "home", "r1/f", "größe", "ile48.java"}) {
+            String[] keyWords = new FileSystemFilter().setSearchString(searchString).getSearchKeyWords();
+            FileSystemFilter scanFilter = new FileSystemFilter().setSearchString(searchString);
+            List<Integer> expected = new ArrayList<>();
+            for (int row = 0; row < columns.size(); row++) {
+                if (scanFilter.matches(columns, row)) {
+                    expected.add(row);
+                }
+            }
+            FileSystemFilter indexFilter = new FileSystemFilter().setSearchString(searchString);
+            List<Integer> rows = new ArrayList<>();
+            int[] candidates = index.getCandidates(keyWords);
+            for (int i = 1; i < candidates.length; i++) {
+                assertTrue(candidates[i - 1] < candidates[i], "Candidates sorted.");
+            }
+            for (int row : candidates) {
+                if (indexFilter.matches(columns, row)) {
+                    rows.add(row);
+                }
+            }
+            assertFalse(expected.isEmpty(), searchString);
+            assertEquals(expected, rows, searchString);
+        }
+        // Only the candidates are checked:
+        assertEquals(100, index.getCandidates(new FileSystemFilter().setSearchString("file49").getSearchKeyWords()).length);
+
+        // Written and read as section of a cache file, the rows (blocks) may be added several times:
+        PathTrigramIndex.Builder builder = new PathTrigramIndex.Builder();
+        for (int row = 0; row < list.size(); row++) {
+            builder.add(row, list.get(row).getPath());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeTo(out);
+        PathTrigramIndex readIndex = PathTrigramIndex.read(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(index.getTrigramCount(), readIndex.getTrigramCount());
+        PathTrigramIndex.Builder blockBuilder = new PathTrigramIndex.Builder();
+        for (int row = 0; row < list.size(); row++) {
+            blockBuilder.add(row / 100, list.get(row).getPath());
+        }
+        PathTrigramIndex blockIndex = blockBuilder.build();
+        for (String searchString : new String[]{"dir4", "file1 java", "user3 dir9 !.txt", "home", "größe", "ile48.java", "xyz"}) {
+            String[] keyWords = new FileSystemFilter().setSearchString(searchString).getSearchKeyWords();
+            int[] candidates = index.getCandidates(keyWords);
+            assertArrayEquals(candidates, readIndex.getCandidates(keyWords), searchString);
+            // The blocks of the candidates (and blocks containing the key words in different items):
+            List<Integer> blocks = Arrays.stream(blockIndex.getCandidates(keyWords)).boxed().collect(Collectors.toList());
+            assertTrue(blocks.containsAll(Arrays.stream(candidates).map(row -> row / 100).boxed().collect(Collectors.toList())), searchString);
+            assertTrue(blocks.size() <= list.size() / 100 + 1, searchString);
+        }
+        assertTrue(PathTrigramIndex.isNarrowing(new FileSystemFilter().setSearchString("dir4")));
+        assertFalse(PathTrigramIndex.isNarrowing(new FileSystemFilter().setSearchString("dir4").setMode(FileSystemFilter.Mode.TREE)));
+        assertThrows(IOException.class, () -> PathTrigramIndex.read(ByteBuffer.allocate(5)));
+    }
+
+    private void assertSameResults(List<BorgFilesystemItem> list, FileSystemItemColumns columns, FileSystemFilter filter) {
+        FileSystemFilter columnsFilter = filter.clone();
+        FileSystemFilter streamFilter = filter.clone();
+        FileSystemFilter indexFilter = filter.clone();
+        List<BorgFilesystemItem> items = new ArrayList<>();
+        for (BorgFilesystemItem origItem : list) {
+            BorgFilesystemItem item = origItem.clone();
+            if (filter.matches(item)) {
+                items.add(item);
+                if (filter.isFinished()) break;
+            }
+        }
+        items = filter.reduce(items);
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++) {
+            if (columnsFilter.matches(columns, row)) {
+                rows.add(row);
+                if (columnsFilter.isFinished()) break;
+            }
+        }
+        List<BorgFilesystemItem> columnsItems = columnsFilter.reduce(columns, rows.stream().mapToInt(Integer::intValue).toArray());
+        assertEquals(items.size(), columnsItems.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i).getPath(), columnsItems.get(i).getPath());
+            assertEquals(items.get(i).getDisplayPath(), columnsItems.get(i).getDisplayPath());
+            assertEquals(items.get(i).getType(), columnsItems.get(i).getType());
+        }
+        // The source ignores the directory (the streams may contain items outside):
+        List<BorgFilesystemItem> streamedItems = streamFilter.filter(dir -> list.stream().map(BorgFilesystemItem::clone));
+        assertEquals(items.size(), streamedItems.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i).getPath(), streamedItems.get(i).getPath());
+            assertEquals(items.get(i).getDisplayPath(), streamedItems.get(i).getDisplayPath());
+        }
+        if (!filter.isDirectoryLookup()) {
+            return;
+        }
+        List<BorgFilesystemItem> indexItems = indexFilter.reduce(columns, columns.getDirectoryIndex());
+        assertEquals(items.size(), indexItems.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(items.get(i).getPath(), indexItems.get(i).getPath());
+            assertEquals(items.get(i).getDisplayPath(), indexItems.get(i).getDisplayPath());
+            assertEquals(items.get(i).getType(), indexItems.get(i).getType());
+            assertEquals(items.get(i).getFileNumber(), indexItems.get(i).getFileNumber());
+        }
+    }
+
+    private int count(List<BorgFilesystemItem> list, FileSystemFilter filter) {
+        int counter = 0;
+        for (BorgFilesystemItem item : list) {
+            if (filter.matches(item)) {
+                ++counter;
+            }
+        }
+        return counter;
+    }
+
     private BorgFilesystemItem create(String path, boolean directory) {
         BorgFilesystemItem item = new BorgFilesystemItem().setPath(path);
         if (directory) {
@@ -0,0 +1,151 @@
+package de.micromata.borgbutler.json.borg;
+
+import de.micromata.borgbutler.json.JsonUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BorgFilesystemItemTest {
+    @Test
+    void modeTest() {
+        for (String mode : new String[]{"drwxr-xr-x", "-rw-r--r--", "----------", "lrwxrwxrwx", "-rwsr-sr-x",
+                "-rwSr-Sr--", "drwxrwxrwt", "drwxrwx--T", "brw-rw----", "crw-rw-rw-", "prw-------", "srwxrwxrwx"}) {
+            assertEquals(mode, new BorgFilesystemItem().setMode(mode).getMode());
+        }
+        // Not in the format of ls, stored as given:
+        for (String mode : new String[]{"", "rwxr-xr-x", "?rwxr-xr-x", "-rwxr-xr-xx", "-rwsr-xr-q", "-rwxr-xr-s"}) {
+            assertEquals(mode, new BorgFilesystemItem().setMode(mode).getMode());
+        }
+        assertNull(new BorgFilesystemItem().getMode());
+        assertNull(new BorgFilesystemItem().setMode("drwxr-xr-x").setMode(null).getMode());
+        assertEquals(new BorgFilesystemItem().setMode("-rw-r--r--"), new BorgFilesystemItem().setMode("-rw-r--r--"));
+        assertNotEquals(new BorgFilesystemItem().setMode("-rw-r--r--"), new BorgFilesystemItem().setMode("-rw-r--r-x"));
+    }
+
+    @Test
+    void mtimeTest() {
+        BorgFilesystemItem item = new BorgFilesystemItem().setMtime("2018-11-21 22:31:51");
+        assertEquals("2018-11-21 22:31:51", item.getMtime());
+        assertEquals(1542839511L, item.getMtimeEpochSeconds());
+        // Borg's format is normalized:
+        assertEquals("2018-11-21 22:31:51", item.setMtime("2018-11-21T22:31:51.123456").getMtime());
+        assertEquals(1542839511L, item.getMtimeEpochSeconds());
+        assertEquals("2018-11-21 22:31:51", new BorgFilesystemItem().setMtimeEpochSeconds(1542839511L).getMtime());
+        // Other formats are stored as given:
+        for (String mtime : new String[]{"2018-11-22", "2018-02-30 00:00:00", "2018-11-21 22:31:51.5"}) {
+            assertEquals(mtime, item.setMtime(mtime).getMtime());
+            assertEquals(Long.MIN_VALUE, item.getMtimeEpochSeconds());
+        }
+        assertNull(item.setMtime(null).getMtime());
+        assertNull(new BorgFilesystemItem().getMtime());
+        assertEquals(new BorgFilesystemItem().setMtime("2018-11-21T22:31:51.000000"), new BorgFilesystemItem().setMtime("2018-11-21 22:31:51"));
+        assertNotEquals(new BorgFilesystemItem().setMtime("2018-11-22"), new BorgFilesystemItem().setMtime("2018-11-23"));
+    }
+
+    @Test
+    void jsonTest() {
+        String line = "{\"type\": \"-\", \"mode\": \"-rwsr-x--T\", \"user\": \"kai\", \"group\": \"staff\", \"uid\": 501, \"gid\": 20, "
+                + "\"path\": \"home/kai/x.txt\", \"healthy\": true, \"source\": \"\", \"linktarget\": \"\", \"flags\": null, "
+                + "\"mtime\": \"2018-11-21T22:31:51.123456\", \"size\": 712}";
+        BorgFilesystemItem item = JsonUtils.fromJson(BorgFilesystemItem.class, line).intern().setFileNumber(3);
+        assertSame("staff", item.getGroup());
+        assertEquals("{\"type\":\"-\",\"mode\":\"-rwsr-x--T\",\"user\":\"kai\",\"group\":\"staff\",\"uid\":501,\"gid\":20,"
+                + "\"path\":\"home/kai/x.txt\",\"healthy\":true,\"source\":\"\",\"linktarget\":\"\",\"mtime\":\"2018-11-21 22:31:51\","
+                + "\"size\":712,\"fileNumber\":3}", JsonUtils.toJson(item));
+        assertEquals("{\"uid\":0,\"gid\":0,\"path\":\"a\",\"healthy\":false,\"size\":0,\"fileNumber\":-1}",
+                JsonUtils.toJson(new BorgFilesystemItem().setPath("a")));
+        BorgFilesystemItem clone = item.clone();
+        assertEquals(item, clone);
+        assertEquals(item.hashCode(), clone.hashCode());
+        assertEquals(JsonUtils.toJson(item), JsonUtils.toJson(clone));
+    }
+
+    @Test
+    void parserTest() {
+        String[] lines = {
+                "{\"type\": \"-\", \"mode\": \"-rwsr-x--T\", \"user\": \"kai\", \"group\": \"staff\", \"uid\": 501, \"gid\": 20, "
+                        + "\"path\": \"home/kai/x.txt\", \"healthy\": true, \"source\": \"\", \"linktarget\": \"\", \"flags\": null, "
+                        + "\"mtime\": \"2018-11-21T22:31:51.123456\", \"size\": 712}",
+                "{\"type\": \"l\", \"mode\": \"lrwxrwxrwx\", \"user\": \"root\", \"group\": \"wheel\", \"uid\": 0, \"gid\": 0, "
+                        + "\"path\": \"home/k\\u00e4i/\\\"link\\\"\", \"healthy\": false, \"source\": \"home/kai/x.txt\", "
+                        + "\"linktarget\": \"home/kai/x.txt\", \"flags\": \"0\", \"mtime\": \"2018-11-22\", \"size\": 0}",
+                // Unknown fields and missing values:
+                "{\"path\": \"home\", \"type\": \"d\", \"isomtime\": \"2018-11-21T22:31:51\", \"xattrs\": {\"a\": [1, 2]}, "
+                        + "\"chunks\": [[1, 2]], \"user\": null, \"mtime\": null}"};
+        BorgFilesystemItemParser parser = new BorgFilesystemItemParser();
+        BorgFilesystemItem previous = null;
+        for (String line : lines) {
+            BorgFilesystemItem expected = JsonUtils.fromJson(BorgFilesystemItem.class, line).intern();
+            BorgFilesystemItem item = parser.parse(line);
+            assertEquals(expected, item);
+            assertEquals(JsonUtils.toJson(expected), JsonUtils.toJson(item));
+            assertSame(expected.getType(), item.getType());
+            assertSame(expected.getUser(), item.getUser());
+            if (previous != null) {
+                assertNotSame(previous.getPath(), item.getPath());
+            }
+            previous = item;
+        }
+        assertEquals("home/k\u00e4i/\"link\"", parser.parse(lines[1]).getPath());
+        assertEquals("2018-11-22", parser.parse(lines[1]).getMtime());
+        assertSame(parser.parse(lines[0]).getGroup(), parser.parse(lines[0]).getGroup());
+        assertNull(parser.parse("[1, 2]"));
+        assertNull(parser.parse("{\"path\": "));
+    }
+
+    @Test
+    void listFormatParserTest() throws Exception {
+        assertEquals(12, StringUtils.countMatches(BorgListFormatParser.FORMAT, "{NUL}"));
+        String[][] records = {
+                // type, mode, user, group, uid, gid, size, isomtime, health, flags, path, linktarget
+                {"d", "drwxr-xr-x", "kai", "staff", "501", "20", "0", "2018-11-21T22:31:51.123456", "healthy", "None", "home/kai", ""},
+                {"-", "-rw-r--r--", "kai", "staff", "501", "20", "712", "2018-11-21T22:31:51", "healthy", "0", "home/kai/x\ty\n\u00e4.txt", ""},
+                {"l", "lrwxrwxrwx", "None", "None", "4711", "4711", "7", "2018-11-22", "broken", "None", "home/kai/link", "x.txt"}};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String[] record : records) {
+            for (String field : record) {
+                out.write(field.getBytes(StandardCharsets.UTF_8));
+                out.write(0);
+            }
+        }
+        byte[] bytes = out.toByteArray();
+        for (int chunkSize : new int[]{1, 7, bytes.length}) {
+            List<BorgFilesystemItem> items = new ArrayList<>();
+            BorgListFormatParser parser = new BorgListFormatParser(items::add);
+            for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+                if (chunkSize == 1) {
+                    parser.write(bytes[offset]);
+                } else {
+                    parser.write(bytes, offset, Math.min(chunkSize, bytes.length - offset));
+                }
+            }
+            assertTrue(parser.isComplete());
+            assertEquals(3, parser.getItemCount());
+            assertEquals(new BorgFilesystemItem().setType("d").setMode("drwxr-xr-x").setUser("kai").setGroup("staff")
+                    .setUid(501).setGid(20).setMtime("2018-11-21 22:31:51").setHealthy(true).setPath("home/kai")
+                    .setLinktarget("").setSource(""), items.get(0));
+            assertEquals("home/kai/x\ty\n\u00e4.txt", items.get(1).getPath());
+            assertEquals(712, items.get(1).getSize());
+            assertEquals("0", items.get(1).getFlags());
+            assertEquals(1542839511L, items.get(1).getMtimeEpochSeconds());
+            assertSame(items.get(0).getUser(), items.get(1).getUser());
+            BorgFilesystemItem link = items.get(2);
+            assertNull(link.getUser());
+            assertNull(link.getFlags());
+            assertFalse(link.isHealthy());
+            assertEquals("2018-11-22", link.getMtime());
+            assertEquals("x.txt", link.getLinktarget());
+            assertEquals("x.txt", link.getSource());
+            assertEquals(4711, link.getGid());
+        }
+        BorgListFormatParser parser = new BorgListFormatParser(item -> fail("Incomplete item."));
+        parser.write(bytes, 0, 10);
+        assertFalse(parser.isComplete());
+    }
+}
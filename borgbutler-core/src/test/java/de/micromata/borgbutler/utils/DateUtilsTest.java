@@ -14,4 +14,20 @@ public class DateUtilsTest {
     void parseTest() {
         assertEquals("2018-11-21 22:31:51",DateUtils.format("2018-11-21T22:31:51.000000"));
     }
+
+    @Test
+    void toEpochSecondsTest() {
+        assertEquals(1542839511L, DateUtils.toEpochSeconds("2018-11-21T22:31:51.000000"));
+        assertEquals(1542839511L, DateUtils.toEpochSeconds("2018-11-21 22:31:51"));
+        assertEquals(Long.MIN_VALUE, DateUtils.toEpochSeconds("2018-11-21"));
+        assertEquals(Long.MIN_VALUE, DateUtils.toEpochSeconds("2018-13-21 22:31:51"));
+        assertEquals(Long.MIN_VALUE, DateUtils.toEpochSeconds(null));
+    }
+
+    @Test
+    void formatEpochSecondsTest() {
+        assertEquals("2018-11-21 22:31:51", DateUtils.format(1542839511L));
+        assertEquals("2018-11-22 09:07:01", DateUtils.format(DateUtils.toEpochSeconds("2018-11-22 09:07:01")));
+        assertEquals("0001-01-01 00:00:00", DateUtils.format(DateUtils.toEpochSeconds("0001-01-01 00:00:00")));
+    }
 }
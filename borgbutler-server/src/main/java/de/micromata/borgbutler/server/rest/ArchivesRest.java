@@ -5,6 +5,9 @@ import de.micromata.borgbutler.cache.ButlerCache;
 import de.micromata.borgbutler.config.BorgRepoConfig;
 import de.micromata.borgbutler.config.ConfigurationHandler;
 import de.micromata.borgbutler.data.Archive;
+import de.micromata.borgbutler.data.ArchivePathInfo;
+import de.micromata.borgbutler.data.ArchivePathVersion;
+import de.micromata.borgbutler.data.ArchiveStatistics;
 import de.micromata.borgbutler.data.DiffFileSystemFilter;
 import de.micromata.borgbutler.data.FileSystemFilter;
 import de.micromata.borgbutler.data.Repository;
@@ -52,12 +55,38 @@ public class ArchivesRest {
         return JsonUtils.toJson(archive, prettyPrinter);
     }
 
+    /**
+     * Pins or unpins the cached file list of an archive: pinned file lists are never evicted from the cache.
+     *
+     * @param repoName      Id or name of repository.
+     * @param archiveId     Id or name of archive.
+     * @param pinned        True for pinning, false for unpinning.
+     * @param prettyPrinter If true then the json output will be in pretty format.
+     * @return Archive as json string (null, if the file list of the archive isn't cached).
+     * @see ButlerCache#pinCachedArchiveContent(String, String, boolean)
+     */
+    @GET
+    @Path("pin")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String pin(@QueryParam("repo") String repoName,
+                      @QueryParam("archiveId") String archiveId,
+                      @QueryParam("pinned") boolean pinned,
+                      @QueryParam("prettyPrinter") boolean prettyPrinter) {
+        Archive archive = ButlerCache.getInstance().pinCachedArchiveContent(repoName, archiveId, pinned);
+        return JsonUtils.toJson(archive, prettyPrinter);
+    }
+
     /**
      * @param archiveId                     Id or name of archive.
      * @param searchString                  The string to search for (key words separated by white chars, trailing ! char represents exclude).
      * @param mode                          Flat (default) or tree.
      * @param currentDirectory              The current displayed directory (only files and directories contained will be returned).
      * @param maxResultSize                 maximum number of file items to return (default is 50).
+     * @param minFileSize                   If given, only items with at least this size (in bytes) will be returned.
+     * @param maxFileSize                   If given, only items with at most this size (in bytes) will be returned.
+     * @param mtimeFrom                     If given, only items modified at or after this time (yyyy-MM-dd HH:mm:ss or yyyy-MM-dd) will be returned.
+     * @param mtimeUntil                    If given, only items modified at or before this time (yyyy-MM-dd HH:mm:ss or yyyy-MM-dd) will be returned.
+     * @param types                         If given, only items of these types will be returned (e. g. '-' for files or 'dl' for directories and links).
      * @param diffArchiveId                 If given, the differences between archiveId and diffArchiveId will be returned.
      * @param autoChangeDirectoryToLeafItem If given, this method will step automatically into single sub directories.
      * @param force                         If false (default), non cached file lists will not be loaded by borg.
@@ -73,6 +102,11 @@ public class ArchivesRest {
                                      @QueryParam("mode") String mode,
                                      @QueryParam("currentDirectory") String currentDirectory,
                                      @QueryParam("maxResultSize") String maxResultSize,
+                                     @QueryParam("minSize") String minFileSize,
+                                     @QueryParam("maxSize") String maxFileSize,
+                                     @QueryParam("mtimeFrom") String mtimeFrom,
+                                     @QueryParam("mtimeUntil") String mtimeUntil,
+                                     @QueryParam("types") String types,
                                      @QueryParam("diffArchiveId") String diffArchiveId,
                                      @QueryParam("autoChangeDirectoryToLeafItem") boolean autoChangeDirectoryToLeafItem,
                                      @QueryParam("force") boolean force,
@@ -82,17 +116,18 @@ public class ArchivesRest {
         FileSystemFilter filter = diffMode ? new DiffFileSystemFilter() : new FileSystemFilter();
         filter.setSearchString(searchString)
                 .setCurrentDirectory(currentDirectory)
-                .setAutoChangeDirectoryToLeafItem(autoChangeDirectoryToLeafItem);
+                .setAutoChangeDirectoryToLeafItem(autoChangeDirectoryToLeafItem)
+                .setMinSize(toLong(minFileSize))
+                .setMaxSize(toLong(maxFileSize))
+                .setMtimeFrom(mtimeFrom)
+                .setMtimeUntil(mtimeUntil)
+                .setTypes(types);
         List<BorgFilesystemItem> items = null;
         if (diffMode) {
             filter.setMode(FileSystemFilter.Mode.FLAT);
-            items = ButlerCache.getInstance().getArchiveContent(archiveId, true, filter);
-            List<BorgFilesystemItem> diffItems = ButlerCache.getInstance().getArchiveContent(diffArchiveId, true,
-                    filter);
             filter.setMaxResultSize(maxSize)
                     .setMode(mode);
-            items = ((DiffFileSystemFilter) filter).extractDifferences(items, diffItems);
-            items = filter.reduce(items);
+            items = ButlerCache.getInstance().getArchiveDifferences(archiveId, diffArchiveId, (DiffFileSystemFilter) filter);
         } else {
             filter.setMode(mode)
                     .setMaxResultSize(maxSize);
@@ -106,6 +141,63 @@ public class ArchivesRest {
         return JsonUtils.toJson(items, prettyPrinter);
     }
 
+    /**
+     * @param repoName      Id or name of repository.
+     * @param path          The path to search for (exact path).
+     * @param prettyPrinter If true then the json output will be in pretty format.
+     * @return All archives of the repository with the flag containsPath (null for archives whose file lists aren't
+     * cached) as json string.
+     * @see ButlerCache#containsPath(String, String)
+     */
+    @GET
+    @Path("containsPath")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String containsPath(@QueryParam("repo") String repoName,
+                               @QueryParam("path") String path,
+                               @QueryParam("prettyPrinter") boolean prettyPrinter) {
+        List<ArchivePathInfo> result = ButlerCache.getInstance().containsPath(repoName, path);
+        return JsonUtils.toJson(result, prettyPrinter);
+    }
+
+    /**
+     * @param repoName      Id or name of repository.
+     * @param path          The path of the file (exact path).
+     * @param prettyPrinter If true then the json output will be in pretty format.
+     * @return All versions of the file (archive, size and mtime) across the archives of the repository, whose file
+     * lists are or were cached, as json string.
+     * @see ButlerCache#getPathHistory(String, String)
+     */
+    @GET
+    @Path("pathHistory")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getPathHistory(@QueryParam("repo") String repoName,
+                                 @QueryParam("path") String path,
+                                 @QueryParam("prettyPrinter") boolean prettyPrinter) {
+        List<ArchivePathVersion> result = ButlerCache.getInstance().getPathHistory(repoName, path);
+        return JsonUtils.toJson(result, prettyPrinter);
+    }
+
+    /**
+     * @param archiveId     Id of archive.
+     * @param force         If false (default), non cached file lists will not be loaded by borg.
+     * @param prettyPrinter If true then the json output will be in pretty format.
+     * @return The statistics of the archive content (totals, largest files, totals per extension, user, group and type)
+     * as json string.
+     * @see ButlerCache#getArchiveStatistics(String, boolean)
+     */
+    @GET
+    @Path("statistics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getArchiveStatistics(@QueryParam("archiveId") String archiveId,
+                                       @QueryParam("force") boolean force,
+                                       @QueryParam("prettyPrinter") boolean prettyPrinter) {
+        ArchiveStatistics statistics = ButlerCache.getInstance().getArchiveStatistics(archiveId, force);
+        if (statistics == null) {
+            return "{\"mode\": \"notLoaded\"}";
+        }
+        return JsonUtils.toJson(statistics, prettyPrinter);
+    }
+
     /**
      * @param archiveId
      * @param openDownloads
@@ -118,21 +210,13 @@ public class ArchivesRest {
                             @QueryParam("openDownloads") boolean openDownloads,
                             @QueryParam("fileNumber") int fileNumber) {
         log.info("Requesting file #" + fileNumber + " of archive '" + archiveId + "'.");
-        FileSystemFilter filter = new FileSystemFilter().setFileNumber(fileNumber);
-        List<BorgFilesystemItem> items = ButlerCache.getInstance().getArchiveContent(archiveId, false,
-                filter);
-        if (CollectionUtils.isEmpty(items)) {
+        BorgFilesystemItem item = ButlerCache.getInstance().getArchiveContentItem(archiveId, fileNumber);
+        if (item == null) {
             log.error("Requested file #" + fileNumber + " not found in archive '" + archiveId
                     + ". (May-be the archive content isn't yet loaded to the cache.");
             Response.ResponseBuilder builder = Response.status(Response.Status.NOT_FOUND);
             return builder.build();
         }
-        if (items.size() != 1) {
-            log.error("Requested file #" + fileNumber + " found multiple times (" + items.size() + ") in archive '" + archiveId
-                    + "! Please remove the archive files (may-be corrupted).");
-            Response.ResponseBuilder builder = Response.status(404);
-            return builder.build();
-        }
         Archive archive = ButlerCache.getInstance().getArchive(archiveId);
         if (archive == null) {
             Response.ResponseBuilder builder = Response.status(Response.Status.NOT_FOUND);
@@ -140,7 +224,6 @@ public class ArchivesRest {
         }
         BorgRepoConfig repoConfig = ConfigurationHandler.getConfiguration().getRepoConfig(archive.getRepoId());
         try {
-            BorgFilesystemItem item = items.get(0);
             File restoreHomeDir = ConfigurationHandler.getConfiguration().getRestoreHomeDir();
             File restoreDir = BorgCommands.extractFiles(restoreHomeDir, repoConfig, archive, item.getPath());
             List<java.nio.file.Path> files = DirUtils.listFiles(restoreDir.toPath());
@@ -217,4 +300,9 @@ public class ArchivesRest {
             }
         }*/
     }
+
+    private Long toLong(String value) {
+        value = StringUtils.trim(value);
+        return NumberUtils.isDigits(value) ? Long.valueOf(value) : null;
+    }
 }
@@ -1,6 +1,7 @@
 package de.micromata.borgbutler.server.rest;
 
 import de.micromata.borgbutler.BorgQueueStatistics;
+import de.micromata.borgbutler.cache.ArchiveFilelistMemoryCacheStatistics;
 import de.micromata.borgbutler.server.BorgVersion;
 
 /**
@@ -15,6 +16,8 @@ public class SystemInfo {
 
     private BorgVersion borgVersion;
 
+    private ArchiveFilelistMemoryCacheStatistics archiveContentMemoryCacheStatistics;
+
     public BorgQueueStatistics getQueueStatistics() {
         return this.queueStatistics;
     }
@@ -27,6 +30,10 @@ public class SystemInfo {
         return this.borgVersion;
     }
 
+    public ArchiveFilelistMemoryCacheStatistics getArchiveContentMemoryCacheStatistics() {
+        return this.archiveContentMemoryCacheStatistics;
+    }
+
     public SystemInfo setQueueStatistics(BorgQueueStatistics queueStatistics) {
         this.queueStatistics = queueStatistics;
         return this;
@@ -41,4 +48,9 @@ public class SystemInfo {
         this.borgVersion = borgVersion;
         return this;
     }
+
+    public SystemInfo setArchiveContentMemoryCacheStatistics(ArchiveFilelistMemoryCacheStatistics archiveContentMemoryCacheStatistics) {
+        this.archiveContentMemoryCacheStatistics = archiveContentMemoryCacheStatistics;
+        return this;
+    }
 }
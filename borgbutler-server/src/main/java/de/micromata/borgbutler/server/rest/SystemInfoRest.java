@@ -1,6 +1,7 @@
 package de.micromata.borgbutler.server.rest;
 
 import de.micromata.borgbutler.BorgQueueExecutor;
+import de.micromata.borgbutler.cache.ButlerCache;
 import de.micromata.borgbutler.json.JsonUtils;
 import de.micromata.borgbutler.server.BorgInstallation;
 import de.micromata.borgbutler.server.BorgVersion;
@@ -28,7 +29,8 @@ public class SystemInfoRest {
         SystemInfo systemInfonfo = new SystemInfo()
                 .setQueueStatistics(BorgQueueExecutor.getInstance().getStatistics())
                 .setConfigurationOK(borgVersion.isVersionOK())
-                .setBorgVersion(borgVersion);
+                .setBorgVersion(borgVersion)
+                .setArchiveContentMemoryCacheStatistics(ButlerCache.getInstance().getArchiveContentMemoryCacheStatistics());
         return JsonUtils.toJson(systemInfonfo);
     }
 }
@@ -13,6 +13,7 @@ import {
     faSortDown,
     faSortUp,
     faSync,
+    faThumbtack,
     faTimes,
     faTrash,
     faUpload
@@ -73,6 +74,12 @@ function IconInfo() {
     );
 }
 
+function IconPin() {
+    return (
+        <FontAwesomeIcon icon={faThumbtack}/>
+    );
+}
+
 function IconRefresh() {
     return (
         <FontAwesomeIcon icon={faSync}/>
@@ -125,6 +132,7 @@ export {
     IconDanger,
     IconDownload,
     IconInfo,
+    IconPin,
     IconRefresh,
     IconRemove,
     IconSortDown,
@@ -59,6 +59,8 @@ class FileListEntry extends React.Component {
         let sizeCss = 'tt';
         let sizeTooltip = undefined;
         let sizeId = undefined;
+        let size = humanFileSize(entry.size, true, true);
+        let sizeTitle = undefined;
 
         let modeCss = 'tt';
         let modeTooltip = undefined;
@@ -137,6 +139,11 @@ class FileListEntry extends React.Component {
                     </UncontrolledTooltip>;
             }
         }
+        if (entry.type === 'd' && entry.subtreeSize !== undefined && !entry.diffStatus) {
+            // Total size of the whole sub tree of the directory (du):
+            size = humanFileSize(entry.subtreeSize, true, true);
+            sizeTitle = `${entry.subtreeFileCount} files`;
+        }
         if (pathtooltipText) {
             pathId = `path-${entry.fileNumber}-${entry.diffStatus}`;
             pathTooltip =
@@ -163,7 +170,7 @@ class FileListEntry extends React.Component {
                     {icon1}{icon1Tooltip} {icon2}{icon2Tooltip}
                 </td>
                 <td className={sizeCss} style={{textAlign: 'center'}}>
-                    <span id={sizeId}>{humanFileSize(entry.size, true, true)}</span>{sizeTooltip}
+                    <span id={sizeId} title={sizeTitle}>{size}</span>{sizeTooltip}
                 </td>
                 <td className={modeCss}>
                     <span id={modeId}>{entry.mode}</span>{modeTooltip}
@@ -59,6 +59,9 @@ class ConfigServerTab extends React.Component {
             webdevelopmentMode: false,
             showDemoRepos: true,
             maxArchiveContentCacheCapacityMb: 100,
+            maxArchiveContentMemoryCapacityMb: 250,
+            archiveContentCacheDir: '',
+            lowMemoryMode: false,
             borgCommand: null,
             borgBinary: null
         };
@@ -86,6 +89,9 @@ class ConfigServerTab extends React.Component {
             serverConfiguration: {
                 port: this.state.port,
                 maxArchiveContentCacheCapacityMb: this.state.maxArchiveContentCacheCapacityMb,
+                maxArchiveContentMemoryCapacityMb: this.state.maxArchiveContentMemoryCapacityMb,
+                archiveContentCacheDir: this.state.archiveContentCacheDir,
+                lowMemoryMode: this.state.lowMemoryMode,
                 webDevelopmentMode: this.state.webDevelopmentMode,
                 showDemoRepos: this.state.showDemoRepos,
                 borgCommand: this.state.borgCommand
@@ -170,6 +176,26 @@ class ConfigServerTab extends React.Component {
                                          onChange={this.handleTextChange}
                                          placeholder="Enter maximum Capacity"
                                          hint={`Limits the cache size of archive file lists in the local cache directory: ${this.state.cacheDir}`}/>
+                    <FormLabelInputField label={'Maximum memory capacity (MB)'} fieldLength={2} type="number" min={0}
+                                         max={10000}
+                                         step={50}
+                                         name={'maxArchiveContentMemoryCapacityMb'}
+                                         value={this.state.maxArchiveContentMemoryCapacityMb}
+                                         onChange={this.handleTextChange}
+                                         placeholder="Enter maximum Capacity"
+                                         hint={'Limits the heap memory used for the file lists of the most recently browsed archives (0 disables the memory cache). A restart is required.'}/>
+                    <FormLabelInputField label={'Archive content cache directory'} fieldLength={6}
+                                         name={'archiveContentCacheDir'}
+                                         value={this.state.archiveContentCacheDir}
+                                         onChange={this.handleTextChange}
+                                         placeholder={this.state.cacheDir}
+                                         hint={'Directory of the cached archive file lists (default is the local cache directory). May be shared by several BorgButler instances (also on a shared mount). A restart is required.'}/>
+                    <FormLabelField label={'Low memory mode'} fieldLength={2}>
+                        <FormCheckbox checked={this.state.lowMemoryMode}
+                                      hint={'If true, the file lists of archives are never held completely in memory (for hosts with small heaps). Browsing and diffs read the cached file lists for every request, so they are slower.'}
+                                      name="lowMemoryMode"
+                                      onChange={this.handleCheckboxChange}/>
+                    </FormLabelField>
                     <FormLabelField label={'Show demo repositories'} fieldLength={2}>
                         <FormCheckbox checked={this.state.showDemoRepos}
                                       hint={'If true, some demo repositories are shown for testing the functionality of BorgButler without any further configuration and running borg backups.'}
@@ -5,7 +5,7 @@ import classNames from 'classnames';
 import {PageHeader} from '../../general/BootstrapComponents';
 import {getRestServiceUrl, humanFileSize} from '../../../utilities/global';
 import ErrorAlert from '../../general/ErrorAlert';
-import {IconCheck, IconRefresh} from '../../general/IconComponents';
+import {IconCheck, IconPin, IconRefresh} from '../../general/IconComponents';
 import JobMonitorPanel from '../jobs/JobMonitorPanel';
 import RepoConfigPanel from "./RepoConfigPanel";
 
@@ -53,6 +53,23 @@ class RepoArchiveListView extends React.Component {
             });
     };
 
+    togglePinned = archive => () => {
+        fetch(getRestServiceUrl('archives/pin', {
+            repo: this.state.id,
+            archiveId: archive.id,
+            pinned: !archive.fileListPinned
+        }), {
+            method: 'GET',
+            headers: {
+                'Accept': 'application/json'
+            }
+        })
+            .then(() => this.fetchRepo())
+            .catch((error) => {
+                console.log(error, "Oups, what's happened?")
+            });
+    };
+
     toggleTab = tab => () => {
         this.setState({
             activeTab: tab
@@ -178,7 +195,14 @@ class RepoArchiveListView extends React.Component {
                         // Return the element. Also pass key
                         let loaded = '';
                         if (archive.fileListAlreadyCached) {
-                            loaded = <IconCheck/>;
+                            loaded = <React.Fragment>
+                                <IconCheck/>{' '}
+                                <span onClick={this.togglePinned(archive)} style={{cursor: 'pointer'}}
+                                      className={archive.fileListPinned ? null : 'text-muted'}
+                                      title={archive.fileListPinned ? 'Pinned in cache (click for unpinning).' : 'Click for pinning in cache (never evicted).'}>
+                                    <IconPin/>
+                                </span>
+                            </React.Fragment>;
                         }
                         return (
                             <tr key={archive.id}>
@@ -53,6 +53,11 @@ class RepoConfigBasePanel extends React.Component {
                                      onChange={this.props.handleRepoConfigChange}
                                      placeholder="Enter the rsh value (ssh command) for remote repository."
                                      className={!this.props.remote ? 'hidden' : null}/>
+                <FormLabelInputField label={'Cache quota (MB)'} fieldLength={2} type="number" min={0} step={50}
+                                     name={'maxArchiveContentCacheCapacityMb'}
+                                     value={this.props.repoConfig.maxArchiveContentCacheCapacityMb}
+                                     onChange={this.props.handleRepoConfigChange}
+                                     hint={'Limits the cache size of archive file lists of this repo (0 means no quota, only the maximum disc capacity of the whole cache is used).'}/>
             </React.Fragment>
         );
     }